@@ -29,6 +29,7 @@ import javax.servlet.ServletSecurityElement;
 import javax.servlet.descriptor.JspConfigDescriptor;
 
 import org.apache.catalina.deploy.NamingResourcesImpl;
+import org.apache.coyote.RequestPhase;
 import org.apache.tomcat.ContextBind;
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.JarScanner;
@@ -1224,6 +1225,18 @@ public interface Context extends Container, ContextBind {
      */
     public void reload();
 
+    /**
+     * Record the time spent in a phase of processing a request for this web
+     * application. This is only called when phase timing is enabled on the
+     * Connector. The default implementation does nothing.
+     *
+     * @param phase The phase
+     * @param nanos The time spent in the phase in nanoseconds
+     */
+    public default void recordPhaseTime(RequestPhase phase, long nanos) {
+        // NO-OP
+    }
+
 
     /**
      * Remove the specified application listener class from the set of
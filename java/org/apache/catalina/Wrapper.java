@@ -275,6 +275,21 @@ public interface Wrapper extends Container {
     public void incrementErrorCount();
 
 
+    /**
+     * Record the number of bytes allocated by the container thread while
+     * processing a request for this servlet, excluding those allocated by the
+     * servlet itself. This is only called when allocation tracking is enabled
+     * on the Connector. The default implementation does nothing.
+     *
+     * @param bytes  The number of bytes allocated
+     * @param budget The number of bytes a request may allocate before a
+     *               warning is logged or less than zero for no limit
+     */
+    public default void recordAllocation(long bytes, long budget) {
+        // NO-OP
+    }
+
+
     /**
      * Load and initialize an instance of this Servlet, if there is not already
      * at least one initialized instance.  This can be used, for example, to
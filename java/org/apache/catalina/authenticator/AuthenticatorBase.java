@@ -62,6 +62,7 @@ import org.apache.catalina.util.StandardSessionIdGenerator;
 import org.apache.catalina.valves.RemoteIpValve;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -498,6 +499,24 @@ public abstract class AuthenticatorBase extends ValveBase
      */
     @Override
     public void invoke(Request request, Response response) throws IOException, ServletException {
+        org.apache.coyote.Request coyoteRequest = request.getCoyoteRequest();
+        if (coyoteRequest == null || !coyoteRequest.isPhaseTiming() ||
+                request.isAsyncDispatching()) {
+            // Async dispatches are not timed as the times have already been
+            // recorded by the time they run
+            doInvoke(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            doInvoke(request, response);
+        } finally {
+            coyoteRequest.addPhaseTime(RequestPhase.AUTHENTICATION, System.nanoTime() - start);
+        }
+    }
+
+
+    private void doInvoke(Request request, Response response) throws IOException, ServletException {
 
         if (log.isDebugEnabled()) {
             log.debug("Security checking request " + request.getMethod() + " " +
@@ -538,7 +557,7 @@ public abstract class AuthenticatorBase extends ValveBase
             if (log.isDebugEnabled()) {
                 log.debug("Not subject to any constraint");
             }
-            getNext().invoke(request, response);
+            invokeNext(request, response);
             return;
         }
 
@@ -612,7 +631,7 @@ public abstract class AuthenticatorBase extends ValveBase
             if (log.isDebugEnabled()) {
                 log.debug("CORS Preflight request bypassing authentication");
             }
-            getNext().invoke(request, response);
+            invokeNext(request, response);
             return;
         }
 
@@ -663,7 +682,7 @@ public abstract class AuthenticatorBase extends ValveBase
         if (log.isDebugEnabled()) {
             log.debug("Successfully passed all security constraints");
         }
-        getNext().invoke(request, response);
+        invokeNext(request, response);
 
         if (jaspicProvider != null) {
             secureResponseJspic(request, response, jaspicState);
@@ -671,6 +690,25 @@ public abstract class AuthenticatorBase extends ValveBase
     }
 
 
+    /*
+     * Invokes the next valve. When phase timing, the time spent in the rest of
+     * the pipeline is excluded from the authentication phase.
+     */
+    private void invokeNext(Request request, Response response) throws IOException, ServletException {
+        org.apache.coyote.Request coyoteRequest = request.getCoyoteRequest();
+        if (coyoteRequest == null || !coyoteRequest.isPhaseTiming()) {
+            getNext().invoke(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            coyoteRequest.addPhaseTime(RequestPhase.AUTHENTICATION, start - System.nanoTime());
+        }
+    }
+
+
     protected boolean allowCorsPreflightBypass(Request request) {
         boolean allowBypass = false;
 
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Reads the number of bytes allocated by the current thread using
+ * {@code com.sun.management.ThreadMXBean}. That interface is not part of the
+ * Java SE API so it is only used if the JVM provides it and supports the
+ * measurement of thread allocation.
+ */
+public final class AllocationTracker {
+
+    private static final Log log = LogFactory.getLog(AllocationTracker.class);
+    private static final StringManager sm = StringManager.getManager(AllocationTracker.class);
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN;
+
+    static {
+        com.sun.management.ThreadMXBean threadMXBean = null;
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                threadMXBean = (com.sun.management.ThreadMXBean) bean;
+                if (threadMXBean.isThreadAllocatedMemorySupported()) {
+                    if (!threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+                    }
+                } else {
+                    threadMXBean = null;
+                }
+            }
+        } catch (Throwable t) {
+            // Most likely a JVM without com.sun.management
+            ExceptionUtils.handleThrowable(t);
+            log.debug(sm.getString("allocationTracker.notSupported"), t);
+            threadMXBean = null;
+        }
+        THREAD_MX_BEAN = threadMXBean;
+    }
+
+
+    private AllocationTracker() {
+        // Utility class
+    }
+
+
+    /**
+     * @return {@code true} if the JVM supports measuring the bytes allocated
+     *         by a thread
+     */
+    static boolean isSupported() {
+        return THREAD_MX_BEAN != null;
+    }
+
+
+    /**
+     * @return The total number of bytes allocated by the current thread or -1
+     *         if this is not supported by the JVM
+     */
+    public static long getAllocatedBytes() {
+        if (THREAD_MX_BEAN == null) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -202,6 +202,26 @@ public class Connector extends LifecycleMBeanBase  {
      */
     private int maxCookieCount = 200;
 
+
+    /**
+     * Record the bytes allocated by the container thread for each request?
+     */
+    protected boolean trackAllocations = false;
+
+
+    /**
+     * The number of bytes a request may allocate, when allocation tracking is
+     * enabled, before a warning is logged. A value of less than zero means no
+     * limit.
+     */
+    protected long allocationBudget = -1;
+
+
+    /**
+     * Record the time spent in each phase of request processing?
+     */
+    protected boolean phaseTiming = false;
+
     /**
      * The maximum number of parameters (GET plus POST) which will be
      * automatically parsed by the container. 10000 by default. A value of less
@@ -446,6 +466,77 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * @return {@code true} if the bytes allocated by the container thread
+     *         are recorded for each request
+     */
+    public boolean getTrackAllocations() {
+        return trackAllocations;
+    }
+
+
+    /**
+     * Should the bytes allocated by the container thread, from the start of
+     * {@link CoyoteAdapter#service(org.apache.coyote.Request,
+     * org.apache.coyote.Response)} until the response is finished, be recorded
+     * for each request? The bytes allocated by the servlet itself are excluded.
+     * The bytes are recorded against the Wrapper that processed the request
+     * and are available to the access log. This
+     * requires a JVM that provides {@code com.sun.management.ThreadMXBean}.
+     *
+     * @param trackAllocations {@code true} to record the allocated bytes
+     */
+    public void setTrackAllocations(boolean trackAllocations) {
+        if (trackAllocations && !AllocationTracker.isSupported()) {
+            log.warn(sm.getString("coyoteConnector.allocationTrackingNotSupported"));
+        }
+        this.trackAllocations = trackAllocations;
+    }
+
+
+    /**
+     * @return the number of bytes a request may allocate before a warning is
+     *         logged
+     */
+    public long getAllocationBudget() {
+        return allocationBudget;
+    }
+
+
+    /**
+     * Set the number of bytes a request may allocate, when allocation tracking
+     * is enabled, before a warning is logged.
+     *
+     * @param allocationBudget The budget in bytes or less than zero for no
+     *                         limit
+     */
+    public void setAllocationBudget(long allocationBudget) {
+        this.allocationBudget = allocationBudget;
+    }
+
+
+    /**
+     * @return {@code true} if the time spent in each phase of request
+     *         processing is recorded
+     */
+    public boolean getPhaseTiming() {
+        return phaseTiming;
+    }
+
+
+    /**
+     * Should the time spent in each {@link org.apache.coyote.RequestPhase} be
+     * recorded for each request? The times are recorded against the Context
+     * that processed the request and are available to the access log.
+     *
+     * @param phaseTiming {@code true} to record the phase times
+     */
+    public void setPhaseTiming(boolean phaseTiming) {
+        this.phaseTiming = phaseTiming;
+        setProperty("phaseTiming", String.valueOf(phaseTiming));
+    }
+
+
     /**
      * @return the maximum number of parameters (GET plus POST) that will be
      * automatically parsed by the container. A value of less than 0 means no
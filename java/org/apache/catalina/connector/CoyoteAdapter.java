@@ -40,6 +40,7 @@ import org.apache.catalina.util.SessionConfig;
 import org.apache.catalina.util.URLEncoder;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Adapter;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -344,6 +345,20 @@ public class CoyoteAdapter implements Adapter {
 
         boolean async = false;
         boolean postParseSuccess = false;
+        long allocationStart = -1;
+        if (connector.getTrackAllocations()) {
+            allocationStart = AllocationTracker.getAllocatedBytes();
+        }
+        boolean phaseTiming = connector.getPhaseTiming();
+        long phaseStart = 0;
+        req.setPhaseTiming(phaseTiming);
+        if (phaseTiming) {
+            phaseStart = System.nanoTime();
+            // Not set for the first request after phase timing is enabled
+            if (req.getStartTimeNanos() >= 0) {
+                req.addPhaseTime(RequestPhase.PARSE, phaseStart - req.getStartTimeNanos());
+            }
+        }
 
         req.getRequestProcessor().setWorkerThreadName(THREAD_NAME.get());
 
@@ -352,6 +367,9 @@ public class CoyoteAdapter implements Adapter {
             // 解析并设置 Catalina 和特定于配置的请求参数
             /** 这里面决定了调用哪个 context、wrapper */
             postParseSuccess = postParseRequest(req, request, res, response);
+            if (phaseTiming) {
+                phaseStart = addPhaseTime(req, RequestPhase.MAPPING, phaseStart);
+            }
             if (postParseSuccess) {
                 //check valves if we support async
                 request.setAsyncSupported(
@@ -363,6 +381,16 @@ public class CoyoteAdapter implements Adapter {
                 // 这里的 connector 和 adapter 的互相引用建立过程，发生在 connector 的 init 阶段。
                 connector.getService().getContainer().getPipeline().getFirst().invoke(
                         request, response);
+                if (phaseTiming) {
+                    // The time of the phases nested within the pipeline has
+                    // already been recorded
+                    long now = System.nanoTime();
+                    req.addPhaseTime(RequestPhase.VALVES, now - phaseStart -
+                            req.getPhaseTime(RequestPhase.AUTHENTICATION) -
+                            req.getPhaseTime(RequestPhase.FILTERS) -
+                            req.getPhaseTime(RequestPhase.SERVLET));
+                    phaseStart = now;
+                }
             }
             if (request.isAsync()) {
                 async = true;
@@ -395,6 +423,9 @@ public class CoyoteAdapter implements Adapter {
                 request.finishRequest();
                 // 把流推给客户端
                 response.finishResponse();
+                if (phaseTiming) {
+                    addPhaseTime(req, RequestPhase.COMMIT, phaseStart);
+                }
             }
 
         } catch (IOException e) {
@@ -411,6 +442,13 @@ public class CoyoteAdapter implements Adapter {
                 async = false;
             }
 
+            if (allocationStart >= 0 && postParseSuccess) {
+                recordAllocation(request, allocationStart);
+            }
+            if (phaseTiming && postParseSuccess) {
+                recordPhaseTimes(req, request.getContext());
+            }
+
             // Access log
             if (!async && postParseSuccess) {
                 // Log only if processing was invoked.
@@ -450,6 +488,46 @@ public class CoyoteAdapter implements Adapter {
     }
 
 
+    /*
+     * Only the container thread that calls service() is measured. Any further
+     * processing of an asynchronous request on other threads is not included.
+     * The bytes allocated by the servlet are recorded separately by the filter
+     * chain so the budget only applies to the container.
+     */
+    private void recordAllocation(Request request, long allocationStart) {
+        long allocatedBytes = AllocationTracker.getAllocatedBytes() - allocationStart;
+        long servletAllocatedBytes = request.getServletAllocatedBytes();
+        if (servletAllocatedBytes > 0) {
+            allocatedBytes -= servletAllocatedBytes;
+        }
+        request.setAllocatedBytes(allocatedBytes);
+        Wrapper wrapper = request.getWrapper();
+        if (wrapper != null) {
+            wrapper.recordAllocation(allocatedBytes, connector.getAllocationBudget());
+        }
+    }
+
+
+    private static long addPhaseTime(org.apache.coyote.Request req, RequestPhase phase, long start) {
+        long now = System.nanoTime();
+        req.addPhaseTime(phase, now - start);
+        return now;
+    }
+
+
+    /*
+     * As with allocations, only the container thread that calls service() is
+     * measured.
+     */
+    private static void recordPhaseTimes(org.apache.coyote.Request req, Context context) {
+        if (context != null) {
+            for (RequestPhase phase : RequestPhase.values()) {
+                context.recordPhaseTime(phase, req.getPhaseTime(phase));
+            }
+        }
+    }
+
+
     private void updateWrapperErrorCount(Request request, Response response) {
         if (response.isError()) {
             Wrapper wrapper = request.getWrapper();
@@ -235,6 +235,21 @@ public class Request implements HttpServletRequest {
     protected boolean sslAttributesParsed = false;
 
 
+    /**
+     * The bytes allocated by the container thread while processing this
+     * request, excluding those allocated by the servlet, or -1 if allocation
+     * tracking is not enabled.
+     */
+    protected long allocatedBytes = -1;
+
+
+    /**
+     * The bytes allocated by the servlet while processing this request or -1
+     * if allocation tracking is not enabled or the servlet was not called.
+     */
+    protected long servletAllocatedBytes = -1;
+
+
     /**
      * The preferred Locales associated with this Request.
      */
@@ -493,6 +508,8 @@ public class Request implements HttpServletRequest {
         attributes.clear();
         sslAttributesParsed = false;
         notes.clear();
+        allocatedBytes = -1;
+        servletAllocatedBytes = -1;
 
         recycleSessionInfo();
         recycleCookieInfo(false);
@@ -746,6 +763,47 @@ public class Request implements HttpServletRequest {
     }
 
 
+    /**
+     * @return the bytes allocated by the container thread while processing
+     *         this request, excluding those allocated by the servlet, or -1 if
+     *         allocation tracking is not enabled on the Connector
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+
+    /**
+     * Set the bytes allocated by the container thread while processing this
+     * request, excluding those allocated by the servlet.
+     *
+     * @param allocatedBytes The allocated bytes
+     */
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+
+    /**
+     * @return the bytes allocated by the servlet while processing this request
+     *         or -1 if allocation tracking is not enabled on the Connector or
+     *         the servlet was not called
+     */
+    public long getServletAllocatedBytes() {
+        return servletAllocatedBytes;
+    }
+
+
+    /**
+     * Set the bytes allocated by the servlet while processing this request.
+     *
+     * @param servletAllocatedBytes The allocated bytes
+     */
+    public void setServletAllocatedBytes(long servletAllocatedBytes) {
+        this.servletAllocatedBytes = servletAllocatedBytes;
+    }
+
+
     // ------------------------------------------------- Request Public Methods
 
     /**
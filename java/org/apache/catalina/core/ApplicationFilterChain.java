@@ -31,7 +31,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.Globals;
+import org.apache.catalina.connector.AllocationTracker;
+import org.apache.catalina.connector.Request;
 import org.apache.catalina.security.SecurityUtil;
+import org.apache.coyote.RequestPhase;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -98,6 +101,19 @@ public final class ApplicationFilterChain implements FilterChain {
      */
     private boolean servletSupportsAsync = false;
 
+
+    /**
+     * The request to record the time spent in the servlet against, if phase
+     * timing is enabled.
+     */
+    private org.apache.coyote.Request phaseTimingRequest = null;
+
+    /**
+     * The request to record the bytes allocated by the servlet against, if
+     * allocation tracking is enabled.
+     */
+    private Request allocationRequest = null;
+
     /**
      * The string manager for our package.
      */
@@ -205,6 +221,9 @@ public final class ApplicationFilterChain implements FilterChain {
 
         // We fell off the end of the chain -- call the servlet instance  （我们掉到了链的末端-调用servlet实例）
         // filter过完了，执行servlet了。
+        long servletStart = phaseTimingRequest == null ? 0 : System.nanoTime();
+        long servletAllocationStart =
+                allocationRequest == null ? 0 : AllocationTracker.getAllocatedBytes();
         try {
             if (ApplicationDispatcher.WRAP_SAME_OBJECT) {
                 lastServicedRequest.set(request);
@@ -246,6 +265,16 @@ public final class ApplicationFilterChain implements FilterChain {
                 lastServicedRequest.set(null);
                 lastServicedResponse.set(null);
             }
+            if (phaseTimingRequest != null) {
+                // The caller records the time of the whole chain as filters
+                long servletTime = System.nanoTime() - servletStart;
+                phaseTimingRequest.addPhaseTime(RequestPhase.SERVLET, servletTime);
+                phaseTimingRequest.addPhaseTime(RequestPhase.FILTERS, -servletTime);
+            }
+            if (allocationRequest != null) {
+                allocationRequest.setServletAllocatedBytes(
+                        AllocationTracker.getAllocatedBytes() - servletAllocationStart);
+            }
         }
     }
 
@@ -308,6 +337,8 @@ public final class ApplicationFilterChain implements FilterChain {
         pos = 0;
         servlet = null;
         servletSupportsAsync = false;
+        phaseTimingRequest = null;
+        allocationRequest = null;
     }
 
 
@@ -334,6 +365,16 @@ public final class ApplicationFilterChain implements FilterChain {
     }
 
 
+    void setPhaseTimingRequest(org.apache.coyote.Request phaseTimingRequest) {
+        this.phaseTimingRequest = phaseTimingRequest;
+    }
+
+
+    void setAllocationRequest(Request allocationRequest) {
+        this.allocationRequest = allocationRequest;
+    }
+
+
     /**
      * Identifies the Filters, if any, in this FilterChain that do not support
      * async.
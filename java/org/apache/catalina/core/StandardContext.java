@@ -41,6 +41,7 @@ import java.util.Stack;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -107,6 +108,7 @@ import org.apache.catalina.util.ErrorPageSupport;
 import org.apache.catalina.util.ExtensionValidator;
 import org.apache.catalina.util.URLEncoder;
 import org.apache.catalina.webresources.StandardRoot;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.naming.ContextBindings;
@@ -134,6 +136,7 @@ import org.apache.tomcat.util.http.Rfc6265CookieProcessor;
 import org.apache.tomcat.util.scan.StandardJarScanner;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
+import org.apache.tomcat.util.threads.LatencyHistogram;
 
 /**
  * Standard implementation of the <b>Context</b> interface.  Each
@@ -826,6 +829,17 @@ public class StandardContext extends ContainerBase
 
     private final AtomicLong inProgressAsyncCount = new AtomicLong(0);
 
+    /**
+     * The time spent in each {@link RequestPhase}, indexed by ordinal, when
+     * phase timing is enabled on the Connector.
+     */
+    private final LatencyHistogram[] phaseHistograms = new LatencyHistogram[RequestPhase.values().length];
+    {
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new LatencyHistogram();
+        }
+    }
+
     private boolean createUploadTargets = false;
 
 
@@ -4354,6 +4368,52 @@ public class StandardContext extends ContainerBase
     }
 
 
+    @Override
+    public void recordPhaseTime(RequestPhase phase, long nanos) {
+        phaseHistograms[phase.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * @param phase The phase
+     *
+     * @return the histogram of the time spent in the given phase by requests
+     *         processed by this web application
+     */
+    public LatencyHistogram getPhaseHistogram(RequestPhase phase) {
+        return phaseHistograms[phase.ordinal()];
+    }
+
+
+    /**
+     * Gets a percentile of the time spent in a phase of request processing
+     * when phase timing is enabled on the Connector.
+     *
+     * @param phase      The name of the phase, e.g. "servlet"
+     * @param percentile The percentile, between 0 and 100
+     *
+     * @return The percentile in microseconds or zero if no requests have been
+     *         recorded
+     */
+    public long getPhaseTimePercentile(String phase, double percentile) {
+        RequestPhase requestPhase = RequestPhase.forName(phase);
+        if (requestPhase == null) {
+            throw new IllegalArgumentException(sm.getString("standardContext.phaseUnknown", phase));
+        }
+        return phaseHistograms[requestPhase.ordinal()].getPercentile(percentile);
+    }
+
+
+    /**
+     * Clear the recorded request phase times.
+     */
+    public void resetPhaseStatistics() {
+        for (LatencyHistogram histogram : phaseHistograms) {
+            histogram.reset();
+        }
+    }
+
+
     /**
      * Return the real path for a given virtual path, if possible; otherwise
      * return <code>null</code>.
@@ -95,6 +95,30 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     protected long threadRenewalDelay =
         org.apache.tomcat.util.threads.Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Adjust the maximum number of threads, between minSpareThreads and
+     * maxThreads, to keep the queue wait of tasks below the target?
+     */
+    protected boolean adaptiveSizing = false;
+
+    /**
+     * Target, in milliseconds, for the queue wait of tasks when adaptive
+     * sizing is enabled.
+     */
+    protected long adaptiveQueueWaitTarget = 10;
+
+    /**
+     * The percentile of queue wait compared with the target when adaptive
+     * sizing is enabled.
+     */
+    protected double adaptiveQueueWaitPercentile = 99;
+
+    /**
+     * Record the queue wait and service time of tasks? Always enabled when
+     * adaptive sizing is enabled.
+     */
+    protected boolean latencyTracking = false;
+
     private TaskQueue taskqueue = null;
     // ---------------------------------------------- Constructors
     public StandardThreadExecutor() {
@@ -124,6 +148,10 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix,daemon,getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
         executor.setThreadRenewalDelay(threadRenewalDelay);
+        executor.setLatencyTracking(latencyTracking);
+        executor.setAdaptiveQueueWaitTarget(adaptiveQueueWaitTarget);
+        executor.setAdaptiveQueueWaitPercentile(adaptiveQueueWaitPercentile);
+        executor.setAdaptiveSizing(adaptiveSizing);
         if (prestartminSpareThreads) {
             executor.prestartAllCoreThreads();
         }
@@ -285,6 +313,50 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         }
     }
 
+    public boolean isAdaptiveSizing() {
+        return adaptiveSizing;
+    }
+
+    public void setAdaptiveSizing(boolean adaptiveSizing) {
+        this.adaptiveSizing = adaptiveSizing;
+        if (executor != null) {
+            executor.setAdaptiveSizing(adaptiveSizing);
+        }
+    }
+
+    public long getAdaptiveQueueWaitTarget() {
+        return adaptiveQueueWaitTarget;
+    }
+
+    public void setAdaptiveQueueWaitTarget(long adaptiveQueueWaitTarget) {
+        this.adaptiveQueueWaitTarget = adaptiveQueueWaitTarget;
+        if (executor != null) {
+            executor.setAdaptiveQueueWaitTarget(adaptiveQueueWaitTarget);
+        }
+    }
+
+    public double getAdaptiveQueueWaitPercentile() {
+        return adaptiveQueueWaitPercentile;
+    }
+
+    public void setAdaptiveQueueWaitPercentile(double adaptiveQueueWaitPercentile) {
+        this.adaptiveQueueWaitPercentile = adaptiveQueueWaitPercentile;
+        if (executor != null) {
+            executor.setAdaptiveQueueWaitPercentile(adaptiveQueueWaitPercentile);
+        }
+    }
+
+    public boolean isLatencyTracking() {
+        return latencyTracking;
+    }
+
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+        if (executor != null) {
+            executor.setLatencyTracking(latencyTracking);
+        }
+    }
+
     // Statistics from the thread pool
     @Override
     public int getActiveCount() {
@@ -312,6 +384,46 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         return (executor != null) ? executor.getQueue().size() : -1;
     }
 
+    /**
+     * @return the current maximum number of threads. This is lower than
+     *         maxThreads when adaptive sizing has reduced it.
+     */
+    public int getCurrentMaxThreads() {
+        return (executor != null) ? executor.getMaximumPoolSize() : 0;
+    }
+
+    // Latency percentiles are in microseconds
+    public long getQueueWait50thPercentile() {
+        return (executor != null) ? executor.getQueueWaitHistogram().getPercentile(50) : -1;
+    }
+
+    public long getQueueWait90thPercentile() {
+        return (executor != null) ? executor.getQueueWaitHistogram().getPercentile(90) : -1;
+    }
+
+    public long getQueueWait99thPercentile() {
+        return (executor != null) ? executor.getQueueWaitHistogram().getPercentile(99) : -1;
+    }
+
+    public long getQueueWait999thPercentile() {
+        return (executor != null) ? executor.getQueueWaitHistogram().getPercentile(99.9) : -1;
+    }
+
+    public long getServiceTime50thPercentile() {
+        return (executor != null) ? executor.getServiceTimeHistogram().getPercentile(50) : -1;
+    }
+
+    public long getServiceTime99thPercentile() {
+        return (executor != null) ? executor.getServiceTimeHistogram().getPercentile(99) : -1;
+    }
+
+    public void resetLatencyStatistics() {
+        if (executor != null) {
+            executor.getQueueWaitHistogram().reset();
+            executor.getServiceTimeHistogram().reset();
+        }
+    }
+
 
     @Override
     public boolean resizePool(int corePoolSize, int maximumPoolSize) {
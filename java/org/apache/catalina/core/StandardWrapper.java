@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.ListenerNotFoundException;
@@ -61,6 +62,7 @@ import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.log.SystemLogHandler;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.modeler.Util;
+import org.apache.tomcat.util.threads.LatencyHistogram;
 
 /**
  * Standard implementation of the <b>Wrapper</b> interface that represents
@@ -118,6 +120,21 @@ public class StandardWrapper extends ContainerBase
     protected final AtomicInteger countAllocated = new AtomicInteger(0);
 
 
+    /**
+     * The bytes allocated by the container thread for each request, excluding
+     * those allocated by the servlet, if allocation tracking is enabled on the
+     * Connector.
+     */
+    protected final LatencyHistogram allocationHistogram = new LatencyHistogram();
+
+
+    /**
+     * The number of requests that allocated more than the Connector's
+     * allocation budget.
+     */
+    protected final AtomicLong allocationBudgetExceededCount = new AtomicLong(0);
+
+
     /**
      * The facade associated with this wrapper.
      */
@@ -1459,6 +1476,57 @@ public class StandardWrapper extends ContainerBase
         swValve.incrementErrorCount();
     }
 
+    @Override
+    public void recordAllocation(long bytes, long budget) {
+        allocationHistogram.record(bytes);
+        if (budget >= 0 && bytes > budget) {
+            // Only warn once per servlet so a servlet that is always over
+            // budget does not flood the log
+            if (allocationBudgetExceededCount.getAndIncrement() == 0) {
+                log.warn(sm.getString("standardWrapper.allocationBudgetExceeded", getName(),
+                        getParent() == null ? null : getParent().getName(),
+                        Long.valueOf(bytes), Long.valueOf(budget)));
+            } else if (log.isDebugEnabled()) {
+                log.debug(sm.getString("standardWrapper.allocationBudgetExceeded", getName(),
+                        getParent() == null ? null : getParent().getName(),
+                        Long.valueOf(bytes), Long.valueOf(budget)));
+            }
+        }
+    }
+
+    public LatencyHistogram getAllocationHistogram() {
+        return allocationHistogram;
+    }
+
+    public long getAllocationCount() {
+        return allocationHistogram.getCount();
+    }
+
+    public long getAllocatedBytes50thPercentile() {
+        return allocationHistogram.getPercentile(50);
+    }
+
+    public long getAllocatedBytes90thPercentile() {
+        return allocationHistogram.getPercentile(90);
+    }
+
+    public long getAllocatedBytes99thPercentile() {
+        return allocationHistogram.getPercentile(99);
+    }
+
+    public long getAllocationBudgetExceededCount() {
+        return allocationBudgetExceededCount.get();
+    }
+
+    /**
+     * Clear the recorded allocations. A warning will be logged again the
+     * next time a request exceeds the allocation budget.
+     */
+    public void resetAllocationStatistics() {
+        allocationHistogram.reset();
+        allocationBudgetExceededCount.set(0);
+    }
+
     public long getLoadTime() {
         return loadTime;
     }
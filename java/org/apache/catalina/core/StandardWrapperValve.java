@@ -38,6 +38,7 @@ import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.coyote.CloseNowException;
+import org.apache.coyote.RequestPhase;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.log.SystemLogHandler;
@@ -173,6 +174,18 @@ final class StandardWrapperValve
         // Create the filter chain for this request  （为此请求创建filter链）
         ApplicationFilterChain filterChain =
                 ApplicationFilterFactory.createFilterChain(request, wrapper, servlet);
+        org.apache.coyote.Request coyoteRequest = request.getCoyoteRequest();
+        boolean phaseTiming = filterChain != null && coyoteRequest != null &&
+                coyoteRequest.isPhaseTiming() && !request.isAsyncDispatching();
+        long filterChainStart = 0;
+        if (phaseTiming) {
+            filterChain.setPhaseTimingRequest(coyoteRequest);
+            filterChainStart = System.nanoTime();
+        }
+        if (filterChain != null && request.getConnector() != null &&
+                request.getConnector().getTrackAllocations() && !request.isAsyncDispatching()) {
+            filterChain.setAllocationRequest(request);
+        }
 
         // Call the filter chain for this request                   （为这个请求调用filter链）
         // NOTE: This also calls the servlet's service() method     （注意：这也会调用servlet的service()方法）
@@ -261,6 +274,11 @@ final class StandardWrapperValve
             throwable = e;
             exception(request, response, e);
         } finally {
+            if (phaseTiming) {
+                // The filter chain has already moved the time spent in the
+                // servlet from filters to servlet
+                coyoteRequest.addPhaseTime(RequestPhase.FILTERS, System.nanoTime() - filterChainStart);
+            }
             // Release the filter chain (if any) for this request
             if (filterChain != null) {
                 filterChain.release();
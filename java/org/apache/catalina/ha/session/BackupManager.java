@@ -164,6 +164,19 @@ public class BackupManager extends ClusterManagerBase
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Always {@code false} as sessions replicated from, or made primary by,
+     * other nodes are added to the session map directly rather than via
+     * {@link #add(Session)} so every session has to be checked.
+     */
+    @Override
+    public boolean getUseExpirationIndex() {
+        return false;
+    }
+
+
     /**
      * Stop this component and implement the requirements
      * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
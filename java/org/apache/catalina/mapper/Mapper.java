@@ -53,6 +53,13 @@ public final class Mapper {
 
     private static final StringManager sm = StringManager.getManager(Mapper.class);
 
+    /**
+     * The minimum number of contexts in a host, or of exact and prefix
+     * mappings in a context, for which a {@link MappingTrie} is used. Below
+     * this the binary search of the sorted arrays is at least as fast.
+     */
+    static final int TRIE_THRESHOLD = 8;
+
     // ----------------------------------------------------- Instance Variables
 
 
@@ -782,43 +789,51 @@ public final class Mapper {
         // Context mapping
         ContextList contextList = mappedHost.contextList;
         MappedContext[] contexts = contextList.contexts;
-        int pos = find(contexts, uri);
-        if (pos == -1) {
-            return;
-        }
-
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
         MappedContext context = null;
-        while (pos >= 0) {
-            context = contexts[pos];
-            if (uri.startsWith(context.name)) {
-                length = context.name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
-                }
+        MappingTrie<MappedContext> contextTrie = contextList.getTrie();
+        if (contextTrie != null) {
+            context = contextTrie.findLongestPrefix(uri.getBuffer(), uri.getStart(), uri.getEnd());
+            if (context == null && contexts[0].name.equals("")) {
+                context = contexts[0];
             }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, contextList.nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
+        } else {
+            int pos = find(contexts, uri);
+            if (pos == -1) {
+                return;
             }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
 
-        if (!found) {
-            if (contexts[0].name.equals("")) {
-                context = contexts[0];
-            } else {
-                context = null;
+            int lastSlash = -1;
+            int uriEnd = uri.getEnd();
+            int length = -1;
+            boolean found = false;
+            while (pos >= 0) {
+                context = contexts[pos];
+                if (uri.startsWith(context.name)) {
+                    length = context.name.length();
+                    if (uri.getLength() == length) {
+                        found = true;
+                        break;
+                    } else if (uri.startsWithIgnoreCase("/", length)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (lastSlash == -1) {
+                    lastSlash = nthSlash(uri, contextList.nesting + 1);
+                } else {
+                    lastSlash = lastSlash(uri);
+                }
+                uri.setEnd(lastSlash);
+                pos = find(contexts, uri);
+            }
+            uri.setEnd(uriEnd);
+
+            if (!found) {
+                if (contexts[0].name.equals("")) {
+                    context = contexts[0];
+                } else {
+                    context = null;
+                }
             }
         }
         if (context == null) {
@@ -878,13 +893,15 @@ public final class Mapper {
 
         // Rule 1 -- Exact Match
         MappedWrapper[] exactWrappers = contextVersion.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
+        MappingTrie<MappedWrapper> wrapperTrie =
+                contextVersion.getWrapperTrie(exactWrappers, wildcardWrappers);
+        internalMapExactWrapper(exactWrappers, wrapperTrie, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
+            internalMapWildcardWrapper(wildcardWrappers, wrapperTrie, contextVersion.nesting,
                                        path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
@@ -943,12 +960,12 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(exactWrappers, wrapperTrie, path, mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
+                            (wildcardWrappers, wrapperTrie, contextVersion.nesting,
                              path, mappingData);
                     }
 
@@ -1069,8 +1086,14 @@ public final class Mapper {
      */
     @SuppressWarnings("deprecation") // contextPath
     private final void internalMapExactWrapper
-        (MappedWrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        MappedWrapper wrapper = exactFind(wrappers, path);
+        (MappedWrapper[] wrappers, MappingTrie<MappedWrapper> trie,
+         CharChunk path, MappingData mappingData) {
+        MappedWrapper wrapper;
+        if (trie != null) {
+            wrapper = trie.findExact(path.getBuffer(), path.getStart(), path.getEnd());
+        } else {
+            wrapper = exactFind(wrappers, path);
+        }
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1093,50 +1116,54 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (MappedWrapper[] wrappers, int nesting, CharChunk path,
-         MappingData mappingData) {
+        (MappedWrapper[] wrappers, MappingTrie<MappedWrapper> trie, int nesting,
+         CharChunk path, MappingData mappingData) {
 
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
+        MappedWrapper wrapper = null;
+        if (trie != null) {
+            wrapper = trie.findLongestPrefix(path.getBuffer(), path.getStart(), path.getEnd());
+        } else {
+            int pathEnd = path.getEnd();
+
+            int lastSlash = -1;
+            int pos = find(wrappers, path);
+            if (pos != -1) {
+                while (pos >= 0) {
+                    if (path.startsWith(wrappers[pos].name)) {
+                        int length = wrappers[pos].name.length();
+                        if (path.getLength() == length) {
+                            wrapper = wrappers[pos];
+                            break;
+                        } else if (path.startsWithIgnoreCase("/", length)) {
+                            wrapper = wrappers[pos];
+                            break;
+                        }
                     }
+                    if (lastSlash == -1) {
+                        lastSlash = nthSlash(path, nesting + 1);
+                    } else {
+                        lastSlash = lastSlash(path);
+                    }
+                    path.setEnd(lastSlash);
+                    pos = find(wrappers, path);
                 }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
+                path.setEnd(pathEnd);
             }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
-                mappingData.matchType = MappingMatch.PATH;
+        }
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
+            mappingData.matchType = MappingMatch.PATH;
         }
     }
 
@@ -1662,6 +1689,9 @@ public final class Mapper {
 
         public final MappedContext[] contexts;
         public final int nesting;
+        // Built on first use since the list is replaced as a whole when a
+        // context is added or removed
+        private volatile MappingTrie<MappedContext> trie;
 
         public ContextList() {
             this(new MappedContext[0], 0);
@@ -1693,6 +1723,22 @@ public final class Mapper {
             }
             return null;
         }
+
+        /**
+         * @return The trie of the context paths or {@code null} if the
+         *         contexts should be searched with a binary search
+         */
+        MappingTrie<MappedContext> getTrie() {
+            if (contexts.length < TRIE_THRESHOLD) {
+                return null;
+            }
+            MappingTrie<MappedContext> trie = this.trie;
+            if (trie == null) {
+                trie = new MappingTrie<>(new MappedContext[0], contexts);
+                this.trie = trie;
+            }
+            return trie.isComplete() ? trie : null;
+        }
     }
 
 
@@ -1719,6 +1765,7 @@ public final class Mapper {
         public MappedWrapper[] extensionWrappers = new MappedWrapper[0];
         public int nesting = 0;
         private volatile boolean paused;
+        private volatile MappingTrie<MappedWrapper> wrapperTrie;
 
         public ContextVersion(String version, String path, int slashCount,
                 Context context, WebResourceRoot resources,
@@ -1737,6 +1784,28 @@ public final class Mapper {
         public void markPaused() {
             paused = true;
         }
+
+        /**
+         * @param exactWrappers    The current exact mappings
+         * @param wildcardWrappers The current prefix mappings
+         *
+         * @return The trie of the given mappings or {@code null} if they
+         *         should be searched with a binary search
+         */
+        MappingTrie<MappedWrapper> getWrapperTrie(MappedWrapper[] exactWrappers,
+                MappedWrapper[] wildcardWrappers) {
+            if (exactWrappers.length + wildcardWrappers.length < TRIE_THRESHOLD) {
+                return null;
+            }
+            MappingTrie<MappedWrapper> trie = wrapperTrie;
+            if (trie == null || !trie.isFor(exactWrappers, wildcardWrappers)) {
+                // The mappings have changed. Racing threads may each build a
+                // trie but they are equivalent.
+                trie = new MappingTrie<>(exactWrappers, wildcardWrappers);
+                wrapperTrie = trie;
+            }
+            return trie.isComplete() ? trie : null;
+        }
     }
 
     // ---------------------------------------------------- Wrapper Inner Class
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import java.util.Arrays;
+
+import org.apache.catalina.mapper.Mapper.MapElement;
+
+/**
+ * An immutable trie of mapping names, split into path segments, that finds
+ * the exact match and the longest prefix match for a path in a single pass
+ * over the path. Each segment of the path is located with a hash look up
+ * so the cost of a match does not depend on the number of names.
+ * <p>
+ * Each segment includes its leading "/", so "/a/b" is stored as "/a" then
+ * "/b" and a prefix match is only found at the end of a segment. The empty
+ * name is stored at the root. Names that are not empty and do not start with
+ * "/" cannot be stored, in which case {@link #isComplete()} returns
+ * {@code false} and the trie must not be used.
+ * <p>
+ * A trie records the arrays it was built from. The arrays held by the
+ * {@link Mapper} are replaced, never modified, when a mapping is added or
+ * removed so comparing them with {@link #isFor(MapElement[], MapElement[])}
+ * is sufficient to detect a trie that is out of date.
+ *
+ * @param <E> The type of the mapped elements
+ */
+final class MappingTrie<E extends MapElement<?>> {
+
+    private final E[] exactElements;
+    private final E[] prefixElements;
+    private final Node<E> root = new Node<>(null, 0);
+    private boolean complete = true;
+
+
+    /**
+     * @param exactElements  Elements that only match a path equal to their
+     *                       name
+     * @param prefixElements Elements that match a path equal to their name or
+     *                       that starts with their name followed by "/"
+     */
+    MappingTrie(E[] exactElements, E[] prefixElements) {
+        this.exactElements = exactElements;
+        this.prefixElements = prefixElements;
+        for (E element : exactElements) {
+            Node<E> node = add(element.name);
+            if (node != null) {
+                node.exact = element;
+            }
+        }
+        for (E element : prefixElements) {
+            Node<E> node = add(element.name);
+            if (node != null) {
+                node.prefix = element;
+            }
+        }
+    }
+
+
+    boolean isFor(E[] exactElements, E[] prefixElements) {
+        return this.exactElements == exactElements && this.prefixElements == prefixElements;
+    }
+
+
+    boolean isComplete() {
+        return complete;
+    }
+
+
+    /**
+     * @param buf   The buffer holding the path
+     * @param start The start of the path
+     * @param end   The end of the path
+     *
+     * @return The element whose name is equal to the path, or {@code null}
+     */
+    E findExact(char[] buf, int start, int end) {
+        Node<E> node = root;
+        int pos = start;
+        while (pos < end) {
+            if (buf[pos] != '/') {
+                return null;
+            }
+            // Find the end of the segment and calculate its hash in one pass
+            int hash = '/';
+            int segmentEnd = pos + 1;
+            while (segmentEnd < end && buf[segmentEnd] != '/') {
+                hash = 31 * hash + buf[segmentEnd++];
+            }
+            node = node.child(buf, pos, segmentEnd, spread(hash));
+            if (node == null) {
+                return null;
+            }
+            pos = segmentEnd;
+        }
+        return node.exact;
+    }
+
+
+    /**
+     * @param buf   The buffer holding the path
+     * @param start The start of the path
+     * @param end   The end of the path
+     *
+     * @return The element with the longest name that is equal to the path or
+     *         that the path starts with followed by "/", or {@code null}
+     */
+    E findLongestPrefix(char[] buf, int start, int end) {
+        if (start < end && buf[start] != '/') {
+            return null;
+        }
+        Node<E> node = root;
+        E result = node.prefix;
+        int pos = start;
+        while (pos < end) {
+            int hash = '/';
+            int segmentEnd = pos + 1;
+            while (segmentEnd < end && buf[segmentEnd] != '/') {
+                hash = 31 * hash + buf[segmentEnd++];
+            }
+            node = node.child(buf, pos, segmentEnd, spread(hash));
+            if (node == null) {
+                break;
+            }
+            if (node.prefix != null) {
+                result = node.prefix;
+            }
+            pos = segmentEnd;
+        }
+        return result;
+    }
+
+
+    private Node<E> add(String name) {
+        int len = name.length();
+        if (len > 0 && name.charAt(0) != '/') {
+            complete = false;
+            return null;
+        }
+        char[] chars = name.toCharArray();
+        Node<E> node = root;
+        int pos = 0;
+        while (pos < len) {
+            int segmentEnd = pos + 1;
+            while (segmentEnd < len && chars[segmentEnd] != '/') {
+                segmentEnd++;
+            }
+            int hash = hash(chars, pos, segmentEnd);
+            Node<E> child = node.child(chars, pos, segmentEnd, hash);
+            if (child == null) {
+                child = new Node<>(Arrays.copyOfRange(chars, pos, segmentEnd), hash);
+                node.addChild(child);
+            }
+            node = child;
+            pos = segmentEnd;
+        }
+        return node;
+    }
+
+
+    private static int hash(char[] buf, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return spread(h);
+    }
+
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+
+    private static final class Node<E> {
+
+        private final char[] segment;
+        private final int hash;
+        private E exact;
+        private E prefix;
+        // Open addressing hash table, at most half full
+        private Node<E>[] children;
+        private int childCount;
+
+        Node(char[] segment, int hash) {
+            this.segment = segment;
+            this.hash = hash;
+        }
+
+        Node<E> child(char[] buf, int start, int end, int hash) {
+            Node<E>[] children = this.children;
+            if (children == null) {
+                return null;
+            }
+            int mask = children.length - 1;
+            for (int i = hash & mask; children[i] != null; i = (i + 1) & mask) {
+                Node<E> child = children[i];
+                if (child.hash == hash && child.matches(buf, start, end)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(char[] buf, int start, int end) {
+            if (segment.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < segment.length; i++) {
+                if (segment[i] != buf[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        void addChild(Node<E> child) {
+            if (children == null) {
+                children = (Node<E>[]) new Node<?>[4];
+            } else if ((childCount + 1) * 2 > children.length) {
+                Node<E>[] old = children;
+                children = (Node<E>[]) new Node<?>[old.length * 2];
+                for (Node<E> node : old) {
+                    if (node != null) {
+                        insert(children, node);
+                    }
+                }
+            }
+            insert(children, child);
+            childCount++;
+        }
+
+        private static <E> void insert(Node<E>[] table, Node<E> node) {
+            int mask = table.length - 1;
+            int i = node.hash & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = node;
+        }
+    }
+}
@@ -159,6 +159,8 @@ public final class SecurityClassLoad {
     private static final void loadTomcatPackage(ClassLoader loader) throws Exception {
         final String basePackage = "org.apache.tomcat.";
         // buf
+        loader.loadClass(basePackage + "util.buf.AdaptiveStringCache");
+        loader.loadClass(basePackage + "util.buf.AdaptiveStringCache$Entry");
         loader.loadClass(basePackage + "util.buf.B2CConverter");
         loader.loadClass(basePackage + "util.buf.ByteBufferUtils");
         loader.loadClass(basePackage + "util.buf.C2BConverter");
@@ -0,0 +1,616 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.util.IOTools;
+import org.apache.catalina.webresources.CachedResource;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Bounded, least recently used cache of the compressed representations of
+ * static resources that the {@link DefaultServlet} creates on the fly.
+ * <p>
+ * Representations are created lazily on first request. Those larger than the
+ * maximum object size are written to a temporary file, which allows them to be
+ * served with sendfile. A representation is only re-used while it is still
+ * backed by the same {@link CachedResource}, so it is invalidated whenever the
+ * entry in the web resources cache is evicted or replaced because the
+ * underlying resource changed. If the web resources cache is disabled the
+ * ETag, last modified time and length of the resource are compared instead.
+ * Concurrent requests for a representation that is not yet cached wait for a
+ * single compression of the resource.
+ * <p>
+ * Temporary files are deleted after a short delay once their entry has been
+ * removed since a sendfile write may still be about to open the file. Files
+ * that are due for deletion are removed whenever the cache is used and all
+ * remaining files are removed when the cache is cleared.
+ */
+class CompressedResourceCache {
+
+    private static final Log log = LogFactory.getLog(CompressedResourceCache.class);
+    private static final StringManager sm = StringManager.getManager(CompressedResourceCache.class);
+
+    private static final long FILE_DELETE_DELAY = 60 * 1000;
+
+    private final File tempDir;
+    private final long maxSize;
+    private final long maxObjectSize;
+    private final long maxDiskSize;
+
+    // All guarded by this
+    private final Map<String,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String,FutureTask<Entry>> compressions = new HashMap<>();
+    private final List<PendingDelete> pendingDeletes = new ArrayList<>();
+    private long size = 0;
+    private long diskSize = 0;
+    private boolean cleared = false;
+
+    private final AtomicLong lookupCount = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+
+
+    /**
+     * @param tempDir       Directory for spilled representations or
+     *                      {@code null} to keep everything in memory
+     * @param maxSize       Maximum total size in bytes of the
+     *                      representations held in memory
+     * @param maxObjectSize Maximum size in bytes of a single representation
+     *                      held in memory
+     * @param maxDiskSize   Maximum total size in bytes of the representations
+     *                      spilled to temporary files
+     */
+    CompressedResourceCache(File tempDir, long maxSize, long maxObjectSize, long maxDiskSize) {
+        this.tempDir = tempDir;
+        this.maxSize = maxSize;
+        this.maxObjectSize = Math.min(maxObjectSize, maxSize);
+        this.maxDiskSize = tempDir == null ? 0 : maxDiskSize;
+    }
+
+
+    /**
+     * Obtain the compressed representation of a resource, creating it if
+     * necessary.
+     *
+     * @param resource The resource to compress
+     * @param encoder  The content coding to use
+     *
+     * @return The compressed representation or {@code null} if the resource
+     *         is too large to be compressed by this cache
+     *
+     * @throws IOException If the resource could not be read or compressed
+     */
+    WebResource getCompressedResource(WebResource resource, ContentEncoder encoder)
+            throws IOException {
+        String key = encoder.getEncoding() + ':' + resource.getWebappPath();
+        lookupCount.incrementAndGet();
+
+        // Compressed representations are very rarely larger than the original
+        // so use the original size to skip anything that can't be cached
+        // without having to compress it first
+        if (resource.getContentLength() > Math.max(maxObjectSize, maxDiskSize)) {
+            return null;
+        }
+
+        Entry entry;
+        FutureTask<Entry> compression = null;
+        boolean compressing = false;
+        synchronized (this) {
+            processPendingDeletes();
+            entry = entries.get(key);
+            if (entry != null && !entry.isValidFor(resource)) {
+                entries.remove(key);
+                release(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                compression = compressions.get(key);
+                if (compression == null) {
+                    compression = new FutureTask<>(() -> compress(resource, encoder));
+                    compressions.put(key, compression);
+                    compressing = true;
+                }
+            }
+        }
+
+        if (entry != null) {
+            hitCount.incrementAndGet();
+        } else if (compressing) {
+            try {
+                compression.run();
+                entry = getEntry(compression);
+            } finally {
+                synchronized (this) {
+                    compressions.remove(key);
+                    if (entry != null) {
+                        add(key, entry);
+                    }
+                }
+            }
+        } else {
+            // Another request is compressing the same resource
+            entry = getEntry(compression);
+            if (entry == null || !entry.isValidFor(resource)) {
+                // The resource changed while it was being compressed. Let the
+                // next request compress the new version.
+                return null;
+            }
+            hitCount.incrementAndGet();
+        }
+
+        if (entry == null) {
+            return null;
+        }
+        return new CompressedResource(resource, encoder, entry);
+    }
+
+
+    /**
+     * Remove all entries and delete all temporary files.
+     */
+    synchronized void clear() {
+        cleared = true;
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+        for (PendingDelete pendingDelete : pendingDeletes) {
+            if (!delete(pendingDelete.file)) {
+                pendingDelete.file.deleteOnExit();
+            }
+        }
+        pendingDeletes.clear();
+    }
+
+
+    synchronized long getSize() {
+        return size;
+    }
+
+
+    synchronized long getDiskSize() {
+        return diskSize;
+    }
+
+
+    long getLookupCount() {
+        return lookupCount.get();
+    }
+
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    private static Entry getEntry(FutureTask<Entry> compression) throws IOException {
+        try {
+            return compression.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+
+    private Entry compress(WebResource resource, ContentEncoder encoder) throws IOException {
+        InputStream is = resource.getInputStream();
+        if (is == null) {
+            return null;
+        }
+        SpillingOutputStream spill = new SpillingOutputStream();
+        boolean success = false;
+        try {
+            try (InputStream source = is;
+                    OutputStream os = encoder.createOutputStream(spill)) {
+                IOTools.flow(source, os);
+            }
+            success = true;
+        } finally {
+            if (!success && spill.file != null) {
+                delete(spill.file);
+            }
+        }
+        if (spill.file == null) {
+            return new Entry(resource, spill.buffer.toByteArray(), null, spill.count);
+        } else {
+            return new Entry(resource, null, spill.file, spill.count);
+        }
+    }
+
+
+    private void add(String key, Entry entry) {
+        if (cleared || entry.file == null && entry.length > maxObjectSize ||
+                entry.file != null && entry.length > maxDiskSize) {
+            // Too large to cache but can still be used for the current request
+            if (entry.file != null) {
+                scheduleDelete(entry.file);
+            }
+            processPendingDeletes();
+            return;
+        }
+
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            release(old);
+        }
+        if (entry.file == null) {
+            size += entry.length;
+        } else {
+            diskSize += entry.length;
+        }
+
+        // Evict the least recently used entries of the same kind until the
+        // new entry fits
+        Iterator<Entry> iter = entries.values().iterator();
+        while ((size > maxSize || diskSize > maxDiskSize) && iter.hasNext()) {
+            Entry candidate = iter.next();
+            if (candidate == entry) {
+                continue;
+            }
+            if (candidate.file == null && size > maxSize ||
+                    candidate.file != null && diskSize > maxDiskSize) {
+                iter.remove();
+                release(candidate);
+            }
+        }
+        processPendingDeletes();
+    }
+
+
+    private void release(Entry entry) {
+        if (entry.file == null) {
+            size -= entry.length;
+        } else {
+            diskSize -= entry.length;
+            scheduleDelete(entry.file);
+        }
+    }
+
+
+    private void scheduleDelete(File file) {
+        if (cleared) {
+            // Nothing new is served once the cache has been cleared
+            if (!delete(file)) {
+                file.deleteOnExit();
+            }
+            return;
+        }
+        pendingDeletes.add(new PendingDelete(file, System.currentTimeMillis() + FILE_DELETE_DELAY));
+    }
+
+
+    private void processPendingDeletes() {
+        if (pendingDeletes.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<PendingDelete> iter = pendingDeletes.iterator();
+        while (iter.hasNext()) {
+            PendingDelete pendingDelete = iter.next();
+            // Files that are still open can't be deleted on some platforms so
+            // keep trying
+            if (pendingDelete.deleteAfter <= now && delete(pendingDelete.file)) {
+                iter.remove();
+            }
+        }
+    }
+
+
+    private static boolean delete(File file) {
+        if (file.delete() || !file.exists()) {
+            return true;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("compressedResourceCache.deleteFail", file.getAbsolutePath()));
+        }
+        return false;
+    }
+
+
+    private static class Entry {
+
+        // Only used for resources from the web resources cache
+        private final WeakReference<WebResource> source;
+        private final String eTag;
+        private final long lastModified;
+        private final long sourceLength;
+
+        private final byte[] content;
+        private final File file;
+        private final long length;
+
+        Entry(WebResource resource, byte[] content, File file, long length) {
+            if (resource instanceof CachedResource) {
+                source = new WeakReference<>(resource);
+            } else {
+                source = null;
+            }
+            eTag = resource.getETag();
+            lastModified = resource.getLastModified();
+            sourceLength = resource.getContentLength();
+            this.content = content;
+            this.file = file;
+            this.length = length;
+        }
+
+        boolean isValidFor(WebResource resource) {
+            if (source != null) {
+                return source.get() == resource;
+            }
+            return !(resource instanceof CachedResource) &&
+                    lastModified == resource.getLastModified() &&
+                    sourceLength == resource.getContentLength() &&
+                    eTag.equals(resource.getETag());
+        }
+    }
+
+
+    private static class PendingDelete {
+
+        private final File file;
+        private final long deleteAfter;
+
+        PendingDelete(File file, long deleteAfter) {
+            this.file = file;
+            this.deleteAfter = deleteAfter;
+        }
+    }
+
+
+    /**
+     * Buffers in memory until the maximum object size is reached and then
+     * switches to a temporary file.
+     */
+    private class SpillingOutputStream extends OutputStream {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private File file = null;
+        private OutputStream fileStream = null;
+        private long count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileStream == null && tempDir != null && count + len > maxObjectSize) {
+                file = File.createTempFile("compressed-", ".tmp", tempDir);
+                fileStream = new FileOutputStream(file);
+                buffer.writeTo(fileStream);
+                buffer.reset();
+            }
+            if (fileStream == null) {
+                buffer.write(b, off, len);
+            } else {
+                fileStream.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                fileStream.close();
+            }
+        }
+    }
+
+
+    /**
+     * The compressed representation of a resource. Everything other than the
+     * content is taken from the original resource.
+     */
+    static class CompressedResource implements WebResource {
+
+        private final WebResource resource;
+        private final ContentEncoder encoder;
+        private final Entry entry;
+        private String mimeType;
+
+        CompressedResource(WebResource resource, ContentEncoder encoder, Entry entry) {
+            this.resource = resource;
+            this.encoder = encoder;
+            this.entry = entry;
+        }
+
+        @Override
+        public long getLastModified() {
+            return resource.getLastModified();
+        }
+
+        @Override
+        public String getLastModifiedHttp() {
+            return resource.getLastModifiedHttp();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return false;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isFile() {
+            return true;
+        }
+
+        @Override
+        public boolean delete() {
+            return false;
+        }
+
+        @Override
+        public String getName() {
+            return resource.getName() + '.' + encoder.getEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return entry.length;
+        }
+
+        @Override
+        public String getCanonicalPath() {
+            if (entry.file == null) {
+                return null;
+            }
+            return entry.file.getAbsolutePath();
+        }
+
+        @Override
+        public boolean canRead() {
+            return true;
+        }
+
+        @Override
+        public String getWebappPath() {
+            return resource.getWebappPath();
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The compressed representation has different content to the original
+         * so it must have a different entity tag. The content coding is added
+         * to the entity tag of the original resource.
+         */
+        @Override
+        public String getETag() {
+            String eTag = resource.getETag();
+            if (eTag == null) {
+                return null;
+            }
+            if (eTag.endsWith("\"")) {
+                return eTag.substring(0, eTag.length() - 1) + '-' + encoder.getEncoding() + '"';
+            }
+            return eTag + '-' + encoder.getEncoding();
+        }
+
+        @Override
+        public void setMimeType(String mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        @Override
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            if (entry.file == null) {
+                return new ByteArrayInputStream(entry.content);
+            }
+            try {
+                return new FileInputStream(entry.file);
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public byte[] getContent() {
+            return entry.content;
+        }
+
+        @Override
+        public long getCreation() {
+            return resource.getCreation();
+        }
+
+        @Override
+        public URL getURL() {
+            if (entry.file == null) {
+                return null;
+            }
+            try {
+                return entry.file.toURI().toURL();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public URL getCodeBase() {
+            return null;
+        }
+
+        @Override
+        public WebResourceRoot getWebResourceRoot() {
+            return resource.getWebResourceRoot();
+        }
+
+        @Override
+        public Certificate[] getCertificates() {
+            return null;
+        }
+
+        @Override
+        public Manifest getManifest() {
+            return null;
+        }
+    }
+}
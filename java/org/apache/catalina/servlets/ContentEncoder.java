@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A content coding that the {@link DefaultServlet} can use to compress static
+ * resources on the fly. The compressed representations are retained so each
+ * resource is only compressed once for as long as it is unchanged.
+ * <p>
+ * Implementations must be thread-safe and provide a public no-argument
+ * constructor. Only gzip is provided by Tomcat. Other codings such as brotli
+ * may be added by implementing this interface on top of a suitable library.
+ */
+public interface ContentEncoder {
+
+    /**
+     * @return The content coding, as used in the Accept-Encoding and
+     *         Content-Encoding headers, e.g. {@code gzip} or {@code br}
+     */
+    String getEncoding();
+
+
+    /**
+     * Create a stream that compresses everything written to it and writes
+     * the result to the given stream. Closing the returned stream must close
+     * the given stream.
+     *
+     * @param os The stream to write the compressed data to
+     *
+     * @return The compressing stream
+     *
+     * @throws IOException If the stream cannot be created
+     */
+    OutputStream createOutputStream(OutputStream os) throws IOException;
+
+
+    /**
+     * gzip content coding using the JRE's built-in support.
+     */
+    public static class Gzip implements ContentEncoder {
+
+        @Override
+        public String getEncoding() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream createOutputStream(OutputStream os) throws IOException {
+            return new GZIPOutputStream(os, 8192);
+        }
+    }
+}
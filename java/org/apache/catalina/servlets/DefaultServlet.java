@@ -41,9 +41,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import javax.servlet.DispatcherType;
@@ -279,6 +281,29 @@ public class DefaultServlet extends HttpServlet {
      */
     private boolean allowPartialPut = true;
 
+    /**
+     * Cache of resources compressed on the fly or {@code null} if compression
+     * on the fly is disabled.
+     */
+    transient CompressedResourceCache compressionCache = null;
+
+    /**
+     * Content encoders to use when compressing on the fly, in order of
+     * preference.
+     */
+    private transient ContentEncoder[] contentEncoders;
+    private transient List<String> contentEncodings;
+
+    /**
+     * Minimum size in bytes of a resource for it to be compressed on the fly.
+     */
+    private int compressionMinSize = 2048;
+
+    /**
+     * MIME types of the resources to compress on the fly.
+     */
+    private Set<String> compressibleMimeTypes;
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -287,7 +312,9 @@ public class DefaultServlet extends HttpServlet {
      */
     @Override
     public void destroy() {
-        // NOOP
+        if (compressionCache != null) {
+            compressionCache.clear();
+        }
     }
 
 
@@ -384,6 +411,77 @@ public class DefaultServlet extends HttpServlet {
         if (getServletConfig().getInitParameter("allowPartialPut") != null) {
             allowPartialPut = Boolean.parseBoolean(getServletConfig().getInitParameter("allowPartialPut"));
         }
+
+        if (Boolean.parseBoolean(getServletConfig().getInitParameter("compressionCache"))) {
+            initCompressionCache();
+        }
+    }
+
+    private void initCompressionCache() throws ServletException {
+        String encoders = getServletConfig().getInitParameter("compressionCacheEncoders");
+        if (encoders == null) {
+            encoders = "gzip";
+        }
+        List<ContentEncoder> encoderList = new ArrayList<>();
+        for (String encoder : encoders.split(",")) {
+            encoder = encoder.trim();
+            if (encoder.length() == 0) {
+                continue;
+            }
+            if ("gzip".equals(encoder)) {
+                encoderList.add(new ContentEncoder.Gzip());
+            } else {
+                try {
+                    encoderList.add((ContentEncoder) Class.forName(encoder).getConstructor().newInstance());
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new ServletException(sm.getString("defaultServlet.invalidContentEncoder", encoder), e);
+                }
+            }
+        }
+        if (encoderList.isEmpty()) {
+            log(sm.getString("defaultServlet.compressionCacheNoEncoders"));
+            return;
+        }
+        contentEncoders = encoderList.toArray(new ContentEncoder[0]);
+        contentEncodings = new ArrayList<>(contentEncoders.length);
+        for (ContentEncoder encoder : contentEncoders) {
+            contentEncodings.add(encoder.getEncoding());
+        }
+
+        String mimeTypes = getServletConfig().getInitParameter("compressionCacheMimeTypes");
+        if (mimeTypes == null) {
+            mimeTypes = "text/html,text/xml,text/plain,text/css,text/javascript," +
+                    "application/javascript,application/json,application/xml,image/svg+xml";
+        }
+        compressibleMimeTypes = new HashSet<>();
+        for (String mimeType : mimeTypes.split(",")) {
+            mimeType = mimeType.trim();
+            if (mimeType.length() > 0) {
+                compressibleMimeTypes.add(mimeType.toLowerCase(Locale.ENGLISH));
+            }
+        }
+
+        if (getServletConfig().getInitParameter("compressionCacheMinSize") != null) {
+            compressionMinSize = Integer.parseInt(getServletConfig().getInitParameter("compressionCacheMinSize"));
+        }
+
+        // Sizes are configured in kB
+        long maxSize = 10 * 1024;
+        if (getServletConfig().getInitParameter("compressionCacheMaxSize") != null) {
+            maxSize = Long.parseLong(getServletConfig().getInitParameter("compressionCacheMaxSize"));
+        }
+        long maxObjectSize = 512;
+        if (getServletConfig().getInitParameter("compressionCacheMaxObjectSize") != null) {
+            maxObjectSize = Long.parseLong(getServletConfig().getInitParameter("compressionCacheMaxObjectSize"));
+        }
+        long maxDiskSize = 100 * 1024;
+        if (getServletConfig().getInitParameter("compressionCacheMaxDiskSize") != null) {
+            maxDiskSize = Long.parseLong(getServletConfig().getInitParameter("compressionCacheMaxDiskSize"));
+        }
+        File tempDir = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+
+        compressionCache = new CompressedResourceCache(tempDir, maxSize * 1024,
+                maxObjectSize * 1024, maxDiskSize * 1024);
     }
 
     private CompressionFormat[] parseCompressionFormats(String precompressed, String gzip) {
@@ -928,6 +1026,31 @@ public class DefaultServlet extends HttpServlet {
             }
         }
 
+        // Otherwise compress on the fly, re-using the previously compressed
+        // version if the resource has not changed
+        if (!usingPrecompressedVersion && compressionCache != null && !included &&
+                resource.isFile() && isCompressible(contentType) &&
+                resource.getContentLength() >= compressionMinSize) {
+            ResponseUtil.addVaryFieldName(response, "accept-encoding");
+            int bestEncoding = getBestEncoding(request, contentEncodings);
+            if (bestEncoding != -1) {
+                ContentEncoder encoder = contentEncoders[bestEncoding];
+                WebResource compressedResource =
+                        compressionCache.getCompressedResource(resource, encoder);
+                if (compressedResource != null) {
+                    // The compressed version has its own ETag so a client
+                    // that has cached it needs to be checked against that
+                    if (!isError && !checkIfNoneMatch(request, response, compressedResource)) {
+                        return;
+                    }
+                    response.addHeader("Content-Encoding", encoder.getEncoding());
+                    resource = compressedResource;
+                    eTag = isError ? null : resource.getETag();
+                    usingPrecompressedVersion = true;
+                }
+            }
+        }
+
         ArrayList<Range> ranges = FULL;
         long contentLength = -1L;
 
@@ -1124,7 +1247,8 @@ public class DefaultServlet extends HttpServlet {
                                 // implementations as that could trigger loading
                                 // the contents of a very large file into memory
                                 byte[] resourceBody = null;
-                                if (resource instanceof CachedResource) {
+                                if (resource instanceof CachedResource ||
+                                        resource instanceof CompressedResourceCache.CompressedResource) {
                                     resourceBody = resource.getContent();
                                 }
                                 if (resourceBody == null) {
@@ -1321,10 +1445,30 @@ public class DefaultServlet extends HttpServlet {
      */
     private PrecompressedResource getBestPrecompressedResource(HttpServletRequest request,
             List<PrecompressedResource> precompressedResources) {
+        List<String> encodings = new ArrayList<>(precompressedResources.size());
+        for (PrecompressedResource resource : precompressedResources) {
+            encodings.add(resource.format.encoding);
+        }
+        int bestEncoding = getBestEncoding(request, encodings);
+        if (bestEncoding == -1) {
+            return null;
+        }
+        return precompressedResources.get(bestEncoding);
+    }
+
+    /**
+     * Match the client preferred encoding formats to the available encodings.
+     *
+     * @param request   The servlet request we are processing
+     * @param encodings The available encodings in order of preference
+     * @return The index of the best matching encoding or -1 if no match was
+     *         found
+     */
+    private int getBestEncoding(HttpServletRequest request, List<String> encodings) {
         Enumeration<String> headers = request.getHeaders("Accept-Encoding");
-        PrecompressedResource bestResource = null;
-        double bestResourceQuality = 0;
-        int bestResourcePreference = Integer.MAX_VALUE;
+        int bestEncoding = -1;
+        double bestEncodingQuality = 0;
+        int bestEncodingPreference = Integer.MAX_VALUE;
         while (headers.hasMoreElements()) {
             String header = headers.nextElement();
             for (String preference : header.split(",")) {
@@ -1337,31 +1481,30 @@ public class DefaultServlet extends HttpServlet {
                     }
                     quality = Double.parseDouble(preference.substring(equalsIdx + 1).trim());
                 }
-                if (quality >= bestResourceQuality) {
+                if (quality >= bestEncodingQuality) {
                     String encoding = preference;
                     if (qualityIdx > 0) {
                         encoding = encoding.substring(0, qualityIdx);
                     }
                     encoding = encoding.trim();
                     if ("identity".equals(encoding)) {
-                        bestResource = null;
-                        bestResourceQuality = quality;
-                        bestResourcePreference = Integer.MAX_VALUE;
+                        bestEncoding = -1;
+                        bestEncodingQuality = quality;
+                        bestEncodingPreference = Integer.MAX_VALUE;
                         continue;
                     }
                     if ("*".equals(encoding)) {
-                        bestResource = precompressedResources.get(0);
-                        bestResourceQuality = quality;
-                        bestResourcePreference = 0;
+                        bestEncoding = 0;
+                        bestEncodingQuality = quality;
+                        bestEncodingPreference = 0;
                         continue;
                     }
-                    for (int i = 0; i < precompressedResources.size(); ++i) {
-                        PrecompressedResource resource = precompressedResources.get(i);
-                        if (encoding.equals(resource.format.encoding)) {
-                            if (quality > bestResourceQuality || i < bestResourcePreference) {
-                                bestResource = resource;
-                                bestResourceQuality = quality;
-                                bestResourcePreference = i;
+                    for (int i = 0; i < encodings.size(); ++i) {
+                        if (encoding.equals(encodings.get(i))) {
+                            if (quality > bestEncodingQuality || i < bestEncodingPreference) {
+                                bestEncoding = i;
+                                bestEncodingQuality = quality;
+                                bestEncodingPreference = i;
                             }
                             break;
                         }
@@ -1369,7 +1512,18 @@ public class DefaultServlet extends HttpServlet {
                 }
             }
         }
-        return bestResource;
+        return bestEncoding;
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        if (semicolon > -1) {
+            contentType = contentType.substring(0, semicolon);
+        }
+        return compressibleMimeTypes.contains(contentType.trim().toLowerCase(Locale.ENGLISH));
     }
 
     private void doDirectoryRedirect(HttpServletRequest request, HttpServletResponse response)
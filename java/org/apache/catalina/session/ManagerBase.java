@@ -21,6 +21,8 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Deque;
 import java.util.Enumeration;
@@ -162,6 +164,26 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
      */
     protected long processingTime = 0;
 
+    /**
+     * Should the background process use {@link #expirationIndex} to find the
+     * sessions that are due to expire rather than checking every session?
+     */
+    private boolean useExpirationIndex = true;
+
+    /**
+     * The sessions with a positive maximum inactive interval, indexed by the
+     * time they are due to expire.
+     */
+    private final SessionExpirationIndex expirationIndex = new SessionExpirationIndex();
+
+    /**
+     * Longest and total time, in milliseconds, between a session becoming due
+     * to expire and the background process expiring it.
+     */
+    private volatile long maxExpirationLag = 0;
+    private volatile long expirationLagTotal = 0;
+    private volatile long expirationLagCount = 0;
+
     /**
      * Iteration count for background processing.
      */
@@ -527,6 +549,57 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         this.processingTime = processingTime;
     }
 
+
+    /**
+     * @return {@code true} if the background process only checks the sessions
+     *         that are due to expire, {@code false} if it checks every session
+     */
+    public boolean getUseExpirationIndex() {
+        return useExpirationIndex;
+    }
+
+
+    /**
+     * Configure whether the background process only checks the sessions that
+     * are due to expire, using an index of sessions by expiration time, or
+     * checks every session.
+     *
+     * @param useExpirationIndex {@code true} to use the expiration index
+     */
+    public void setUseExpirationIndex(boolean useExpirationIndex) {
+        this.useExpirationIndex = useExpirationIndex;
+        if (useExpirationIndex) {
+            for (Session session : findSessions()) {
+                scheduleExpiration(session);
+            }
+        } else {
+            expirationIndex.clear();
+        }
+    }
+
+
+    /**
+     * @return The longest time, in milliseconds, between a session becoming
+     *         due to expire and the background process expiring it
+     */
+    public long getMaxExpirationLag() {
+        return maxExpirationLag;
+    }
+
+
+    /**
+     * @return The average time, in milliseconds, between a session becoming
+     *         due to expire and the background process expiring it
+     */
+    public long getAverageExpirationLag() {
+        long count = expirationLagCount;
+        if (count == 0) {
+            return 0;
+        }
+        return expirationLagTotal / count;
+    }
+
+
     /**
      * @return The frequency of manager checks.
      */
@@ -597,16 +670,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (Session session : sessions) {
-            if (session != null && !session.isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
@@ -615,6 +682,98 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     }
 
 
+    /**
+     * Check for expiry the sessions that may have expired. If the expiration
+     * index is in use these are the sessions that are due to expire, otherwise
+     * every session is checked. Sessions that are found to still be valid are
+     * returned to the index with their current expiration time.
+     *
+     * @param timeNow The time the check started
+     *
+     * @return The number of sessions that were found to have expired
+     */
+    protected int expireSessions(long timeNow) {
+        boolean useIndex = getUseExpirationIndex();
+        Collection<Session> candidates;
+        if (useIndex) {
+            List<Session> due = new ArrayList<>();
+            expirationIndex.pollDue(timeNow, due);
+            candidates = due;
+        } else {
+            candidates = Arrays.asList(findSessions());
+        }
+
+        int expired = 0;
+        for (Session session : candidates) {
+            if (session == null) {
+                continue;
+            }
+            long expirationTime = getExpirationTime(session, timeNow);
+            if (session.isValid()) {
+                if (useIndex) {
+                    scheduleExpiration(session, timeNow);
+                }
+            } else {
+                expired++;
+                if (expirationTime >= 0 && expirationTime <= timeNow) {
+                    long lag = timeNow - expirationTime;
+                    expirationLagTotal += lag;
+                    expirationLagCount++;
+                    if (lag > maxExpirationLag) {
+                        maxExpirationLag = lag;
+                    }
+                }
+            }
+        }
+        return expired;
+    }
+
+
+    /**
+     * Add the session to the expiration index or, if it is already present,
+     * update the time at which it is due to expire. This is a NO-OP if the
+     * index is not in use or the session is not managed by this Manager. It
+     * needs to be called when a session is added to {@link #sessions} other
+     * than via {@link #add(Session)} and when a change to the session may
+     * bring its expiration forward. Accessing a session only delays its
+     * expiration so that is handled when the previous expiration time is
+     * reached.
+     *
+     * @param session The session
+     */
+    protected void scheduleExpiration(Session session) {
+        scheduleExpiration(session, -1);
+    }
+
+
+    private void scheduleExpiration(Session session, long notBefore) {
+        if (!getUseExpirationIndex()) {
+            return;
+        }
+        String id = session.getIdInternal();
+        if (id == null || sessions.get(id) != session) {
+            return;
+        }
+        long timeNow = System.currentTimeMillis();
+        long expirationTime = getExpirationTime(session, timeNow);
+        if (expirationTime >= 0 && expirationTime <= notBefore) {
+            // Still valid although due, e.g. because a request is using it.
+            // Check it again the next time expiration is processed.
+            expirationTime = notBefore + SessionExpirationIndex.TICK;
+        }
+        expirationIndex.schedule(session, expirationTime);
+    }
+
+
+    private static long getExpirationTime(Session session, long timeNow) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval <= 0) {
+            return -1;
+        }
+        return timeNow - session.getIdleTimeInternal() + maxInactiveInterval * 1000L;
+    }
+
+
     @Override
     protected void initInternal() throws LifecycleException {
         super.initInternal();
@@ -670,12 +829,14 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (sessionIdGenerator instanceof Lifecycle) {
             ((Lifecycle) sessionIdGenerator).stop();
         }
+        expirationIndex.clear();
     }
 
 
     @Override
     public void add(Session session) {
         sessions.put(session.getIdInternal(), session);
+        scheduleExpiration(session);
         int size = getActiveSessions();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -775,6 +936,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
         }
+        expirationIndex.remove(session);
     }
 
 
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+
+/**
+ * Stores serialized session attributes in direct {@link ByteBuffer} slabs
+ * outside of the Java heap.
+ * <p>
+ * Each slab is filled sequentially. Space released by {@link #free(Entry)} is
+ * only reused once every entry in the slab has been freed or when the slab is
+ * compacted. A slab is compacted, by moving the remaining entries to the start
+ * of the slab, when a new entry does not fit in any slab and no more slabs may
+ * be allocated.
+ */
+class OffHeapAttributeStore {
+
+    private static final Comparator<Entry> OFFSET_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Integer.compare(e1.offset, e2.offset);
+        }
+    };
+
+    private final long capacity;
+    private final int slabSize;
+    private final List<Slab> slabs = new ArrayList<>();
+    private Slab current;
+
+    /*
+     * Bytes written to slabs since they were last emptied or compacted, and
+     * the subset of those bytes that hold entries that have not been freed.
+     */
+    private long usedBytes = 0;
+    private long liveBytes = 0;
+
+
+    /**
+     * @param capacity  The maximum number of bytes to allocate for slabs
+     * @param slabSize  The size of each slab. This is also the largest entry
+     *                  that may be stored.
+     */
+    OffHeapAttributeStore(long capacity, int slabSize) {
+        this.capacity = capacity;
+        this.slabSize = slabSize;
+    }
+
+
+    /**
+     * Copy the given bytes to the store.
+     *
+     * @param bytes     The bytes to store
+     * @param len       The number of bytes to store
+     *
+     * @return The entry that identifies the stored bytes or {@code null} if
+     *         there was insufficient space
+     */
+    synchronized Entry write(byte[] bytes, int len) {
+        Slab slab = findSlab(len);
+        if (slab == null) {
+            return null;
+        }
+        Entry entry = new Entry(slab, slab.position, len);
+        ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position(slab.position);
+        buffer.put(bytes, 0, len);
+        slab.position += len;
+        slab.live += len;
+        slab.entries.add(entry);
+        usedBytes += len;
+        liveBytes += len;
+        return entry;
+    }
+
+
+    synchronized byte[] read(Entry entry) {
+        if (entry.slab == null) {
+            throw new IllegalStateException();
+        }
+        byte[] result = new byte[entry.length];
+        ByteBuffer buffer = entry.slab.buffer.duplicate();
+        buffer.position(entry.offset);
+        buffer.get(result);
+        return result;
+    }
+
+
+    /**
+     * @param entry The entry to compare
+     * @param bytes The bytes to compare
+     * @param len   The number of bytes to compare
+     *
+     * @return {@code true} if the entry holds exactly the given bytes
+     */
+    synchronized boolean contentEquals(Entry entry, byte[] bytes, int len) {
+        if (entry.slab == null || entry.length != len) {
+            return false;
+        }
+        ByteBuffer buffer = entry.slab.buffer;
+        int offset = entry.offset;
+        for (int i = 0; i < len; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    synchronized void free(Entry entry) {
+        Slab slab = entry.slab;
+        if (slab == null) {
+            return;
+        }
+        entry.slab = null;
+        slab.entries.remove(entry);
+        slab.live -= entry.length;
+        liveBytes -= entry.length;
+        if (slab.live == 0) {
+            usedBytes -= slab.position;
+            slab.position = 0;
+        }
+    }
+
+
+    /**
+     * Release the memory used by the slabs. Any entries still in use are
+     * invalidated.
+     */
+    synchronized void destroy() {
+        for (Slab slab : slabs) {
+            for (Entry entry : slab.entries) {
+                entry.slab = null;
+            }
+            ByteBufferUtils.cleanDirectBuffer(slab.buffer);
+        }
+        slabs.clear();
+        current = null;
+        usedBytes = 0;
+        liveBytes = 0;
+    }
+
+
+    synchronized long getAllocated() {
+        return (long) slabs.size() * slabSize;
+    }
+
+
+    synchronized long getLive() {
+        return liveBytes;
+    }
+
+
+    /**
+     * @return The proportion of the bytes written to the slabs that are no
+     *         longer used but have not yet been reclaimed
+     */
+    synchronized double getFragmentation() {
+        if (usedBytes == 0) {
+            return 0;
+        }
+        return (double) (usedBytes - liveBytes) / usedBytes;
+    }
+
+
+    private Slab findSlab(int len) {
+        if (len > slabSize) {
+            return null;
+        }
+        if (current != null && current.remaining() >= len) {
+            return current;
+        }
+        for (Slab slab : slabs) {
+            if (slab.remaining() >= len) {
+                current = slab;
+                return slab;
+            }
+        }
+        if ((long) (slabs.size() + 1) * slabSize <= capacity) {
+            current = new Slab(ByteBuffer.allocateDirect(slabSize));
+            slabs.add(current);
+            return current;
+        }
+        // Compact the slab that will have the most free space
+        Slab candidate = null;
+        for (Slab slab : slabs) {
+            if (candidate == null || slab.live < candidate.live) {
+                candidate = slab;
+            }
+        }
+        if (candidate != null && slabSize - candidate.live >= len) {
+            compact(candidate);
+            current = candidate;
+            return candidate;
+        }
+        return null;
+    }
+
+
+    private void compact(Slab slab) {
+        List<Entry> entries = new ArrayList<>(slab.entries);
+        Collections.sort(entries, OFFSET_ORDER);
+        ByteBuffer buffer = slab.buffer.duplicate();
+        int position = 0;
+        byte[] copy = null;
+        for (Entry entry : entries) {
+            if (entry.offset != position) {
+                if (copy == null || copy.length < entry.length) {
+                    copy = new byte[entry.length];
+                }
+                buffer.position(entry.offset);
+                buffer.get(copy, 0, entry.length);
+                buffer.position(position);
+                buffer.put(copy, 0, entry.length);
+                entry.offset = position;
+            }
+            position += entry.length;
+        }
+        usedBytes -= slab.position - position;
+        slab.position = position;
+    }
+
+
+    /**
+     * The location of a stored value. The fields are only accessed while
+     * holding the lock of the owning store as compaction may move the value.
+     */
+    static final class Entry {
+
+        private Slab slab;
+        private int offset;
+        private final int length;
+
+        private Entry(Slab slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+
+    private static final class Slab {
+
+        private final ByteBuffer buffer;
+        private final Set<Entry> entries = new HashSet<>();
+        private int position = 0;
+        private int live = 0;
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int remaining() {
+            return buffer.capacity() - position;
+        }
+    }
+}
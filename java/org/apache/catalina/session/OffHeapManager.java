@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.catalina.LifecycleException;
+
+/**
+ * Extension of the {@link StandardManager} that stores the attributes of
+ * sessions that are not currently in use in serialized form in direct
+ * {@link java.nio.ByteBuffer}s rather than on the Java heap. This reduces the
+ * amount of long lived data the garbage collector has to manage for
+ * applications that store large object graphs in their sessions, at the cost
+ * of serializing the attributes used by a request when the request ends and
+ * deserializing them when they are next used.
+ * <p>
+ * See {@link OffHeapSession} for the details of when attributes are moved
+ * between the heap and the off-heap store.
+ */
+public class OffHeapManager extends StandardManager {
+
+    /**
+     * The descriptive name of this Manager implementation (for logging).
+     */
+    private static final String name = "OffHeapManager";
+
+
+    private long offHeapCapacity = 64 * 1024 * 1024;
+
+    private int slabSize = 1024 * 1024;
+
+    private volatile OffHeapAttributeStore attributeStore = null;
+
+    private final LongAdder attributeLookups = new LongAdder();
+
+    private final LongAdder attributeLoads = new LongAdder();
+
+
+    // ------------------------------------------------------------- Properties
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return the maximum number of bytes that will be allocated outside of
+     *         the heap to store session attributes
+     */
+    public long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+
+    /**
+     * Set the maximum number of bytes that will be allocated outside of the
+     * heap to store session attributes. Attributes that do not fit remain on
+     * the heap. Changes take effect when the Manager is next started.
+     *
+     * @param offHeapCapacity The new capacity in bytes
+     */
+    public void setOffHeapCapacity(long offHeapCapacity) {
+        this.offHeapCapacity = offHeapCapacity;
+    }
+
+
+    /**
+     * @return the size, in bytes, of each block of memory allocated outside of
+     *         the heap
+     */
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+
+    /**
+     * Set the size of each block of memory allocated outside of the heap. This
+     * is also the size of the largest serialized attribute that may be stored
+     * outside of the heap. Changes take effect when the Manager is next
+     * started.
+     *
+     * @param slabSize The new slab size in bytes
+     */
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+
+    /**
+     * @return the number of bytes currently allocated outside of the heap
+     */
+    public long getOffHeapAllocated() {
+        OffHeapAttributeStore store = attributeStore;
+        return store == null ? 0 : store.getAllocated();
+    }
+
+
+    /**
+     * @return the number of bytes of allocated memory that hold session
+     *         attributes
+     */
+    public long getOffHeapUsed() {
+        OffHeapAttributeStore store = attributeStore;
+        return store == null ? 0 : store.getLive();
+    }
+
+
+    /**
+     * @return the proportion of the memory written to by the store that holds
+     *         attributes that have since been replaced or removed and has not
+     *         yet been reclaimed
+     */
+    public double getOffHeapFragmentation() {
+        OffHeapAttributeStore store = attributeStore;
+        return store == null ? 0 : store.getFragmentation();
+    }
+
+
+    /**
+     * @return the number of calls to <code>getAttribute()</code>
+     */
+    public long getAttributeLookupCount() {
+        return attributeLookups.sum();
+    }
+
+
+    /**
+     * @return the number of times an attribute had to be deserialized
+     */
+    public long getAttributeLoadCount() {
+        return attributeLoads.sum();
+    }
+
+
+    /**
+     * @return the proportion of calls to <code>getAttribute()</code> that did
+     *         not require the attribute to be deserialized
+     */
+    public double getAttributeHitRatio() {
+        long lookups = attributeLookups.sum();
+        if (lookups == 0) {
+            return 0;
+        }
+        return 1 - (double) attributeLoads.sum() / lookups;
+    }
+
+
+    /**
+     * Reset the counters used to calculate the attribute hit ratio.
+     */
+    public void resetStatistics() {
+        attributeLookups.reset();
+        attributeLoads.reset();
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        attributeStore = new OffHeapAttributeStore(offHeapCapacity, slabSize);
+        super.startInternal();
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        OffHeapAttributeStore store = attributeStore;
+        attributeStore = null;
+        if (store != null) {
+            store.destroy();
+        }
+    }
+
+
+    @Override
+    protected StandardSession getNewSession() {
+        return new OffHeapSession(this);
+    }
+
+
+    // -------------------------------------------------------- Package Methods
+
+    OffHeapAttributeStore getAttributeStore() {
+        return attributeStore;
+    }
+
+
+    void attributeLookup() {
+        attributeLookups.increment();
+    }
+
+
+    void attributeLoad() {
+        attributeLoads.increment();
+    }
+}
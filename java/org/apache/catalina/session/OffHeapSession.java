@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Loader;
+import org.apache.catalina.Manager;
+import org.apache.catalina.util.CustomObjectInputStream;
+
+/**
+ * Session implementation used by {@link OffHeapManager} that keeps the
+ * serialized form of its attributes in an {@link OffHeapAttributeStore}.
+ * <p>
+ * While the session is in use by one or more requests, the attributes that
+ * have been read or written are held on the heap. An attribute is only
+ * deserialized when it is first requested. When the last request using the
+ * session ends, each attribute held on the heap is serialized. If the result
+ * differs from the stored copy it is written to the store. The heap copy is
+ * then dropped. Changes made to a mutable attribute without calling
+ * <code>setAttribute()</code> are therefore retained as long as they are made
+ * while a request is using the session.
+ * <p>
+ * An attribute read by calling <code>getAttribute()</code> outside of a
+ * request, for example from a listener or a background thread, is written
+ * back to the store as soon as the call returns. Changes made to such a value
+ * are not retained unless <code>setAttribute()</code> is called.
+ * <p>
+ * Attributes that are not serializable, or that do not fit in the store,
+ * remain on the heap. Since each attribute is serialized separately, objects
+ * shared between attributes are not shared once the attributes have been
+ * reloaded.
+ */
+public class OffHeapSession extends StandardSession {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The location of the serialized form of the attributes that have been
+     * written to the store.
+     */
+    private final transient Map<String,OffHeapAttributeStore.Entry> offHeapAttributes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Number of requests, and internal operations, currently using the
+     * session. Attributes are only moved off the heap when this is zero.
+     */
+    private final transient AtomicInteger users = new AtomicInteger();
+
+    private final transient Object offHeapLock = new Object();
+
+
+    public OffHeapSession(Manager manager) {
+        super(manager);
+    }
+
+
+    @Override
+    public void access() {
+        super.access();
+        acquire();
+    }
+
+
+    @Override
+    public void endAccess() {
+        super.endAccess();
+        release();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the session is not in use by a request, an attribute loaded from the
+     * store is written back, and dropped from the heap, before this method
+     * returns.
+     */
+    @Override
+    public Object getAttribute(String name) {
+        Object value = super.getAttribute(name);
+        if (name == null) {
+            return null;
+        }
+        OffHeapManager offHeapManager = getOffHeapManager();
+        if (offHeapManager != null) {
+            offHeapManager.attributeLookup();
+        }
+        if (value == null && offHeapAttributes.containsKey(name)) {
+            acquire();
+            try {
+                load(name);
+                value = attributes.get(name);
+            } finally {
+                release();
+            }
+        }
+        return value;
+    }
+
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        if (!isValidInternal()) {
+            throw new IllegalStateException(
+                    sm.getString("standardSession.getAttributeNames.ise"));
+        }
+        return Collections.enumeration(Arrays.asList(keys()));
+    }
+
+
+    @Override
+    public void setAttribute(String name, Object value, boolean notify) {
+        acquire();
+        try {
+            // Load the current value so it is passed to any listeners
+            load(name);
+            super.setAttribute(name, value, notify);
+        } finally {
+            release();
+        }
+    }
+
+
+    @Override
+    protected void removeAttributeInternal(String name, boolean notify) {
+        if (name == null) {
+            return;
+        }
+        acquire();
+        try {
+            load(name);
+            super.removeAttributeInternal(name, notify);
+            synchronized (offHeapLock) {
+                OffHeapAttributeStore.Entry entry = offHeapAttributes.remove(name);
+                if (entry != null) {
+                    free(entry);
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+
+    @Override
+    protected String[] keys() {
+        Set<String> names = new HashSet<>(attributes.keySet());
+        names.addAll(offHeapAttributes.keySet());
+        return names.toArray(EMPTY_ARRAY);
+    }
+
+
+    @Override
+    public void expire(boolean notify) {
+        acquire();
+        try {
+            loadAll();
+            super.expire(notify);
+        } finally {
+            release();
+        }
+    }
+
+
+    @Override
+    public void passivate() {
+        acquire();
+        try {
+            loadAll();
+            super.passivate();
+        } finally {
+            release();
+        }
+    }
+
+
+    @Override
+    public void activate() {
+        acquire();
+        try {
+            loadAll();
+            super.activate();
+        } finally {
+            release();
+        }
+    }
+
+
+    @Override
+    public void recycle() {
+        synchronized (offHeapLock) {
+            for (OffHeapAttributeStore.Entry entry : offHeapAttributes.values()) {
+                free(entry);
+            }
+            offHeapAttributes.clear();
+        }
+        super.recycle();
+    }
+
+
+    @Override
+    protected void doWriteObject(ObjectOutputStream stream) throws IOException {
+        acquire();
+        try {
+            loadAll();
+            super.doWriteObject(stream);
+        } finally {
+            release();
+        }
+    }
+
+
+    /**
+     * @return The number of attributes currently held only in serialized
+     *         form outside of the heap
+     */
+    int getOffHeapAttributeCount() {
+        synchronized (offHeapLock) {
+            int count = 0;
+            for (String name : offHeapAttributes.keySet()) {
+                if (!attributes.containsKey(name)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+
+    /*
+     * The count is incremented while holding the lock so that a new user can
+     * not read an attribute while writeBack() is moving it off the heap. The
+     * new user either prevents the write back or waits for it to complete and
+     * then loads the attribute from the store.
+     */
+    private void acquire() {
+        synchronized (offHeapLock) {
+            users.incrementAndGet();
+        }
+    }
+
+
+    private void release() {
+        int count;
+        do {
+            count = users.get();
+            if (count == 0) {
+                return;
+            }
+        } while (!users.compareAndSet(count, count - 1));
+        if (count == 1) {
+            writeBack();
+        }
+    }
+
+
+    private OffHeapManager getOffHeapManager() {
+        Manager manager = this.manager;
+        if (manager instanceof OffHeapManager) {
+            return (OffHeapManager) manager;
+        }
+        return null;
+    }
+
+
+    private void loadAll() {
+        for (String name : offHeapAttributes.keySet()) {
+            load(name);
+        }
+    }
+
+
+    /*
+     * Ensure the current value of the named attribute, if any, is on the heap.
+     */
+    private void load(String name) {
+        if (name == null || attributes.containsKey(name)) {
+            return;
+        }
+        synchronized (offHeapLock) {
+            OffHeapAttributeStore.Entry entry = offHeapAttributes.get(name);
+            OffHeapManager offHeapManager = getOffHeapManager();
+            if (entry == null || attributes.containsKey(name) || offHeapManager == null) {
+                return;
+            }
+            OffHeapAttributeStore store = offHeapManager.getAttributeStore();
+            if (store == null) {
+                return;
+            }
+            try {
+                byte[] bytes = store.read(entry);
+                try (ObjectInputStream ois = new CustomObjectInputStream(
+                        new ByteArrayInputStream(bytes), getClassLoader())) {
+                    attributes.put(name, ois.readObject());
+                }
+                offHeapManager.attributeLoad();
+            } catch (IOException | ClassNotFoundException | IllegalStateException e) {
+                manager.getContext().getLogger().warn(
+                        sm.getString("standardSession.notDeserializable", name, id), e);
+                offHeapAttributes.remove(name);
+                store.free(entry);
+            }
+        }
+    }
+
+
+    /*
+     * Move the attributes held on the heap to the store unless the session is
+     * in use.
+     */
+    private void writeBack() {
+        OffHeapManager offHeapManager = getOffHeapManager();
+        if (offHeapManager == null || attributes.isEmpty()) {
+            return;
+        }
+        OffHeapAttributeStore store = offHeapManager.getAttributeStore();
+        if (store == null) {
+            return;
+        }
+        synchronized (offHeapLock) {
+            if (users.get() > 0) {
+                return;
+            }
+            ByteArrayOutputStream bos = null;
+            for (Map.Entry<String,Object> attribute : attributes.entrySet()) {
+                String name = attribute.getKey();
+                Object value = attribute.getValue();
+                if (!(value instanceof Serializable)) {
+                    continue;
+                }
+                if (bos == null) {
+                    bos = new ByteArrayOutputStream();
+                } else {
+                    bos.reset();
+                }
+                try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                    oos.writeObject(value);
+                } catch (IOException e) {
+                    if (manager.getContext().getLogger().isDebugEnabled()) {
+                        manager.getContext().getLogger().debug(
+                                sm.getString("standardSession.notSerializable", name, id), e);
+                    }
+                    continue;
+                }
+                byte[] bytes = bos.toByteArray();
+                OffHeapAttributeStore.Entry previous = offHeapAttributes.get(name);
+                if (previous == null || !store.contentEquals(previous, bytes, bytes.length)) {
+                    OffHeapAttributeStore.Entry entry = store.write(bytes, bytes.length);
+                    if (entry == null) {
+                        // Store is full. Keep the attribute on the heap.
+                        continue;
+                    }
+                    offHeapAttributes.put(name, entry);
+                    if (previous != null) {
+                        store.free(previous);
+                    }
+                }
+                attributes.remove(name, value);
+            }
+        }
+    }
+
+
+    private void free(OffHeapAttributeStore.Entry entry) {
+        OffHeapManager offHeapManager = getOffHeapManager();
+        if (offHeapManager != null && offHeapManager.getAttributeStore() != null) {
+            offHeapManager.getAttributeStore().free(entry);
+        }
+    }
+
+
+    private ClassLoader getClassLoader() {
+        ClassLoader classLoader = null;
+        Loader loader = manager.getContext().getLoader();
+        if (loader != null) {
+            classLoader = loader.getClassLoader();
+        }
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+        return classLoader;
+    }
+}
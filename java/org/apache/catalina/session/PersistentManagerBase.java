@@ -424,16 +424,10 @@ public abstract class PersistentManagerBase extends ManagerBase
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         if(log.isDebugEnabled())
-             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (Session session : sessions) {
-            if (!session.isValid()) {
-                expiredSessions.incrementAndGet();
-                expireHere++;
-            }
-        }
+             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireSessions(timeNow);
+        expiredSessions.addAndGet(expireHere);
         processPersistenceChecks();
         if (getStore() instanceof StoreBase) {
             ((StoreBase) getStore()).processExpires();
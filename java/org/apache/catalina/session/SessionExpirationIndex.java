@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.catalina.Session;
+
+/**
+ * Index of sessions by the time at which they are due to expire. Sessions are
+ * grouped into buckets of {@link #TICK} milliseconds so that the background
+ * expiration process only needs to look at the sessions in the buckets that
+ * are due rather than at every session.
+ * <p>
+ * The index is split into shards, selected by the identity hash code of the
+ * session, so that scheduling sessions from concurrent requests rarely
+ * contends on the same lock.
+ * <p>
+ * The deadline recorded for a session is not updated each time the session
+ * is accessed. Accessing a session can only move its deadline later, so the
+ * session is looked at when its recorded deadline is reached and, if it is
+ * still valid, scheduled again with its current deadline.
+ */
+class SessionExpirationIndex {
+
+    /**
+     * The width, in milliseconds, of each bucket.
+     */
+    static final long TICK = 1000;
+
+    private static final int SHARD_COUNT = 16;
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+
+    SessionExpirationIndex() {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+
+    /**
+     * Add the session to the index or, if it is already present, move it to
+     * the bucket for the new deadline.
+     *
+     * @param session   The session
+     * @param deadline  The time, in milliseconds since the epoch, at which the
+     *                  session is due to expire. If negative, the session
+     *                  never expires and is removed from the index.
+     */
+    void schedule(Session session, long deadline) {
+        Shard shard = shard(session);
+        if (deadline < 0) {
+            shard.remove(session);
+        } else {
+            // Round up so a session is never looked at before it is due
+            shard.schedule(session, (deadline + TICK - 1) / TICK);
+        }
+    }
+
+
+    void remove(Session session) {
+        shard(session).remove(session);
+    }
+
+
+    /**
+     * Remove all the sessions that are due to expire at or before the given
+     * time from the index.
+     *
+     * @param timeNow   The current time in milliseconds since the epoch
+     * @param result    The list to which the due sessions are added
+     */
+    void pollDue(long timeNow, List<Session> result) {
+        long bucket = timeNow / TICK;
+        for (Shard shard : shards) {
+            shard.pollDue(bucket, result);
+        }
+    }
+
+
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+
+    void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+
+    private Shard shard(Session session) {
+        int h = System.identityHashCode(session);
+        return shards[(h ^ (h >>> 16)) & (SHARD_COUNT - 1)];
+    }
+
+
+    private static class Shard {
+
+        private final TreeMap<Long,Set<Session>> buckets = new TreeMap<>();
+        private final Map<Session,Long> scheduled = new IdentityHashMap<>();
+
+        synchronized void schedule(Session session, long bucket) {
+            Long key = Long.valueOf(bucket);
+            Long previous = scheduled.put(session, key);
+            if (previous != null) {
+                if (previous.longValue() == bucket) {
+                    return;
+                }
+                removeFromBucket(session, previous);
+            }
+            Set<Session> sessions = buckets.get(key);
+            if (sessions == null) {
+                sessions = Collections.newSetFromMap(new IdentityHashMap<Session,Boolean>());
+                buckets.put(key, sessions);
+            }
+            sessions.add(session);
+        }
+
+        synchronized void remove(Session session) {
+            Long previous = scheduled.remove(session);
+            if (previous != null) {
+                removeFromBucket(session, previous);
+            }
+        }
+
+        synchronized void pollDue(long bucket, List<Session> result) {
+            Iterator<Set<Session>> iter =
+                    buckets.headMap(Long.valueOf(bucket), true).values().iterator();
+            while (iter.hasNext()) {
+                Set<Session> sessions = iter.next();
+                for (Session session : sessions) {
+                    scheduled.remove(session);
+                    result.add(session);
+                }
+                iter.remove();
+            }
+        }
+
+        synchronized int size() {
+            return scheduled.size();
+        }
+
+        synchronized void clear() {
+            buckets.clear();
+            scheduled.clear();
+        }
+
+        private void removeFromBucket(Session session, Long bucket) {
+            Set<Session> sessions = buckets.get(bucket);
+            if (sessions != null) {
+                sessions.remove(session);
+                if (sessions.isEmpty()) {
+                    buckets.remove(bucket);
+                }
+            }
+        }
+    }
+}
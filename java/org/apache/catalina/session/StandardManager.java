@@ -218,6 +218,7 @@ public class StandardManager extends ManagerBase {
                         session.readObjectData(ois);
                         session.setManager(this);
                         sessions.put(session.getIdInternal(), session);
+                        scheduleExpiration(session);
                         session.activate();
                         if (!session.isValidInternal()) {
                             // If session is already invalid,
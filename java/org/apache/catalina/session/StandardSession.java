@@ -570,6 +570,10 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        // A shorter interval may bring the expiration forward
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).scheduleExpiration(this);
+        }
     }
 
 
@@ -19,7 +19,12 @@ package org.apache.catalina.valves;
 
 import java.io.CharArrayWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -48,10 +53,15 @@ import org.apache.catalina.connector.Response;
 import org.apache.catalina.util.TLSUtil;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.IPv6Utils;
 
 
@@ -90,6 +100,9 @@ import org.apache.tomcat.util.net.IPv6Utils;
  * <li><b>%T</b> - Time taken to process the request, in seconds
  * <li><b>%F</b> - Time taken to commit the response, in millis
  * <li><b>%I</b> - current Request thread name (can compare later with stacktraces)
+ * <li><b>%M</b> - Bytes allocated by the container thread while processing the
+ *     request, excluding those allocated by the servlet, or '-' if allocation
+ *     tracking is not enabled on the Connector
  * <li><b>%X</b> - Connection status when response is completed:
  *   <ul>
  *   <li><code>X</code> = Connection aborted before the response completed.</li>
@@ -119,6 +132,9 @@ import org.apache.tomcat.util.net.IPv6Utils;
  * <li><code>%{xxx}s</code> xxx is an attribute in the HttpSession
  * <li><code>%{xxx}t</code> xxx is an enhanced SimpleDateFormat pattern
  * (see Configuration Reference document for details on supported time patterns)
+ * <li><code>%{xxx}L</code> xxx is a request phase, e.g. <code>servlet</code>,
+ * and the time spent in it in microseconds is written if phase timing is
+ * enabled on the Connector
  * </ul>
  *
  * <p>
@@ -455,6 +471,12 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
      */
     protected AccessLogElement[] logElements = null;
 
+    /**
+     * The log elements used when rendering log messages directly into bytes.
+     * Elements that can't do that are wrapped in an adapter.
+     */
+    private ByteBufferAccessLogElement[] byteBufferElements = null;
+
     /**
      * Array of elements where the value needs to be cached at the start of the
      * request.
@@ -476,6 +498,13 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     private SynchronizedStack<CharArrayWriter> charArrayWriters =
             new SynchronizedStack<>();
 
+    /**
+     * Buffer pool used for log message generation when rendering directly into
+     * bytes.
+     */
+    private final SynchronizedStack<ByteBuffer> byteBuffers =
+            new SynchronizedStack<>();
+
     /**
      * Log message buffers are usually recycled and re-used. To prevent
      * excessive memory usage, if a buffer grows beyond this size it will be
@@ -569,6 +598,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             this.pattern = pattern;
         }
         logElements = createLogElements();
+        byteBufferElements = createByteBufferElements(logElements);
         cachedElements = createCachedElements(logElements);
     }
 
@@ -710,6 +740,11 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         long start = request.getCoyoteRequest().getStartTime();
         Date date = getDate(start + time);
 
+        if (isByteOutput()) {
+            logBytes(date, request, response, time);
+            return;
+        }
+
         CharArrayWriter result = charArrayWriters.pop();
         if (result == null) {
             result = new CharArrayWriter(128);
@@ -727,6 +762,35 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         }
     }
 
+
+    private void logBytes(Date date, Request request, Response response, long time) {
+        ByteBufferAccessLogElement[] elements = byteBufferElements;
+        ByteBuffer result = byteBuffers.pop();
+        if (result == null) {
+            result = ByteBuffer.allocate(256);
+        }
+
+        while (true) {
+            try {
+                for (ByteBufferAccessLogElement element : elements) {
+                    element.addElement(result, date, request, response, time);
+                }
+                break;
+            } catch (BufferOverflowException e) {
+                // Render the whole message again with a larger buffer
+                result = ByteBuffer.allocate(result.capacity() * 2);
+            }
+        }
+
+        result.flip();
+        log(result);
+
+        if (result.capacity() <= maxLogMessageBufferSize) {
+            result.clear();
+            byteBuffers.push(result);
+        }
+    }
+
     // -------------------------------------------------------- Protected Methods
 
     /**
@@ -737,6 +801,36 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
      */
     protected abstract void log(CharArrayWriter message);
 
+
+    /**
+     * Log the specified message that has been rendered directly into UTF-8
+     * encoded bytes. Only used if {@link #isByteOutput()} returns
+     * <code>true</code>. This implementation converts the message to
+     * characters and passes it to {@link #log(CharArrayWriter)}.
+     *
+     * @param message Message to be logged, positioned at the start of the
+     *  message. This object will be recycled by the calling method.
+     */
+    protected void log(ByteBuffer message) {
+        CharBuffer chars = StandardCharsets.UTF_8.decode(message);
+        CharArrayWriter result = new CharArrayWriter(chars.remaining());
+        result.append(chars);
+        log(result);
+    }
+
+
+    /**
+     * Should log messages be rendered directly into bytes and passed to
+     * {@link #log(ByteBuffer)} rather than rendered into characters and passed
+     * to {@link #log(CharArrayWriter)}?
+     *
+     * @return <code>true</code> to render log messages into bytes. This
+     *         implementation always returns <code>false</code>.
+     */
+    protected boolean isByteOutput() {
+        return false;
+    }
+
     // -------------------------------------------------------- Private Methods
 
     /**
@@ -811,6 +905,17 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 Response response, long time);
     }
 
+    /**
+     * AccessLogElement that can also write the partial message directly into
+     * a byte buffer as UTF-8 without converting the value to a String first.
+     * Implementations must not handle {@link BufferOverflowException}. The
+     * caller will provide a larger buffer and render the whole message again.
+     */
+    protected interface ByteBufferAccessLogElement extends AccessLogElement {
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time);
+    }
+
     /**
      * Marks an AccessLogElement as needing to be have the value cached at the
      * start of the request rather than just recorded at the end as the source
@@ -844,7 +949,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write local IP address - %A
      */
-    protected static class LocalAddrElement implements AccessLogElement {
+    protected static class LocalAddrElement implements ByteBufferAccessLogElement {
 
         private final String localAddrValue;
 
@@ -869,15 +974,31 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 Response response, long time) {
             buf.append(localAddrValue);
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            putString(buf, localAddrValue);
+        }
     }
 
     /**
      * write remote IP address - %a
      */
-    protected class RemoteAddrElement implements AccessLogElement, CachedElement {
+    protected class RemoteAddrElement implements ByteBufferAccessLogElement, CachedElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            buf.append(getValue(request));
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            putString(buf, getValue(request));
+        }
+
+        private String getValue(Request request) {
             String value = null;
             if (requestAttributesEnabled) {
                 Object addr = request.getAttribute(REMOTE_ADDR_ATTRIBUTE);
@@ -893,7 +1014,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             if (ipv6Canonical) {
                 value = IPv6Utils.canonize(value);
             }
-            buf.append(value);
+            return value;
         }
 
         @Override
@@ -907,10 +1028,20 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write remote host name - %h
      */
-    protected class HostElement implements AccessLogElement, CachedElement {
+    protected class HostElement implements ByteBufferAccessLogElement, CachedElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            buf.append(getValue(request));
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            putString(buf, getValue(request));
+        }
+
+        private String getValue(Request request) {
             String value = null;
             if (requestAttributesEnabled) {
                 Object host = request.getAttribute(REMOTE_HOST_ATTRIBUTE);
@@ -928,7 +1059,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             if (ipv6Canonical) {
                 value = IPv6Utils.canonize(value);
             }
-            buf.append(value);
+            return value;
         }
 
         @Override
@@ -942,38 +1073,51 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write remote logical username from identd (always returns '-') - %l
      */
-    protected static class LogicalUserNameElement implements AccessLogElement {
+    protected static class LogicalUserNameElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
             buf.append('-');
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            buf.put((byte) '-');
+        }
     }
 
     /**
      * write request protocol - %H
      */
-    protected class ProtocolElement implements AccessLogElement {
+    protected class ProtocolElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            buf.append(getValue(request));
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            putString(buf, getValue(request));
+        }
+
+        private String getValue(Request request) {
             if (requestAttributesEnabled) {
                 Object proto = request.getAttribute(PROTOCOL_ATTRIBUTE);
-                if (proto == null) {
-                    buf.append(request.getProtocol());
-                } else {
-                    buf.append(proto.toString());
+                if (proto != null) {
+                    return proto.toString();
                 }
-            } else {
-                buf.append(request.getProtocol());
             }
+            return request.getProtocol();
         }
     }
 
     /**
      * write remote user that was authenticated (if any), else '-' - %u
      */
-    protected static class UserElement implements AccessLogElement {
+    protected static class UserElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -988,12 +1132,26 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            String value = null;
+            if (request != null) {
+                value = request.getRemoteUser();
+            }
+            if (value != null) {
+                putString(buf, value);
+            } else {
+                buf.put((byte) '-');
+            }
+        }
     }
 
     /**
      * write date and time, in configurable format (default CLF) - %t or %{format}t
      */
-    protected class DateAndTimeElement implements AccessLogElement {
+    protected class DateAndTimeElement implements ByteBufferAccessLogElement {
 
         /**
          * Format prefix specifying request start time
@@ -1146,31 +1304,64 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(Long.toString(frac));
             } else {
                 // FormatType.SDF
-                String temp = localDateCache.get().getFormat(format, locale, timestamp);
-                if (usesMsecs) {
-                    frac = timestamp % 1000;
-                    StringBuilder trippleMsec = new StringBuilder(4);
-                    if (frac < 100) {
-                        if (frac < 10) {
-                            trippleMsec.append('0');
-                            trippleMsec.append('0');
-                        } else {
-                            trippleMsec.append('0');
-                        }
+                buf.append(formatSdf(timestamp));
+            }
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            long timestamp = date.getTime();
+            if (usesBegin) {
+                timestamp -= time;
+            }
+            // See the implementation note above for why this is not a switch
+            if (type == FormatType.CLF) {
+                putString(buf, localDateCache.get().getFormat(timestamp));
+            } else if (type == FormatType.SEC) {
+                putLong(buf, timestamp / 1000);
+            } else if (type == FormatType.MSEC) {
+                putLong(buf, timestamp);
+            } else if (type == FormatType.MSEC_FRAC) {
+                long frac = timestamp % 1000;
+                if (frac < 100) {
+                    buf.put((byte) '0');
+                    if (frac < 10) {
+                        buf.put((byte) '0');
                     }
-                    trippleMsec.append(frac);
-                    temp = temp.replace(trippleMsecPattern, trippleMsec);
-                    temp = temp.replace(msecPattern, Long.toString(frac));
                 }
-                buf.append(temp);
+                putLong(buf, frac);
+            } else {
+                // FormatType.SDF
+                putString(buf, formatSdf(timestamp));
             }
         }
+
+        private String formatSdf(long timestamp) {
+            String temp = localDateCache.get().getFormat(format, locale, timestamp);
+            if (usesMsecs) {
+                long frac = timestamp % 1000;
+                StringBuilder trippleMsec = new StringBuilder(4);
+                if (frac < 100) {
+                    if (frac < 10) {
+                        trippleMsec.append('0');
+                        trippleMsec.append('0');
+                    } else {
+                        trippleMsec.append('0');
+                    }
+                }
+                trippleMsec.append(frac);
+                temp = temp.replace(trippleMsecPattern, trippleMsec);
+                temp = temp.replace(msecPattern, Long.toString(frac));
+            }
+            return temp;
+        }
     }
 
     /**
      * write first line of the request (method and request URI) - %r
      */
-    protected static class RequestElement implements AccessLogElement {
+    protected static class RequestElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1194,12 +1385,36 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                org.apache.coyote.Request coyoteRequest = request.getCoyoteRequest();
+                if (coyoteRequest.method().isNull()) {
+                    // No method means no request line
+                    buf.put((byte) '-');
+                } else {
+                    putMessageBytes(buf, coyoteRequest.method());
+                    buf.put((byte) ' ');
+                    putMessageBytes(buf, coyoteRequest.requestURI());
+                    if (!coyoteRequest.queryString().isNull()) {
+                        buf.put((byte) '?');
+                        putMessageBytes(buf, coyoteRequest.queryString());
+                    }
+                    buf.put((byte) ' ');
+                    putMessageBytes(buf, coyoteRequest.protocol());
+                }
+            } else {
+                buf.put((byte) '-');
+            }
+        }
     }
 
     /**
      * write HTTP status code of the response - %s
      */
-    protected static class HttpStatusCodeElement implements AccessLogElement {
+    protected static class HttpStatusCodeElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1217,6 +1432,16 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (response != null) {
+                putLong(buf, response.getStatus());
+            } else {
+                buf.put((byte) '-');
+            }
+        }
     }
 
     /**
@@ -1281,7 +1506,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write bytes sent, excluding HTTP headers - %b, %B
      */
-    protected static class ByteSentElement implements AccessLogElement {
+    protected static class ByteSentElement implements ByteBufferAccessLogElement {
         private final boolean conversion;
 
         /**
@@ -1294,6 +1519,15 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            long length = getLength(request, response);
+            if (length <= 0 && conversion) {
+                buf.append('-');
+            } else {
+                buf.append(Long.toString(length));
+            }
+        }
+
+        private static long getLength(Request request, Response response) {
             // Don't need to flush since trigger for log message is after the
             // response has been committed
             long length = response.getBytesWritten(false);
@@ -1311,10 +1545,17 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                     }
                 }
             }
+            return length;
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            long length = getLength(request, response);
             if (length <= 0 && conversion) {
-                buf.append('-');
+                buf.put((byte) '-');
             } else {
-                buf.append(Long.toString(length));
+                putLong(buf, length);
             }
         }
     }
@@ -1322,7 +1563,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write request method (GET, POST, etc.) - %m
      */
-    protected static class MethodElement implements AccessLogElement {
+    protected static class MethodElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1330,12 +1571,20 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(request.getMethod());
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                putMessageBytes(buf, request.getCoyoteRequest().method());
+            }
+        }
     }
 
     /**
      * write time taken to process the request - %D, %T
      */
-    protected static class ElapsedTimeElement implements AccessLogElement {
+    protected static class ElapsedTimeElement implements ByteBufferAccessLogElement {
         private final boolean millis;
 
         /**
@@ -1362,12 +1611,29 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(Long.toString(remains % 10));
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (millis) {
+                putLong(buf, time);
+            } else {
+                // second
+                putLong(buf, time / 1000);
+                buf.put((byte) '.');
+                int remains = (int) (time % 1000);
+                buf.put((byte) ('0' + remains / 100));
+                remains = remains % 100;
+                buf.put((byte) ('0' + remains / 10));
+                buf.put((byte) ('0' + remains % 10));
+            }
+        }
     }
 
     /**
      * write time until first byte is written (commit time) in millis - %F
      */
-    protected static class FirstByteTimeElement implements AccessLogElement {
+    protected static class FirstByteTimeElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request, Response response, long time) {
             long commitTime = response.getCoyoteResponse().getCommitTime();
@@ -1378,12 +1644,79 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(Long.toString(delta));
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request, Response response, long time) {
+            long commitTime = response.getCoyoteResponse().getCommitTime();
+            if (commitTime == -1) {
+                buf.put((byte) '-');
+            } else {
+                putLong(buf, commitTime - request.getCoyoteRequest().getStartTime());
+            }
+        }
+    }
+
+    /**
+     * write bytes allocated while processing the request - %M
+     */
+    protected static class AllocatedBytesElement implements ByteBufferAccessLogElement {
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request, Response response, long time) {
+            long allocatedBytes = request.getAllocatedBytes();
+            if (allocatedBytes == -1) {
+                buf.append('-');
+            } else {
+                buf.append(Long.toString(allocatedBytes));
+            }
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request, Response response, long time) {
+            long allocatedBytes = request.getAllocatedBytes();
+            if (allocatedBytes == -1) {
+                buf.put((byte) '-');
+            } else {
+                putLong(buf, allocatedBytes);
+            }
+        }
+    }
+
+    /**
+     * write time spent in a phase of request processing, in microseconds -
+     * %{xxx}L
+     */
+    protected static class PhaseTimeElement implements ByteBufferAccessLogElement {
+        private final RequestPhase phase;
+
+        public PhaseTimeElement(RequestPhase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request, Response response, long time) {
+            long nanos = request.getCoyoteRequest().getPhaseTime(phase);
+            if (nanos == -1) {
+                buf.append('-');
+            } else {
+                buf.append(Long.toString(nanos / 1000));
+            }
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request, Response response, long time) {
+            long nanos = request.getCoyoteRequest().getPhaseTime(phase);
+            if (nanos == -1) {
+                buf.put((byte) '-');
+            } else {
+                putLong(buf, nanos / 1000);
+            }
+        }
     }
 
     /**
      * write Query string (prepended with a '?' if it exists) - %q
      */
-    protected static class QueryElement implements AccessLogElement {
+    protected static class QueryElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1396,12 +1729,24 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(query);
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                MessageBytes query = request.getCoyoteRequest().queryString();
+                if (!query.isNull()) {
+                    buf.put((byte) '?');
+                    putMessageBytes(buf, query);
+                }
+            }
+        }
     }
 
     /**
      * write user session ID - %S
      */
-    protected static class SessionIdElement implements AccessLogElement {
+    protected static class SessionIdElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1416,12 +1761,26 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 }
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            Session session = null;
+            if (request != null) {
+                session = request.getSessionInternal(false);
+            }
+            if (session == null) {
+                buf.put((byte) '-');
+            } else {
+                putString(buf, session.getIdInternal());
+            }
+        }
     }
 
     /**
      * write requested URL path - %U
      */
-    protected static class RequestURIElement implements AccessLogElement {
+    protected static class RequestURIElement implements ByteBufferAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1431,6 +1790,16 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                putMessageBytes(buf, request.getCoyoteRequest().requestURI());
+            } else {
+                buf.put((byte) '-');
+            }
+        }
     }
 
     /**
@@ -1464,11 +1833,13 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write any string
      */
-    protected static class StringElement implements AccessLogElement {
+    protected static class StringElement implements ByteBufferAccessLogElement {
         private final String str;
+        private final byte[] bytes;
 
         public StringElement(String str) {
             this.str = str;
+            this.bytes = str.getBytes(StandardCharsets.UTF_8);
         }
 
         @Override
@@ -1476,12 +1847,18 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 Response response, long time) {
             buf.append(str);
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            buf.put(bytes);
+        }
     }
 
     /**
      * write incoming headers - %{xxx}i
      */
-    protected static class HeaderElement implements AccessLogElement {
+    protected static class HeaderElement implements ByteBufferAccessLogElement {
         private final String header;
 
         public HeaderElement(String header) {
@@ -1501,6 +1878,14 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             }
             buf.append('-');
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (!putHeaderValues(buf, request.getCoyoteRequest().getMimeHeaders(), header)) {
+                buf.put((byte) '-');
+            }
+        }
     }
 
     /**
@@ -1533,7 +1918,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write a specific response header - %{xxx}o
      */
-    protected static class ResponseHeaderElement implements AccessLogElement {
+    protected static class ResponseHeaderElement implements ByteBufferAccessLogElement {
         private final String header;
 
         public ResponseHeaderElement(String header) {
@@ -1555,6 +1940,15 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             }
             buf.append('-');
         }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            if (null == response || !putHeaderValues(
+                    buf, response.getCoyoteResponse().getMimeHeaders(), header)) {
+                buf.put((byte) '-');
+            }
+        }
     }
 
     /**
@@ -1664,6 +2058,221 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         }
     }
 
+    /**
+     * Adapts an AccessLogElement that can only write characters so it can be
+     * used when rendering log messages into bytes.
+     */
+    private static class CharsToBytesElement implements ByteBufferAccessLogElement {
+
+        private final AccessLogElement element;
+        private final SynchronizedStack<CharsToBytesWriter> writers = new SynchronizedStack<>();
+
+        CharsToBytesElement(AccessLogElement element) {
+            this.element = element;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time) {
+            element.addElement(buf, date, request, response, time);
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            CharsToBytesWriter writer = writers.pop();
+            if (writer == null) {
+                writer = new CharsToBytesWriter();
+            }
+            try {
+                element.addElement(writer.chars, date, request, response, time);
+                writer.buf = buf;
+                writer.chars.writeTo(writer);
+            } catch (IOException e) {
+                // Not possible
+            } finally {
+                writer.buf = null;
+                writer.chars.reset();
+                writers.push(writer);
+            }
+        }
+    }
+
+
+    private static class CharsToBytesWriter extends Writer {
+
+        private final CharArrayWriter chars = new CharArrayWriter(64);
+        private ByteBuffer buf;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            putChars(buf, cbuf, off, len);
+        }
+
+        @Override
+        public void flush() {
+            // NO-OP
+        }
+
+        @Override
+        public void close() {
+            // NO-OP
+        }
+    }
+
+
+    /**
+     * Write a String to the buffer as UTF-8.
+     *
+     * @param buf   The buffer to write to
+     * @param value The value to write
+     */
+    protected static void putString(ByteBuffer buf, String value) {
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else {
+                i = putNonAscii(buf, c, i + 1 < len ? value.charAt(i + 1) : 0, i);
+            }
+        }
+    }
+
+
+    /**
+     * Write characters to the buffer as UTF-8.
+     *
+     * @param buf   The buffer to write to
+     * @param chars The characters to write
+     * @param off   The offset of the first character to write
+     * @param len   The number of characters to write
+     */
+    protected static void putChars(ByteBuffer buf, char[] chars, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else {
+                i = putNonAscii(buf, c, i + 1 < end ? chars[i + 1] : 0, i);
+            }
+        }
+    }
+
+
+    /*
+     * Returns the index of the last character consumed.
+     */
+    private static int putNonAscii(ByteBuffer buf, char c, char next, int index) {
+        if (c < 0x800) {
+            buf.put((byte) (0xC0 | (c >> 6)));
+            buf.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            int cp = Character.toCodePoint(c, next);
+            buf.put((byte) (0xF0 | (cp >> 18)));
+            buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            buf.put((byte) (0x80 | (cp & 0x3F)));
+            return index + 1;
+        } else if (Character.isSurrogate(c)) {
+            buf.put((byte) '?');
+        } else {
+            buf.put((byte) (0xE0 | (c >> 12)));
+            buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buf.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return index;
+    }
+
+
+    /**
+     * Write the decimal representation of a number to the buffer without
+     * creating a String.
+     *
+     * @param buf   The buffer to write to
+     * @param value The value to write
+     */
+    protected static void putLong(ByteBuffer buf, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                putString(buf, Long.toString(value));
+                return;
+            }
+            buf.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buf.put((byte) ('0' + (value / divisor)));
+            value = value % divisor;
+            divisor /= 10;
+        }
+    }
+
+
+    /**
+     * Write the value of a MessageBytes to the buffer as UTF-8 without
+     * converting it to a String. Bytes are treated as ISO-8859-1, which is the
+     * encoding used for HTTP header values and the raw request line.
+     *
+     * @param buf   The buffer to write to
+     * @param mb    The value to write
+     */
+    protected static void putMessageBytes(ByteBuffer buf, MessageBytes mb) {
+        switch (mb.getType()) {
+        case MessageBytes.T_BYTES: {
+            ByteChunk bc = mb.getByteChunk();
+            byte[] bytes = bc.getBuffer();
+            int end = bc.getEnd();
+            for (int i = bc.getStart(); i < end; i++) {
+                byte b = bytes[i];
+                if (b >= 0) {
+                    buf.put(b);
+                } else {
+                    buf.put((byte) (0xC0 | ((b & 0xFF) >> 6)));
+                    buf.put((byte) (0x80 | (b & 0x3F)));
+                }
+            }
+            break;
+        }
+        case MessageBytes.T_CHARS: {
+            CharChunk cc = mb.getCharChunk();
+            putChars(buf, cc.getBuffer(), cc.getStart(), cc.getLength());
+            break;
+        }
+        case MessageBytes.T_STR:
+            putString(buf, mb.getString());
+            break;
+        default:
+            break;
+        }
+    }
+
+
+    /*
+     * Writes all the values of the named header separated by commas. Returns
+     * false if there are no values.
+     */
+    private static boolean putHeaderValues(ByteBuffer buf, MimeHeaders headers, String name) {
+        boolean found = false;
+        int size = headers.size();
+        for (int i = 0; i < size; i++) {
+            if (headers.getName(i).equalsIgnoreCase(name)) {
+                if (found) {
+                    buf.put((byte) ',');
+                }
+                putMessageBytes(buf, headers.getValue(i));
+                found = true;
+            }
+        }
+        return found;
+    }
+
+
     /**
      * Parse pattern string and create the array of AccessLogElement.
      * @return the log elements array
@@ -1715,6 +2324,19 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     }
 
 
+    private static ByteBufferAccessLogElement[] createByteBufferElements(AccessLogElement[] elements) {
+        ByteBufferAccessLogElement[] result = new ByteBufferAccessLogElement[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] instanceof ByteBufferAccessLogElement) {
+                result[i] = (ByteBufferAccessLogElement) elements[i];
+            } else {
+                result[i] = new CharsToBytesElement(elements[i]);
+            }
+        }
+        return result;
+    }
+
+
     private CachedElement[] createCachedElements(AccessLogElement[] elements) {
         List<CachedElement> list = new ArrayList<>();
         for (AccessLogElement element : elements) {
@@ -1751,6 +2373,12 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             return new SessionAttributeElement(name);
         case 't':
             return new DateAndTimeElement(name);
+        case 'L':
+            RequestPhase phase = RequestPhase.forName(name);
+            if (phase == null) {
+                return new StringElement("???");
+            }
+            return new PhaseTimeElement(phase);
         default:
             return new StringElement("???");
         }
@@ -1783,6 +2411,8 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             return new LogicalUserNameElement();
         case 'm':
             return new MethodElement();
+        case 'M':
+            return new AllocatedBytesElement();
         case 'p':
             return new PortElement();
         case 'q':
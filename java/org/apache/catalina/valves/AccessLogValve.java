@@ -17,26 +17,42 @@
 package org.apache.catalina.valves;
 
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 
 
 /**
@@ -46,6 +62,7 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * <ul>
  * <li>Automatic date-based rollover of log files</li>
  * <li>Optional log file rotation</li>
+ * <li>Optional asynchronous writing of log entries by a dedicated thread</li>
  * </ul>
  * <p>
  * For UNIX users, another field called <code>checkExists</code> is also
@@ -120,6 +137,13 @@ public class AccessLogValve extends AbstractAccessLogValve {
     protected PrintWriter writer = null;
 
 
+    /**
+     * The stream to which log messages rendered directly into bytes are
+     * written, if any. The {@link #writer} writes to this stream as well.
+     */
+    private OutputStream outputStream = null;
+
+
     /**
      * A date formatter to format a Date using the format
      * given by <code>fileDateFormat</code>.
@@ -163,6 +187,54 @@ public class AccessLogValve extends AbstractAccessLogValve {
     private int maxDays = -1;
     private volatile boolean checkForOldLogs = false;
 
+    /**
+     * Should log entries be written by a dedicated thread rather than by the
+     * thread processing the request?
+     */
+    private boolean asyncWrite = false;
+
+    /**
+     * The maximum number of log entries that may be waiting to be written
+     * when writing asynchronously.
+     */
+    private int asyncQueueSize = 8192;
+
+    /**
+     * What to do with a log entry when writing asynchronously and the queue
+     * is full.
+     */
+    private String asyncOverflowPolicy = OVERFLOW_POLICY_BLOCK;
+
+    /**
+     * The number of log entries discarded because the queue was full.
+     */
+    private final AtomicLong asyncDroppedCount = new AtomicLong(0);
+
+    private volatile AsyncLogWriter asyncLogWriter = null;
+
+    /**
+     * Should log messages be rendered directly into UTF-8 encoded bytes?
+     */
+    private boolean byteOutput = false;
+
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Wait for space in the queue.
+     */
+    public static final String OVERFLOW_POLICY_BLOCK = "block";
+
+    /**
+     * Discard the log entry.
+     */
+    public static final String OVERFLOW_POLICY_DROP = "drop";
+
+    /**
+     * Write the log entry from the request processing thread.
+     */
+    public static final String OVERFLOW_POLICY_INLINE = "inline";
+
     // ------------------------------------------------------------- Properties
 
 
@@ -295,6 +367,125 @@ public class AccessLogValve extends AbstractAccessLogValve {
     }
 
 
+    /**
+     * Are log entries written asynchronously by a dedicated thread?
+     * @return <code>true</code> if log entries are written asynchronously
+     */
+    public boolean isAsyncWrite() {
+        return asyncWrite;
+    }
+
+
+    /**
+     * Should log entries be written asynchronously by a dedicated thread?
+     * This only takes effect when the valve is next started.
+     *
+     * @param asyncWrite <code>true</code> to write log entries asynchronously
+     */
+    public void setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+    }
+
+
+    /**
+     * Are log messages rendered directly into UTF-8 encoded bytes and written
+     * to the log file without an intermediate character representation?
+     *
+     * @return <code>true</code> if log messages are rendered into bytes
+     */
+    @Override
+    public boolean isByteOutput() {
+        return byteOutput;
+    }
+
+
+    /**
+     * Should log messages be rendered directly into UTF-8 encoded bytes? When
+     * enabled, the log file is always written using UTF-8 and the
+     * <code>encoding</code> attribute is ignored. This only takes effect when
+     * the valve is next started.
+     *
+     * @param byteOutput <code>true</code> to render log messages into bytes
+     */
+    public void setByteOutput(boolean byteOutput) {
+        this.byteOutput = byteOutput;
+    }
+
+
+    /**
+     * @return the maximum number of log entries waiting to be written when
+     *         writing asynchronously
+     */
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of log entries waiting to be written when
+     * writing asynchronously. This only takes effect when the valve is next
+     * started.
+     *
+     * @param asyncQueueSize The new queue size
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+
+    /**
+     * @return the policy applied when writing asynchronously and the queue is
+     *         full
+     */
+    public String getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+
+    /**
+     * Set the policy to apply when writing asynchronously and the queue is
+     * full. One of <code>block</code> to wait for space in the queue,
+     * <code>drop</code> to discard the entry or <code>inline</code> to write
+     * the entry from the request processing thread.
+     *
+     * @param asyncOverflowPolicy The new policy
+     */
+    public void setAsyncOverflowPolicy(String asyncOverflowPolicy) {
+        if (OVERFLOW_POLICY_BLOCK.equalsIgnoreCase(asyncOverflowPolicy)) {
+            this.asyncOverflowPolicy = OVERFLOW_POLICY_BLOCK;
+        } else if (OVERFLOW_POLICY_DROP.equalsIgnoreCase(asyncOverflowPolicy)) {
+            this.asyncOverflowPolicy = OVERFLOW_POLICY_DROP;
+        } else if (OVERFLOW_POLICY_INLINE.equalsIgnoreCase(asyncOverflowPolicy)) {
+            this.asyncOverflowPolicy = OVERFLOW_POLICY_INLINE;
+        } else {
+            throw new IllegalArgumentException(sm.getString(
+                    "accessLogValve.invalidOverflowPolicy", asyncOverflowPolicy));
+        }
+    }
+
+
+    /**
+     * @return the number of log entries waiting to be written by the
+     *         asynchronous writer
+     */
+    public int getAsyncQueueDepth() {
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter == null) {
+            return 0;
+        }
+        return asyncLogWriter.queue.size();
+    }
+
+
+    /**
+     * @return the number of log entries discarded because the queue of the
+     *         asynchronous writer was full
+     */
+    public long getAsyncDroppedCount() {
+        return asyncDroppedCount.get();
+    }
+
+
     /**
      * @return the log file suffix.
      */
@@ -373,7 +564,7 @@ public class AccessLogValve extends AbstractAccessLogValve {
     public synchronized void backgroundProcess() {
         if (getState().isAvailable() && getEnabled() && writer != null &&
                 buffered) {
-            writer.flush();
+            flushWriter();
         }
 
         int maxDays = this.maxDays;
@@ -457,7 +648,21 @@ public class AccessLogValve extends AbstractAccessLogValve {
      * @param newFileName The file name to move the log file entry to
      * @return true if a file was rotated with no error
      */
-    public synchronized boolean rotate(String newFileName) {
+    public boolean rotate(String newFileName) {
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter != null) {
+            // Let the writer thread perform the rotation so entries logged
+            // before this call end up in the rotated file
+            Boolean result = asyncLogWriter.rotate(newFileName);
+            if (result != null) {
+                return result.booleanValue();
+            }
+        }
+        return doRotate(newFileName);
+    }
+
+
+    private synchronized boolean doRotate(String newFileName) {
 
         if (currentLogFile != null) {
             File holder = currentLogFile;
@@ -556,6 +761,7 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
         writer.flush();
         writer.close();
+        outputStream = null;
         if (rename && renameOnRotate) {
             File newLogFile = getLogFile(true);
             if (!newLogFile.exists()) {
@@ -586,6 +792,31 @@ public class AccessLogValve extends AbstractAccessLogValve {
     @Override
     public void log(CharArrayWriter message) {
 
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter != null) {
+            message.append(System.lineSeparator());
+            if (asyncLogWriter.offer(message.toCharArray())) {
+                return;
+            }
+            // Queue is full and the overflow policy is to write inline
+            checkLogFile();
+            write(message);
+            return;
+        }
+
+        checkLogFile();
+
+        // Log this message
+        message.append(System.lineSeparator());
+        write(message);
+    }
+
+
+    /**
+     * Switch files if the date has changed or if the current file no longer
+     * exists and existence checks are enabled.
+     */
+    private void checkLogFile() {
         rotate();
 
         /* In case something external rotated the file instead */
@@ -607,15 +838,16 @@ public class AccessLogValve extends AbstractAccessLogValve {
                 }
             }
         }
+    }
 
-        // Log this message
+
+    private void write(CharArrayWriter message) {
         try {
-            message.write(System.lineSeparator());
             synchronized(this) {
                 if (writer != null) {
                     message.writeTo(writer);
                     if (!buffered) {
-                        writer.flush();
+                        flushWriter();
                     }
                 }
             }
@@ -626,6 +858,88 @@ public class AccessLogValve extends AbstractAccessLogValve {
     }
 
 
+    /**
+     * Log the specified message, rendered as UTF-8 encoded bytes, to the log
+     * file, switching files if the date has changed since the previous log
+     * call.
+     *
+     * @param message Message to be logged
+     */
+    @Override
+    protected void log(ByteBuffer message) {
+
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter != null) {
+            ByteBuffer entry = asyncLogWriter.getEntryBuffer(message.remaining() + LINE_SEPARATOR.length);
+            entry.put(message);
+            entry.put(LINE_SEPARATOR);
+            entry.flip();
+            if (asyncLogWriter.offer(entry)) {
+                return;
+            }
+            // Queue is full and the overflow policy is to write inline
+            checkLogFile();
+            write(entry.array(), entry.arrayOffset(), entry.limit(), false);
+            asyncLogWriter.recycle(entry);
+            return;
+        }
+
+        checkLogFile();
+
+        write(message.array(), message.arrayOffset() + message.position(),
+                message.remaining(), true);
+    }
+
+
+    private void write(byte[] message, int off, int len, boolean lineSeparator) {
+        try {
+            synchronized(this) {
+                if (outputStream != null) {
+                    // Anything written via the writer (e.g. file headers) has
+                    // to reach the stream first
+                    writer.flush();
+                    outputStream.write(message, off, len);
+                    if (lineSeparator) {
+                        outputStream.write(LINE_SEPARATOR);
+                    }
+                } else if (writer != null) {
+                    // The file was opened before byte output was enabled
+                    writer.write(new String(message, off, len, StandardCharsets.UTF_8));
+                    if (lineSeparator) {
+                        writer.write(System.lineSeparator());
+                    }
+                } else {
+                    return;
+                }
+                if (!buffered) {
+                    flushWriter();
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString("accessLogValve.writeFail",
+                    new String(message, off, len, StandardCharsets.UTF_8)), ioe);
+        }
+    }
+
+
+    /*
+     * Flush the writer and, when writing bytes directly, the underlying
+     * stream.
+     */
+    private synchronized void flushWriter() {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (outputStream != null) {
+            try {
+                outputStream.flush();
+            } catch (IOException ioe) {
+                log.warn(sm.getString("accessLogValve.flushFail"), ioe);
+            }
+        }
+    }
+
+
     /**
      * Open the new log file for the date specified by <code>dateStamp</code>.
      */
@@ -648,13 +962,26 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
 
         try {
-            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(pathname, true), charset), 128000),
-                    false);
+            if (byteOutput) {
+                // Log messages are written directly to the stream. Anything
+                // else, such as file headers, is written via the writer
+                // which uses the same stream but must not force it to be
+                // flushed to the file.
+                outputStream = new BufferedOutputStream(
+                        new FileOutputStream(pathname, true), 128000);
+                writer = new PrintWriter(new OutputStreamWriter(
+                        new NoFlushOutputStream(outputStream), StandardCharsets.UTF_8),
+                        false);
+            } else {
+                writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(pathname, true), charset), 128000),
+                        false);
+            }
 
             currentLogFile = pathname;
         } catch (IOException e) {
             writer = null;
+            outputStream = null;
             currentLogFile = null;
             log.error(sm.getString("accessLogValve.openFail", pathname), e);
         }
@@ -684,6 +1011,11 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
         open();
 
+        if (asyncWrite) {
+            asyncLogWriter = new AsyncLogWriter(asyncQueueSize, asyncOverflowPolicy);
+            asyncLogWriter.start();
+        }
+
         super.startInternal();
     }
 
@@ -699,6 +1031,296 @@ public class AccessLogValve extends AbstractAccessLogValve {
     protected synchronized void stopInternal() throws LifecycleException {
 
         super.stopInternal();
+
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter != null) {
+            this.asyncLogWriter = null;
+            asyncLogWriter.stop();
+        }
         close(false);
     }
+
+
+    /**
+     * Writes log entries from a dedicated thread. Entries are taken from a
+     * bounded queue in batches and each batch is written to the log file with
+     * a single write. Rotations requested via {@link #rotate(String)} pass
+     * through the same queue so they are ordered with respect to the entries.
+     */
+    private class AsyncLogWriter implements Runnable {
+
+        private static final int MAX_BATCH_SIZE = 1024;
+
+        // Larger entry buffers are not re-used
+        private static final int MAX_ENTRY_BUFFER_SIZE = 64 * 1024;
+
+        // Seconds to wait for the writer thread to perform a rotation
+        private static final int ROTATE_TIMEOUT = 10;
+
+        private final Object stopMarker = new Object();
+
+        private final BlockingQueue<Object> queue;
+        private final String overflowPolicy;
+        private final CharArrayWriter batchBuffer = new CharArrayWriter(8192);
+        private final ByteArrayOutputStream batchBytes = new ByteArrayOutputStream(8192);
+        private final SynchronizedStack<ByteBuffer> entryBuffers;
+        private volatile boolean running = true;
+        private Thread thread;
+
+        AsyncLogWriter(int queueSize, String overflowPolicy) {
+            queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+            this.overflowPolicy = overflowPolicy;
+            entryBuffers = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+                    Math.min(Math.max(1, queueSize), MAX_BATCH_SIZE));
+        }
+
+        /**
+         * @param capacity The minimum capacity required
+         * @return A buffer for a formatted log entry. The buffer is returned
+         *         to the pool once the entry has been written.
+         */
+        ByteBuffer getEntryBuffer(int capacity) {
+            ByteBuffer result = entryBuffers.pop();
+            if (result == null || result.capacity() < capacity) {
+                // Round up so the buffer can be re-used for similar entries
+                int size = 256;
+                while (size < capacity) {
+                    size <<= 1;
+                }
+                result = ByteBuffer.allocate(size);
+            }
+            return result;
+        }
+
+        void recycle(ByteBuffer entry) {
+            if (entry.capacity() <= MAX_ENTRY_BUFFER_SIZE) {
+                entry.clear();
+                entryBuffers.push(entry);
+            }
+        }
+
+        void start() {
+            thread = new Thread(this, "AccessLogWriter[" + getContainer().getName() + "]");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /*
+         * Called with the lock on the valve held. The writer thread needs that
+         * lock to write so wait() on the valve to release it while waiting for
+         * the writer thread to finish.
+         */
+        void stop() {
+            running = false;
+            try {
+                while (!queue.offer(stopMarker)) {
+                    AccessLogValve.this.wait(10);
+                }
+                while (thread.isAlive()) {
+                    AccessLogValve.this.wait(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Write anything that was queued after the stop marker
+            List<Object> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                try {
+                    writeBatch(remaining);
+                } catch (IOException e) {
+                    log.error(sm.getString("accessLogValve.asyncWriteFail"), e);
+                }
+                // Rotations that were not run are performed by the caller
+                cancelTasks(remaining);
+            }
+        }
+
+        /**
+         * @param entry The formatted log entry, either a <code>char[]</code>
+         *              or a <code>ByteBuffer</code> obtained from
+         *              {@link #getEntryBuffer(int)}
+         * @return <code>true</code> if the entry was queued or dropped,
+         *         <code>false</code> if it should be written inline
+         */
+        boolean offer(Object entry) {
+            if (queue.offer(entry)) {
+                return true;
+            }
+            if (OVERFLOW_POLICY_INLINE == overflowPolicy) {
+                return false;
+            }
+            if (OVERFLOW_POLICY_BLOCK == overflowPolicy && running) {
+                try {
+                    queue.put(entry);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            asyncDroppedCount.incrementAndGet();
+            if (entry instanceof ByteBuffer) {
+                recycle((ByteBuffer) entry);
+            }
+            return true;
+        }
+
+        /**
+         * @param newFileName The file name to move the log file to
+         * @return the result of the rotation or <code>null</code> if the
+         *         writer has stopped or did not perform the rotation in time
+         *         and the caller should perform it instead
+         */
+        Boolean rotate(final String newFileName) {
+            FutureTask<Boolean> task = new FutureTask<>(() -> Boolean.valueOf(doRotate(newFileName)));
+            try {
+                // stop() is called with the lock on the valve held so the
+                // rotation is either queued before stop() starts, and will be
+                // run or cancelled by it, or not queued at all
+                synchronized (AccessLogValve.this) {
+                    while (running && !queue.offer(task)) {
+                        // Let the writer thread write and make space
+                        AccessLogValve.this.wait(10);
+                    }
+                    if (!running) {
+                        return null;
+                    }
+                }
+                return task.get(ROTATE_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Boolean.FALSE;
+            } catch (ExecutionException e) {
+                log.error(sm.getString("accessLogValve.rotateFail"), e.getCause());
+                return Boolean.FALSE;
+            } catch (CancellationException e) {
+                return null;
+            } catch (TimeoutException e) {
+                if (task.cancel(false)) {
+                    // The writer thread did not get to it in time
+                    return null;
+                }
+                // Already started so wait for it to complete
+                try {
+                    return task.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return Boolean.FALSE;
+                } catch (ExecutionException ee) {
+                    log.error(sm.getString("accessLogValve.rotateFail"), ee.getCause());
+                    return Boolean.FALSE;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Object> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            boolean stop = false;
+            while (!stop) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    // Ignore. Only stopped via the stop marker.
+                    continue;
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                try {
+                    stop = writeBatch(batch);
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    log.error(sm.getString("accessLogValve.asyncWriteFail"), t);
+                }
+                cancelTasks(batch);
+                batch.clear();
+            }
+        }
+
+        /*
+         * Cancel any rotation that was not run because writing the batch
+         * failed. The thread waiting for it then performs the rotation.
+         */
+        private void cancelTasks(List<Object> batch) {
+            for (Object item : batch) {
+                if (item instanceof FutureTask) {
+                    ((FutureTask<?>) item).cancel(false);
+                }
+            }
+        }
+
+        private boolean writeBatch(List<Object> batch) throws IOException {
+            boolean stop = false;
+            checkLogFile();
+            synchronized (AccessLogValve.this) {
+                for (Object item : batch) {
+                    if (item instanceof char[]) {
+                        flushBatchBytes();
+                        batchBuffer.write((char[]) item);
+                    } else if (item instanceof ByteBuffer) {
+                        flushBatchBuffer();
+                        ByteBuffer entry = (ByteBuffer) item;
+                        batchBytes.write(entry.array(), entry.arrayOffset(), entry.limit());
+                        recycle(entry);
+                    } else {
+                        flushBatchBuffer();
+                        flushBatchBytes();
+                        if (item == stopMarker) {
+                            stop = true;
+                        } else {
+                            ((FutureTask<?>) item).run();
+                        }
+                    }
+                }
+                flushBatchBuffer();
+                flushBatchBytes();
+                if (writer != null && !buffered) {
+                    flushWriter();
+                }
+            }
+            return stop;
+        }
+
+        private void flushBatchBytes() throws IOException {
+            if (batchBytes.size() > 0) {
+                if (outputStream != null) {
+                    writer.flush();
+                    batchBytes.writeTo(outputStream);
+                } else if (writer != null) {
+                    writer.write(new String(batchBytes.toByteArray(), StandardCharsets.UTF_8));
+                }
+                batchBytes.reset();
+            }
+        }
+
+        private void flushBatchBuffer() throws IOException {
+            if (batchBuffer.size() > 0) {
+                if (writer != null) {
+                    batchBuffer.writeTo(writer);
+                }
+                batchBuffer.reset();
+            }
+        }
+    }
+
+
+    /**
+     * Passes data through to the wrapped stream but ignores flushes so
+     * flushing the writer does not also flush the log file.
+     */
+    private static class NoFlushOutputStream extends FilterOutputStream {
+
+        NoFlushOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            // NO-OP
+        }
+    }
 }
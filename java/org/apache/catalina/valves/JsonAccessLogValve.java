@@ -0,0 +1,429 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * Access log valve derivative that writes each log entry as a single line
+ * JSON object (JSON lines). The same pattern syntax as for
+ * {@link AccessLogValve} is used to select the logged fields. Literal text in
+ * the pattern is ignored.
+ * <p>
+ * Each pattern identifier is written using the following attribute name:
+ * <ul>
+ * <li><b>%a</b> - remoteAddr</li>
+ * <li><b>%A</b> - localAddr</li>
+ * <li><b>%b</b> - size</li>
+ * <li><b>%B</b> - byteSentNC</li>
+ * <li><b>%D</b> - elapsedTime</li>
+ * <li><b>%F</b> - firstByteTime</li>
+ * <li><b>%h</b> - host</li>
+ * <li><b>%H</b> - protocol</li>
+ * <li><b>%I</b> - threadName</li>
+ * <li><b>%l</b> - logicalUserName</li>
+ * <li><b>%m</b> - method</li>
+ * <li><b>%M</b> - allocatedBytes</li>
+ * <li><b>%p</b> - port</li>
+ * <li><b>%q</b> - query</li>
+ * <li><b>%r</b> - request</li>
+ * <li><b>%s</b> - statusCode</li>
+ * <li><b>%S</b> - sessionId</li>
+ * <li><b>%t</b> - time</li>
+ * <li><b>%T</b> - elapsedTimeS</li>
+ * <li><b>%u</b> - user</li>
+ * <li><b>%U</b> - requestURI</li>
+ * <li><b>%v</b> - localServerName</li>
+ * <li><b>%X</b> - connectionStatus</li>
+ * </ul>
+ * The named identifiers <code>%{xxx}c</code>, <code>%{xxx}i</code>,
+ * <code>%{xxx}L</code>, <code>%{xxx}o</code>, <code>%{xxx}r</code> and
+ * <code>%{xxx}s</code> are grouped into the sub-objects cookies,
+ * requestHeaders, phaseTimes, responseHeaders, requestAttributes and
+ * sessionAttributes respectively, using
+ * <code>xxx</code> as the attribute name. <code>%{xxx}p</code> and
+ * <code>%{xxx}t</code> use the same attribute name as the un-named form.
+ * <p>
+ * All values are written as JSON strings. Log entries are rendered directly
+ * into UTF-8 encoded bytes by default, see {@link #setByteOutput(boolean)}.
+ */
+public class JsonAccessLogValve extends AccessLogValve {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Map<Character, String> PATTERNS;
+    static {
+        Map<Character, String> pattern2AttributeName = new HashMap<>();
+        pattern2AttributeName.put(Character.valueOf('a'), "remoteAddr");
+        pattern2AttributeName.put(Character.valueOf('A'), "localAddr");
+        pattern2AttributeName.put(Character.valueOf('b'), "size");
+        pattern2AttributeName.put(Character.valueOf('B'), "byteSentNC");
+        pattern2AttributeName.put(Character.valueOf('D'), "elapsedTime");
+        pattern2AttributeName.put(Character.valueOf('F'), "firstByteTime");
+        pattern2AttributeName.put(Character.valueOf('h'), "host");
+        pattern2AttributeName.put(Character.valueOf('H'), "protocol");
+        pattern2AttributeName.put(Character.valueOf('I'), "threadName");
+        pattern2AttributeName.put(Character.valueOf('l'), "logicalUserName");
+        pattern2AttributeName.put(Character.valueOf('m'), "method");
+        pattern2AttributeName.put(Character.valueOf('M'), "allocatedBytes");
+        pattern2AttributeName.put(Character.valueOf('p'), "port");
+        pattern2AttributeName.put(Character.valueOf('q'), "query");
+        pattern2AttributeName.put(Character.valueOf('r'), "request");
+        pattern2AttributeName.put(Character.valueOf('s'), "statusCode");
+        pattern2AttributeName.put(Character.valueOf('S'), "sessionId");
+        pattern2AttributeName.put(Character.valueOf('t'), "time");
+        pattern2AttributeName.put(Character.valueOf('T'), "elapsedTimeS");
+        pattern2AttributeName.put(Character.valueOf('u'), "user");
+        pattern2AttributeName.put(Character.valueOf('U'), "requestURI");
+        pattern2AttributeName.put(Character.valueOf('v'), "localServerName");
+        pattern2AttributeName.put(Character.valueOf('X'), "connectionStatus");
+        PATTERNS = pattern2AttributeName;
+    }
+
+    private static final Map<Character, String> SUB_OBJECT_PATTERNS;
+    static {
+        Map<Character, String> pattern2AttributeName = new HashMap<>();
+        pattern2AttributeName.put(Character.valueOf('c'), "cookies");
+        pattern2AttributeName.put(Character.valueOf('i'), "requestHeaders");
+        pattern2AttributeName.put(Character.valueOf('L'), "phaseTimes");
+        pattern2AttributeName.put(Character.valueOf('o'), "responseHeaders");
+        pattern2AttributeName.put(Character.valueOf('r'), "requestAttributes");
+        pattern2AttributeName.put(Character.valueOf('s'), "sessionAttributes");
+        SUB_OBJECT_PATTERNS = pattern2AttributeName;
+    }
+
+
+    public JsonAccessLogValve() {
+        super();
+        setByteOutput(true);
+    }
+
+
+    @Override
+    protected AccessLogElement createAccessLogElement(char pattern) {
+        String name = PATTERNS.get(Character.valueOf(pattern));
+        if (name == null) {
+            // Unsupported pattern, ignore it
+            return null;
+        }
+        return new JsonField(null, name, super.createAccessLogElement(pattern));
+    }
+
+
+    @Override
+    protected AccessLogElement createAccessLogElement(String name, char pattern) {
+        String group = SUB_OBJECT_PATTERNS.get(Character.valueOf(pattern));
+        String attributeName = name;
+        if (group == null) {
+            attributeName = PATTERNS.get(Character.valueOf(pattern));
+            if (attributeName == null) {
+                // Unsupported pattern, ignore it
+                return null;
+            }
+        }
+        return new JsonField(group, attributeName, super.createAccessLogElement(name, pattern));
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The elements for the individual fields are combined with the literal
+     * JSON syntax required to write them as a JSON object. Sub-objects are
+     * written at the position of the first field they contain.
+     */
+    @Override
+    protected AccessLogElement[] createLogElements() {
+        // Group the fields, ignoring literal text
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (AccessLogElement element : super.createLogElements()) {
+            if (!(element instanceof JsonField)) {
+                continue;
+            }
+            JsonField field = (JsonField) element;
+            if (field.group == null) {
+                fields.put(field.name, field);
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<String, JsonField> group = (Map<String, JsonField>) fields.get(field.group);
+                if (group == null) {
+                    group = new LinkedHashMap<>();
+                    fields.put(field.group, group);
+                }
+                group.put(field.name, field);
+            }
+        }
+
+        // Flatten into alternating literals and escaped values
+        List<AccessLogElement> result = new ArrayList<>();
+        StringBuilder literal = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            if (!first) {
+                literal.append(',');
+            }
+            first = false;
+            appendName(literal, entry.getKey());
+            if (entry.getValue() instanceof JsonField) {
+                literal = appendValue(result, literal, (JsonField) entry.getValue());
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<String, JsonField> group = (Map<String, JsonField>) entry.getValue();
+                literal.append('{');
+                boolean firstInGroup = true;
+                for (Map.Entry<String, JsonField> member : group.entrySet()) {
+                    if (!firstInGroup) {
+                        literal.append(',');
+                    }
+                    firstInGroup = false;
+                    appendName(literal, member.getKey());
+                    literal = appendValue(result, literal, member.getValue());
+                }
+                literal.append('}');
+            }
+        }
+        literal.append('}');
+        result.add(new StringElement(literal.toString()));
+        return result.toArray(new AccessLogElement[0]);
+    }
+
+
+    private static void appendName(StringBuilder literal, String name) {
+        literal.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20) {
+                literal.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            } else {
+                literal.append(c);
+            }
+        }
+        literal.append("\":");
+    }
+
+
+    private static StringBuilder appendValue(List<AccessLogElement> result,
+            StringBuilder literal, JsonField field) {
+        literal.append('"');
+        result.add(new StringElement(literal.toString()));
+        if (field.element instanceof CachedElement) {
+            result.add(new CachedJsonValueElement(field.element));
+        } else {
+            result.add(new JsonValueElement(field.element));
+        }
+        return new StringBuilder("\"");
+    }
+
+
+    /*
+     * Only used while the log elements are created to carry the attribute
+     * name along with the element.
+     */
+    private static class JsonField implements AccessLogElement {
+
+        private final String group;
+        private final String name;
+        private final AccessLogElement element;
+
+        JsonField(String group, String name, AccessLogElement element) {
+            this.group = group;
+            this.name = name;
+            this.element = element;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time) {
+            element.addElement(buf, date, request, response, time);
+        }
+    }
+
+
+    /**
+     * Writes the value of the wrapped element escaped for use as the content
+     * of a JSON string.
+     */
+    private static class JsonValueElement implements ByteBufferAccessLogElement {
+
+        private final AccessLogElement element;
+        private final SynchronizedStack<EscapingWriter> writers = new SynchronizedStack<>();
+
+        JsonValueElement(AccessLogElement element) {
+            this.element = element;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time) {
+            EscapingWriter writer = writers.pop();
+            if (writer == null) {
+                writer = new EscapingWriter();
+            }
+            try {
+                element.addElement(writer.value, date, request, response, time);
+                writer.buf = buf;
+                writer.value.writeTo(writer);
+            } catch (IOException e) {
+                // Not possible
+            } finally {
+                writer.buf = null;
+                writer.value.reset();
+                writers.push(writer);
+            }
+        }
+
+        @Override
+        public void addElement(ByteBuffer buf, Date date, Request request,
+                Response response, long time) {
+            int start = buf.position();
+            if (element instanceof ByteBufferAccessLogElement) {
+                ((ByteBufferAccessLogElement) element).addElement(
+                        buf, date, request, response, time);
+            } else {
+                EscapingWriter writer = writers.pop();
+                if (writer == null) {
+                    writer = new EscapingWriter();
+                }
+                try {
+                    element.addElement(writer.value, date, request, response, time);
+                    writer.bytes = buf;
+                    writer.value.writeTo(writer);
+                } catch (IOException e) {
+                    // Not possible
+                } finally {
+                    writer.bytes = null;
+                    writer.value.reset();
+                    writers.push(writer);
+                }
+            }
+            int end = buf.position();
+
+            // Escape in place. Multi-byte UTF-8 sequences never contain bytes
+            // that need escaping.
+            byte[] bytes = buf.array();
+            int offset = buf.arrayOffset();
+            int extra = 0;
+            for (int i = offset + start; i < offset + end; i++) {
+                byte b = bytes[i];
+                if (b == '"' || b == '\\') {
+                    extra++;
+                } else if (b >= 0 && b < 0x20) {
+                    extra += 5;
+                }
+            }
+            if (extra == 0) {
+                return;
+            }
+            if (buf.remaining() < extra) {
+                throw new BufferOverflowException();
+            }
+            int target = offset + end + extra;
+            for (int i = offset + end - 1; i >= offset + start; i--) {
+                byte b = bytes[i];
+                if (b == '"' || b == '\\') {
+                    bytes[--target] = b;
+                    bytes[--target] = '\\';
+                } else if (b >= 0 && b < 0x20) {
+                    bytes[--target] = (byte) HEX[b & 0xF];
+                    bytes[--target] = (byte) HEX[b >> 4];
+                    bytes[--target] = '0';
+                    bytes[--target] = '0';
+                    bytes[--target] = 'u';
+                    bytes[--target] = '\\';
+                } else {
+                    bytes[--target] = b;
+                }
+            }
+            buf.position(end + extra);
+        }
+    }
+
+
+    private static class CachedJsonValueElement extends JsonValueElement
+            implements CachedElement {
+
+        private final CachedElement cachedElement;
+
+        CachedJsonValueElement(AccessLogElement element) {
+            super(element);
+            cachedElement = (CachedElement) element;
+        }
+
+        @Override
+        public void cache(Request request) {
+            cachedElement.cache(request);
+        }
+    }
+
+
+    /*
+     * Writes the value to the CharArrayWriter escaped or, when rendering into
+     * bytes, to the ByteBuffer as is so it can be escaped in place.
+     */
+    private static class EscapingWriter extends Writer {
+
+        private final CharArrayWriter value = new CharArrayWriter(32);
+        private CharArrayWriter buf;
+        private ByteBuffer bytes;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (bytes != null) {
+                putChars(bytes, cbuf, off, len);
+                return;
+            }
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                char c = cbuf[i];
+                if (c == '"' || c == '\\') {
+                    buf.append('\\').append(c);
+                } else if (c < 0x20) {
+                    buf.append('\\').append('u').append('0').append('0');
+                    buf.append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                } else {
+                    buf.append(c);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            // NO-OP
+        }
+
+        @Override
+        public void close() {
+            // NO-OP
+        }
+    }
+}
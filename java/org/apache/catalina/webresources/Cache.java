@@ -18,6 +18,7 @@ package org.apache.catalina.webresources;
 
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -33,6 +34,18 @@ public class Cache {
     private static final Log log = LogFactory.getLog(Cache.class);
     protected static final StringManager sm = StringManager.getManager(Cache.class);
 
+    /**
+     * Name of the default eviction policy. Expired entries are evicted in no
+     * particular order when adding a resource to a full cache and in least
+     * recently validated order by the background process.
+     */
+    public static final String EVICTION_POLICY_DEFAULT = "default";
+
+    /**
+     * Name of the frequency aware W-TinyLFU eviction policy.
+     */
+    public static final String EVICTION_POLICY_TINYLFU = "tinylfu";
+
     private static final long TARGET_FREE_PERCENT_GET = 5;
     private static final long TARGET_FREE_PERCENT_BACKGROUND = 10;
 
@@ -48,6 +61,10 @@ public class Cache {
 
     private AtomicLong lookupCount = new AtomicLong(0);
     private AtomicLong hitCount = new AtomicLong(0);
+    private AtomicLong evictionCount = new AtomicLong(0);
+
+    private String evictionPolicy = EVICTION_POLICY_DEFAULT;
+    private volatile TinyLfuEvictionPolicy tinyLfuPolicy = null;
 
     private final ConcurrentMap<String,CachedResource> resourceCache =
             new ConcurrentHashMap<>();
@@ -92,7 +109,10 @@ public class Cache {
                 long delta = cacheEntry.getSize();
                 size.addAndGet(delta);
 
-                if (size.get() > maxSize) {
+                TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+                if (tinyLfuPolicy != null) {
+                    evict(tinyLfuPolicy.recordAdd(cacheEntry, delta));
+                } else if (size.get() > maxSize) {
                     // Process resources unordered for speed. Trades cache
                     // efficiency (younger entries may be evicted before older
                     // ones) for speed since this is on the critical path for
@@ -113,6 +133,10 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+            if (tinyLfuPolicy != null) {
+                tinyLfuPolicy.recordAccess(cacheEntry);
+            }
         }
 
         return cacheEntry;
@@ -150,7 +174,10 @@ public class Cache {
                 long delta = cacheEntry.getSize();
                 size.addAndGet(delta);
 
-                if (size.get() > maxSize) {
+                TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+                if (tinyLfuPolicy != null) {
+                    evict(tinyLfuPolicy.recordAdd(cacheEntry, delta));
+                } else if (size.get() > maxSize) {
                     // Process resources unordered for speed. Trades cache
                     // efficiency (younger entries may be evicted before older
                     // ones) for speed since this is on the critical path for
@@ -171,12 +198,24 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+            if (tinyLfuPolicy != null) {
+                tinyLfuPolicy.recordAccess(cacheEntry);
+            }
         }
 
         return cacheEntry.getWebResources();
     }
 
     protected void backgroundProcess() {
+        TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+        if (tinyLfuPolicy != null) {
+            // The policy keeps the cache within its maximum size as entries
+            // are added. Only need to handle changes to the maximum size here.
+            evict(tinyLfuPolicy.trim());
+            return;
+        }
+
         // Create an ordered set of all cached resources with the least recently
         // used first. This is a background process so we can afford to take the
         // time to order the elements first
@@ -225,7 +264,9 @@ public class Cache {
             }
 
             // Remove the entry from the cache
-            removeCacheEntry(resource.getWebappPath());
+            if (removeCacheEntry(resource.getWebappPath()) != null) {
+                evictionCount.incrementAndGet();
+            }
 
             newSize = size.get();
         }
@@ -233,14 +274,29 @@ public class Cache {
         return newSize;
     }
 
-    void removeCacheEntry(String path) {
+    private void evict(List<CachedResource> victims) {
+        for (CachedResource victim : victims) {
+            // Only remove the entry if it has not been replaced in the meantime
+            if (resourceCache.remove(victim.getWebappPath(), victim)) {
+                size.addAndGet(-victim.getSize());
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    CachedResource removeCacheEntry(String path) {
         // With concurrent calls for the same path, the entry is only removed
         // once and the cache size is only updated (if required) once.
         CachedResource cachedResource = resourceCache.remove(path);
         if (cachedResource != null) {
             long delta = cachedResource.getSize();
             size.addAndGet(-delta);
+            TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+            if (tinyLfuPolicy != null) {
+                tinyLfuPolicy.recordRemove(cachedResource);
+            }
         }
+        return cachedResource;
     }
 
     public long getTtl() {
@@ -259,6 +315,10 @@ public class Cache {
     public void setMaxSize(long maxSize) {
         // Internally bytes, externally kilobytes
         this.maxSize = maxSize * 1024;
+        TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+        if (tinyLfuPolicy != null) {
+            tinyLfuPolicy.setMaximum(this.maxSize);
+        }
     }
 
     public long getLookupCount() {
@@ -269,6 +329,38 @@ public class Cache {
         return hitCount.get();
     }
 
+    public long getMissCount() {
+        return lookupCount.get() - hitCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public String getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Set the policy used to select the resources to remove from the cache
+     * when it is full. Changing the policy clears the cache.
+     *
+     * @param evictionPolicy {@link #EVICTION_POLICY_DEFAULT} or
+     *                       {@link #EVICTION_POLICY_TINYLFU}
+     */
+    public void setEvictionPolicy(String evictionPolicy) {
+        if (EVICTION_POLICY_TINYLFU.equalsIgnoreCase(evictionPolicy)) {
+            this.evictionPolicy = EVICTION_POLICY_TINYLFU;
+            tinyLfuPolicy = new TinyLfuEvictionPolicy(maxSize);
+        } else if (EVICTION_POLICY_DEFAULT.equalsIgnoreCase(evictionPolicy)) {
+            this.evictionPolicy = EVICTION_POLICY_DEFAULT;
+            tinyLfuPolicy = null;
+        } else {
+            throw new IllegalArgumentException(sm.getString("cache.invalidEvictionPolicy", evictionPolicy));
+        }
+        clear();
+    }
+
     public void setObjectMaxSize(int objectMaxSize) {
         if (objectMaxSize * 1024L > Integer.MAX_VALUE) {
             log.warn(sm.getString("cache.objectMaxSizeTooBigBytes", Integer.valueOf(objectMaxSize)));
@@ -302,6 +394,10 @@ public class Cache {
     public void clear() {
         resourceCache.clear();
         size.set(0);
+        TinyLfuEvictionPolicy tinyLfuPolicy = this.tinyLfuPolicy;
+        if (tinyLfuPolicy != null) {
+            tinyLfuPolicy.clear();
+        }
     }
 
     public long getSize() {
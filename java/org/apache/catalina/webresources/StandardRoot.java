@@ -533,6 +533,21 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         return cache.getObjectMaxSize();
     }
 
+    /**
+     * Set the policy used to select the resources to remove from the cache
+     * when it is full.
+     *
+     * @param cacheEvictionPolicy {@link Cache#EVICTION_POLICY_DEFAULT} or
+     *                            {@link Cache#EVICTION_POLICY_TINYLFU}
+     */
+    public void setCacheEvictionPolicy(String cacheEvictionPolicy) {
+        cache.setEvictionPolicy(cacheEvictionPolicy);
+    }
+
+    public String getCacheEvictionPolicy() {
+        return cache.getEvictionPolicy();
+    }
+
     @Override
     public void setTrackLockedFiles(boolean trackLockedFiles) {
         this.trackLockedFiles = trackLockedFiles;
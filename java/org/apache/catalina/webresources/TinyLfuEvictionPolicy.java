@@ -0,0 +1,485 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A W-TinyLFU admission and eviction policy for {@link Cache}. New entries are
+ * placed in a small LRU admission window. Entries leaving the window compete
+ * with the least recently used entry of the main segmented LRU (probation and
+ * protected segments) and are only admitted if their estimated access
+ * frequency, as recorded by a count-min sketch, is higher. This keeps
+ * frequently used resources in the cache when the working set is larger than
+ * the cache.
+ * <p>
+ * All operations are O(1) apart from the occasional aging of the frequency
+ * sketch. Recording a cache hit never blocks - if the policy is being updated
+ * by another thread the hit is simply not recorded.
+ * <p>
+ * Entries are weighted by their size in bytes so the sizes of the segments
+ * are expressed in bytes.
+ */
+class TinyLfuEvictionPolicy {
+
+    // Percentage of the cache used for the admission window
+    private static final int WINDOW_PERCENT = 1;
+    // Percentage of the main space used for the protected segment
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int NONE = -1;
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String,Node> nodes = new HashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private final AccessOrderQueue window = new AccessOrderQueue();
+    private final AccessOrderQueue probation = new AccessOrderQueue();
+    private final AccessOrderQueue protectedQueue = new AccessOrderQueue();
+
+    private long maximum;
+    private long windowMaximum;
+    private long mainMaximum;
+    private long protectedMaximum;
+
+
+    TinyLfuEvictionPolicy(long maximum) {
+        setMaximum(maximum);
+    }
+
+
+    void setMaximum(long maximum) {
+        lock.lock();
+        try {
+            this.maximum = maximum;
+            windowMaximum = Math.max(1, maximum * WINDOW_PERCENT / 100);
+            mainMaximum = maximum - windowMaximum;
+            protectedMaximum = mainMaximum * PROTECTED_PERCENT / 100;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Record a cache hit for the given resource.
+     *
+     * @param resource The resource that was found in the cache
+     */
+    void recordAccess(CachedResource resource) {
+        // Lossy - contention here must never slow down request processing
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String path = resource.getWebappPath();
+            sketch.increment(path.hashCode());
+            Node node = nodes.get(path);
+            if (node == null || node.resource != resource) {
+                return;
+            }
+            switch (node.queue) {
+                case WINDOW:
+                    window.moveToTail(node);
+                    break;
+                case PROBATION:
+                    probation.remove(node);
+                    node.queue = PROTECTED;
+                    protectedQueue.add(node);
+                    demoteProtected();
+                    break;
+                case PROTECTED:
+                    protectedQueue.moveToTail(node);
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Record the addition of a new resource to the cache.
+     *
+     * @param resource The resource that was added to the cache
+     * @param weight   The size of the resource in bytes
+     *
+     * @return The resources that need to be removed from the cache to make
+     *         space for the new resource. This may include the new resource.
+     */
+    List<CachedResource> recordAdd(CachedResource resource, long weight) {
+        lock.lock();
+        try {
+            String path = resource.getWebappPath();
+            sketch.ensureCapacity(nodes.size() + 1);
+            sketch.increment(path.hashCode());
+            Node node = new Node(resource, weight);
+            Node old = nodes.put(path, node);
+            if (old != null) {
+                unlink(old);
+            }
+            window.add(node);
+            return evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Record the removal of a resource from the cache.
+     *
+     * @param resource The resource that was removed from the cache
+     */
+    void recordRemove(CachedResource resource) {
+        lock.lock();
+        try {
+            String path = resource.getWebappPath();
+            Node node = nodes.get(path);
+            if (node != null && node.resource == resource) {
+                nodes.remove(path);
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Identify the resources that need to be removed from the cache so the
+     * total size of the cache is within the current maximum. Usually only
+     * necessary after the maximum has been reduced.
+     *
+     * @return The resources to remove from the cache
+     */
+    List<CachedResource> trim() {
+        lock.lock();
+        try {
+            return evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    void clear() {
+        lock.lock();
+        try {
+            nodes.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    private List<CachedResource> evict() {
+        List<CachedResource> victims = null;
+
+        // Move entries that no longer fit in the window to the main space
+        // where they compete with the existing entries for admission
+        while (window.weight > windowMaximum && window.head != null) {
+            Node candidate = window.head;
+            window.remove(candidate);
+            candidate.queue = NONE;
+            if (!admit(candidate)) {
+                victims = addVictim(victims, candidate);
+                continue;
+            }
+            while (probation.weight + protectedQueue.weight + candidate.weight > mainMaximum) {
+                Node victim = mainVictim();
+                if (victim == null) {
+                    break;
+                }
+                victims = addVictim(victims, victim);
+            }
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+        }
+
+        // Handle a reduction in the maximum size
+        while (window.weight + probation.weight + protectedQueue.weight > maximum) {
+            Node victim = mainVictim();
+            if (victim == null) {
+                victim = window.head;
+                if (victim == null) {
+                    break;
+                }
+            }
+            victims = addVictim(victims, victim);
+        }
+
+        if (victims == null) {
+            return Collections.emptyList();
+        }
+        return victims;
+    }
+
+
+    private boolean admit(Node candidate) {
+        if (candidate.weight > mainMaximum) {
+            return false;
+        }
+        int candidateFrequency = sketch.frequency(candidate.resource.getWebappPath().hashCode());
+        long required = probation.weight + protectedQueue.weight + candidate.weight - mainMaximum;
+        Node victim = probation.head;
+        if (victim == null) {
+            victim = protectedQueue.head;
+        }
+        // Every entry that would have to be evicted must be used less
+        // frequently than the candidate
+        while (required > 0 && victim != null) {
+            if (sketch.frequency(victim.resource.getWebappPath().hashCode()) >= candidateFrequency) {
+                return false;
+            }
+            required -= victim.weight;
+            Node next = victim.next;
+            if (next == null && victim.queue == PROBATION) {
+                next = protectedQueue.head;
+            }
+            victim = next;
+        }
+        return true;
+    }
+
+
+    private Node mainVictim() {
+        Node victim = probation.head;
+        if (victim == null) {
+            victim = protectedQueue.head;
+        }
+        return victim;
+    }
+
+
+    private List<CachedResource> addVictim(List<CachedResource> victims, Node victim) {
+        nodes.remove(victim.resource.getWebappPath());
+        unlink(victim);
+        if (victims == null) {
+            victims = new ArrayList<>();
+        }
+        victims.add(victim.resource);
+        return victims;
+    }
+
+
+    private void demoteProtected() {
+        while (protectedQueue.weight > protectedMaximum && protectedQueue.head != null) {
+            Node demoted = protectedQueue.head;
+            protectedQueue.remove(demoted);
+            demoted.queue = PROBATION;
+            probation.add(demoted);
+        }
+    }
+
+
+    private void unlink(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedQueue.remove(node);
+                break;
+        }
+        node.queue = NONE;
+    }
+
+
+    private static class Node {
+        private final CachedResource resource;
+        private final long weight;
+        private int queue = WINDOW;
+        private Node prev;
+        private Node next;
+
+        private Node(CachedResource resource, long weight) {
+            this.resource = resource;
+            this.weight = weight;
+        }
+    }
+
+
+    /*
+     * Doubly linked list ordered from least recently used (head) to most
+     * recently used (tail).
+     */
+    private static class AccessOrderQueue {
+        private Node head;
+        private Node tail;
+        private long weight;
+
+        private void add(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        private void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        private void moveToTail(Node node) {
+            if (node != tail) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        private void clear() {
+            head = null;
+            tail = null;
+            weight = 0;
+        }
+    }
+
+
+    /*
+     * Count-min sketch with four 4-bit counters per entry packed into longs.
+     * Counters are halved once the number of increments reaches ten times the
+     * table size so the recorded frequencies reflect recent usage. The table
+     * grows with the number of cached entries.
+     */
+    static class FrequencySketch {
+
+        private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+        private static final int MINIMUM_CAPACITY = 64;
+
+        private long[] table;
+        private int tableMask;
+        private int sampleSize;
+        private int size;
+
+        FrequencySketch() {
+            ensureCapacity(MINIMUM_CAPACITY);
+        }
+
+        void ensureCapacity(int capacity) {
+            if (table != null && table.length >= capacity) {
+                return;
+            }
+            int length = Integer.highestOneBit(Math.max(capacity, MINIMUM_CAPACITY) - 1) << 1;
+            if (length <= 0) {
+                length = 1 << 30;
+            }
+            if (table != null && table.length >= length) {
+                return;
+            }
+            long[] newTable = new long[length];
+            if (table != null) {
+                // Indexes are masked hashes so repeating the old table
+                // retains the existing frequency estimates
+                for (int i = 0; i < length; i += table.length) {
+                    System.arraycopy(table, 0, newTable, i, table.length);
+                }
+            }
+            table = newTable;
+            tableMask = length - 1;
+            sampleSize = 10 * length;
+        }
+
+        int frequency(int item) {
+            int hash = spread(item);
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int item) {
+            int hash = spread(item);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int i, int j) {
+            int offset = j << 2;
+            long mask = 0xfL << offset;
+            if ((table[i] & mask) != mask) {
+                table[i] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            int count = 0;
+            for (int i = 0; i < table.length; i++) {
+                count += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (count >>> 2);
+        }
+
+        private int indexOf(int item, int i) {
+            long hash = (item + SEED[i]) * SEED[i];
+            hash += (hash >>> 32);
+            return ((int) hash) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -44,6 +44,7 @@ import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
@@ -185,6 +186,16 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     public void setClientCertProvider(String s) { this.clientCertProvider = s; }
 
 
+    /**
+     * Is the time spent in each {@link RequestPhase} recorded? This is set by
+     * the Connector and used to decide whether the processors need to record
+     * when parsing of each request started.
+     */
+    private boolean phaseTiming = false;
+    public boolean getPhaseTiming() { return phaseTiming; }
+    public void setPhaseTiming(boolean phaseTiming) { this.phaseTiming = phaseTiming; }
+
+
     private int maxHeaderCount = 100;
     public int getMaxHeaderCount() {
         return maxHeaderCount;
@@ -224,6 +235,32 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
 
+    public boolean getUseStripedCaches() { return endpoint.getUseStripedCaches(); }
+    public void setUseStripedCaches(boolean useStripedCaches) {
+        endpoint.setUseStripedCaches(useStripedCaches);
+    }
+
+
+    public boolean getUseVirtualThreads() { return endpoint.getUseVirtualThreads(); }
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        endpoint.setUseVirtualThreads(useVirtualThreads);
+    }
+
+
+    public boolean getAdaptiveThreads() { return endpoint.getAdaptiveThreads(); }
+    public void setAdaptiveThreads(boolean adaptiveThreads) {
+        endpoint.setAdaptiveThreads(adaptiveThreads);
+    }
+
+
+    public long getAdaptiveThreadQueueWaitTarget() {
+        return endpoint.getAdaptiveThreadQueueWaitTarget();
+    }
+    public void setAdaptiveThreadQueueWaitTarget(long adaptiveThreadQueueWaitTarget) {
+        endpoint.setAdaptiveThreadQueueWaitTarget(adaptiveThreadQueueWaitTarget);
+    }
+
+
     public int getMaxThreads() { return endpoint.getMaxThreads(); }
     public void setMaxThreads(int maxThreads) {
         endpoint.setMaxThreads(maxThreads);
@@ -593,6 +630,12 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
             logPortOffset();
         }
 
+        Handler<S> handler = getHandler();
+        if (handler instanceof ConnectionHandler) {
+            ((ConnectionHandler<S>) handler).recycledProcessors.configure(
+                    getUseStripedCaches(), getProcessorCache());
+        }
+
         endpoint.start();
         monitorFuture = getUtilityExecutor().scheduleWithFixedDelay(
                 new Runnable() {
@@ -1203,11 +1246,24 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
 
         private final transient ConnectionHandler<?> handler;
         protected final AtomicInteger size = new AtomicInteger(0);
+        /*
+         * Used instead of the storage provided by the super class when the
+         * protocol is configured to use striped caches.
+         */
+        private volatile StripedStack<Processor> stripedProcessors = null;
 
         public RecycledProcessors(ConnectionHandler<?> handler) {
             this.handler = handler;
         }
 
+        private void configure(boolean useStripedCaches, int processorCache) {
+            if (useStripedCaches) {
+                stripedProcessors = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE, processorCache);
+            } else {
+                stripedProcessors = null;
+            }
+        }
+
         @SuppressWarnings("sync-override") // Size may exceed cache size a bit
         @Override
         public boolean push(Processor processor) {
@@ -1216,7 +1272,12 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
             //avoid over growing our cache or add after we have stopped
             boolean result = false;
             if (offer) {
-                result = super.push(processor);
+                StripedStack<Processor> stripedProcessors = this.stripedProcessors;
+                if (stripedProcessors == null) {
+                    result = super.push(processor);
+                } else {
+                    result = stripedProcessors.push(processor);
+                }
                 if (result) {
                     size.incrementAndGet();
                 }
@@ -1228,7 +1289,13 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
         @SuppressWarnings("sync-override") // OK if size is too big briefly
         @Override
         public Processor pop() {
-            Processor result = super.pop();
+            Processor result;
+            StripedStack<Processor> stripedProcessors = this.stripedProcessors;
+            if (stripedProcessors == null) {
+                result = super.pop();
+            } else {
+                result = stripedProcessors.pop();
+            }
             if (result != null) {
                 size.decrementAndGet();
             }
@@ -1243,6 +1310,10 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                 next = pop();
             }
             super.clear();
+            StripedStack<Processor> stripedProcessors = this.stripedProcessors;
+            if (stripedProcessors != null) {
+                stripedProcessors.clear();
+            }
             size.set(0);
         }
     }
@@ -19,6 +19,7 @@ package org.apache.coyote;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -165,6 +166,10 @@ public final class Request {
     private long bytesRead=0;
     // Time of the request - useful to avoid repeated calls to System.currentTime
     private long startTime = -1;
+    private long startTimeNanos = -1;
+    // Nanoseconds spent in each RequestPhase, only recorded if enabled
+    private boolean phaseTiming = false;
+    private final long[] phaseTimes = new long[RequestPhase.values().length];
     private int available = 0;
 
     private final RequestInfo reqProcessorMX=new RequestInfo(this);
@@ -580,6 +585,58 @@ public final class Request {
 
     public void setStartTime(long startTime) {
         this.startTime = startTime;
+        if (phaseTiming) {
+            this.startTimeNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the start time was
+     *         set or -1 if phase timing was not enabled at that point
+     */
+    public long getStartTimeNanos() {
+        return startTimeNanos;
+    }
+
+    // -------------------- Phase timing --------------------
+
+    public boolean isPhaseTiming() {
+        return phaseTiming;
+    }
+
+    /**
+     * Enable the recording of the time spent in each {@link RequestPhase}.
+     * The setting is retained when the request is recycled so that the start
+     * of the next request using this object is timed.
+     *
+     * @param phaseTiming {@code true} to enable phase timing
+     */
+    public void setPhaseTiming(boolean phaseTiming) {
+        this.phaseTiming = phaseTiming;
+    }
+
+    /**
+     * Add to the time spent in a phase. Components that contain other phases
+     * may subtract the time of the phases they contain.
+     *
+     * @param phase The phase
+     * @param nanos The time to add in nanoseconds
+     */
+    public void addPhaseTime(RequestPhase phase, long nanos) {
+        phaseTimes[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * @param phase The phase
+     *
+     * @return the time spent in the phase in nanoseconds or -1 if phase
+     *         timing is not enabled for this request
+     */
+    public long getPhaseTime(RequestPhase phase) {
+        if (!phaseTiming) {
+            return -1;
+        }
+        return phaseTimes[phase.ordinal()];
     }
 
     // -------------------- Per-Request "notes" --------------------
@@ -658,6 +715,10 @@ public final class Request {
         allDataReadEventSent.set(false);
 
         startTime = -1;
+        startTimeNanos = -1;
+        if (phaseTiming) {
+            Arrays.fill(phaseTimes, 0);
+        }
     }
 
     // -------------------- Info  --------------------
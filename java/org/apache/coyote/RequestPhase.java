@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.util.Locale;
+
+/**
+ * The phases of request processing for which the time taken is recorded when
+ * phase timing is enabled for a request. The phases do not overlap so the
+ * sum of the times is the time taken to process the request on the container
+ * thread.
+ */
+public enum RequestPhase {
+
+    /**
+     * From reading the first byte of the request until the container is
+     * called. This includes reading and parsing the request line and headers.
+     */
+    PARSE,
+
+    /**
+     * Mapping the request to a host, context and wrapper.
+     */
+    MAPPING,
+
+    /**
+     * Authentication and authorization by the context's authenticator.
+     */
+    AUTHENTICATION,
+
+    /**
+     * The valves of the engine, host, context and wrapper pipelines,
+     * excluding authentication and the filter chain.
+     */
+    VALVES,
+
+    /**
+     * The filters of the filter chain, excluding the servlet.
+     */
+    FILTERS,
+
+    /**
+     * The service method of the servlet.
+     */
+    SERVLET,
+
+    /**
+     * Finishing the request and committing and flushing the response once
+     * the container returns.
+     */
+    COMMIT;
+
+
+    private final String name = name().toLowerCase(Locale.ENGLISH);
+
+
+    /**
+     * @return The name of the phase in lower case, as used in the access log
+     *         and JMX
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @param name The name of a phase, ignoring case
+     *
+     * @return The phase with the given name or {@code null} if there is none
+     */
+    public static RequestPhase forName(String name) {
+        for (RequestPhase phase : values()) {
+            if (phase.name.equalsIgnoreCase(name)) {
+                return phase;
+            }
+        }
+        return null;
+    }
+}
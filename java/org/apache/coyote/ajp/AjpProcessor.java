@@ -269,6 +269,7 @@ public class AjpProcessor extends AbstractProcessor {
     public AjpProcessor(AbstractAjpProtocol<?> protocol, Adapter adapter) {
         super(adapter);
         this.protocol = protocol;
+        request.setPhaseTiming(protocol.getPhaseTiming());
 
         int packetSize = protocol.getPacketSize();
         // Calculate maximum chunk size as packetSize may have been changed from
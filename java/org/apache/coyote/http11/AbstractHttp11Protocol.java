@@ -27,6 +27,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
+import javax.management.ObjectName;
 import javax.servlet.http.HttpUpgradeHandler;
 
 import org.apache.coyote.AbstractProtocol;
@@ -40,6 +41,7 @@ import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorExternal;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SSLHostConfig;
 import org.apache.tomcat.util.net.SocketWrapperBase;
@@ -52,6 +54,8 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
 
     private final CompressionConfig compressionConfig = new CompressionConfig();
 
+    private final List<ObjectName> upgradeProtocolOnames = new ArrayList<>();
+
 
     public AbstractHttp11Protocol(AbstractEndpoint<S,?> endpoint) {
         super(endpoint);
@@ -72,6 +76,37 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         }
 
         super.init();
+
+        // Register the upgrade protocols under this protocol's name so any
+        // statistics they provide can be monitored
+        ObjectName oname = getObjectName();
+        if (oname != null) {
+            for (UpgradeProtocol upgradeProtocol : upgradeProtocols) {
+                String name = upgradeProtocol.getHttpUpgradeName(getEndpoint().isSSLEnabled());
+                if (name == null) {
+                    name = upgradeProtocol.getAlpnName();
+                }
+                if (name == null || name.length() == 0) {
+                    continue;
+                }
+                ObjectName upgradeOname = new ObjectName(
+                        oname.getCanonicalName() + ",Upgrade=" + name);
+                Registry.getRegistry(null, null).registerComponent(
+                        upgradeProtocol, upgradeOname, null);
+                upgradeProtocolOnames.add(upgradeOname);
+            }
+        }
+    }
+
+
+    @Override
+    public void destroy() throws Exception {
+        for (ObjectName upgradeOname : upgradeProtocolOnames) {
+            Registry.getRegistry(null, null).unregisterComponent(upgradeOname);
+        }
+        upgradeProtocolOnames.clear();
+
+        super.destroy();
     }
 
 
@@ -198,6 +233,27 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    private boolean vectorizedParsing = false;
+    /**
+     * Are runs of ordinary bytes in the request line and headers tested eight
+     * at a time rather than one at a time? The result of parsing is the same
+     * either way. Disabled by default.
+     *
+     * @return {@code true} if bytes are tested eight at a time
+     */
+    public boolean getVectorizedParsing() { return vectorizedParsing; }
+    /**
+     * Should runs of ordinary bytes in the request line and headers be tested
+     * eight at a time rather than one at a time?
+     *
+     * @param vectorizedParsing {@code true} to test bytes eight at a time,
+     *                          {@code false} to test them one at a time
+     */
+    public void setVectorizedParsing(boolean vectorizedParsing) {
+        this.vectorizedParsing = vectorizedParsing;
+    }
+
+
     private int maxSavePostSize = 4 * 1024;
     /**
      * Return the maximum size of the post which will be saved during FORM or
@@ -140,6 +140,12 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     private final HeaderParseData headerData = new HeaderParseData();
     private final HttpParser httpParser;
 
+    /**
+     * Use {@link SwarScanner} to skip runs of ordinary bytes rather than
+     * testing them one at a time.
+     */
+    private boolean vectorizedParsing = false;
+
     /**
      * Maximum allowed size of the HTTP request line plus headers plus any leading blank lines.
      */
@@ -234,6 +240,15 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    /**
+     * Set whether runs of ordinary bytes in the request line and headers are
+     * tested eight at a time.
+     */
+    void setVectorizedParsing(boolean vectorizedParsing) {
+        this.vectorizedParsing = vectorizedParsing;
+    }
+
+
     /**
      * Set the swallow input flag.
      */
@@ -429,6 +444,13 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                     if (!fill(false)) // request line parsing
                         return false;
                 }
+                if (vectorizedParsing) {
+                    byteBuffer.position(SwarScanner.skipToken(byteBuffer, byteBuffer.position(),
+                            byteBuffer.limit()));
+                    if (byteBuffer.position() >= byteBuffer.limit()) {
+                        continue;
+                    }
+                }
                 // Spec says method name is a token followed by a single SP but also be tolerant of multiple SP and/or HT.
                 // Spec说方法名称是一个令牌，后跟一个空格，但也可以容忍多个 空格 和/或 \r。
                 int pos = byteBuffer.position();
@@ -485,6 +507,18 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                     if (!fill(false)) // request line parsing
                         return false;
                 }
+                // A CR must be followed by LF so it has to be checked first
+                if (vectorizedParsing && chr != Constants.CR) {
+                    int start = byteBuffer.position();
+                    int skipped = SwarScanner.skipRequestTarget(byteBuffer, start, byteBuffer.limit());
+                    if (skipped > start) {
+                        byteBuffer.position(skipped);
+                        chr = byteBuffer.get(skipped - 1);
+                        if (skipped >= byteBuffer.limit()) {
+                            continue;
+                        }
+                    }
+                }
                 int pos = byteBuffer.position();
                 prevChr = chr;
                 chr = byteBuffer.get();
@@ -582,6 +616,14 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             // Reading the protocol
             // Protocol is always "HTTP/" DIGIT "." DIGIT
             //
+            if (vectorizedParsing && byteBuffer.position() == parsingRequestLineStart &&
+                    SwarScanner.isHttp11RequestLineEnd(byteBuffer, parsingRequestLineStart, byteBuffer.limit())) {
+                end = parsingRequestLineStart + Constants.HTTP_11.length();
+                byteBuffer.position(end + 2);
+                prevChr = Constants.CR;
+                chr = Constants.LF;
+                parsingRequestLineEol = true;
+            }
             while (!parsingRequestLineEol) {
                 // Read new bytes if needed
                 if (byteBuffer.position() >= byteBuffer.limit()) {
@@ -927,6 +969,14 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 }
             }
 
+            if (vectorizedParsing) {
+                byteBuffer.position(SwarScanner.skipTokenToLowerCase(byteBuffer, byteBuffer.position(),
+                        byteBuffer.limit()));
+                if (byteBuffer.position() >= byteBuffer.limit()) {
+                    continue;
+                }
+            }
+
             int pos = byteBuffer.position();
             chr = byteBuffer.get();
             if (chr == Constants.COLON) {  // 字符为":"冒号
@@ -1003,6 +1053,39 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                         }
                     }
 
+                    // A CR must be followed by LF so it has to be checked first
+                    if (vectorizedParsing && chr != Constants.CR) {
+                        int start = byteBuffer.position();
+                        int skipped = SwarScanner.skipFieldValue(byteBuffer, start, byteBuffer.limit());
+                        if (skipped > start) {
+                            int dest = headerData.realPos;
+                            if (dest < start) {
+                                // Move the bytes back over whitespace removed
+                                // earlier. As elsewhere in this class,
+                                // positions are used as array indices since
+                                // byteBuffer is always a heap buffer created by
+                                // init() or expand() with an array offset of
+                                // zero.
+                                System.arraycopy(byteBuffer.array(), start, byteBuffer.array(), dest,
+                                        skipped - start);
+                            }
+                            headerData.realPos = dest + skipped - start;
+                            // Trailing SP is not significant
+                            int significant = headerData.realPos;
+                            while (significant > dest && byteBuffer.get(significant - 1) == Constants.SP) {
+                                significant--;
+                            }
+                            if (significant > dest) {
+                                headerData.lastSignificantChar = significant;
+                            }
+                            byteBuffer.position(skipped);
+                            chr = byteBuffer.get(skipped - 1);
+                            if (skipped >= byteBuffer.limit()) {
+                                continue;
+                            }
+                        }
+                    }
+
                     prevChr = chr;
                     chr = byteBuffer.get();
                     if (chr == Constants.CR) {
@@ -151,12 +151,14 @@ public class Http11Processor extends AbstractProcessor {
     public Http11Processor(AbstractHttp11Protocol<?> protocol, Adapter adapter) {
         super(adapter);
         this.protocol = protocol;
+        request.setPhaseTiming(protocol.getPhaseTiming());
 
         httpParser = new HttpParser(protocol.getRelaxedPathChars(),
                 protocol.getRelaxedQueryChars());
 
         inputBuffer = new Http11InputBuffer(request, protocol.getMaxHttpHeaderSize(),
                 protocol.getRejectIllegalHeader(), httpParser);
+        inputBuffer.setVectorizedParsing(protocol.getVectorizedParsing());
         request.setInputBuffer(inputBuffer);
 
         outputBuffer = new Http11OutputBuffer(response, protocol.getMaxHttpHeaderSize());
@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Skips runs of bytes that need no further checking while parsing the request
+ * line and headers. Eight bytes are tested at a time by treating them as the
+ * lanes of a {@code long} (SIMD within a register). Each method stops at the
+ * first byte that is not in the tested class or when fewer than eight bytes
+ * remain. The remaining bytes, including delimiters, are then processed one
+ * at a time by {@link Http11InputBuffer} so the classes only need to contain
+ * the common characters that are valid wherever they are used.
+ * <p>
+ * The buffers must use big endian byte order so the first byte is the most
+ * significant byte of each {@code long}.
+ */
+final class SwarScanner {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long LOW = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long HTTP_11 =
+            ByteBuffer.wrap(Constants.HTTP_11.getBytes(StandardCharsets.ISO_8859_1)).getLong();
+
+
+    private SwarScanner() {
+        // Utility class
+    }
+
+
+    /**
+     * Skips the bytes of a token that are ALPHA, DIGIT or "-". This covers
+     * the methods and header names used in practice.
+     *
+     * @param buffer The buffer to scan
+     * @param pos    The position at which to start
+     * @param limit  The position after the last byte that may be read
+     *
+     * @return The position of the first byte that was not skipped
+     */
+    static int skipToken(ByteBuffer buffer, int pos, int limit) {
+        while (pos + 8 <= limit) {
+            long word = buffer.getLong(pos);
+            long x = word & LOW;
+            long valid = (inRange(x, 'A', 'Z') | inRange(x, 'a', 'z') | inRange(x, '0', '9') |
+                    equal(x, '-')) & ~word;
+            long invalid = ~valid & HIGH;
+            if (invalid != 0) {
+                return pos + firstByte(invalid);
+            }
+            pos += 8;
+        }
+        return pos;
+    }
+
+
+    /**
+     * As {@link #skipToken(ByteBuffer, int, int)} but also converts the
+     * skipped bytes to lower case in the buffer.
+     *
+     * @param buffer The buffer to scan
+     * @param pos    The position at which to start
+     * @param limit  The position after the last byte that may be read
+     *
+     * @return The position of the first byte that was not skipped
+     */
+    static int skipTokenToLowerCase(ByteBuffer buffer, int pos, int limit) {
+        while (pos + 8 <= limit) {
+            long word = buffer.getLong(pos);
+            long x = word & LOW;
+            long upper = inRange(x, 'A', 'Z') & ~word;
+            long valid = (upper | inRange(x, 'a', 'z') | inRange(x, '0', '9') | equal(x, '-')) & ~word;
+            long invalid = ~valid & HIGH;
+            int skipped = 8;
+            if (invalid != 0) {
+                // Only convert the bytes that are being skipped
+                skipped = firstByte(invalid);
+                upper &= ~(-1L >>> (skipped * 8));
+            }
+            if (upper != 0) {
+                // Setting 0x20 in an upper case letter makes it lower case
+                buffer.putLong(pos, word | (upper >>> 2));
+            }
+            pos += skipped;
+            if (invalid != 0) {
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+
+    /**
+     * Skips the bytes of a request target that are valid in both the path
+     * and the query string, i.e. ALPHA, DIGIT and
+     * <code>$%&amp;'()*+,-./:;=@_</code>. "?" is not skipped so the caller can
+     * locate the start of the query string.
+     *
+     * @param buffer The buffer to scan
+     * @param pos    The position at which to start
+     * @param limit  The position after the last byte that may be read
+     *
+     * @return The position of the first byte that was not skipped
+     */
+    static int skipRequestTarget(ByteBuffer buffer, int pos, int limit) {
+        while (pos + 8 <= limit) {
+            long word = buffer.getLong(pos);
+            long x = word & LOW;
+            long valid = (inRange(x, '$', ';') | inRange(x, '@', 'Z') | inRange(x, 'a', 'z') |
+                    equal(x, '=') | equal(x, '_')) & ~word;
+            long invalid = ~valid & HIGH;
+            if (invalid != 0) {
+                return pos + firstByte(invalid);
+            }
+            pos += 8;
+        }
+        return pos;
+    }
+
+
+    /**
+     * Skips the bytes of a header value that are neither controls (including
+     * HT, CR and LF) nor DEL. SP and obs-text are skipped.
+     *
+     * @param buffer The buffer to scan
+     * @param pos    The position at which to start
+     * @param limit  The position after the last byte that may be read
+     *
+     * @return The position of the first byte that was not skipped
+     */
+    static int skipFieldValue(ByteBuffer buffer, int pos, int limit) {
+        while (pos + 8 <= limit) {
+            long word = buffer.getLong(pos);
+            long x = word & LOW;
+            long invalid = (lessThan(x, ' ') | equal(x, 0x7F)) & ~word;
+            if (invalid != 0) {
+                return pos + firstByte(invalid);
+            }
+            pos += 8;
+        }
+        return pos;
+    }
+
+
+    /**
+     * @param buffer The buffer to test
+     * @param pos    The position at which to start
+     * @param limit  The position after the last byte that may be read
+     *
+     * @return {@code true} if the buffer contains "HTTP/1.1" followed by CRLF
+     *         at the given position
+     */
+    static boolean isHttp11RequestLineEnd(ByteBuffer buffer, int pos, int limit) {
+        return pos + 10 <= limit && buffer.getLong(pos) == HTTP_11 &&
+                buffer.get(pos + 8) == Constants.CR && buffer.get(pos + 9) == Constants.LF;
+    }
+
+
+    /*
+     * The following methods set the high bit of each byte that matches. Only
+     * the low seven bits of each byte may be set in x so that no carry or
+     * borrow crosses into the next byte.
+     */
+
+    private static long inRange(long x, int low, int high) {
+        return greaterThan(x, low - 1) & lessThan(x, high + 1);
+    }
+
+
+    private static long greaterThan(long x, int n) {
+        return (x + ONES * (0x7F - n)) & HIGH;
+    }
+
+
+    private static long lessThan(long x, int n) {
+        return (ONES * (0x7F + n) - x) & HIGH;
+    }
+
+
+    private static long equal(long x, int c) {
+        return ~((x ^ (ONES * c)) + LOW) & HIGH;
+    }
+
+
+    private static int firstByte(long matches) {
+        return Long.numberOfLeadingZeros(matches) >>> 3;
+    }
+}
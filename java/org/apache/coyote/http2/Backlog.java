@@ -0,0 +1,462 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The streams waiting for an allocation from the connection flow control
+ * window.
+ * <p>
+ * The connection window is allocated using the RFC 7540 priority tree. A
+ * stream is allocated what it needs before any of the streams that depend on
+ * it. What is left is shared between the dependent streams in proportion to
+ * their weights. Dependent streams that need less than their share are given
+ * what they need and the surplus is shared between the others. Bytes left over
+ * from rounding the shares are allocated to the streams that have received the
+ * least, relative to their weight, so that small window updates are shared
+ * fairly over time.
+ * <p>
+ * The streams in the backlog form a tree in which each stream is attached to
+ * its closest ancestor that is also in the backlog. The tree, and the number
+ * of bytes required by each stream and the streams that depend on it, are
+ * updated as streams are added to and removed from the backlog and as the
+ * window is allocated. An allocation therefore only visits the streams that
+ * receive part of it. The tree is only rebuilt, on the next allocation, if the
+ * priority tree changes.
+ * <p>
+ * Apart from {@link #get(AbstractStream)}, the methods of this class must be
+ * called while holding the lock of the connection.
+ */
+class Backlog {
+
+    private static final Log log = LogFactory.getLog(Backlog.class);
+    private static final StringManager sm = StringManager.getManager(Backlog.class);
+
+    private final AbstractStream connection;
+    private final Map<AbstractStream,BacklogTracker> trackers = new ConcurrentHashMap<>();
+    private long size = 0;
+    private volatile boolean prioritiesChanged = false;
+
+
+    Backlog(AbstractStream connection) {
+        this.connection = connection;
+    }
+
+
+    /**
+     * @return The number of bytes that the streams in the backlog need to be
+     *         allocated from the connection flow control window
+     */
+    long getSize() {
+        return size;
+    }
+
+
+    /**
+     * @param stream The stream
+     *
+     * @return The tracker for the stream or {@code null} if the stream is not
+     *         in the backlog
+     */
+    BacklogTracker get(AbstractStream stream) {
+        return trackers.get(stream);
+    }
+
+
+    /**
+     * Add a stream to the backlog. Any ancestors of the stream that are not
+     * already in the backlog are added as well. The stream may already be in
+     * the backlog because streams that depend on it are but it must not have
+     * a reservation or an unused allocation.
+     *
+     * @param stream      The stream
+     * @param reservation The number of bytes the stream needs to be allocated
+     */
+    void add(AbstractStream stream, int reservation) {
+        size += reservation;
+        BacklogTracker tracker = trackers.get(stream);
+        if (tracker != null) {
+            tracker.remainingReservation = reservation;
+        } else {
+            tracker = new BacklogTracker(stream, reservation);
+            trackers.put(stream, tracker);
+            addParents(tracker);
+        }
+
+        while (tracker != null) {
+            tracker.demand += reservation;
+            tracker = tracker.parent;
+        }
+    }
+
+
+    private void addParents(BacklogTracker tracker) {
+        BacklogTracker child = tracker;
+        AbstractStream parent = tracker.stream.getParentStream();
+        while (true) {
+            if (parent == null) {
+                // Detached from the priority tree
+                parent = connection;
+            }
+            BacklogTracker parentTracker = trackers.get(parent);
+            if (parentTracker != null) {
+                parentTracker.addChild(child);
+                break;
+            }
+            parentTracker = new BacklogTracker(parent, 0);
+            trackers.put(parent, parentTracker);
+            parentTracker.addChild(child);
+            if (parent == connection) {
+                break;
+            }
+            child = parentTracker;
+            parent = parent.getParentStream();
+        }
+    }
+
+
+    /**
+     * Remove a stream from the backlog once its reservation has been allocated
+     * and the allocation used. Any streams in the backlog that depend on the
+     * stream are attached to its parent.
+     *
+     * @param stream The stream
+     */
+    void remove(AbstractStream stream) {
+        BacklogTracker tracker = trackers.remove(stream);
+        if (tracker != null) {
+            detach(tracker);
+        }
+    }
+
+
+    /**
+     * Called when the priority tree changes so that the tree of streams in the
+     * backlog is rebuilt before the next allocation. May be called without
+     * holding the lock of the connection.
+     */
+    void prioritiesChanged() {
+        prioritiesChanged = true;
+    }
+
+
+    /**
+     * Allocate an increase of the connection flow control window to the
+     * streams in the backlog.
+     *
+     * @param increment The number of bytes to allocate
+     *
+     * @return The streams that have been allocated part of the increment and
+     *         need to be notified
+     */
+    Set<AbstractStream> release(int increment) {
+        Set<AbstractStream> result = new HashSet<>();
+        if (size < increment) {
+            // Can clear the whole backlog
+            result.addAll(trackers.keySet());
+            trackers.clear();
+            size = 0;
+        } else {
+            if (prioritiesChanged) {
+                rebuild();
+            }
+            BacklogTracker root = trackers.get(connection);
+            if (root != null) {
+                size -= increment - allocate(root, increment, result);
+            }
+        }
+        return result;
+    }
+
+
+    private void rebuild() {
+        prioritiesChanged = false;
+        BacklogTracker root = trackers.get(connection);
+        if (root == null) {
+            root = new BacklogTracker(connection, 0);
+            trackers.put(connection, root);
+        }
+        for (BacklogTracker tracker : trackers.values()) {
+            tracker.parent = null;
+            tracker.children.clear();
+        }
+        for (BacklogTracker tracker : trackers.values()) {
+            if (tracker == root) {
+                continue;
+            }
+            AbstractStream parent = tracker.stream.getParentStream();
+            BacklogTracker parentTracker = null;
+            while (parent != null && (parentTracker = trackers.get(parent)) == null) {
+                parent = parent.getParentStream();
+            }
+            if (parentTracker == null) {
+                parentTracker = root;
+            }
+            parentTracker.addChild(tracker);
+        }
+        calculateDemand(root);
+    }
+
+
+    private long calculateDemand(BacklogTracker tracker) {
+        long demand = tracker.getRemainingReservation();
+        for (BacklogTracker child : tracker.children) {
+            demand += calculateDemand(child);
+        }
+        tracker.demand = demand;
+        return demand;
+    }
+
+
+    /*
+     * The tracker must not have any demand of its own so that the demand of
+     * its parent is unchanged.
+     */
+    private void detach(BacklogTracker tracker) {
+        BacklogTracker parent = tracker.parent;
+        if (parent != null) {
+            parent.children.remove(tracker);
+            for (BacklogTracker child : tracker.children) {
+                parent.addChild(child);
+            }
+        }
+        tracker.parent = null;
+        tracker.children.clear();
+    }
+
+
+    private int allocate(BacklogTracker tracker, int allocation, Set<AbstractStream> notify) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.allocate.debug", connection.getConnectionId(),
+                    tracker.stream.getIdentifier(), Integer.toString(allocation)));
+        }
+        // Allocate to the specified stream
+        int leftToAllocate = tracker.allocate(allocation);
+        if (leftToAllocate < allocation && !tracker.isNotifyInProgress()) {
+            notify.add(tracker.stream);
+            tracker.startNotify();
+        }
+
+        if (leftToAllocate > 0 && !tracker.children.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.allocate.left", connection.getConnectionId(),
+                        tracker.stream.getIdentifier(), Integer.toString(leftToAllocate)));
+            }
+            leftToAllocate = allocateToChildren(tracker, leftToAllocate, notify);
+        }
+
+        int allocated = allocation - leftToAllocate;
+        tracker.demand -= allocated;
+        tracker.allocated += allocated;
+        return leftToAllocate;
+    }
+
+
+    private int allocateToChildren(BacklogTracker tracker, int allocation,
+            Set<AbstractStream> notify) {
+        // Recipients are streams that depend on the current stream and need an
+        // allocation. Streams that neither need an allocation nor have one
+        // waiting to be used are removed from the backlog. They were only in
+        // the backlog because streams that depend on them were.
+        List<BacklogTracker> children = tracker.children;
+        List<BacklogTracker> recipients = new ArrayList<>(children.size());
+        long totalWeight = 0;
+        int i = 0;
+        while (i < children.size()) {
+            BacklogTracker child = children.get(i);
+            if (child.demand > 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("upgradeHandler.allocate.recipient",
+                            connection.getConnectionId(), tracker.stream.getIdentifier(),
+                            child.stream.getIdentifier(), Integer.toString(child.getWeight())));
+                }
+                recipients.add(child);
+                totalWeight += child.getWeight();
+                i++;
+            } else if (child.getUnusedAllocation() == 0) {
+                // Removes the child from the list and adds its children to the
+                // end of the list
+                trackers.remove(child.stream);
+                detach(child);
+            } else {
+                i++;
+            }
+        }
+        if (recipients.isEmpty()) {
+            return allocation;
+        }
+
+        // Order by demand relative to weight. Once one recipient needs more
+        // than its share, so will all of the recipients that follow it.
+        recipients.sort((t1, t2) -> Long.compare(
+                t1.demand * t2.getWeight(), t2.demand * t1.getWeight()));
+
+        int leftToAllocate = allocation;
+        i = 0;
+        while (i < recipients.size()) {
+            BacklogTracker recipient = recipients.get(i);
+            long demand = recipient.demand;
+            if (demand * totalWeight > (long) leftToAllocate * recipient.getWeight()) {
+                break;
+            }
+            leftToAllocate -= (int) demand - allocate(recipient, (int) demand, notify);
+            totalWeight -= recipient.getWeight();
+            i++;
+        }
+        if (i == recipients.size()) {
+            // Every recipient has everything it needs
+            return leftToAllocate;
+        }
+
+        // The remaining recipients need more than their share. Shares are
+        // rounded down and the remainder allocated one byte at a time.
+        List<BacklogTracker> unsatisfied = recipients.subList(i, recipients.size());
+        int[] shares = new int[unsatisfied.size()];
+        int remainder = leftToAllocate;
+        for (int j = 0; j < shares.length; j++) {
+            shares[j] = (int) ((long) leftToAllocate * unsatisfied.get(j).getWeight() / totalWeight);
+            remainder -= shares[j];
+        }
+        if (remainder > 0) {
+            Integer[] order = new Integer[shares.length];
+            for (int j = 0; j < order.length; j++) {
+                order[j] = Integer.valueOf(j);
+            }
+            // Least allocated relative to weight first
+            Arrays.sort(order, (j1, j2) -> {
+                BacklogTracker t1 = unsatisfied.get(j1.intValue());
+                BacklogTracker t2 = unsatisfied.get(j2.intValue());
+                return Long.compare(t1.allocated * t2.getWeight(), t2.allocated * t1.getWeight());
+            });
+            for (int j = 0; j < remainder; j++) {
+                shares[order[j].intValue()]++;
+            }
+        }
+        for (int j = 0; j < shares.length; j++) {
+            if (shares[j] > 0) {
+                // Recipients need more than their share so there is never any
+                // allocation returned
+                allocate(unsatisfied.get(j), shares[j], notify);
+            }
+        }
+        return 0;
+    }
+
+
+    static class BacklogTracker {
+
+        private final AbstractStream stream;
+        private int remainingReservation;
+        private int unusedAllocation;
+        private boolean notifyInProgress;
+        // The closest ancestor of this stream, and the streams that depend on
+        // this stream, that are in the backlog
+        private BacklogTracker parent;
+        private final List<BacklogTracker> children = new ArrayList<>();
+        // The bytes required by this stream and the streams that depend on it
+        private long demand;
+        // The total bytes allocated to this stream and the streams that depend
+        // on it while it has been in the backlog
+        private long allocated;
+
+        BacklogTracker(AbstractStream stream, int reservation) {
+            this.stream = stream;
+            remainingReservation = reservation;
+        }
+
+        /**
+         * @return The number of bytes requiring an allocation from the
+         *         Connection flow control window
+         */
+        public int getRemainingReservation() {
+            return remainingReservation;
+        }
+
+        /**
+         *
+         * @return The number of bytes allocated from the Connection flow
+         *         control window but not yet written
+         */
+        public int getUnusedAllocation() {
+            return unusedAllocation;
+        }
+
+        /**
+         * The purpose of this is to avoid the incorrect triggering of a timeout
+         * for the following sequence of events:
+         * <ol>
+         * <li>window update 1</li>
+         * <li>allocation 1</li>
+         * <li>notify 1</li>
+         * <li>window update 2</li>
+         * <li>allocation 2</li>
+         * <li>act on notify 1 (using allocation 1 and 2)</li>
+         * <li>notify 2</li>
+         * <li>act on notify 2 (timeout due to no allocation)</li>
+         * </ol>
+         *
+         * @return {@code true} if a notify has been issued but the associated
+         *         allocation has not been used, otherwise {@code false}
+         */
+        public boolean isNotifyInProgress() {
+            return notifyInProgress;
+        }
+
+        public void useAllocation() {
+            unusedAllocation = 0;
+            notifyInProgress = false;
+        }
+
+        public void startNotify() {
+            notifyInProgress = true;
+        }
+
+        private int getWeight() {
+            return stream.getWeight();
+        }
+
+        private void addChild(BacklogTracker child) {
+            child.parent = this;
+            children.add(child);
+        }
+
+        private int allocate(int allocation) {
+            if (remainingReservation >= allocation) {
+                remainingReservation -= allocation;
+                unusedAllocation += allocation;
+                return 0;
+            }
+
+            int left = allocation - remainingReservation;
+            unusedAllocation += remainingReservation;
+            remainingReservation = 0;
+
+            return left;
+        }
+    }
+}
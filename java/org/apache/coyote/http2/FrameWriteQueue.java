@@ -0,0 +1,167 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Frames written by the blocking (NIO and APR) implementation are added to
+ * this queue and then written by whichever thread next holds the write lock.
+ * That thread writes every frame in the queue (up to {@link #MAX_BATCH} frame
+ * writes) and then flushes once so, when many streams are writing
+ * concurrently, most threads find their frames have already been written when
+ * they obtain the lock and only hold it briefly. The frames are copied into
+ * the socket write buffer so frames from different streams are combined into
+ * fewer, larger network writes.
+ * <p>
+ * Every frame write taken from the queue is completed, even if writing fails,
+ * so that no thread waits for ever. The threads waiting for the frame writes
+ * of a batch that failed all see the failure.
+ */
+abstract class FrameWriteQueue {
+
+    static final int MAX_BATCH = 64;
+
+    private final Queue<FrameWrite> queue = new ConcurrentLinkedQueue<>();
+
+
+    /**
+     * Add the frames to the queue and return once they have been written.
+     *
+     * @param frames The frames to write
+     *
+     * @throws IOException If the frames could not be written
+     */
+    void write(ByteBuffer... frames) throws IOException {
+        complete(add(frames));
+    }
+
+
+    /**
+     * Add the frames to the queue without waiting for them to be written.
+     * Used where the frames must be queued while holding another lock.
+     * {@link #complete(FrameWrite)} must be called for the returned
+     * FrameWrite.
+     *
+     * @param frames The frames to write
+     *
+     * @return The queued frame write
+     */
+    FrameWrite add(ByteBuffer... frames) {
+        FrameWrite frameWrite = new FrameWrite(frames);
+        queue.add(frameWrite);
+        return frameWrite;
+    }
+
+
+    /**
+     * Wait until the frames have been written, writing them and any other
+     * queued frames if no other thread has done so.
+     *
+     * @param frameWrite The frame write returned by
+     *                   {@link #add(ByteBuffer...)}
+     *
+     * @throws IOException If the frames could not be written
+     */
+    void complete(FrameWrite frameWrite) throws IOException {
+        synchronized (getLock()) {
+            while (!frameWrite.done) {
+                writeBatch();
+            }
+            if (frameWrite.ioe != null) {
+                throw frameWrite.ioe;
+            }
+        }
+    }
+
+
+    /**
+     * @return The lock that must be held to write to the socket
+     */
+    protected abstract Object getLock();
+
+
+    /**
+     * Write a frame to the socket without flushing. Only called while holding
+     * the lock.
+     *
+     * @param frame The frame to write
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    protected abstract void writeFrame(ByteBuffer frame) throws IOException;
+
+
+    /**
+     * Flush the frames that have been written. Only called while holding the
+     * lock.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    protected abstract void flush() throws IOException;
+
+
+    /*
+     * Must be called while holding the lock.
+     */
+    private void writeBatch() {
+        List<FrameWrite> batch = new ArrayList<>();
+        IOException ioe = null;
+        try {
+            FrameWrite frameWrite;
+            while (batch.size() < MAX_BATCH && (frameWrite = queue.poll()) != null) {
+                batch.add(frameWrite);
+                for (ByteBuffer frame : frameWrite.frames) {
+                    writeFrame(frame);
+                }
+            }
+            flush();
+        } catch (IOException e) {
+            ioe = e;
+        } catch (RuntimeException | Error e) {
+            // Let the other waiting threads see the failure. This thread sees
+            // the original.
+            ioe = new IOException(e);
+            throw e;
+        } finally {
+            for (FrameWrite frameWrite : batch) {
+                frameWrite.ioe = ioe;
+                frameWrite.done = true;
+            }
+        }
+    }
+
+
+    /*
+     * The fields are only accessed while holding the lock.
+     */
+    static class FrameWrite {
+
+        private final ByteBuffer[] frames;
+        private boolean done;
+        private IOException ioe;
+
+        FrameWrite(ByteBuffer[] frames) {
+            this.frames = frames;
+        }
+    }
+}
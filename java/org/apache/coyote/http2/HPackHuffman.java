@@ -375,7 +375,33 @@ public class HPackHuffman {
      */
     public static void decode(ByteBuffer data, int length, StringBuilder target)
             throws HpackException {
+        byte[] bytes = new byte[getMaxDecodedLength(length)];
+        int decoded = decode(data, length, bytes);
+        for (int i = 0; i < decoded; i++) {
+            target.append((char) (bytes[i] & 0xFF));
+        }
+    }
+
+
+    /**
+     * Decodes a huffman encoded string into the target array. There must be
+     * enough space left in the buffer for this method to succeed and the
+     * target array must be at least {@link #getMaxDecodedLength(int)} bytes
+     * long.
+     *
+     * @param data   The byte buffer
+     * @param length The length of data from the buffer to decode
+     * @param target The target for the decompressed data
+     *
+     * @return The number of bytes written to the target
+     *
+     * @throws HpackException If the Huffman encoded value in HPACK headers did
+     *                        not end with EOS padding
+     */
+    static int decode(ByteBuffer data, int length, byte[] target)
+            throws HpackException {
         assert data.remaining() >= length;
+        int decoded = 0;
         int treePos = 0;
         boolean eosBits = true;
         int eosBitCount = 0;
@@ -391,7 +417,7 @@ public class HPackHuffman {
                         eosBits = false;
                         eosBitCount = 0;
                     } else {
-                        target.append((char) (val & LOW_MASK));
+                        target[decoded++] = (byte) (val & LOW_MASK);
                         treePos = 0;
                         eosBits = true;
                     }
@@ -408,7 +434,7 @@ public class HPackHuffman {
                             // as an error
                             throw new HpackException(sm.getString("hpackhuffman.stringLiteralEOS"));
                         }
-                        target.append((char) ((val >> 16) & LOW_MASK));
+                        target[decoded++] = (byte) ((val >> 16) & LOW_MASK);
                         treePos = 0;
                         eosBits = true;
                     }
@@ -424,6 +450,18 @@ public class HPackHuffman {
             throw new HpackException(sm.getString(
                     "hpackhuffman.huffmanEncodedHpackValueDidNotEndWithEOS"));
         }
+        return decoded;
+    }
+
+
+    /**
+     * @param length The length of some Huffman encoded data
+     *
+     * @return The maximum number of bytes the data may decode to. The shortest
+     *         code is 5 bits long.
+     */
+    static int getMaxDecodedLength(int length) {
+        return (int) ((length * 8L) / 5);
     }
 
 
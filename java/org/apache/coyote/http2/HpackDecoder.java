@@ -17,6 +17,7 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.tomcat.util.res.StringManager;
 
@@ -72,7 +73,13 @@ public class HpackDecoder {
     private volatile boolean countedCookie;
     private volatile int headerSize = 0;
 
-    private final StringBuilder stringBuilder = new StringBuilder();
+    /*
+     * The most recently read string literal. The buffer is reused so literals
+     * that are passed to the HeaderEmitter as bytes do not require any
+     * allocation.
+     */
+    private byte[] literal = new byte[128];
+    private int literalLength = 0;
 
     HpackDecoder(int maxMemorySize) {
         this.maxMemorySizeHard = maxMemorySize;
@@ -126,29 +133,19 @@ public class HpackDecoder {
             } else if ((b & 0b11110000) == 0) {
                 //Literal Header Field without Indexing
                 String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (headerName == null || !readLiteral(buffer)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
+                emitHeader(headerName, literal, literalLength);
             } else if ((b & 0b11110000) == 0b00010000) {
                 //Literal Header Field never indexed
                 String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (headerName == null || !readLiteral(buffer)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
+                emitHeader(headerName, literal, literalLength);
             } else if ((b & 0b11100000) == 0b00100000) {
                 //context update max table size change
                 if (!handleMaxMemorySizeChange(buffer, originalPos)) {
@@ -204,37 +201,56 @@ public class HpackDecoder {
         } else if (index != 0) {
             return handleIndexedHeaderName(index);
         } else {
-            return readHpackString(buffer);
+            if (!readLiteral(buffer)) {
+                return null;
+            }
+            String name = HpackHeaderNames.lookup(literal, 0, literalLength);
+            if (name == null) {
+                name = new String(literal, 0, literalLength, StandardCharsets.ISO_8859_1);
+            }
+            return name;
         }
     }
 
     private String readHpackString(ByteBuffer buffer) throws HpackException {
-        if (!buffer.hasRemaining()) {
+        if (!readLiteral(buffer)) {
             return null;
         }
+        return new String(literal, 0, literalLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read a string literal into {@link #literal}.
+     *
+     * @param buffer The buffer containing the literal
+     *
+     * @return {@code true} if the complete literal was read, otherwise
+     *         {@code false}
+     *
+     * @throws HpackException If the literal is not valid
+     */
+    private boolean readLiteral(ByteBuffer buffer) throws HpackException {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
         byte data = buffer.get(buffer.position());
 
         int length = Hpack.decodeInteger(buffer, 7);
-        if (buffer.remaining() < length) {
-            return null;
+        if (length == -1 || buffer.remaining() < length) {
+            return false;
         }
         boolean huffman = (data & 0b10000000) != 0;
-        if (huffman) {
-            return readHuffmanString(length, buffer);
+        int required = huffman ? HPackHuffman.getMaxDecodedLength(length) : length;
+        if (literal.length < required) {
+            literal = new byte[Math.max(required, literal.length * 2)];
         }
-        for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
+        if (huffman) {
+            literalLength = HPackHuffman.decode(buffer, length, literal);
+        } else {
+            buffer.get(literal, 0, length);
+            literalLength = length;
         }
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
-    }
-
-    private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
+        return true;
     }
 
     private String handleIndexedHeaderName(int index) throws HpackException {
@@ -361,6 +377,24 @@ public class HpackDecoder {
          */
         void emitHeader(String name, String value) throws HpackException;
 
+        /**
+         * Pass a single header, with a value that has been read as a literal,
+         * to the recipient. The bytes are only valid for the duration of this
+         * call and will be overwritten by the decoder once it returns so
+         * recipients that need to retain the value must copy it.
+         *
+         * @param name   Header name
+         * @param value  Buffer containing the header value
+         * @param offset Start of the header value in the buffer
+         * @param length Length of the header value
+         * @throws HpackException If a header is received that is not compliant
+         *                        with the HTTP/2 specification
+         */
+        default void emitHeader(String name, byte[] value, int offset, int length)
+                throws HpackException {
+            emitHeader(name, new String(value, offset, length, StandardCharsets.ISO_8859_1));
+        }
+
         /**
          * Inform the recipient of the headers that a stream error needs to be
          * triggered using the given message when {@link #validateHeaders()} is
@@ -411,6 +445,25 @@ public class HpackDecoder {
 
 
     private void emitHeader(String name, String value) throws HpackException {
+        if (countHeader(name, value.length())) {
+            headerEmitter.emitHeader(name, value);
+        }
+    }
+
+
+    private void emitHeader(String name, byte[] value, int length) throws HpackException {
+        if (countHeader(name, length)) {
+            headerEmitter.emitHeader(name, value, 0, length);
+        }
+    }
+
+
+    /*
+     * Update the header count and size limit tracking for a header.
+     *
+     * @return {@code true} if the header should be passed to the HeaderEmitter
+     */
+    private boolean countHeader(String name, int valueLength) {
         // Header names are forced to lower case
         if ("cookie".equals(name)) {
             // Only count the cookie header once since HTTP/2 splits it into
@@ -425,11 +478,9 @@ public class HpackDecoder {
         // Overhead will vary. The main concern is that lots of small headers
         // trigger the limiting mechanism correctly. Therefore, use an overhead
         // estimate of 3 which is the worst case for small headers.
-        int inc = 3 + name.length() + value.length();
+        int inc = 3 + name.length() + valueLength;
         headerSize += inc;
-        if (!isHeaderCountExceeded() && !isHeaderSizeExceeded(0)) {
-            headerEmitter.emitHeader(name, value);
-        }
+        return !isHeaderCountExceeded() && !isHeaderSizeExceeded(0);
     }
 
 
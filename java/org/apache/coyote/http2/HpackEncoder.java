@@ -17,12 +17,8 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -72,8 +68,18 @@ class HpackEncoder {
 
     private static final Map<String, TableEntry[]> ENCODING_STATIC_TABLE;
 
-    private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
-    private final Map<String, List<TableEntry>> dynamicTable = new HashMap<>(); //TODO: use a custom data structure to reduce allocations
+    /*
+     * The dynamic table is held in a ring buffer with the oldest entry at
+     * firstEntry. Entries are looked up via two open addressed (linear
+     * probing) hash indexes that map a name/value pair and a name,
+     * respectively, to the newest entry with that pair or name. Neither
+     * requires any allocation other than for the new entry itself.
+     */
+    private DynamicTableEntry[] entries = new DynamicTableEntry[16];
+    private int firstEntry = 0;
+    private int entryCount = 0;
+    private DynamicTableEntry[] nameValueIndex = new DynamicTableEntry[32];
+    private DynamicTableEntry[] nameIndex = new DynamicTableEntry[32];
 
     static {
         Map<String, TableEntry[]> map = new HashMap<>();
@@ -130,7 +136,10 @@ class HpackEncoder {
         }
         while (it < currentHeaders.size()) {
             // FIXME: Review lowercase policy
-            String headerName = headers.getName(it).toString().toLowerCase(Locale.US);
+            String headerName = HpackHeaderNames.lookup(headers.getName(it));
+            if (headerName == null) {
+                headerName = headers.getName(it).toString().toLowerCase(Locale.US);
+            }
             boolean skip = false;
             if (firstPass) {
                 if (headerName.charAt(0) != ':') {
@@ -239,12 +248,22 @@ class HpackEncoder {
     private void addToDynamicTable(String headerName, String val) {
         int pos = entryPositionCounter++;
         DynamicTableEntry d = new DynamicTableEntry(headerName, val, -pos);
-        List<TableEntry> existing = dynamicTable.get(headerName);
-        if (existing == null) {
-            dynamicTable.put(headerName, existing = new ArrayList<>(1));
+        if (entryCount == entries.length) {
+            DynamicTableEntry[] newEntries = new DynamicTableEntry[entries.length * 2];
+            for (int i = 0; i < entryCount; i++) {
+                newEntries[i] = entries[(firstEntry + i) % entries.length];
+            }
+            entries = newEntries;
+            firstEntry = 0;
+        }
+        entries[(firstEntry + entryCount) % entries.length] = d;
+        entryCount++;
+        if (entryCount * 2 > nameValueIndex.length) {
+            rebuildIndexes(nameValueIndex.length * 2);
+        } else {
+            addToIndex(nameValueIndex, d, true);
+            addToIndex(nameIndex, d, false);
         }
-        existing.add(d);
-        evictionQueue.add(d);
         currentTableSize += d.getSize();
         runEvictionIfRequired();
         if (entryPositionCounter == Integer.MAX_VALUE) {
@@ -258,27 +277,25 @@ class HpackEncoder {
     private void preventPositionRollover() {
         //if the position counter is about to roll over we iterate all the table entries
         //and set their position to their actual position
-        for (Map.Entry<String, List<TableEntry>> entry : dynamicTable.entrySet()) {
-            for (TableEntry t : entry.getValue()) {
-                t.position = t.getPosition();
-            }
+        for (int i = 0; i < entryCount; i++) {
+            TableEntry t = entries[(firstEntry + i) % entries.length];
+            t.position = t.getPosition();
         }
         entryPositionCounter = 0;
     }
 
     private void runEvictionIfRequired() {
 
-        while (currentTableSize > maxTableSize) {
-            TableEntry next = evictionQueue.poll();
-            if (next == null) {
-                return;
-            }
+        while (currentTableSize > maxTableSize && entryCount > 0) {
+            DynamicTableEntry next = entries[firstEntry];
+            entries[firstEntry] = null;
+            firstEntry = (firstEntry + 1) % entries.length;
+            entryCount--;
             currentTableSize -= next.size;
-            List<TableEntry> list = dynamicTable.get(next.name);
-            list.remove(next);
-            if (list.isEmpty()) {
-                dynamicTable.remove(next.name);
-            }
+            // Newer entries with the same name (or name and value) replace
+            // the older entry in the indexes
+            removeFromIndex(nameValueIndex, next, true);
+            removeFromIndex(nameIndex, next, false);
         }
     }
 
@@ -291,20 +308,97 @@ class HpackEncoder {
                 }
             }
         }
-        List<TableEntry> dynamic = dynamicTable.get(headerName);
-        if (dynamic != null) {
-            for (TableEntry st : dynamic) {
-                if (st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+        if (entryCount > 0) {
+            int mask = nameValueIndex.length - 1;
+            int slot = nameValueHash(headerName, value) & mask;
+            DynamicTableEntry d;
+            while ((d = nameValueIndex[slot]) != null) {
+                if (d.name.equals(headerName) && d.value.equals(value)) {
+                    return d;
                 }
+                slot = (slot + 1) & mask;
             }
         }
         if (staticTable != null) {
             return staticTable[0];
         }
+        if (entryCount > 0) {
+            int mask = nameIndex.length - 1;
+            int slot = nameHash(headerName) & mask;
+            DynamicTableEntry d;
+            while ((d = nameIndex[slot]) != null) {
+                if (d.name.equals(headerName)) {
+                    return d;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
         return null;
     }
 
+    private void rebuildIndexes(int size) {
+        nameValueIndex = new DynamicTableEntry[size];
+        nameIndex = new DynamicTableEntry[size];
+        // Oldest first so the newest entry for any key ends up in the index
+        for (int i = 0; i < entryCount; i++) {
+            DynamicTableEntry d = entries[(firstEntry + i) % entries.length];
+            addToIndex(nameValueIndex, d, true);
+            addToIndex(nameIndex, d, false);
+        }
+    }
+
+    private static void addToIndex(DynamicTableEntry[] index, DynamicTableEntry d,
+            boolean includeValue) {
+        int mask = index.length - 1;
+        int slot = (includeValue ? d.nameValueHash : d.nameHash) & mask;
+        DynamicTableEntry current;
+        while ((current = index[slot]) != null) {
+            if (current.name.equals(d.name) && (!includeValue || current.value.equals(d.value))) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = d;
+    }
+
+    private static void removeFromIndex(DynamicTableEntry[] index, DynamicTableEntry d,
+            boolean includeValue) {
+        int mask = index.length - 1;
+        int slot = (includeValue ? d.nameValueHash : d.nameHash) & mask;
+        DynamicTableEntry current;
+        while ((current = index[slot]) != d) {
+            if (current == null) {
+                // Replaced by a newer entry
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // Backward shift deletion. Move later entries in the same probe
+        // sequence into the gap so lookups do not stop early.
+        int gap = slot;
+        index[gap] = null;
+        slot = (slot + 1) & mask;
+        while ((current = index[slot]) != null) {
+            int home = (includeValue ? current.nameValueHash : current.nameHash) & mask;
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                index[gap] = current;
+                index[slot] = null;
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int nameHash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int nameValueHash(String name, String value) {
+        int h = name.hashCode() * 31 + value.hashCode();
+        return h ^ (h >>> 16);
+    }
+
     public void setMaxTableSize(int newSize) {
         this.newMaxHeaderSize = newSize;
         if (minNewMaxHeaderSize == -1) {
@@ -337,10 +431,10 @@ class HpackEncoder {
     }
 
     private static class TableEntry {
-        private final String name;
-        private final String value;
-        private final int size;
-        private int position;
+        final String name;
+        final String value;
+        final int size;
+        int position;
 
         private TableEntry(String name, String value, int position) {
             this.name = name;
@@ -364,8 +458,13 @@ class HpackEncoder {
 
     private class DynamicTableEntry extends TableEntry {
 
+        private final int nameHash;
+        private final int nameValueHash;
+
         private DynamicTableEntry(String name, String value, int position) {
             super(name, value, position);
+            nameHash = nameHash(name);
+            nameValueHash = nameValueHash(name, value);
         }
 
         @Override
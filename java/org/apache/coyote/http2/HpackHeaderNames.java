@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Interned, lower case, names of commonly used headers. Looking up a name in
+ * this table allows the encoder and decoder to use a single shared String
+ * instance for the name rather than creating a new one for every header.
+ */
+final class HpackHeaderNames {
+
+    private static final String[] EXTRA_NAMES = {
+            "content-security-policy", "dnt", "keep-alive", "origin", "pragma",
+            "priority", "referrer-policy", "sec-fetch-dest", "sec-fetch-mode",
+            "sec-fetch-site", "sec-fetch-user", "te", "trailer", "upgrade-insecure-requests",
+            "x-content-type-options", "x-forwarded-for", "x-forwarded-host",
+            "x-forwarded-proto", "x-frame-options", "x-requested-with", "x-xss-protection" };
+
+    /*
+     * Open addressed hash table, using linear probing. The hash is
+     * independent of case so the same table may be used for case insensitive
+     * lookups.
+     */
+    private static final String[] NAMES;
+    private static final int MASK;
+
+    static {
+        int count = Hpack.STATIC_TABLE.length + EXTRA_NAMES.length;
+        int size = Integer.highestOneBit(count) << 2;
+        NAMES = new String[size];
+        MASK = size - 1;
+        for (int i = 1; i < Hpack.STATIC_TABLE.length; ++i) {
+            add(Hpack.STATIC_TABLE[i].name);
+        }
+        for (String name : EXTRA_NAMES) {
+            add(name);
+        }
+    }
+
+
+    private HpackHeaderNames() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    private static void add(String name) {
+        int slot = hash(name) & MASK;
+        while (NAMES[slot] != null) {
+            if (NAMES[slot].equals(name)) {
+                return;
+            }
+            slot = (slot + 1) & MASK;
+        }
+        NAMES[slot] = name;
+    }
+
+
+    /**
+     * Look up a header name, ignoring case.
+     *
+     * @param name The header name
+     *
+     * @return The lower case, interned form of the name or {@code null} if the
+     *         name is not a well-known header name
+     */
+    static String lookup(MessageBytes name) {
+        switch (name.getType()) {
+        case MessageBytes.T_BYTES: {
+            ByteChunk bc = name.getByteChunk();
+            return lookup(bc.getBuffer(), bc.getStart(), bc.getLength(), true);
+        }
+        case MessageBytes.T_CHARS: {
+            CharChunk cc = name.getCharChunk();
+            return lookup(cc.getBuffer(), cc.getStart(), cc.getLength());
+        }
+        case MessageBytes.T_STR: {
+            return lookup(name.getString());
+        }
+        default:
+            return null;
+        }
+    }
+
+
+    /**
+     * Look up a header name. The look up is case sensitive since HTTP/2
+     * requires that received header names are lower case and names that are
+     * not must still be rejected.
+     *
+     * @param bytes  The buffer containing the header name
+     * @param offset The start of the header name in the buffer
+     * @param length The length of the header name
+     *
+     * @return The interned form of the name or {@code null} if the name is not
+     *         a well-known header name
+     */
+    static String lookup(byte[] bytes, int offset, int length) {
+        return lookup(bytes, offset, length, false);
+    }
+
+
+    private static String lookup(byte[] bytes, int offset, int length, boolean ignoreCase) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + Hpack.toLower((char) (bytes[i] & 0xFF));
+        }
+        int slot = spread(hash) & MASK;
+        String candidate;
+        while ((candidate = NAMES[slot]) != null) {
+            if (candidate.length() == length) {
+                int i = 0;
+                while (i < length) {
+                    char c = (char) (bytes[offset + i] & 0xFF);
+                    if (ignoreCase) {
+                        c = Hpack.toLower(c);
+                    }
+                    if (c != candidate.charAt(i)) {
+                        break;
+                    }
+                    i++;
+                }
+                if (i == length) {
+                    return candidate;
+                }
+            }
+            slot = (slot + 1) & MASK;
+        }
+        return null;
+    }
+
+
+    private static String lookup(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + Hpack.toLower(chars[i]);
+        }
+        int slot = spread(hash) & MASK;
+        String candidate;
+        while ((candidate = NAMES[slot]) != null) {
+            if (candidate.length() == length) {
+                int i = 0;
+                while (i < length && Hpack.toLower(chars[offset + i]) == candidate.charAt(i)) {
+                    i++;
+                }
+                if (i == length) {
+                    return candidate;
+                }
+            }
+            slot = (slot + 1) & MASK;
+        }
+        return null;
+    }
+
+
+    private static String lookup(String name) {
+        int slot = hash(name) & MASK;
+        String candidate;
+        while ((candidate = NAMES[slot]) != null) {
+            if (candidate.equalsIgnoreCase(name)) {
+                return candidate;
+            }
+            slot = (slot + 1) & MASK;
+        }
+        return null;
+    }
+
+
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + Hpack.toLower(name.charAt(i));
+        }
+        return spread(hash);
+    }
+
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
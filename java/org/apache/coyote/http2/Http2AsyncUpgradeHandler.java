@@ -19,9 +19,6 @@ package org.apache.coyote.http2;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CompletionHandler;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -286,14 +283,18 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
     protected SendfileState processSendfile(SendfileData sendfile) {
         if (sendfile != null) {
             try {
-                try (FileChannel channel = FileChannel.open(sendfile.path, StandardOpenOption.READ)) {
-                    sendfile.mappedBuffer = channel.map(MapMode.READ_ONLY, sendfile.pos, sendfile.end - sendfile.pos);
-                }
+                sendfile.mapping = protocol.getMappedFileCache().acquire(sendfile.path, sendfile.pos, sendfile.end);
+            } catch (IOException e) {
+                return SendfileState.ERROR;
+            }
+            sendfile.mappedBuffer = sendfile.mapping.getBuffer();
+            try {
                 // Reserve as much as possible right away
                 int reservation = (sendfile.end - sendfile.pos > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) (sendfile.end - sendfile.pos);
                 sendfile.streamReservation  = sendfile.stream.reserveWindowSize(reservation, true);
                 sendfile.connectionReservation = reserveWindowSize(sendfile.stream, sendfile.streamReservation, true);
             } catch (IOException e) {
+                sendfile.mapping.release();
                 return SendfileState.ERROR;
             }
             // Actually perform the write
@@ -321,8 +322,11 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
                 try {
                     handleAsyncException();
                 } catch (IOException e) {
+                    sendfile.mapping.release();
                     return SendfileState.ERROR;
                 }
+            } else {
+                sendfile.mapping.release();
             }
             return SendfileState.PENDING;
         } else {
@@ -336,6 +340,7 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
             long bytesWritten = nBytes.longValue() - 9;
             sendfile.left -= bytesWritten;
             if (sendfile.left == 0) {
+                sendfile.mapping.release();
                 try {
                     sendfile.stream.getOutputBuffer().end();
                 } catch (IOException e) {
@@ -384,11 +389,14 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
                 } catch (IOException e) {
                     failed(e, sendfile);
                 }
+            } else {
+                sendfile.mapping.release();
             }
         }
 
         @Override
         public void failed(Throwable t, SendfileData sendfile) {
+            sendfile.mapping.release();
             applicationErrorCompletion.failed(t, null);
         }
     }
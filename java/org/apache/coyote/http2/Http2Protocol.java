@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.apache.coyote.AbstractProtocol;
@@ -90,6 +92,13 @@ public class Http2Protocol implements UpgradeProtocol {
 
     private boolean initiatePingDisabled = false;
     private boolean useSendfile = true;
+    private final MappedFileCache mappedFileCache = new MappedFileCache();
+    private boolean nonBlockingStreamCompletion = false;
+    // Stream processing metrics
+    private final AtomicInteger runningStreamCount = new AtomicInteger();
+    private final AtomicInteger blockedStreamCount = new AtomicInteger();
+    private final AtomicInteger parkedStreamCount = new AtomicInteger();
+    private final AtomicLong parkCount = new AtomicLong();
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
     // Reference to HTTP/1.1 protocol that this instance is configured under
@@ -243,6 +252,106 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    MappedFileCache getMappedFileCache() {
+        return mappedFileCache;
+    }
+
+
+    /**
+     * @return The number of files currently mapped for sendfile and shared by
+     *         the streams sending them
+     */
+    public int getSendfileMappedFileCount() {
+        return mappedFileCache.getSize();
+    }
+
+
+    public boolean getNonBlockingStreamCompletion() {
+        return nonBlockingStreamCompletion;
+    }
+
+
+    /**
+     * When enabled, a stream that uses blocking I/O and has finished
+     * generating its response does not hold a container thread while the
+     * remainder of the response waits for flow control window. The thread is
+     * released and the stream is dispatched to a new thread once the client
+     * makes window available.
+     *
+     * @param nonBlockingStreamCompletion {@code true} to release the thread
+     */
+    public void setNonBlockingStreamCompletion(boolean nonBlockingStreamCompletion) {
+        this.nonBlockingStreamCompletion = nonBlockingStreamCompletion;
+    }
+
+
+    /**
+     * @return The number of streams currently being processed on a container
+     *         thread, including those blocked waiting for flow control window
+     */
+    public int getRunningStreamCount() {
+        return runningStreamCount.get();
+    }
+
+
+    /**
+     * @return The number of container threads currently waiting for flow
+     *         control window to write a response
+     */
+    public int getBlockedStreamCount() {
+        return blockedStreamCount.get();
+    }
+
+
+    /**
+     * @return The number of streams currently waiting for flow control window
+     *         to complete a response without holding a container thread
+     */
+    public int getParkedStreamCount() {
+        return parkedStreamCount.get();
+    }
+
+
+    /**
+     * @return The number of times a stream has released its container thread
+     *         to wait for flow control window
+     */
+    public long getParkCount() {
+        return parkCount.get();
+    }
+
+
+    void streamRunning() {
+        runningStreamCount.incrementAndGet();
+    }
+
+
+    void streamNotRunning() {
+        runningStreamCount.decrementAndGet();
+    }
+
+
+    void streamBlocked() {
+        blockedStreamCount.incrementAndGet();
+    }
+
+
+    void streamUnblocked() {
+        blockedStreamCount.decrementAndGet();
+    }
+
+
+    void streamParked() {
+        parkCount.incrementAndGet();
+        parkedStreamCount.incrementAndGet();
+    }
+
+
+    void streamUnparked() {
+        parkedStreamCount.decrementAndGet();
+    }
+
+
     public void setAllowedTrailerHeaders(String commaSeparatedHeaders) {
         // Jump through some hoops so we don't end up with an empty set while
         // doing updates.
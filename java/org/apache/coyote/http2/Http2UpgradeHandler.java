@@ -20,8 +20,6 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -29,6 +27,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -40,6 +39,8 @@ import org.apache.coyote.CloseNowException;
 import org.apache.coyote.ProtocolException;
 import org.apache.coyote.Request;
 import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
+import org.apache.coyote.http2.Backlog.BacklogTracker;
+import org.apache.coyote.http2.FrameWriteQueue.FrameWrite;
 import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
 import org.apache.coyote.http2.HpackEncoder.State;
 import org.apache.coyote.http2.Http2Parser.Input;
@@ -54,6 +55,7 @@ import org.apache.tomcat.util.net.SendfileState;
 import org.apache.tomcat.util.net.SocketEvent;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TimeoutWheel;
 
 /**
  * This represents an HTTP/2 connection from a client to Tomcat. It is designed
@@ -121,6 +123,32 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
     private HpackDecoder hpackDecoder;
     private HpackEncoder hpackEncoder;
+    // Ensures headers are generated and then queued for one thread at a time.
+    // Because of the compression used, headers need to be written to the
+    // network in the same order they are generated.
+    private final Object headerEncodeLock = new Object();
+    /*
+     * The socketWrapper lock is used rather than a dedicated lock as other code
+     * (e.g. push) holds it while writing frames and must continue to exclude
+     * all other writes while it does so.
+     */
+    private final FrameWriteQueue frameWriteQueue = new FrameWriteQueue() {
+
+        @Override
+        protected Object getLock() {
+            return socketWrapper;
+        }
+
+        @Override
+        protected void writeFrame(ByteBuffer frame) throws IOException {
+            socketWrapper.write(true, frame);
+        }
+
+        @Override
+        protected void flush() throws IOException {
+            socketWrapper.flush(true);
+        }
+    };
 
     private final Map<Integer,Stream> streams = new ConcurrentHashMap<>();
     protected final AtomicInteger activeRemoteStreamCount = new AtomicInteger(0);
@@ -130,11 +158,16 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     private final AtomicInteger nextLocalStreamId = new AtomicInteger(2);
     private final PingManager pingManager = getPingManager();
     private volatile int newStreamsSinceLastPrune = 0;
-    private final Map<AbstractStream, BacklogTracker> backLogStreams = new ConcurrentHashMap<>();
-    private long backLogSize = 0;
+    private final Backlog backLog = new Backlog(this);
     // The time at which the connection will timeout unless data arrives before
     // then. -1 means no timeout.
     private volatile long connectionTimeout = -1;
+    // The timeout, if any, scheduled to check connectionTimeout. It is not
+    // rescheduled every time connectionTimeout changes. Instead, when it fires
+    // and connectionTimeout is later, it is scheduled again for the remaining
+    // time.
+    private final AtomicReference<TimeoutWheel.Timeout> connectionTimeoutCheck =
+            new AtomicReference<>();
 
     // Stream concurrency control
     private AtomicInteger streamConcurrency = null;
@@ -427,13 +460,49 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
     private void setConnectionTimeout(long connectionTimeout) {
         this.connectionTimeout = connectionTimeout;
+        if (connectionTimeout > -1 && connectionTimeoutCheck.get() == null) {
+            scheduleConnectionTimeoutCheck(connectionTimeout - System.currentTimeMillis());
+        }
+    }
+
+
+    private void scheduleConnectionTimeoutCheck(long delay) {
+        TimeoutWheel.Timeout timeout = TimeoutWheel.getSharedInstance().schedule(
+                new ConnectionTimeoutCheck(), delay, TimeUnit.MILLISECONDS);
+        if (!connectionTimeoutCheck.compareAndSet(null, timeout)) {
+            // Another thread scheduled a check concurrently
+            timeout.cancel();
+        }
+    }
+
+
+    private void checkConnectionTimeout() {
+        connectionTimeoutCheck.set(null);
+        if (connectionState.get() == ConnectionState.CLOSED) {
+            return;
+        }
+        long connectionTimeout = this.connectionTimeout;
+        if (connectionTimeout == -1) {
+            // A stream became active. A new check will be scheduled once there
+            // are no active streams.
+            return;
+        }
+        long remaining = connectionTimeout - System.currentTimeMillis();
+        if (remaining < 0) {
+            // Have to dispatch as this will be executed from a non-container
+            // thread.
+            socketWrapper.processSocket(SocketEvent.TIMEOUT, true);
+        } else {
+            scheduleConnectionTimeoutCheck(remaining);
+        }
     }
 
 
     @Override
     public void timeoutAsync(long now) {
-        long connectionTimeout = this.connectionTimeout;
-        if (now == -1 || connectionTimeout > -1 && now > connectionTimeout) {
+        // Connection timeouts are detected by the TimeoutWheel. This only
+        // needs to handle the forced timeout used when the protocol stops.
+        if (now == -1) {
             // Have to dispatch as this will be executed from a non-container
             // thread.
             socketWrapper.processSocket(SocketEvent.TIMEOUT, true);
@@ -538,10 +607,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         // Payload
         ByteUtil.setFourBytes(rstFrame, 9, se.getError().getCode());
 
-        synchronized (socketWrapper) {
-            socketWrapper.write(true, rstFrame, 0, rstFrame.length);
-            socketWrapper.flush(true);
-        }
+        frameWriteQueue.write(ByteBuffer.wrap(rstFrame));
     }
 
 
@@ -626,22 +692,35 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         byte[] payloadLength = new byte[3];
         ByteUtil.setThreeBytes(payloadLength, 0, len);
 
-        synchronized (socketWrapper) {
-            socketWrapper.write(true, payloadLength, 0, payloadLength.length);
-            socketWrapper.write(true, GOAWAY, 0, GOAWAY.length);
-            socketWrapper.write(true, fixedPayload, 0, 8);
-            if (debugMsg != null) {
-                socketWrapper.write(true, debugMsg, 0, debugMsg.length);
-            }
-            socketWrapper.flush(true);
+        if (debugMsg == null) {
+            frameWriteQueue.write(ByteBuffer.wrap(payloadLength), ByteBuffer.wrap(GOAWAY),
+                    ByteBuffer.wrap(fixedPayload));
+        } else {
+            frameWriteQueue.write(ByteBuffer.wrap(payloadLength), ByteBuffer.wrap(GOAWAY),
+                    ByteBuffer.wrap(fixedPayload), ByteBuffer.wrap(debugMsg));
         }
     }
 
     void writeHeaders(Stream stream, int pushedStreamId, MimeHeaders mimeHeaders,
             boolean endOfStream, int payloadSize) throws IOException {
-        // This ensures the Stream processing thread has control of the socket.
-        synchronized (socketWrapper) {
-            doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
+        ByteBuffer[] frames = null;
+        FrameWrite frameWrite = null;
+        synchronized (headerEncodeLock) {
+            DefaultHeaderFrameBuffers headerFrameBuffers = (DefaultHeaderFrameBuffers)
+                    doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
+            if (headerFrameBuffers != null) {
+                frames = headerFrameBuffers.getFrames();
+                // Queue while holding the lock so the header blocks are
+                // written in the order they were encoded
+                frameWrite = frameWriteQueue.add(frames);
+            }
+        }
+        if (frameWrite != null) {
+            try {
+                frameWriteQueue.complete(frameWrite);
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
+            }
         }
         stream.sentHeaders();
         if (endOfStream) {
@@ -652,7 +731,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
     /*
      * Separate method to allow Http2AsyncUpgradeHandler to call this code
-     * without synchronizing on socketWrapper since it doesn't need to.
+     * with its own HeaderFrameBuffers implementation.
      */
     protected HeaderFrameBuffers doWriteHeaders(Stream stream, int pushedStreamId,
             MimeHeaders mimeHeaders, boolean endOfStream, int payloadSize) throws IOException {
@@ -758,17 +837,15 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         }
         if (writeable) {
             ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
-            synchronized (socketWrapper) {
-                try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    int orgLimit = data.limit();
-                    data.limit(data.position() + len);
-                    socketWrapper.write(true, data);
-                    data.limit(orgLimit);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    handleAppInitiatedIOException(ioe);
-                }
+            // Another thread may write the frame so give it a view of the data
+            // with its own position and limit
+            ByteBuffer payload = data.duplicate();
+            payload.limit(payload.position() + len);
+            try {
+                frameWriteQueue.write(ByteBuffer.wrap(header), payload);
+                data.position(data.position() + len);
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
             }
         }
     }
@@ -799,24 +876,21 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         if (!stream.canWrite()) {
             return;
         }
-        synchronized (socketWrapper) {
-            // Build window update frame for stream 0
-            byte[] frame = new byte[13];
-            ByteUtil.setThreeBytes(frame, 0,  4);
-            frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
-            ByteUtil.set31Bits(frame, 9, increment);
-            socketWrapper.write(true, frame, 0, frame.length);
-            // Change stream Id and re-use
-            ByteUtil.set31Bits(frame, 5, stream.getIdAsInt());
-            try {
-                socketWrapper.write(true, frame, 0, frame.length);
-                socketWrapper.flush(true);
-            } catch (IOException ioe) {
-                if (applicationInitiated) {
-                    handleAppInitiatedIOException(ioe);
-                } else {
-                    throw ioe;
-                }
+        // Build window update frame for stream 0
+        byte[] frame = new byte[13];
+        ByteUtil.setThreeBytes(frame, 0,  4);
+        frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
+        ByteUtil.set31Bits(frame, 9, increment);
+        // Copy and change stream Id
+        byte[] streamFrame = frame.clone();
+        ByteUtil.set31Bits(streamFrame, 5, stream.getIdAsInt());
+        try {
+            frameWriteQueue.write(ByteBuffer.wrap(frame), ByteBuffer.wrap(streamFrame));
+        } catch (IOException ioe) {
+            if (applicationInitiated) {
+                handleAppInitiatedIOException(ioe);
+            } else {
+                throw ioe;
             }
         }
     }
@@ -844,18 +918,14 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
                                         stream.getConnectionId(), stream.getIdentifier()));
                     }
                     long windowSize = getWindowSize();
-                    if (windowSize < 1 || backLogSize > 0) {
+                    if (windowSize < 1 || backLog.getSize() > 0) {
                         // Has this stream been granted an allocation
-                        BacklogTracker tracker = backLogStreams.get(stream);
-                        if (tracker == null) {
-                            tracker = new BacklogTracker(reservation);
-                            backLogStreams.put(stream, tracker);
-                            backLogSize += reservation;
-                            // Add the parents as well
-                            AbstractStream parent = stream.getParentStream();
-                            while (parent != null && backLogStreams.putIfAbsent(parent, new BacklogTracker()) == null) {
-                                parent = parent.getParentStream();
-                            }
+                        BacklogTracker tracker = backLog.get(stream);
+                        if (tracker == null || (tracker.getRemainingReservation() == 0 &&
+                                tracker.getUnusedAllocation() == 0)) {
+                            // Not in the backlog or only in the backlog
+                            // because streams that depend on it are
+                            backLog.add(stream, reservation);
                         } else {
                             if (tracker.getUnusedAllocation() > 0) {
                                 allocation = tracker.getUnusedAllocation();
@@ -864,7 +934,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
                                     // The reservation has been fully allocated
                                     // so this stream can be removed from the
                                     // backlog.
-                                    backLogStreams.remove(stream);
+                                    backLog.remove(stream);
                                 } else {
                                     // This allocation has been used. Leave the
                                     // stream on the backlog as it still has
@@ -895,7 +965,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
                             BacklogTracker tracker;
                             // Ensure allocations made in other threads are visible
                             synchronized (this) {
-                                tracker = backLogStreams.get(stream);
+                                tracker = backLog.get(stream);
                             }
                             if (tracker != null && tracker.getUnusedAllocation() == 0) {
                                 if (log.isDebugEnabled()) {
@@ -936,7 +1006,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         synchronized (this) {
             long windowSize = getWindowSize();
             if (windowSize < 1 && windowSize + increment > 0) {
-                streamsToNotify = releaseBackLog((int) (windowSize +increment));
+                streamsToNotify = backLog.release((int) (windowSize +increment));
             }
             super.incrementWindowSize(increment);
         }
@@ -968,103 +1038,49 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
      * @return  The result of the send file processing
      */
     protected SendfileState processSendfile(SendfileData sendfileData) {
-        return SendfileState.DONE;
-    }
-
-
-    private synchronized Set<AbstractStream> releaseBackLog(int increment) {
-        Set<AbstractStream> result = new HashSet<>();
-        if (backLogSize < increment) {
-            // Can clear the whole backlog
-            result.addAll(backLogStreams.keySet());
-            backLogStreams.clear();
-            backLogSize = 0;
-        } else {
-            int leftToAllocate = increment;
-            while (leftToAllocate > 0) {
-                leftToAllocate = allocate(this, leftToAllocate);
-            }
-            for (Entry<AbstractStream,BacklogTracker> entry : backLogStreams.entrySet()) {
-                int allocation = entry.getValue().getUnusedAllocation();
-                if (allocation > 0) {
-                    backLogSize -= allocation;
-                    if (!entry.getValue().isNotifyInProgress()) {
-                        result.add(entry.getKey());
-                        entry.getValue().startNotify();
-                    }
-                }
-            }
+        if (sendfileData == null) {
+            return SendfileState.DONE;
         }
-        return result;
-    }
-
-
-    private int allocate(AbstractStream stream, int allocation) {
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
-                    stream.getIdentifier(), Integer.toString(allocation)));
-        }
-        // Allocate to the specified stream
-        BacklogTracker tracker = backLogStreams.get(stream);
-
-        int leftToAllocate = tracker.allocate(allocation);
-
-        if (leftToAllocate == 0) {
-            return 0;
-        }
-
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.left",
-                    getConnectionId(), stream.getIdentifier(), Integer.toString(leftToAllocate)));
+        // Without async IO the file is written from the mapping using
+        // blocking writes so the file has been sent once this returns. The
+        // end of stream (or trailers) is then written by the caller.
+        try {
+            sendfileData.mapping = protocol.getMappedFileCache().acquire(
+                    sendfileData.path, sendfileData.pos, sendfileData.end);
+        } catch (IOException e) {
+            return SendfileState.ERROR;
         }
-
-        // Recipients are children of the current stream that are in the
-        // backlog.
-        Set<AbstractStream> recipients = new HashSet<>(stream.getChildStreams());
-        recipients.retainAll(backLogStreams.keySet());
-
-        // Loop until we run out of allocation or recipients
-        while (leftToAllocate > 0) {
-            if (recipients.size() == 0) {
-                backLogStreams.remove(stream);
-                return leftToAllocate;
-            }
-
-            int totalWeight = 0;
-            for (AbstractStream recipient : recipients) {
-                if (log.isDebugEnabled()) {
-                    log.debug(sm.getString("upgradeHandler.allocate.recipient",
-                            getConnectionId(), stream.getIdentifier(), recipient.getIdentifier(),
-                            Integer.toString(recipient.getWeight())));
+        sendfileData.mappedBuffer = sendfileData.mapping.getBuffer();
+        try {
+            while (sendfileData.left > 0) {
+                if (!sendfileData.stream.canWrite()) {
+                    return SendfileState.ERROR;
                 }
-                totalWeight += recipient.getWeight();
-            }
-
-            // Use an Iterator so fully allocated children/recipients can be
-            // removed.
-            Iterator<AbstractStream> iter = recipients.iterator();
-            int allocated = 0;
-            while (iter.hasNext()) {
-                AbstractStream recipient = iter.next();
-                int share = leftToAllocate * recipient.getWeight() / totalWeight;
-                if (share == 0) {
-                    // This is to avoid rounding issues triggering an infinite
-                    // loop. It will cause a very slight over allocation but
-                    // HTTP/2 should cope with that.
-                    share = 1;
+                if (sendfileData.streamReservation == 0) {
+                    int reservation = (sendfileData.left > Integer.MAX_VALUE) ?
+                            Integer.MAX_VALUE : (int) sendfileData.left;
+                    sendfileData.streamReservation =
+                            sendfileData.stream.reserveWindowSize(reservation, true);
                 }
-                int remainder = allocate(recipient, share);
-                // Remove recipients that receive their full allocation so that
-                // they are excluded from the next allocation round.
-                if (remainder > 0) {
-                    iter.remove();
+                if (sendfileData.connectionReservation == 0) {
+                    sendfileData.connectionReservation = reserveWindowSize(
+                            sendfileData.stream, sendfileData.streamReservation, true);
                 }
-                allocated += (share - remainder);
+                int frameSize = Integer.min(getMaxFrameSize(), sendfileData.connectionReservation);
+                boolean finished = (frameSize == sendfileData.left) &&
+                        sendfileData.stream.getCoyoteResponse().getTrailerFields() == null;
+                writeBody(sendfileData.stream, sendfileData.mappedBuffer, frameSize, finished);
+                sendfileData.left -= frameSize;
+                sendfileData.streamReservation -= frameSize;
+                sendfileData.connectionReservation -= frameSize;
+                sendfileData.pos += frameSize;
             }
-            leftToAllocate -= allocated;
+        } catch (IOException e) {
+            return SendfileState.ERROR;
+        } finally {
+            sendfileData.mapping.release();
         }
-
-        return 0;
+        return SendfileState.DONE;
     }
 
 
@@ -1114,6 +1130,11 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
             return;
         }
 
+        TimeoutWheel.Timeout timeout = connectionTimeoutCheck.getAndSet(null);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
         for (Stream stream : streams.values()) {
             // The connection is closing. Close the associated streams as no
             // longer required (also notifies any threads waiting for allocations).
@@ -1237,6 +1258,8 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
             }
         }
 
+        backLog.prioritiesChanged();
+
         if (toClose > 0) {
             log.warn(sm.getString("upgradeHandler.pruneIncomplete", connectionId,
                     Integer.toString(streamId), Integer.toString(toClose)));
@@ -1504,6 +1527,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
             parentStream = this;
         }
         stream.rePrioritise(parentStream, exclusive, weight);
+        backLog.prioritiesChanged();
     }
 
 
@@ -1596,10 +1620,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
                         "upgradeHandler.unexpectedAck", connectionId, getIdentifier()));
             }
         } else {
-            synchronized (socketWrapper) {
-                socketWrapper.write(true, SETTINGS_ACK, 0, SETTINGS_ACK.length);
-                socketWrapper.flush(true);
-            }
+            frameWriteQueue.write(ByteBuffer.wrap(SETTINGS_ACK));
         }
     }
 
@@ -1654,7 +1675,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
             if (average < overheadThreshold) {
                 // For Streams, client might only release the minimum so check
                 // against current demand
-                BacklogTracker tracker = backLogStreams.get(stream);
+                BacklogTracker tracker = backLog.get(stream);
                 if (tracker == null || increment < tracker.getRemainingReservation()) {
                     // The smaller the increment, the larger the overhead
                     overheadCount.addAndGet(overheadThreshold / average);
@@ -1702,15 +1723,18 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
             if (force || now - lastPingNanoTime > pingIntervalNano) {
                 lastPingNanoTime = now;
                 byte[] payload = new byte[8];
-                synchronized (socketWrapper) {
+                FrameWrite frameWrite;
+                synchronized (this) {
+                    // Queue while holding the lock so pings are sent in
+                    // sequence order
                     int sentSequence = ++sequence;
                     PingRecord pingRecord = new PingRecord(sentSequence, now);
                     inflightPings.add(pingRecord);
                     ByteUtil.set31Bits(payload, 4, sentSequence);
-                    socketWrapper.write(true, PING, 0, PING.length);
-                    socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
+                    frameWrite = frameWriteQueue.add(
+                            ByteBuffer.wrap(PING), ByteBuffer.wrap(payload));
                 }
+                frameWriteQueue.complete(frameWrite);
             }
         }
 
@@ -1740,11 +1764,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
             } else {
                 // Client originated ping. Echo it back.
-                synchronized (socketWrapper) {
-                    socketWrapper.write(true, PING_ACK, 0, PING_ACK.length);
-                    socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
-                }
+                frameWriteQueue.write(ByteBuffer.wrap(PING_ACK), ByteBuffer.wrap(payload));
             }
         }
 
@@ -1804,32 +1824,47 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     }
 
 
-    private class DefaultHeaderFrameBuffers implements HeaderFrameBuffers {
+    /*
+     * Collects the frames for a header block so they can be queued and then
+     * written as a single unit. The frames are encoded one after another into
+     * a single buffer that is only replaced when more space is required.
+     */
+    private static class DefaultHeaderFrameBuffers implements HeaderFrameBuffers {
 
         private final byte[] header;
+        private int payloadSize;
+        private ByteBuffer frames;
         private ByteBuffer payload;
 
         public DefaultHeaderFrameBuffers(int initialPayloadSize) {
             header = new byte[9];
-            payload = ByteBuffer.allocate(initialPayloadSize);
+            payloadSize = initialPayloadSize;
+            frames = ByteBuffer.allocate(header.length + initialPayloadSize);
         }
 
         @Override
         public void startFrame() {
-            // NO-OP
+            int required = header.length + payloadSize;
+            if (frames.remaining() < required) {
+                ByteBuffer expanded = ByteBuffer.allocate(
+                        Math.max(frames.capacity() * 2, frames.position() + required));
+                frames.flip();
+                expanded.put(frames);
+                frames = expanded;
+            }
+            // The payload follows the space left for the frame header
+            int start = frames.position();
+            frames.position(start + header.length);
+            payload = frames.slice();
+            payload.limit(payloadSize);
+            frames.position(start);
         }
 
 
         @Override
         public void endFrame() throws IOException {
-            try {
-                socketWrapper.write(true, header, 0, header.length);
-                socketWrapper.write(true, payload);
-                socketWrapper.flush(true);
-            } catch (IOException ioe) {
-                handleAppInitiatedIOException(ioe);
-            }
-            payload.clear();
+            frames.put(header);
+            frames.position(frames.position() + payload.limit());
         }
 
         @Override
@@ -1849,83 +1884,22 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
         @Override
         public void expandPayload() {
-            payload = ByteBuffer.allocate(payload.capacity() * 2);
+            // The larger payload is allocated when the frame is restarted
+            payloadSize = payloadSize * 2;
         }
-    }
-
-
-    private static class BacklogTracker {
 
-        private int remainingReservation;
-        private int unusedAllocation;
-        private boolean notifyInProgress;
-
-        public BacklogTracker() {
-        }
-
-        public BacklogTracker(int reservation) {
-            remainingReservation = reservation;
-        }
-
-        /**
-         * @return The number of bytes requiring an allocation from the
-         *         Connection flow control window
-         */
-        public int getRemainingReservation() {
-            return remainingReservation;
-        }
-
-        /**
-         *
-         * @return The number of bytes allocated from the Connection flow
-         *         control window but not yet written
-         */
-        public int getUnusedAllocation() {
-            return unusedAllocation;
-        }
-
-        /**
-         * The purpose of this is to avoid the incorrect triggering of a timeout
-         * for the following sequence of events:
-         * <ol>
-         * <li>window update 1</li>
-         * <li>allocation 1</li>
-         * <li>notify 1</li>
-         * <li>window update 2</li>
-         * <li>allocation 2</li>
-         * <li>act on notify 1 (using allocation 1 and 2)</li>
-         * <li>notify 2</li>
-         * <li>act on notify 2 (timeout due to no allocation)</li>
-         * </ol>
-         *
-         * @return {@code true} if a notify has been issued but the associated
-         *         allocation has not been used, otherwise {@code false}
-         */
-        public boolean isNotifyInProgress() {
-            return notifyInProgress;
-        }
-
-        public void useAllocation() {
-            unusedAllocation = 0;
-            notifyInProgress = false;
-        }
-
-        public void startNotify() {
-            notifyInProgress = true;
+        public ByteBuffer[] getFrames() {
+            frames.flip();
+            return new ByteBuffer[] { frames };
         }
+    }
 
-        private int allocate(int allocation) {
-            if (remainingReservation >= allocation) {
-                remainingReservation -= allocation;
-                unusedAllocation += allocation;
-                return 0;
-            }
 
-            int left = allocation - remainingReservation;
-            unusedAllocation += remainingReservation;
-            remainingReservation = 0;
+    private class ConnectionTimeoutCheck implements Runnable {
 
-            return left;
+        @Override
+        public void run() {
+            checkConnectionTimeout();
         }
     }
 }
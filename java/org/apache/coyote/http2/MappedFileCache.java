@@ -0,0 +1,190 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Shares a single read-only mapping of a file between all the streams that are
+ * using sendfile for that file at the same time. Each stream is given its own
+ * view of the mapping so the position and limit of one stream's writes do not
+ * affect any other stream. The mapping is removed from the cache once the last
+ * stream using it has released it.
+ * <p>
+ * A mapping is only shared if the size and last modified time of the file are
+ * unchanged. Files too large to be mapped into a single buffer are mapped for
+ * the requested range only and are not shared.
+ */
+class MappedFileCache {
+
+    private static final StringManager sm = StringManager.getManager(MappedFileCache.class);
+
+    private final Map<Path,Entry> entries = new HashMap<>();
+
+
+    /**
+     * Obtain a view of the given range of a file.
+     *
+     * @param path  The file
+     * @param start The position of the first byte of the range
+     * @param end   The position after the last byte of the range
+     *
+     * @return A mapping that must be released once the stream no longer
+     *         requires it
+     *
+     * @throws IOException If the file could not be mapped
+     */
+    Mapping acquire(Path path, long start, long end) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        if (start < 0 || end < start || end > size) {
+            throw new IOException(sm.getString("mappedFileCache.invalidRange", Long.toString(start),
+                    Long.toString(end), path, Long.toString(size)));
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            return new Mapping(null, map(path, start, end - start));
+        }
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Entry entry = reference(path, size, lastModified);
+        if (entry == null) {
+            // Map outside of the lock. If another stream maps the same file
+            // concurrently, only one of the mappings is retained.
+            ByteBuffer buffer = map(path, 0, size);
+            synchronized (this) {
+                entry = reference(path, size, lastModified);
+                if (entry == null) {
+                    // Any existing entry is for an old version of the file.
+                    // Streams still using it keep their views.
+                    entry = new Entry(path, size, lastModified, buffer);
+                    entries.put(path, entry);
+                }
+            }
+        }
+
+        ByteBuffer view = entry.buffer.duplicate();
+        view.limit((int) end);
+        view.position((int) start);
+        return new Mapping(entry, view);
+    }
+
+
+    /**
+     * @return The number of files currently mapped and shared by this cache
+     */
+    synchronized int getSize() {
+        return entries.size();
+    }
+
+
+    private synchronized Entry reference(Path path, long size, long lastModified) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            entry.referenceCount++;
+            return entry;
+        }
+        return null;
+    }
+
+
+    private synchronized void release(Entry entry) {
+        entry.referenceCount--;
+        if (entry.referenceCount == 0 && entries.get(entry.path) == entry) {
+            // Note: a mapped buffer is a special construct with an underlying
+            // file that doesn't need to be closed. It is unmapped once it has
+            // been garbage collected.
+            entries.remove(entry.path);
+        }
+    }
+
+
+    private static ByteBuffer map(Path path, long position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, position, size);
+        }
+    }
+
+
+    /**
+     * A view of a range of a mapped file that is used by a single stream.
+     */
+    class Mapping {
+
+        private final Entry entry;
+        private final ByteBuffer buffer;
+        private boolean released = false;
+
+        private Mapping(Entry entry, ByteBuffer buffer) {
+            this.entry = entry;
+            this.buffer = buffer;
+        }
+
+
+        /**
+         * @return The view of the requested range. The position is the start
+         *         of the range and the limit is the end of the range.
+         */
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+
+        /**
+         * Release this view of the file. Calls after the first have no effect.
+         */
+        void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            if (entry != null) {
+                MappedFileCache.this.release(entry);
+            }
+        }
+    }
+
+
+    private static class Entry {
+
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final ByteBuffer buffer;
+        private int referenceCount = 1;
+
+        Entry(Path path, long size, long lastModified, ByteBuffer buffer) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -16,18 +16,20 @@
  */
 package org.apache.coyote.http2;
 
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 class SendfileData {
     Path path;
     Stream stream;
-    // Note: a mapped buffer is a special construct with an underlying file
-    // that doesn't need to be closed
-    MappedByteBuffer mappedBuffer;
+    // The mapping is shared with other streams sending the same file and
+    // must be released once the file has been sent
+    MappedFileCache.Mapping mapping;
+    // This stream's view of the mapped file
+    ByteBuffer mappedBuffer;
     long left;
     int streamReservation;
     int connectionReservation;
     long pos;
     long end;
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -26,8 +26,10 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import org.apache.coyote.AbstractProtocol;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.CloseNowException;
 import org.apache.coyote.InputBuffer;
@@ -43,8 +45,10 @@ import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.parser.Host;
 import org.apache.tomcat.util.net.ApplicationBufferHandler;
+import org.apache.tomcat.util.net.SocketEvent;
 import org.apache.tomcat.util.net.WriteBuffer;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TimeoutWheel;
 
 class Stream extends AbstractStream implements HeaderEmitter {
 
@@ -80,11 +84,19 @@ class Stream extends AbstractStream implements HeaderEmitter {
     // TODO: null these when finished to reduce memory used by closed stream
     private final Request coyoteRequest;
     private StringBuilder cookieHeader = null;
+    // Holds the values of regular headers received as bytes
+    private byte[] headerValues = null;
+    private int headerValuesUsed = 0;
     private final Response coyoteResponse = new Response();
     private final StreamInputBuffer inputBuffer;
     private final StreamOutputBuffer streamOutputBuffer = new StreamOutputBuffer();
     private final Http2OutputBuffer http2OutputBuffer =
             new Http2OutputBuffer(coyoteResponse, streamOutputBuffer);
+    // The processor to dispatch when a stream that is completing its response
+    // without a container thread is allocated window. null if the stream is
+    // not completing that way.
+    private volatile StreamProcessor completionProcessor = null;
+    private volatile TimeoutWheel.Timeout completionTimeout = null;
 
 
     Stream(Integer identifier, Http2UpgradeHandler handler) {
@@ -125,10 +137,14 @@ class Stream extends AbstractStream implements HeaderEmitter {
             // TODO Assuming the body has been read at this point is not valid
             state.receivedEndOfStream();
         }
-        this.coyoteRequest.setSendfile(handler.hasAsyncIO() && handler.getProtocol().getUseSendfile());
+        this.coyoteRequest.setSendfile(handler.getProtocol().getUseSendfile());
         this.coyoteResponse.setOutputBuffer(http2OutputBuffer);
         this.coyoteRequest.setResponse(coyoteResponse);
         this.coyoteRequest.protocol().setString("HTTP/2.0");
+        AbstractProtocol<?> http11Protocol = handler.getProtocol().getHttp11Protocol();
+        if (http11Protocol != null && http11Protocol.getPhaseTiming()) {
+            this.coyoteRequest.setPhaseTiming(true);
+        }
         if (this.coyoteRequest.getStartTime() < 0) {
             this.coyoteRequest.setStartTime(System.currentTimeMillis());
         }
@@ -270,7 +286,12 @@ class Stream extends AbstractStream implements HeaderEmitter {
             if (block) {
                 try {
                     long writeTimeout = handler.getProtocol().getStreamWriteTimeout();
-                    allocationManager.waitForStream(writeTimeout);
+                    handler.getProtocol().streamBlocked();
+                    try {
+                        allocationManager.waitForStream(writeTimeout);
+                    } finally {
+                        handler.getProtocol().streamUnblocked();
+                    }
                     windowSize = getWindowSize();
                     if (windowSize == 0) {
                         doWriteTimeout();
@@ -313,7 +334,12 @@ class Stream extends AbstractStream implements HeaderEmitter {
 
 
     void waitForConnectionAllocation(long timeout) throws InterruptedException {
-        allocationManager.waitForConnection(timeout);
+        handler.getProtocol().streamBlocked();
+        try {
+            allocationManager.waitForConnection(timeout);
+        } finally {
+            handler.getProtocol().streamUnblocked();
+        }
     }
 
 
@@ -480,6 +506,40 @@ class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    @Override
+    public final void emitHeader(String name, byte[] value, int offset, int length)
+            throws HpackException {
+        if ((headerState != HEADER_STATE_PSEUDO && headerState != HEADER_STATE_REGULAR) ||
+                headerException != null || log.isDebugEnabled() || name.length() == 0 ||
+                name.charAt(0) == ':' || "cookie".equals(name) || "connection".equals(name) ||
+                "te".equals(name) || "expect".equals(name)) {
+            // Needs the full processing (and validation) of the String form
+            emitHeader(name, new String(value, offset, length, StandardCharsets.ISO_8859_1));
+            return;
+        }
+
+        // Header names must be lower case
+        if (!name.toLowerCase(Locale.US).equals(name)) {
+            throw new HpackException(sm.getString("stream.header.case",
+                    getConnectionId(), getIdentifier(), name));
+        }
+
+        headerState = HEADER_STATE_REGULAR;
+
+        // Copy the value into a buffer shared by the headers of this stream.
+        // A new buffer is allocated when the current one is full. Values
+        // already added still reference the previous buffer.
+        if (headerValues == null || headerValues.length - headerValuesUsed < length) {
+            headerValues = new byte[Math.max(length, 1024)];
+            headerValuesUsed = 0;
+        }
+        System.arraycopy(value, offset, headerValues, headerValuesUsed, length);
+        coyoteRequest.getMimeHeaders().addValue(name).setBytes(
+                headerValues, headerValuesUsed, length);
+        headerValuesUsed += length;
+    }
+
+
     @Override
     public void setHeaderException(StreamException streamException) {
         if (headerException == null) {
@@ -706,6 +766,101 @@ class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    /**
+     * End the response for a stream that uses blocking I/O without blocking if
+     * the flow control windows do not permit the remainder of the response to
+     * be written. In that case the given processor is dispatched once window
+     * is allocated and must then call {@link #continueEnd()}.
+     *
+     * @param processor The processor to dispatch when window is allocated
+     *
+     * @return {@code true} if the response is not yet complete
+     *
+     * @throws IOException If an I/O error occurs writing the response
+     */
+    final boolean endNonBlocking(StreamProcessor processor) throws IOException {
+        // Set before any write so a notification of allocated window can not be
+        // missed
+        completionProcessor = processor;
+        streamOutputBuffer.endNonBlocking = true;
+        boolean result = false;
+        try {
+            http2OutputBuffer.end();
+            result = streamOutputBuffer.endPending;
+            return result;
+        } finally {
+            parkedOrCompleted(result);
+        }
+    }
+
+
+    /**
+     * Continue a response that was ended with
+     * {@link #endNonBlocking(StreamProcessor)}.
+     *
+     * @return {@code true} if the response is still not complete
+     *
+     * @throws IOException If an I/O error occurs writing the response
+     */
+    final boolean continueEnd() throws IOException {
+        boolean result = false;
+        try {
+            result = streamOutputBuffer.continueEnd();
+            return result;
+        } finally {
+            parkedOrCompleted(result);
+        }
+    }
+
+
+    private void parkedOrCompleted(boolean parked) {
+        TimeoutWheel.Timeout timeout = completionTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        if (parked) {
+            long writeTimeout = handler.getProtocol().getStreamWriteTimeout();
+            if (writeTimeout > 0) {
+                final StreamProcessor processor = completionProcessor;
+                completionTimeout = TimeoutWheel.getSharedInstance().schedule(
+                        () -> handler.processStreamOnContainerThread(processor, SocketEvent.TIMEOUT),
+                        writeTimeout, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            completionProcessor = null;
+            completionTimeout = null;
+        }
+    }
+
+
+    final boolean isCompletionPending() {
+        return completionProcessor != null;
+    }
+
+
+    /*
+     * Called by the WindowAllocationManager when window has been allocated to
+     * a stream that is completing without a container thread.
+     */
+    final void dispatchCompletion() {
+        StreamProcessor processor = completionProcessor;
+        if (processor != null) {
+            handler.processStreamOnContainerThread(processor, SocketEvent.OPEN_WRITE);
+        }
+    }
+
+
+    /*
+     * Called when the stream write timeout expires for a stream that is
+     * completing without a container thread.
+     */
+    final void completionTimeout() throws CloseNowException {
+        completionProcessor = null;
+        completionTimeout = null;
+        doWriteTimeout();
+    }
+
+
     final void close(Http2Exception http2Exception) {
         if (http2Exception instanceof StreamException) {
             try {
@@ -832,6 +987,9 @@ class Stream extends AbstractStream implements HeaderEmitter {
         private volatile boolean closed = false;
         private volatile StreamException reset = null;
         private volatile boolean endOfStreamSent = false;
+        // Used when a blocking stream completes without a container thread
+        private volatile boolean endNonBlocking = false;
+        private volatile boolean endPending = false;
 
         /* The write methods are synchronized to ensure that only one thread at
          * a time is able to access the buffer. Without this protection, a
@@ -982,11 +1140,34 @@ class Stream extends AbstractStream implements HeaderEmitter {
             }
             if (!closed) {
                 closed = true;
-                flush(true);
+                if (endNonBlocking) {
+                    if (flush(false)) {
+                        // Wait for window to be allocated
+                        endPending = true;
+                        return;
+                    }
+                } else {
+                    flush(true);
+                }
                 writeTrailers();
             }
         }
 
+        final synchronized boolean continueEnd() throws IOException {
+            if (reset != null) {
+                throw new CloseNowException(reset);
+            }
+            if (!endPending) {
+                return false;
+            }
+            if (flush(false)) {
+                return true;
+            }
+            endPending = false;
+            writeTrailers();
+            return false;
+        }
+
         /**
          * @return <code>true</code> if it is certain that the associated
          *         response has no body.
@@ -1074,10 +1255,15 @@ class Stream extends AbstractStream implements HeaderEmitter {
                         }
 
                         long readTimeout = handler.getProtocol().getStreamReadTimeout();
-                        if (readTimeout < 0) {
-                            inBuffer.wait();
-                        } else {
-                            inBuffer.wait(readTimeout);
+                        handler.getProtocol().streamBlocked();
+                        try {
+                            if (readTimeout < 0) {
+                                inBuffer.wait();
+                            } else {
+                                inBuffer.wait(readTimeout);
+                            }
+                        } finally {
+                            handler.getProtocol().streamUnblocked();
                         }
 
                         if (resetReceived) {
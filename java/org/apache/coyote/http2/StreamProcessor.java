@@ -49,6 +49,8 @@ class StreamProcessor extends AbstractProcessor {
     private final Stream stream;
     private SendfileData sendfileData = null;
     private SendfileState sendfileState = null;
+    // Set once the response has been ended using non-blocking completion
+    private volatile boolean completedNonBlocking = false;
 
 
     StreamProcessor(Http2UpgradeHandler handler, Stream stream, Adapter adapter,
@@ -67,11 +69,24 @@ class StreamProcessor extends AbstractProcessor {
                 // HTTP/2 equivalent of AbstractConnectionHandler#process() without the
                 // socket <-> processor mapping
                 ContainerThreadMarker.set();
+                handler.getProtocol().streamRunning();
                 SocketState state = SocketState.CLOSED;
                 try {
-                    state = process(socketWrapper, event);
+                    if (stream.isCompletionPending()) {
+                        handler.getProtocol().streamUnparked();
+                        state = continueCompletion(event);
+                    } else if (completedNonBlocking) {
+                        // Late window allocation or timeout for a response
+                        // that has already completed
+                        return;
+                    } else {
+                        state = process(socketWrapper, event);
+                    }
 
-                    if (state == SocketState.LONG) {
+                    if (state == SocketState.SUSPENDED) {
+                        // Waiting for window to complete the response
+                        handler.getProtocol().streamParked();
+                    } else if (state == SocketState.LONG) {
                         handler.getProtocol().getHttp11Protocol().addWaitingProcessor(this);
                     } else if (state == SocketState.CLOSED) {
                         handler.getProtocol().getHttp11Protocol().removeWaitingProcessor(this);
@@ -101,6 +116,7 @@ class StreamProcessor extends AbstractProcessor {
                     ce.initCause(e);
                     stream.close(ce);
                 } finally {
+                    handler.getProtocol().streamNotRunning();
                     ContainerThreadMarker.clear();
                 }
             }
@@ -110,10 +126,29 @@ class StreamProcessor extends AbstractProcessor {
     }
 
 
+    /*
+     * Continue writing a response for a stream using blocking I/O that was
+     * suspended waiting for flow control window.
+     */
+    private SocketState continueCompletion(SocketEvent event) {
+        try {
+            if (event == SocketEvent.TIMEOUT) {
+                stream.completionTimeout();
+            } else if (stream.continueEnd()) {
+                return SocketState.SUSPENDED;
+            }
+        } catch (IOException ioe) {
+            setErrorState(ErrorState.CLOSE_NOW, ioe);
+        }
+        request.updateCounters();
+        return SocketState.CLOSED;
+    }
+
+
     @Override
     protected final void prepareResponse() throws IOException {
         response.setCommitted(true);
-        if (handler.hasAsyncIO() && handler.getProtocol().getUseSendfile()) {
+        if (handler.getProtocol().getUseSendfile()) {
             prepareSendfile();
         }
         prepareHeaders(request, response, sendfileData == null, handler.getProtocol(), stream);
@@ -196,7 +231,23 @@ class StreamProcessor extends AbstractProcessor {
     protected final void finishResponse() throws IOException {
         sendfileState = handler.processSendfile(sendfileData);
         if (!(sendfileState == SendfileState.PENDING)) {
-            stream.getOutputBuffer().end();
+            if (stream.isCompletionPending()) {
+                // Already waiting for window to complete the response
+                return;
+            }
+            if (handler.getProtocol().getNonBlockingStreamCompletion() &&
+                    response.getWriteListener() == null && !isAsync() &&
+                    !getErrorState().isError() && stream.isInputFinished()) {
+                // The application has finished with the response so there is
+                // no need to hold this thread while the remainder of the
+                // response waits for flow control window. Requests with
+                // unread input are excluded since that input is cancelled
+                // once processing ends.
+                completedNonBlocking = true;
+                stream.endNonBlocking(this);
+            } else {
+                stream.getOutputBuffer().end();
+            }
         }
     }
 
@@ -403,6 +454,10 @@ class StreamProcessor extends AbstractProcessor {
             return SocketState.LONG;
         } else {
             action(ActionCode.CLOSE, null);
+            if (stream.isCompletionPending() && !getErrorState().isError()) {
+                // Counters are updated once the response is complete
+                return SocketState.SUSPENDED;
+            }
             request.updateCounters();
             return SocketState.CLOSED;
         }
@@ -59,6 +59,8 @@ class WindowAllocationManager {
     private final Stream stream;
 
     private int waitingFor = NONE;
+    // Is the current wait (if any) non-blocking?
+    private boolean waitingNonBlocking = false;
 
     WindowAllocationManager(Stream stream) {
         this.stream = stream;
@@ -144,6 +146,7 @@ class WindowAllocationManager {
             }
 
             waitingFor = waitTarget;
+            waitingNonBlocking = false;
 
             if (timeout < 0) {
                 stream.wait();
@@ -158,6 +161,7 @@ class WindowAllocationManager {
         synchronized (stream) {
             if (waitingFor == NONE) {
                 waitingFor = waitTarget;
+                waitingNonBlocking = true;
             } else if (waitingFor == waitTarget) {
                 // NO-OP
                 // Non-blocking post-processing may attempt to flush
@@ -184,7 +188,15 @@ class WindowAllocationManager {
                 // to stream.notify(). Additional notify() calls may trigger
                 // unexpected timeouts.
                 waitingFor = NONE;
-                if (stream.getCoyoteResponse().getWriteListener() == null) {
+                if (waitingNonBlocking && stream.isCompletionPending()) {
+                    // Blocking I/O but the response is being completed without
+                    // a container thread so dispatch to a new one
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("windowAllocationManager.dispatched",
+                                stream.getConnectionId(), stream.getIdentifier()));
+                    }
+                    stream.dispatchCompletion();
+                } else if (stream.getCoyoteResponse().getWriteListener() == null) {
                     // Blocking, so use notify to release StreamOutputBuffer
                     if (log.isDebugEnabled()) {
                         log.debug(sm.getString("windowAllocationManager.notified",
@@ -0,0 +1,415 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A String cache for {@link StringCache} that keeps adapting to the strings
+ * that are currently the most frequent rather than training once.
+ * <p>
+ * A sample of the calls is counted in a count-min sketch. Strings that were
+ * missed and are estimated to be at least as frequent as the least frequent
+ * cached string are kept as candidates. After a fixed number of samples, one
+ * thread rebuilds the cache from the current entries and the candidates,
+ * keeping the most frequent, and halves the sketch counts so that old traffic
+ * is forgotten. The cache is an immutable open addressing hash table that is
+ * replaced as a whole, so looking up a string never blocks and the rebuild
+ * never blocks other threads.
+ * <p>
+ * The counts are updated without synchronization. Lost updates only make the
+ * estimates slightly less accurate.
+ */
+final class AdaptiveStringCache {
+
+    private static final Log log = LogFactory.getLog(AdaptiveStringCache.class);
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int[] SKETCH_SEEDS =
+            { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+    private static final int MIN_FREQUENCY = 2;
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final int cacheSize;
+    private final int maxStringSize;
+    private final int sampleRate;
+    private final int rebuildInterval;
+
+    private final int[] sketch;
+    private final int sketchMask;
+    private final AtomicReferenceArray<Entry> candidates;
+    private final AtomicInteger candidateIndex = new AtomicInteger();
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile int admissionFrequency = MIN_FREQUENCY;
+
+    private volatile Entry[] table = EMPTY;
+    private volatile int size = 0;
+
+    private final LongAdder accessCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder rebuildCount = new LongAdder();
+
+
+    /**
+     * @param cacheSize       The maximum number of cached strings
+     * @param maxStringSize   Strings of this length or longer are not cached
+     * @param sampleRate      One in this many calls is counted
+     * @param rebuildInterval The number of counted calls between rebuilds of
+     *                        the cache
+     */
+    AdaptiveStringCache(int cacheSize, int maxStringSize, int sampleRate, int rebuildInterval) {
+        this.cacheSize = cacheSize;
+        this.maxStringSize = maxStringSize;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.rebuildInterval = Math.max(1, rebuildInterval);
+        // Sixteen counters per cached string keeps collisions rare
+        int width = Integer.highestOneBit(Math.max(64, cacheSize * 16) - 1) << 1;
+        sketch = new int[width * SKETCH_DEPTH];
+        sketchMask = width - 1;
+        candidates = new AtomicReferenceArray<>(Math.max(1, cacheSize));
+    }
+
+
+    String toString(ByteChunk bc) {
+        int start = bc.getStart();
+        int len = bc.getLength();
+        if (len >= maxStringSize) {
+            return bc.toStringInternal();
+        }
+        byte[] buffer = bc.getBuffer();
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        accessCount.increment();
+
+        Entry entry = find(hash, buffer, start, len, bc.getCharset());
+        String value;
+        if (entry == null) {
+            value = bc.toStringInternal();
+        } else {
+            hitCount.increment();
+            value = entry.value;
+        }
+
+        if (sampled()) {
+            int frequency = increment(hash);
+            if (entry == null && frequency >= admissionFrequency) {
+                offer(new Entry(hash, Arrays.copyOfRange(buffer, start, start + len), null,
+                        bc.getCharset(), value));
+            }
+            afterSample();
+        }
+        return value;
+    }
+
+
+    String toString(CharChunk cc) {
+        int start = cc.getStart();
+        int len = cc.getLength();
+        if (len >= maxStringSize) {
+            return cc.toStringInternal();
+        }
+        char[] buffer = cc.getBuffer();
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        accessCount.increment();
+
+        Entry entry = find(hash, buffer, start, len);
+        String value;
+        if (entry == null) {
+            value = cc.toStringInternal();
+        } else {
+            hitCount.increment();
+            value = entry.value;
+        }
+
+        if (sampled()) {
+            int frequency = increment(hash);
+            if (entry == null && frequency >= admissionFrequency) {
+                offer(new Entry(hash, null, Arrays.copyOfRange(buffer, start, start + len), null, value));
+            }
+            afterSample();
+        }
+        return value;
+    }
+
+
+    long getAccessCount() {
+        return accessCount.sum();
+    }
+
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+
+    long getRebuildCount() {
+        return rebuildCount.sum();
+    }
+
+
+    int getSize() {
+        return size;
+    }
+
+
+    void reset() {
+        table = EMPTY;
+        size = 0;
+        Arrays.fill(sketch, 0);
+        for (int i = 0; i < candidates.length(); i++) {
+            candidates.set(i, null);
+        }
+        admissionFrequency = MIN_FREQUENCY;
+        accessCount.reset();
+        hitCount.reset();
+        rebuildCount.reset();
+    }
+
+
+    private Entry find(int hash, byte[] buffer, int start, int len, Charset charset) {
+        Entry[] table = this.table;
+        if (table.length == 0) {
+            return null;
+        }
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; table[i] != null; i = (i + 1) & mask) {
+            Entry entry = table[i];
+            if (entry.hash == hash && entry.bytes != null && entry.bytes.length == len &&
+                    entry.charset.equals(charset) && equals(entry.bytes, buffer, start)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+
+    private Entry find(int hash, char[] buffer, int start, int len) {
+        Entry[] table = this.table;
+        if (table.length == 0) {
+            return null;
+        }
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; table[i] != null; i = (i + 1) & mask) {
+            Entry entry = table[i];
+            if (entry.hash == hash && entry.chars != null && entry.chars.length == len &&
+                    equals(entry.chars, buffer, start)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+
+    private boolean sampled() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+
+    /*
+     * Increments the count of the given hash in each row of the sketch and
+     * returns the new estimate of its frequency.
+     */
+    private int increment(int hash) {
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = sketchIndex(hash, i);
+            int count = sketch[index] + 1;
+            sketch[index] = count;
+            if (count < result) {
+                result = count;
+            }
+        }
+        return result;
+    }
+
+
+    private int estimate(int hash) {
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int count = sketch[sketchIndex(hash, i)];
+            if (count < result) {
+                result = count;
+            }
+        }
+        return result;
+    }
+
+
+    private int sketchIndex(int hash, int row) {
+        return row * (sketchMask + 1) + (spread(hash * SKETCH_SEEDS[row]) & sketchMask);
+    }
+
+
+    private void offer(Entry entry) {
+        int index = (candidateIndex.getAndIncrement() & Integer.MAX_VALUE) % candidates.length();
+        candidates.set(index, entry);
+    }
+
+
+    private void afterSample() {
+        if (sampleCount.incrementAndGet() % rebuildInterval == 0 && rebuilding.compareAndSet(false, true)) {
+            try {
+                rebuild();
+            } finally {
+                rebuilding.set(false);
+            }
+        }
+    }
+
+
+    private void rebuild() {
+        long t1 = System.nanoTime();
+
+        // Current entries first so a candidate that duplicates an entry is
+        // ignored
+        Set<Entry> unique = new HashSet<>();
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : table) {
+            if (entry != null && unique.add(entry)) {
+                entries.add(entry);
+            }
+        }
+        for (int i = 0; i < candidates.length(); i++) {
+            Entry entry = candidates.getAndSet(i, null);
+            if (entry != null && unique.add(entry)) {
+                entries.add(entry);
+            }
+        }
+
+        for (Entry entry : entries) {
+            entry.frequency = estimate(entry.hash);
+        }
+        // Most frequent first
+        entries.sort((e1, e2) -> Integer.compare(e2.frequency, e1.frequency));
+        int n = 0;
+        while (n < entries.size() && n < cacheSize && entries.get(n).frequency >= MIN_FREQUENCY) {
+            n++;
+        }
+
+        // At most half full so that probe sequences remain short
+        Entry[] newTable = n == 0 ? EMPTY : new Entry[Integer.highestOneBit(n) << 2];
+        int mask = newTable.length - 1;
+        for (int i = 0; i < n; i++) {
+            Entry entry = entries.get(i);
+            int index = spread(entry.hash) & mask;
+            while (newTable[index] != null) {
+                index = (index + 1) & mask;
+            }
+            newTable[index] = entry;
+        }
+
+        // Age the counts so that strings that are no longer used are
+        // eventually replaced
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] >>>= 1;
+        }
+        if (n == cacheSize) {
+            admissionFrequency = Math.max(MIN_FREQUENCY, entries.get(n - 1).frequency >>> 1);
+        } else {
+            admissionFrequency = MIN_FREQUENCY;
+        }
+
+        table = newTable;
+        size = n;
+        rebuildCount.increment();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Adaptive cache rebuilt with " + n + " entries in " +
+                    (System.nanoTime() - t1) / 1000 + "us");
+        }
+    }
+
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    private static boolean equals(byte[] name, byte[] buffer, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buffer[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean equals(char[] name, char[] buffer, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buffer[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static class Entry {
+
+        private final int hash;
+        private final byte[] bytes;
+        private final char[] chars;
+        private final Charset charset;
+        private final String value;
+        // Only used while rebuilding
+        private int frequency;
+
+        Entry(int hash, byte[] bytes, char[] chars, Charset charset, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.chars = chars;
+            this.charset = charset;
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Entry) {
+                Entry other = (Entry) obj;
+                return value.equals(other.value) && (charset == null ?
+                        other.charset == null : charset.equals(other.charset));
+            }
+            return false;
+        }
+    }
+}
@@ -27,6 +27,12 @@ import org.apache.juli.logging.LogFactory;
 
 /**
  * This class implements a String cache for ByteChunk and CharChunk.
+ * <p>
+ * By default the cache is trained once: the strings seen during the first
+ * {@code trainThreshold} calls are counted and the most frequent are then
+ * cached for good. In adaptive mode the cache is rebuilt from a sample of the
+ * calls every {@code trainThreshold} calls so it follows changes in the
+ * traffic, and neither the counting nor the look ups take a lock.
  *
  * @author Remy Maucherat
  */
@@ -64,6 +70,23 @@ public class StringCache {
                     "tomcat.util.buf.StringCache.maxStringSize", "128"));
 
 
+    protected static boolean adaptive = ("true".equals(System.getProperty(
+            "tomcat.util.buf.StringCache.adaptive", "false")));
+
+
+    /**
+     * In adaptive mode, one in this many calls is counted.
+     */
+    private static final int ADAPTIVE_SAMPLE_RATE = 16;
+
+
+    /**
+     * Adaptive caches for byte chunk and char chunk.
+     */
+    private static volatile AdaptiveStringCache bcAdaptiveCache = createAdaptiveCache();
+    private static volatile AdaptiveStringCache ccAdaptiveCache = createAdaptiveCache();
+
+
    /**
      * Statistics hash map for byte chunk.
      */
@@ -130,6 +153,7 @@ public class StringCache {
      */
     public void setCacheSize(int cacheSize) {
         StringCache.cacheSize = cacheSize;
+        resetAdaptiveCaches();
     }
 
 
@@ -178,6 +202,25 @@ public class StringCache {
      */
     public void setTrainThreshold(int trainThreshold) {
         StringCache.trainThreshold = trainThreshold;
+        resetAdaptiveCaches();
+    }
+
+
+    /**
+     * @return {@code true} if the cache keeps adapting to the most frequent
+     *         strings rather than training once
+     */
+    public boolean getAdaptive() {
+        return adaptive;
+    }
+
+
+    /**
+     * @param adaptive {@code true} to keep adapting the cache to the most
+     *                 frequent strings, {@code false} to train it once
+     */
+    public void setAdaptive(boolean adaptive) {
+        StringCache.adaptive = adaptive;
     }
 
 
@@ -197,6 +240,74 @@ public class StringCache {
     }
 
 
+    /**
+     * @return The number of byte chunk look ups in adaptive mode
+     */
+    public long getByteAccessCount() {
+        return bcAdaptiveCache.getAccessCount();
+    }
+
+
+    /**
+     * @return The number of byte chunk look ups in adaptive mode that were
+     *         found in the cache
+     */
+    public long getByteHitCount() {
+        return bcAdaptiveCache.getHitCount();
+    }
+
+
+    /**
+     * @return The proportion of byte chunk look ups in adaptive mode that
+     *         were found in the cache
+     */
+    public double getByteHitRatio() {
+        return ratio(bcAdaptiveCache.getHitCount(), bcAdaptiveCache.getAccessCount());
+    }
+
+
+    /**
+     * @return The number of char chunk look ups in adaptive mode
+     */
+    public long getCharAccessCount() {
+        return ccAdaptiveCache.getAccessCount();
+    }
+
+
+    /**
+     * @return The number of char chunk look ups in adaptive mode that were
+     *         found in the cache
+     */
+    public long getCharHitCount() {
+        return ccAdaptiveCache.getHitCount();
+    }
+
+
+    /**
+     * @return The proportion of char chunk look ups in adaptive mode that
+     *         were found in the cache
+     */
+    public double getCharHitRatio() {
+        return ratio(ccAdaptiveCache.getHitCount(), ccAdaptiveCache.getAccessCount());
+    }
+
+
+    /**
+     * @return The number of strings currently held by the adaptive caches
+     */
+    public int getAdaptiveSize() {
+        return bcAdaptiveCache.getSize() + ccAdaptiveCache.getSize();
+    }
+
+
+    /**
+     * @return The number of times the adaptive caches have been rebuilt
+     */
+    public long getRebuildCount() {
+        return bcAdaptiveCache.getRebuildCount() + ccAdaptiveCache.getRebuildCount();
+    }
+
+
     // -------------------------------------------------- Public Static Methods
 
 
@@ -211,11 +322,20 @@ public class StringCache {
             ccCache = null;
             ccCount = 0;
         }
+        bcAdaptiveCache.reset();
+        ccAdaptiveCache.reset();
     }
 
 
     public static String toString(ByteChunk bc) {
 
+        if (adaptive) {
+            if (byteEnabled) {
+                return bcAdaptiveCache.toString(bc);
+            }
+            return bc.toStringInternal();
+        }
+
         // If the cache is null, then either caching is disabled, or we're
         // still training
         if (bcCache == null) {
@@ -333,6 +453,13 @@ public class StringCache {
 
     public static String toString(CharChunk cc) {
 
+        if (adaptive) {
+            if (charEnabled) {
+                return ccAdaptiveCache.toString(cc);
+            }
+            return cc.toStringInternal();
+        }
+
         // If the cache is null, then either caching is disabled, or we're
         // still training
         if (ccCache == null) {
@@ -449,6 +576,26 @@ public class StringCache {
     // ----------------------------------------------------- Protected Methods
 
 
+    private static AdaptiveStringCache createAdaptiveCache() {
+        return new AdaptiveStringCache(cacheSize, maxStringSize, ADAPTIVE_SAMPLE_RATE,
+                Math.max(1, trainThreshold / ADAPTIVE_SAMPLE_RATE));
+    }
+
+
+    private static void resetAdaptiveCaches() {
+        bcAdaptiveCache = createAdaptiveCache();
+        ccAdaptiveCache = createAdaptiveCache();
+    }
+
+
+    private static double ratio(long count, long total) {
+        if (total == 0) {
+            return 0;
+        }
+        return (double) count / total;
+    }
+
+
     /**
      * Compare given byte chunk with byte array.
      * @param name The name to compare
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free alternative to {@link SynchronizedStack} for pools of re-usable
+ * objects that are accessed by many threads concurrently. The pool is split
+ * into stripes and each thread uses the stripe selected by its ID first,
+ * falling back to the other stripes if that stripe is full (push) or empty
+ * (pop). Each stripe is a fixed size array with a top index. Slots are
+ * claimed with compare-and-set so, like {@link SynchronizedStack}, no garbage
+ * is created.
+ * <p>
+ * If there is no limit, objects that do not fit in the stripes are held by
+ * the storage of the super class, which grows as required. That storage is
+ * synchronized but is only used once the stripes are full.
+ * <p>
+ * Unlike {@link SynchronizedStack}, objects are not necessarily returned in
+ * LIFO order. Under contention, a push may occasionally fail, or a pop return
+ * {@code null}, before the stack is full or empty. That only means an object
+ * is discarded or created, which is acceptable for a cache.
+ *
+ * @param <T> The type of object managed by this stack
+ */
+public class StripedStack<T> extends SynchronizedStack<T> {
+
+    private static final int MAX_STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final boolean unlimited;
+    // The number of objects held by the super class
+    private final AtomicInteger overflowCount = new AtomicInteger();
+
+
+    public StripedStack() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create a striped stack.
+     *
+     * @param size  The capacity of the stripes if no limit is specified
+     * @param limit The maximum number of objects to hold or -1 for no limit
+     */
+    public StripedStack(int size, int limit) {
+        // The storage of the super class is only used if there is no limit
+        super(limit > -1 ? 0 : Math.max(1, size), limit > -1 ? 0 : -1);
+        unlimited = limit == -1;
+        int capacity = (limit > -1) ? limit : size;
+        int stripeCount = MAX_STRIPES;
+        while (stripeCount > 1 && stripeCount > capacity) {
+            stripeCount >>= 1;
+        }
+        stripes = new Stripe[stripeCount];
+        mask = stripeCount - 1;
+        int base = capacity / stripeCount;
+        int remainder = capacity % stripeCount;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(base + (i < remainder ? 1 : 0));
+        }
+    }
+
+
+    @SuppressWarnings("sync-override")
+    @Override
+    public boolean push(T obj) {
+        int start = stripeIndex();
+        for (int i = 0; i <= mask; i++) {
+            if (stripes[(start + i) & mask].push(obj)) {
+                return true;
+            }
+        }
+        if (unlimited && super.push(obj)) {
+            overflowCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+
+    @SuppressWarnings({"sync-override", "unchecked"})
+    @Override
+    public T pop() {
+        int start = stripeIndex();
+        for (int i = 0; i <= mask; i++) {
+            Object result = stripes[(start + i) & mask].pop();
+            if (result != null) {
+                return (T) result;
+            }
+        }
+        if (overflowCount.get() > 0) {
+            T result = super.pop();
+            if (result != null) {
+                overflowCount.decrementAndGet();
+                return result;
+            }
+        }
+        return null;
+    }
+
+
+    @SuppressWarnings("sync-override")
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+        if (unlimited) {
+            super.clear();
+            overflowCount.set(0);
+        }
+    }
+
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) & mask;
+    }
+
+
+    /*
+     * An object is pushed by claiming the slot at top and then moving top up.
+     * It is popped by claiming the slot below top and then moving top down.
+     * A thread that finds a slot claimed by another thread that has not yet
+     * moved top, moves top on its behalf. Since a slot is only ever claimed
+     * with compare-and-set, an object can never be handed to two threads.
+     */
+    private static class Stripe {
+
+        private final AtomicReferenceArray<Object> slots;
+        // The index of the next free slot
+        private final AtomicInteger top = new AtomicInteger();
+
+        private Stripe(int capacity) {
+            slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        private boolean push(Object obj) {
+            int length = slots.length();
+            while (true) {
+                int t = top.get();
+                if (t >= length) {
+                    return false;
+                }
+                if (slots.compareAndSet(t, null, obj)) {
+                    top.compareAndSet(t, t + 1);
+                    return true;
+                }
+                // Pushed by another thread that has not yet moved top
+                top.compareAndSet(t, t + 1);
+            }
+        }
+
+        private Object pop() {
+            while (true) {
+                int t = top.get();
+                if (t <= 0) {
+                    return null;
+                }
+                Object result = slots.get(t - 1);
+                if (result == null) {
+                    // Popped by another thread that has not yet moved top
+                    top.compareAndSet(t, t - 1);
+                } else if (slots.compareAndSet(t - 1, result, null)) {
+                    top.compareAndSet(t, t - 1);
+                    return result;
+                }
+            }
+        }
+
+        private void clear() {
+            int length = slots.length();
+            for (int i = 0; i < length; i++) {
+                slots.set(i, null);
+            }
+            top.set(0);
+        }
+    }
+}
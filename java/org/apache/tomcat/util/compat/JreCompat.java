@@ -44,6 +44,7 @@ public class JreCompat {
     private static final boolean graalAvailable;
     private static final boolean jre11Available;
     private static final boolean jre9Available;
+    private static final boolean jre21Available;
     private static final StringManager sm = StringManager.getManager(JreCompat.class);
 
     protected static final Method setApplicationProtocolsMethod;
@@ -56,14 +57,22 @@ public class JreCompat {
             instance = new GraalCompat();
             graalAvailable = true;
             jre9Available = Jre9Compat.isSupported();
+            jre21Available = false;
+        } else if (Jre21Compat.isSupported()) {
+            instance = new Jre21Compat();
+            graalAvailable = false;
+            jre9Available = true;
+            jre21Available = true;
         } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
             graalAvailable = false;
             jre9Available = true;
+            jre21Available = false;
         } else {
             instance = new JreCompat();
             graalAvailable = false;
             jre9Available = false;
+            jre21Available = false;
         }
         jre11Available = instance.jarFileRuntimeMajorVersion() >= 11;
 
@@ -105,6 +114,11 @@ public class JreCompat {
     }
 
 
+    public static boolean isJre21Available() {
+        return jre21Available;
+    }
+
+
     // Java 8 implementation of Java 9 methods
 
     /**
@@ -268,4 +282,31 @@ public class JreCompat {
     public boolean isExported(Class<?> type) {
         return true;
     }
+
+
+    // Java 8 implementations of Java 21 methods
+
+    /**
+     * Create a thread builder for virtual threads using the given name to name
+     * the threads.
+     *
+     * @param name The base name for the threads
+     *
+     * @return The thread builder for virtual threads
+     */
+    public Object createVirtualThreadBuilder(String name) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
+
+
+    /**
+     * Create a thread with the given thread builder and use it to execute the
+     * given runnable.
+     *
+     * @param threadBuilder The thread builder to use to create a thread
+     * @param command       The command to run
+     */
+    public void threadBuilderStart(Object threadBuilder, Runnable command) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
 }
@@ -43,6 +43,7 @@ import javax.management.ObjectName;
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.Acceptor.AcceptorState;
@@ -52,6 +53,7 @@ import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 
 /**
  * @param <S> The type used by the socket wrapper associated with this endpoint.
@@ -412,6 +414,38 @@ public abstract class AbstractEndpoint<S,U> {
     }
 
 
+    /**
+     * Should the caches of re-usable objects (processors, events, channels)
+     * use the lock-free {@link StripedStack} rather than
+     * {@link SynchronizedStack}?
+     */
+    private boolean useStripedCaches = false;
+    public boolean getUseStripedCaches() {
+        return useStripedCaches;
+    }
+    public void setUseStripedCaches(boolean useStripedCaches) {
+        this.useStripedCaches = useStripedCaches;
+    }
+
+
+    /**
+     * Create a cache for re-usable objects of the type configured via
+     * {@link #setUseStripedCaches(boolean)}.
+     *
+     * @param <T>   The type of object to cache
+     * @param limit The maximum number of objects to cache or -1 for no limit
+     *
+     * @return The new cache
+     */
+    protected <T> SynchronizedStack<T> createObjectCache(int limit) {
+        if (getUseStripedCaches()) {
+            return new StripedStack<>(SynchronizedStack.DEFAULT_SIZE, limit);
+        } else {
+            return new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, limit);
+        }
+    }
+
+
     /**
      * Time to wait for the internal executor (if used) to terminate when the
      * endpoint is stopped in milliseconds. Defaults to 5000 (5 seconds).
@@ -514,6 +548,54 @@ public abstract class AbstractEndpoint<S,U> {
     public Executor getExecutor() { return executor; }
 
 
+    /**
+     * Should the internal executor use a new virtual thread for each task
+     * rather than a pool of platform threads? Requires Java 21 or later.
+     */
+    private boolean useVirtualThreads = false;
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+    public boolean getUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+
+    /**
+     * Should the internal executor adjust its maximum pool size, between
+     * minSpareThreads and maxThreads, to keep the time tasks wait for a thread
+     * below {@link #getAdaptiveThreadQueueWaitTarget()}?
+     */
+    private boolean adaptiveThreads = false;
+    public void setAdaptiveThreads(boolean adaptiveThreads) {
+        this.adaptiveThreads = adaptiveThreads;
+        Executor executor = this.executor;
+        if (internalExecutor && executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).setAdaptiveSizing(adaptiveThreads);
+        }
+    }
+    public boolean getAdaptiveThreads() {
+        return adaptiveThreads;
+    }
+
+
+    /**
+     * The target, in milliseconds, for the 99th percentile of the time tasks
+     * wait for a thread when adaptive threads are enabled.
+     */
+    private long adaptiveThreadQueueWaitTarget = 10;
+    public void setAdaptiveThreadQueueWaitTarget(long adaptiveThreadQueueWaitTarget) {
+        this.adaptiveThreadQueueWaitTarget = adaptiveThreadQueueWaitTarget;
+        Executor executor = this.executor;
+        if (internalExecutor && executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).setAdaptiveQueueWaitTarget(adaptiveThreadQueueWaitTarget);
+        }
+    }
+    public long getAdaptiveThreadQueueWaitTarget() {
+        return adaptiveThreadQueueWaitTarget;
+    }
+
+
     /**
      * External Executor based thread pool for utility tasks.
      */
@@ -907,6 +989,8 @@ public abstract class AbstractEndpoint<S,U> {
         if (executor != null) {
             if (executor instanceof ThreadPoolExecutor) {
                 return ((ThreadPoolExecutor) executor).getActiveCount();
+            } else if (executor instanceof VirtualThreadExecutor) {
+                return ((VirtualThreadExecutor) executor).getActiveCount();
             } else if (executor instanceof ResizableExecutor) {
                 return ((ResizableExecutor) executor).getActiveCount();
             } else {
@@ -917,6 +1001,61 @@ public abstract class AbstractEndpoint<S,U> {
         }
     }
 
+    /**
+     * @return the current maximum number of threads of the internal executor.
+     *         This differs from {@link #getMaxThreads()} when adaptive threads
+     *         are enabled.
+     */
+    public int getCurrentMaxThreads() {
+        Executor executor = this.executor;
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        return -1;
+    }
+
+    public long getThreadQueueWait50thPercentile() {
+        return getQueueWaitPercentile(50);
+    }
+
+    public long getThreadQueueWait90thPercentile() {
+        return getQueueWaitPercentile(90);
+    }
+
+    public long getThreadQueueWait99thPercentile() {
+        return getQueueWaitPercentile(99);
+    }
+
+    public long getThreadServiceTime50thPercentile() {
+        return getServiceTimePercentile(50);
+    }
+
+    public long getThreadServiceTime99thPercentile() {
+        return getServiceTimePercentile(99);
+    }
+
+    /*
+     * Percentiles are in microseconds. They are only available for the
+     * internal executor when adaptive threads are enabled.
+     */
+    private long getQueueWaitPercentile(double percentile) {
+        Executor executor = this.executor;
+        if (executor instanceof ThreadPoolExecutor &&
+                ((ThreadPoolExecutor) executor).getLatencyTracking()) {
+            return ((ThreadPoolExecutor) executor).getQueueWaitHistogram().getPercentile(percentile);
+        }
+        return -1;
+    }
+
+    private long getServiceTimePercentile(double percentile) {
+        Executor executor = this.executor;
+        if (executor instanceof ThreadPoolExecutor &&
+                ((ThreadPoolExecutor) executor).getLatencyTracking()) {
+            return ((ThreadPoolExecutor) executor).getServiceTimeHistogram().getPercentile(percentile);
+        }
+        return -1;
+    }
+
     public boolean isRunning() {
         return running;
     }
@@ -928,10 +1067,18 @@ public abstract class AbstractEndpoint<S,U> {
 
     public void createExecutor() {
         internalExecutor = true;
+        if (getUseVirtualThreads()) {
+            executor = new VirtualThreadExecutor(getName() + "-virt-");
+            return;
+        }
         TaskQueue taskqueue = new TaskQueue();
         TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
-        executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
-        taskqueue.setParent( (ThreadPoolExecutor) executor);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(getMinSpareThreads(),
+                getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
+        threadPoolExecutor.setAdaptiveQueueWaitTarget(getAdaptiveThreadQueueWaitTarget());
+        threadPoolExecutor.setAdaptiveSizing(getAdaptiveThreads());
+        executor = threadPoolExecutor;
+        taskqueue.setParent(threadPoolExecutor);
     }
 
     public void shutdownExecutor() {
@@ -955,6 +1102,20 @@ public abstract class AbstractEndpoint<S,U> {
                 }
                 TaskQueue queue = (TaskQueue) tpe.getQueue();
                 queue.setParent(null);
+            } else if (executor instanceof VirtualThreadExecutor) {
+                VirtualThreadExecutor vte = (VirtualThreadExecutor) executor;
+                vte.shutdown();
+                long timeout = getExecutorTerminationTimeoutMillis();
+                if (timeout > 0) {
+                    try {
+                        vte.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    if (!vte.isTerminated()) {
+                        getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+                    }
+                }
             }
         }
     }
@@ -27,6 +27,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.channels.NetworkChannel;
@@ -40,6 +41,7 @@ import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLEngine;
@@ -87,6 +89,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
 
     public static final int OP_REGISTER = 0x100; //register interest op
 
+    public static final String POLLER_ASSIGNMENT_ROUND_ROBIN = "round-robin";
+    public static final String POLLER_ASSIGNMENT_LEAST_LOADED = "least-loaded";
+
     // ----------------------------------------------------------------- Fields
 
     private NioSelectorPool selectorPool = new NioSelectorPool();
@@ -150,32 +155,39 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
 
 
     /**
-     * NO-OP.
-     *
-     * @param pollerThreadCount Unused
-     *
-     * @deprecated Will be removed in Tomcat 10.
+     * Poller thread count. Each poller has its own selector and new
+     * connections are distributed between the pollers.
      */
-    @Deprecated
-    public void setPollerThreadCount(int pollerThreadCount) { }
+    private int pollerThreadCount = 1;
+    public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
+    public int getPollerThreadCount() { return pollerThreadCount; }
+
     /**
-     * Always returns 1.
-     *
-     * @return Always 1.
-     *
-     * @deprecated Will be removed in Tomcat 10.
+     * How new connections are assigned to a poller when there is more than
+     * one. Either {@link #POLLER_ASSIGNMENT_ROUND_ROBIN} (the default) or
+     * {@link #POLLER_ASSIGNMENT_LEAST_LOADED}.
      */
-    @Deprecated
-    public int getPollerThreadCount() { return 1; }
+    private String pollerAssignment = POLLER_ASSIGNMENT_ROUND_ROBIN;
+    public void setPollerAssignment(String pollerAssignment) {
+        if (POLLER_ASSIGNMENT_ROUND_ROBIN.equalsIgnoreCase(pollerAssignment)) {
+            this.pollerAssignment = POLLER_ASSIGNMENT_ROUND_ROBIN;
+        } else if (POLLER_ASSIGNMENT_LEAST_LOADED.equalsIgnoreCase(pollerAssignment)) {
+            this.pollerAssignment = POLLER_ASSIGNMENT_LEAST_LOADED;
+        } else {
+            throw new IllegalArgumentException(sm.getString("endpoint.nio.invalidPollerAssignment", pollerAssignment));
+        }
+    }
+    public String getPollerAssignment() { return pollerAssignment; }
 
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout) { this.selectorTimeout = timeout;}
     public long getSelectorTimeout() { return this.selectorTimeout; }
 
     /**
-     * The socket poller.
+     * The socket pollers.
      */
-    private Poller poller = null;
+    private volatile Poller[] pollers = null;
+    private final AtomicInteger pollerRotater = new AtomicInteger(0);
 
 
     public void setSelectorPool(NioSelectorPool selectorPool) {
@@ -201,14 +213,38 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
      *         for the next request to be received on the socket
      */
     public int getKeepAliveCount() {
-        if (poller == null) {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
             return 0;
         } else {
-            return poller.getKeyCount();
+            int sum = 0;
+            for (Poller poller : pollers) {
+                sum += poller.getKeyCount();
+            }
+            return sum;
         }
     }
 
 
+    /**
+     * Number of sockets registered with each poller.
+     *
+     * @return The number of keys registered with the selector of each poller
+     *         or an empty array if the endpoint is not running
+     */
+    public int[] getPollerRegisteredKeyCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new int[0];
+        }
+        int[] result = new int[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            result[i] = pollers[i].getRegisteredKeyCount();
+        }
+        return result;
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
     /**
@@ -218,7 +254,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
     public void bind() throws Exception {
         initServerSocket();
 
-        setStopLatch(new CountDownLatch(1));
+        // Initialize thread count defaults for pollers
+        if (pollerThreadCount <= 0) {
+            pollerThreadCount = 1;
+        }
 
         // Initialize SSL if needed
         initialiseSsl();
@@ -259,16 +298,13 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
             paused = false;
 
             if (socketProperties.getProcessorCache() != 0) {
-                processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                        socketProperties.getProcessorCache());
+                processorCache = createObjectCache(socketProperties.getProcessorCache());
             }
             if (socketProperties.getEventCache() != 0) {
-                eventCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                        socketProperties.getEventCache());
+                eventCache = createObjectCache(socketProperties.getEventCache());
             }
             if (socketProperties.getBufferPool() != 0) {
-                nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                        socketProperties.getBufferPool());
+                nioChannels = createObjectCache(socketProperties.getBufferPool());
             }
 
             // Create worker collection
@@ -278,12 +314,21 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
 
             initializeConnectionLatch();
 
-            // Start poller thread
-            poller = new Poller();
-            Thread pollerThread = new Thread(poller, getName() + "-ClientPoller");
-            pollerThread.setPriority(threadPriority);
-            pollerThread.setDaemon(true);
-            pollerThread.start();
+            // Start poller threads
+            Poller[] pollers = new Poller[Math.max(1, getPollerThreadCount())];
+            setStopLatch(new CountDownLatch(pollers.length));
+            for (int i = 0; i < pollers.length; i++) {
+                pollers[i] = new Poller();
+                String threadName = getName() + "-ClientPoller";
+                if (pollers.length > 1) {
+                    threadName = threadName + "-" + i;
+                }
+                Thread pollerThread = new Thread(pollers[i], threadName);
+                pollerThread.setPriority(threadPriority);
+                pollerThread.setDaemon(true);
+                pollerThread.start();
+            }
+            this.pollers = pollers;
 
             startAcceptorThread();
         }
@@ -300,9 +345,12 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
         }
         if (running) {
             running = false;
-            if (poller != null) {
-                poller.destroy();
-                poller = null;
+            Poller[] pollers = this.pollers;
+            if (pollers != null) {
+                for (Poller poller : pollers) {
+                    poller.destroy();
+                }
+                this.pollers = null;
             }
             try {
                 if (!getStopLatch().await(selectorTimeout + 100, TimeUnit.MILLISECONDS)) {
@@ -379,8 +427,32 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
     }
 
 
+    /**
+     * Select the poller to use for a new connection.
+     *
+     * @return The poller or {@code null} if the endpoint is not running
+     */
     protected Poller getPoller() {
-        return poller;
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return null;
+        }
+        if (pollers.length == 1) {
+            return pollers[0];
+        }
+        if (pollerAssignment == POLLER_ASSIGNMENT_LEAST_LOADED) {
+            Poller result = pollers[0];
+            int min = result.getConnectionCount();
+            for (int i = 1; i < pollers.length; i++) {
+                int count = pollers[i].getConnectionCount();
+                if (count < min) {
+                    min = count;
+                    result = pollers[i];
+                }
+            }
+            return result;
+        }
+        return pollers[(pollerRotater.getAndIncrement() & Integer.MAX_VALUE) % pollers.length];
     }
 
 
@@ -439,7 +511,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
             socketWrapper.setWriteTimeout(getConnectionTimeout());
             socketWrapper.setKeepAliveLeft(NioEndpoint.this.getMaxKeepAliveRequests());
             socketWrapper.setSecure(isSSLEnabled());
-            poller.register(channel, socketWrapper);
+            socketWrapper.getPoller().register(channel, socketWrapper);
             return true;
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
@@ -552,12 +624,25 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
 
         private volatile int keyCount = 0;
 
+        // Number of open connections assigned to this poller
+        private final AtomicInteger connectionCount = new AtomicInteger(0);
+
         public Poller() throws IOException {
             this.selector = Selector.open();
         }
 
         public int getKeyCount() { return keyCount; }
 
+        public int getConnectionCount() { return connectionCount.get(); }
+
+        public int getRegisteredKeyCount() {
+            try {
+                return selector.keys().size();
+            } catch (ClosedSelectorException e) {
+                return 0;
+            }
+        }
+
         public Selector getSelector() { return selector; }
 
         /**
@@ -890,7 +975,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
                             if (log.isDebugEnabled()) {
                                 log.debug("Send file connection is being closed");
                             }
-                            poller.cancelledKey(sk, socketWrapper);
+                            cancelledKey(sk, socketWrapper);
                             break;
                         }
                         case PIPELINED: {
@@ -898,7 +983,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
                                 log.debug("Connection is keep alive, processing pipe-lined data");
                             }
                             if (!processSocket(socketWrapper, SocketEvent.OPEN_READ, true)) {
-                                poller.cancelledKey(sk, socketWrapper);
+                                cancelledKey(sk, socketWrapper);
                             }
                             break;
                         }
@@ -928,13 +1013,13 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
                     log.debug("Unable to complete sendfile request:", e);
                 }
                 if (!calledByProcessor && sc != null) {
-                    poller.cancelledKey(sk, socketWrapper);
+                    cancelledKey(sk, socketWrapper);
                 }
                 return SendfileState.ERROR;
             } catch (Throwable t) {
                 log.error(sm.getString("endpoint.sendfile.error"), t);
                 if (!calledByProcessor && sc != null) {
-                    poller.cancelledKey(sk, socketWrapper);
+                    cancelledKey(sk, socketWrapper);
                 }
                 return SendfileState.ERROR;
             }
@@ -1056,6 +1141,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
             pool = endpoint.getSelectorPool();
             nioChannels = endpoint.getNioChannels();
             poller = endpoint.getPoller();
+            if (poller != null) {
+                poller.connectionCount.incrementAndGet();
+            }
             socketBufferHandler = channel.getBufHandler();
         }
 
@@ -1219,6 +1307,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
                 socketBufferHandler = SocketBufferHandler.EMPTY;
                 nonBlockingWriteBuffer.clear();
                 reset(NioChannel.CLOSED_NIO_CHANNEL);
+                if (poller != null) {
+                    poller.connectionCount.decrementAndGet();
+                }
             }
             try {
                 SendfileData data = getSendfileData();
@@ -1582,8 +1673,8 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel,SocketChannel>
         @Override
         protected void doRun() {
             NioChannel socket = socketWrapper.getSocket();
-            Poller poller = NioEndpoint.this.poller;
-            if (poller == null) {
+            Poller poller = ((NioSocketWrapper) socketWrapper).getPoller();
+            if (poller == null || NioEndpoint.this.pollers == null) {
                 socketWrapper.close();
                 return;
             }
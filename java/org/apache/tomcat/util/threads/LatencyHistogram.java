@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock-free histogram of durations recorded with microsecond
+ * resolution. Values below 8µs are counted exactly. Larger values are counted
+ * in log-linear buckets: each power of two is split into eight buckets so
+ * percentiles are accurate to within 12.5%. Values of more than 2^34µs (about
+ * 4.7 hours) are counted in the last bucket.
+ * <p>
+ * Values that are not durations, such as a number of bytes, may be recorded
+ * with {@link #record(long)}, in which case the percentiles are in the unit of
+ * the recorded values.
+ * <p>
+ * Recording a value is a single atomic increment so it is suitable for use on
+ * request processing paths. Reading the counts is not atomic with respect to
+ * concurrent recording, which is sufficient for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 33;
+
+    /**
+     * The number of buckets in every histogram.
+     */
+    public static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+
+    /**
+     * Record a duration.
+     *
+     * @param duration The duration
+     * @param unit     The unit of the duration
+     */
+    public void record(long duration, TimeUnit unit) {
+        counts.incrementAndGet(getBucket(unit.toMicros(duration)));
+    }
+
+
+    /**
+     * Record a value that is not a duration.
+     *
+     * @param value The value
+     */
+    public void record(long value) {
+        counts.incrementAndGet(getBucket(value));
+    }
+
+
+    /**
+     * @return The number of durations recorded since the histogram was
+     *         created or last reset
+     */
+    public long getCount() {
+        long result = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * @param percentile The percentile in the range 0 to 100
+     *
+     * @return The upper bound, in microseconds, of the bucket that contains
+     *         the given percentile of the recorded durations or zero if no
+     *         durations have been recorded
+     */
+    public long getPercentile(double percentile) {
+        return getPercentile(getCounts(), percentile);
+    }
+
+
+    /**
+     * @return A copy of the current bucket counts. The difference between two
+     *         copies may be passed to {@link #getPercentile(long[], double)}
+     *         to obtain the percentiles for the intervening period.
+     */
+    public long[] getCounts() {
+        long[] result = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * Clear all the recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+
+    /**
+     * Calculate a percentile from a set of bucket counts.
+     *
+     * @param counts     The bucket counts
+     * @param percentile The percentile in the range 0 to 100
+     *
+     * @return The upper bound, in microseconds, of the bucket that contains
+     *         the given percentile or zero if the counts are all zero
+     */
+    public static long getPercentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return getUpperBound(i);
+            }
+        }
+        return getUpperBound(counts.length - 1);
+    }
+
+
+    static int getBucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+
+    static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -27,6 +27,8 @@ public class TaskThread extends Thread {
 
     private static final Log log = LogFactory.getLog(TaskThread.class);
     private final long creationTime;
+    // Set by ThreadPoolExecutor when latency tracking is enabled
+    private long taskStartTime;
 
     public TaskThread(ThreadGroup group, Runnable target, String name) {
         super(group, new WrappingRunnable(target), name);
@@ -46,6 +48,19 @@ public class TaskThread extends Thread {
         return creationTime;
     }
 
+    /**
+     * @return the time (in ns, as returned by {@link System#nanoTime()}) at
+     *         which this thread started to execute its current task. Only set
+     *         when the executor is tracking latencies.
+     */
+    public final long getTaskStartTime() {
+        return taskStartTime;
+    }
+
+    final void setTaskStartTime(long taskStartTime) {
+        this.taskStartTime = taskStartTime;
+    }
+
     /**
      * Wraps a {@link Runnable} to swallow any {@link StopPooledThreadException}
      * instead of letting it go and potentially trigger a break in a debugger.
@@ -24,6 +24,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
 
 /**
@@ -34,12 +36,28 @@ import org.apache.tomcat.util.res.StringManager;
  *
  */
 public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor {
+
+    private static final Log log = LogFactory.getLog(ThreadPoolExecutor.class);
+
     /**
      * The string manager for this package.
      */
     protected static final StringManager sm = StringManager
             .getManager("org.apache.tomcat.util.threads.res");
 
+    /*
+     * The minimum number of tasks in an interval for the adaptive sizing to
+     * act on the measured latencies.
+     */
+    private static final int ADAPTIVE_MIN_SAMPLES = 20;
+
+    /*
+     * The increase in median service time, compared to the baseline service
+     * time, that is treated as a sign that additional threads are competing
+     * for CPU (or another shared resource) rather than adding capacity.
+     */
+    private static final double ADAPTIVE_SATURATION_FACTOR = 1.5;
+
     /**
      * The number of tasks submitted but not yet finished. This includes tasks
      * in the queue and tasks that have been handed to a worker thread but the
@@ -61,24 +79,58 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      */
     private long threadRenewalDelay = Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /*
+     * Latency statistics. Queue wait is the time from a task being submitted
+     * until a thread starts to execute it. Service time is the time the
+     * thread spends executing it.
+     */
+    private volatile boolean latencyTracking = false;
+    private final LatencyHistogram queueWaitHistogram = new LatencyHistogram();
+    private final LatencyHistogram serviceTimeHistogram = new LatencyHistogram();
+    private final AtomicInteger trackedActiveCount = new AtomicInteger();
+    private final AtomicInteger peakTrackedActiveCount = new AtomicInteger();
+
+    /*
+     * Adaptive sizing. The maximum pool size set by the user is used as an
+     * upper limit and the maximum pool size of the executor is adjusted
+     * between the core pool size and that limit.
+     */
+    private volatile int maximumPoolSizeLimit;
+    private volatile boolean adaptiveSizing = false;
+    private volatile long adaptiveQueueWaitTarget = 10;
+    private volatile double adaptiveQueueWaitPercentile = 99;
+    private volatile long adaptiveInterval = 1000;
+    private volatile TimeoutWheel.Timeout adaptiveCheck = null;
+    // Only accessed by the adaptive sizing task
+    private long[] lastQueueWaitCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    private long[] lastServiceTimeCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    private long baselineServiceTime = 0;
+    // Held while changing the core or maximum pool size so adaptive sizing
+    // never sets the maximum below a core pool size that is being raised
+    private final Object poolSizeLock = new Object();
+
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
+        maximumPoolSizeLimit = maximumPoolSize;
         prestartAllCoreThreads();
     }
 
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
             RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        maximumPoolSizeLimit = maximumPoolSize;
         prestartAllCoreThreads();
     }
 
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, new RejectHandler());
+        maximumPoolSizeLimit = maximumPoolSize;
         prestartAllCoreThreads();
     }
 
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, new RejectHandler());
+        maximumPoolSizeLimit = maximumPoolSize;
         prestartAllCoreThreads();
     }
 
@@ -90,8 +142,172 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.threadRenewalDelay = threadRenewalDelay;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When adaptive sizing is enabled the given size is the upper limit for
+     * the maximum pool size and the current maximum is reset to that limit.
+     */
+    @Override
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        synchronized (poolSizeLock) {
+            maximumPoolSizeLimit = maximumPoolSize;
+            super.setMaximumPoolSize(maximumPoolSize);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When adaptive sizing has reduced the current maximum pool size below the
+     * given size, the current maximum is raised to the given size first as
+     * long as that does not exceed the limit set with
+     * {@link #setMaximumPoolSize(int)}.
+     */
+    @Override
+    public void setCorePoolSize(int corePoolSize) {
+        synchronized (poolSizeLock) {
+            if (corePoolSize > getMaximumPoolSize() && corePoolSize <= maximumPoolSizeLimit) {
+                super.setMaximumPoolSize(corePoolSize);
+            }
+            super.setCorePoolSize(corePoolSize);
+        }
+    }
+
+    /**
+     * @return The maximum pool size set by the user. Unless adaptive sizing is
+     *         enabled this is the same as {@link #getMaximumPoolSize()}.
+     */
+    public int getMaximumPoolSizeLimit() {
+        return maximumPoolSizeLimit;
+    }
+
+    public boolean getLatencyTracking() {
+        return latencyTracking;
+    }
+
+    /**
+     * Record the queue wait and service time of every task. Tasks submitted
+     * while this is enabled are wrapped so the time they were submitted can
+     * be recorded.
+     *
+     * @param latencyTracking <code>true</code> to record latencies
+     */
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+    }
+
+    public boolean getAdaptiveSizing() {
+        return adaptiveSizing;
+    }
+
+    /**
+     * Enable or disable adaptive sizing. When enabled, latency tracking is
+     * enabled and the maximum pool size is periodically adjusted between the
+     * core pool size and the limit set with {@link #setMaximumPoolSize(int)}
+     * so the configured percentile of queue wait stays below the target.
+     * The maximum starts at the core pool size. It is increased while tasks
+     * wait longer than the target, unless the service time has increased to
+     * the point that more threads are unlikely to help, and is reduced when
+     * tasks do not wait and the threads are not all being used.
+     *
+     * @param adaptiveSizing <code>true</code> to enable adaptive sizing
+     */
+    public void setAdaptiveSizing(boolean adaptiveSizing) {
+        this.adaptiveSizing = adaptiveSizing;
+        if (adaptiveSizing) {
+            latencyTracking = true;
+            lastQueueWaitCounts = queueWaitHistogram.getCounts();
+            lastServiceTimeCounts = serviceTimeHistogram.getCounts();
+            baselineServiceTime = 0;
+            synchronized (poolSizeLock) {
+                super.setMaximumPoolSize(Math.max(1, Math.min(getCorePoolSize(), maximumPoolSizeLimit)));
+            }
+            scheduleAdaptiveCheck();
+        } else {
+            TimeoutWheel.Timeout check = adaptiveCheck;
+            if (check != null) {
+                check.cancel();
+            }
+            synchronized (poolSizeLock) {
+                super.setMaximumPoolSize(maximumPoolSizeLimit);
+            }
+        }
+    }
+
+    public long getAdaptiveQueueWaitTarget() {
+        return adaptiveQueueWaitTarget;
+    }
+
+    /**
+     * @param adaptiveQueueWaitTarget The target queue wait in milliseconds
+     */
+    public void setAdaptiveQueueWaitTarget(long adaptiveQueueWaitTarget) {
+        this.adaptiveQueueWaitTarget = adaptiveQueueWaitTarget;
+    }
+
+    public double getAdaptiveQueueWaitPercentile() {
+        return adaptiveQueueWaitPercentile;
+    }
+
+    /**
+     * @param adaptiveQueueWaitPercentile The percentile of queue wait that is
+     *                                    compared with the target
+     */
+    public void setAdaptiveQueueWaitPercentile(double adaptiveQueueWaitPercentile) {
+        this.adaptiveQueueWaitPercentile = adaptiveQueueWaitPercentile;
+    }
+
+    public long getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    /**
+     * @param adaptiveInterval The interval in milliseconds between
+     *                         adjustments of the maximum pool size
+     */
+    public void setAdaptiveInterval(long adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    public LatencyHistogram getQueueWaitHistogram() {
+        return queueWaitHistogram;
+    }
+
+    public LatencyHistogram getServiceTimeHistogram() {
+        return serviceTimeHistogram;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof TimedTask) {
+            long now = System.nanoTime();
+            queueWaitHistogram.record(now - ((TimedTask) r).submitTime, TimeUnit.NANOSECONDS);
+            if (t instanceof TaskThread) {
+                ((TaskThread) t).setTaskStartTime(now);
+            }
+            int active = trackedActiveCount.incrementAndGet();
+            int peak;
+            while (active > (peak = peakTrackedActiveCount.get())) {
+                if (peakTrackedActiveCount.compareAndSet(peak, active)) {
+                    break;
+                }
+            }
+        }
+    }
+
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
+        if (r instanceof TimedTask) {
+            trackedActiveCount.decrementAndGet();
+            Thread current = Thread.currentThread();
+            if (current instanceof TaskThread) {
+                TaskThread taskThread = (TaskThread) current;
+                serviceTimeHistogram.record(System.nanoTime() - taskThread.getTaskStartTime(),
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+
         submittedCount.decrementAndGet();
 
         if (t == null) {
@@ -162,6 +378,9 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      * @throws NullPointerException if command or unit is null
      */
     public void execute(Runnable command, long timeout, TimeUnit unit) {
+        if (latencyTracking && command != null) {
+            command = new TimedTask(command);
+        }
         submittedCount.incrementAndGet();
         try {
             super.execute(command);
@@ -214,6 +433,129 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.setCorePoolSize(savedCorePoolSize);
     }
 
+    @Override
+    protected void terminated() {
+        TimeoutWheel.Timeout check = adaptiveCheck;
+        if (check != null) {
+            check.cancel();
+        }
+    }
+
+    private void scheduleAdaptiveCheck() {
+        adaptiveCheck = TimeoutWheel.getSharedInstance().schedule(
+                new AdaptiveCheck(), adaptiveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Runs on the timeout wheel thread so it must be quick. Package private so
+     * it can be called directly by the unit tests.
+     */
+    void adjustPoolSize() {
+        long[] queueWaitCounts = queueWaitHistogram.getCounts();
+        long[] serviceTimeCounts = serviceTimeHistogram.getCounts();
+        long[] queueWaitDelta = new long[queueWaitCounts.length];
+        long[] serviceTimeDelta = new long[serviceTimeCounts.length];
+        long samples = 0;
+        for (int i = 0; i < queueWaitCounts.length; i++) {
+            // Counts may have been reset
+            queueWaitDelta[i] = Math.max(0, queueWaitCounts[i] - lastQueueWaitCounts[i]);
+            serviceTimeDelta[i] = Math.max(0, serviceTimeCounts[i] - lastServiceTimeCounts[i]);
+            samples += queueWaitDelta[i];
+        }
+        lastQueueWaitCounts = queueWaitCounts;
+        lastServiceTimeCounts = serviceTimeCounts;
+        int peakActive = peakTrackedActiveCount.getAndSet(trackedActiveCount.get());
+
+        if (samples < ADAPTIVE_MIN_SAMPLES) {
+            return;
+        }
+
+        long queueWait = LatencyHistogram.getPercentile(queueWaitDelta, adaptiveQueueWaitPercentile);
+        long serviceTime = LatencyHistogram.getPercentile(serviceTimeDelta, 50);
+        long target = TimeUnit.MILLISECONDS.toMicros(adaptiveQueueWaitTarget);
+        int current = getMaximumPoolSize();
+        int next = current;
+
+        // The baseline is the lowest recent service time. It falls
+        // immediately and only rises while tasks are not queueing so it is
+        // not raised by the contention it is used to detect.
+        if (baselineServiceTime == 0 || serviceTime < baselineServiceTime) {
+            baselineServiceTime = serviceTime;
+        } else if (queueWait <= target) {
+            baselineServiceTime = (baselineServiceTime * 7 + serviceTime) / 8;
+        }
+
+        if (queueWait > target) {
+            if (baselineServiceTime > 0 &&
+                    serviceTime > baselineServiceTime * ADAPTIVE_SATURATION_FACTOR) {
+                // Tasks are queueing but also taking longer to execute. More
+                // threads would compete for the same resources so back off.
+                next = current - Math.max(1, current / 10);
+            } else {
+                next = current + Math.max(1, current / 4);
+            }
+        } else {
+            if (queueWait < target / 2 && peakActive < current * 3 / 4) {
+                // Leave headroom above the peak number of busy threads
+                next = Math.max(peakActive + Math.max(1, peakActive / 4),
+                        current - Math.max(1, current / 10));
+            }
+        }
+
+        synchronized (poolSizeLock) {
+            if (!adaptiveSizing) {
+                return;
+            }
+            int floor = Math.max(1, getCorePoolSize());
+            int ceiling = Math.max(floor, maximumPoolSizeLimit);
+            next = Math.min(ceiling, Math.max(floor, next));
+            // The core pool size may have raised the maximum since it was read
+            current = getMaximumPoolSize();
+            if (next != current) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("threadPoolExecutor.adaptiveResize", Integer.valueOf(current),
+                            Integer.valueOf(next), Long.valueOf(queueWait), Long.valueOf(serviceTime)));
+                }
+                super.setMaximumPoolSize(next);
+            }
+        }
+    }
+
+    private class AdaptiveCheck implements Runnable {
+        @Override
+        public void run() {
+            if (!adaptiveSizing || isShutdown()) {
+                return;
+            }
+            try {
+                adjustPoolSize();
+            } finally {
+                if (adaptiveSizing && !isShutdown()) {
+                    scheduleAdaptiveCheck();
+                }
+            }
+        }
+    }
+
+    /*
+     * Wraps a task to record the time it was submitted.
+     */
+    private static class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final long submitTime;
+
+        TimedTask(Runnable task) {
+            this.task = task;
+            this.submitTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
     private static class RejectHandler implements RejectedExecutionHandler {
         @Override
         public void rejectedExecution(Runnable r,
@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A hashed timing wheel for large numbers of timeouts that are usually
+ * cancelled before they expire, such as I/O timeouts. Scheduling and
+ * cancelling a timeout are O(1) and never block: both only add to a lock-free
+ * queue. A single worker thread owns the wheel. It moves newly scheduled and
+ * cancelled timeouts into and out of the buckets once per tick and runs the
+ * tasks of any timeouts that have expired.
+ * <p>
+ * Timeouts expire no earlier than requested and no later than one tick
+ * afterwards. Tasks are run on the worker thread so they must be short. Tasks
+ * that need to do more work should dispatch it to an executor.
+ * <p>
+ * The worker thread is started when the first timeout is scheduled and stops
+ * after there have been no pending timeouts for one full turn of the wheel.
+ */
+public class TimeoutWheel {
+
+    private static final Log log = LogFactory.getLog(TimeoutWheel.class);
+    private static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    private static final int DEFAULT_TICK_MILLIS = Integer.getInteger(
+            "org.apache.tomcat.util.threads.TimeoutWheel.TICK_MILLIS", 100).intValue();
+    private static final int DEFAULT_WHEEL_SIZE = Integer.getInteger(
+            "org.apache.tomcat.util.threads.TimeoutWheel.WHEEL_SIZE", 512).intValue();
+
+    private static final TimeoutWheel sharedInstance =
+            new TimeoutWheel("Tomcat timeout wheel", DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+
+    // Prevent starving expiry if timeouts are being scheduled very quickly
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    /**
+     * @return The wheel shared by all the components that need I/O timeouts
+     */
+    public static TimeoutWheel getSharedInstance() {
+        return sharedInstance;
+    }
+
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    // Only accessed by the worker thread
+    private long startTime;
+    private long tick;
+
+
+    /**
+     * Create a new timing wheel.
+     *
+     * @param name          The base name for the worker thread
+     * @param tickMillis    The resolution of the wheel in milliseconds
+     * @param wheelSize     The number of buckets. This is rounded up to the
+     *                      next power of two. Timeouts more than
+     *                      <code>tickMillis * wheelSize</code> milliseconds in
+     *                      the future are checked once per turn of the wheel
+     *                      until they are due.
+     */
+    public TimeoutWheel(String name, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException(
+                    sm.getString("timeoutWheel.invalidTick", Long.valueOf(tickMillis)));
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException(
+                    sm.getString("timeoutWheel.invalidWheelSize", Integer.valueOf(wheelSize)));
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+    }
+
+
+    /**
+     * Schedule a task to run once the given delay has passed.
+     *
+     * @param task  The task to run when the timeout expires
+     * @param delay The delay
+     * @param unit  The unit of the delay
+     *
+     * @return The timeout which may be used to cancel it
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + unit.toNanos(delay));
+        pendingCount.incrementAndGet();
+        scheduledTimeouts.add(timeout);
+        if (!running.get() && running.compareAndSet(false, true)) {
+            startWorker();
+        }
+        return timeout;
+    }
+
+
+    /**
+     * @return The number of timeouts that have been scheduled and have neither
+     *         expired nor been cancelled
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+
+    public long getTickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+
+    private void startWorker() {
+        Thread t = new Thread(new Worker(), name + "-" + threadCount.incrementAndGet());
+        t.setContextClassLoader(TimeoutWheel.class.getClassLoader());
+        t.setDaemon(true);
+        t.start();
+    }
+
+
+    private void run() {
+        startTime = System.nanoTime();
+        tick = 0;
+        int idleTicks = 0;
+        while (true) {
+            waitForNextTick();
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+
+            if (pendingCount.get() == 0) {
+                idleTicks++;
+                if (idleTicks > mask) {
+                    removeCancelled();
+                    running.set(false);
+                    // A timeout may have been scheduled after the check above
+                    // but before running was cleared. If so, and no other
+                    // worker was started for it, keep going.
+                    if (pendingCount.get() == 0 || !running.compareAndSet(false, true)) {
+                        return;
+                    }
+                    idleTicks = 0;
+                }
+            } else {
+                idleTicks = 0;
+            }
+        }
+    }
+
+
+    private void waitForNextTick() {
+        long deadline = startTime + (tick + 1) * tickNanos;
+        while (true) {
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+    }
+
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = scheduledTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state.get() != Timeout.ST_INIT) {
+                // Cancelled before it was added to the wheel
+                continue;
+            }
+            long calculated = (timeout.deadline - startTime) / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            // Timeouts in the past are expired on this tick
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            TimeoutWheel.this.run();
+        }
+    }
+
+
+    /**
+     * A task scheduled with a {@link TimeoutWheel}.
+     */
+    public static final class Timeout {
+
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final TimeoutWheel timeoutWheel;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(TimeoutWheel timeoutWheel, Runnable task, long deadline) {
+            this.timeoutWheel = timeoutWheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+
+        /**
+         * Cancel the timeout so its task will not be run.
+         *
+         * @return <code>true</code> if the timeout was cancelled,
+         *         <code>false</code> if it had already expired or been
+         *         cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            timeoutWheel.pendingCount.decrementAndGet();
+            timeoutWheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+
+        private void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            timeoutWheel.pendingCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                log.warn(sm.getString("timeoutWheel.taskFailed"), t);
+            }
+        }
+    }
+
+
+    /*
+     * Doubly linked list of the timeouts that hash to one slot of the wheel.
+     * Only accessed by the worker thread.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state.get() != Timeout.ST_INIT) {
+                    // Cancelled but not yet removed
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    // The bucket is processed once the end of the tick that
+                    // contains the deadline has passed
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
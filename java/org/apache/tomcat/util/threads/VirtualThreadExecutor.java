@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that uses a new virtual thread for each task. Virtual threads
+ * are only available on Java 21 onwards so they are created via
+ * {@link JreCompat} and the constructor will throw an
+ * {@link UnsupportedOperationException} on earlier JREs.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    private final JreCompat jreCompat = JreCompat.getInstance();
+
+    private final Object threadBuilder;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong completedTaskCount = new AtomicLong();
+
+    private volatile boolean shutdown;
+
+    private final Object lock = new Object();
+
+
+    public VirtualThreadExecutor(String namePrefix) {
+        threadBuilder = jreCompat.createVirtualThreadBuilder(namePrefix);
+    }
+
+
+    /**
+     * @return the number of tasks that are currently being executed
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+
+    /**
+     * @return the number of tasks that have completed execution
+     */
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        synchronized (lock) {
+            if (activeCount.get() == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        // Every task is started on its own thread as soon as it is submitted
+        // so there are never any tasks waiting to be run
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && activeCount.get() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException(sm.getString("virtualThreadExecutor.taskRejected",
+                    command.toString(), this.toString()));
+        }
+        activeCount.incrementAndGet();
+        try {
+            jreCompat.threadBuilderStart(threadBuilder, new TrackedTask(command));
+        } catch (RuntimeException e) {
+            activeCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+
+    private class TrackedTask implements Runnable {
+
+        private final Runnable command;
+
+        TrackedTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                completedTaskCount.incrementAndGet();
+                if (activeCount.decrementAndGet() == 0 && shutdown) {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -114,6 +114,12 @@ public class Constants {
     // Milliseconds so this is 20 seconds
     public static final long DEFAULT_BLOCKING_SEND_TIMEOUT = 20 * 1000;
 
+    // Configuration for prepared (broadcast) messages
+    // Per session limit on prepared messages waiting for an earlier message
+    static final int DEFAULT_MAX_PENDING_PREPARED_MESSAGES = Integer.getInteger(
+            "org.apache.tomcat.websocket.DEFAULT_MAX_PENDING_PREPARED_MESSAGES", 16)
+            .intValue();
+
     // Configuration for background processing checks intervals
     static final int DEFAULT_PROCESS_PERIOD = Integer.getInteger(
             "org.apache.tomcat.websocket.DEFAULT_PROCESS_PERIOD", 10)
@@ -133,6 +139,19 @@ public class Constants {
     static final boolean ALLOW_UNSUPPORTED_EXTENSIONS =
             Boolean.getBoolean("org.apache.tomcat.websocket.ALLOW_UNSUPPORTED_EXTENSIONS");
 
+    /* Configuration for permessage-deflate
+     * If true, the server always responds with server_no_context_takeover and
+     * client_no_context_takeover so that the compression contexts are only
+     * needed for the duration of a message and can be borrowed from a pool
+     * shared by all sessions rather than being held by every session.
+     */
+    static final boolean PER_MESSAGE_DEFLATE_NO_CONTEXT_TAKEOVER =
+            Boolean.getBoolean("org.apache.tomcat.websocket.PER_MESSAGE_DEFLATE_NO_CONTEXT_TAKEOVER");
+    // Maximum number of idle contexts of each type kept in the pool
+    static final int PER_MESSAGE_DEFLATE_POOL_MAX_IDLE = Integer.getInteger(
+            "org.apache.tomcat.websocket.PER_MESSAGE_DEFLATE_POOL_MAX_IDLE", 32)
+            .intValue();
+
     public static final boolean STRICT_SPEC_COMPLIANCE =
             Boolean.getBoolean("org.apache.tomcat.websocket.STRICT_SPEC_COMPLIANCE");
 
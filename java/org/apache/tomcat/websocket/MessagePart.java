@@ -28,6 +28,7 @@ class MessagePart {
     private final SendHandler intermediateHandler;
     private volatile SendHandler endHandler;
     private final long blockingWriteTimeoutExpiry;
+    private boolean prepared = false;
 
     public MessagePart( boolean fin, int rsv, byte opCode, ByteBuffer payload,
             SendHandler intermediateHandler, SendHandler endHandler,
@@ -78,6 +79,18 @@ class MessagePart {
     public long getBlockingWriteTimeoutExpiry() {
         return blockingWriteTimeoutExpiry;
     }
+
+    /**
+     * @return <code>true</code> if the payload is a complete frame, including
+     *         the header, from a {@link PreparedMessage}
+     */
+    public boolean isPrepared() {
+        return prepared;
+    }
+
+    public void setPrepared(boolean prepared) {
+        this.prepared = prepared;
+    }
 }
 
 
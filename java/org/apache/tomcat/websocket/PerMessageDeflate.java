@@ -49,9 +49,14 @@ public class PerMessageDeflate implements Transformation {
     private final boolean clientContextTakeover;
     private final int clientMaxWindowBits;
     private final boolean isServer;
-    private final Inflater inflater = new Inflater(true);
+    // Contexts that are reset after every message are borrowed from the pool
+    // for the duration of a message. Otherwise the session keeps its own.
+    private final boolean pooledInflater;
+    private final boolean pooledDeflater;
+    private volatile Inflater inflater;
     private final ByteBuffer readBuffer = ByteBuffer.allocate(Constants.DEFAULT_BUFFER_SIZE);
-    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private volatile Deflater deflater;
+    private volatile boolean closed = false;
     private final byte[] EOM_BUFFER = new byte[EOM_BYTES.length + 1];
 
     private volatile Transformation next;
@@ -156,6 +161,12 @@ public class PerMessageDeflate implements Transformation {
                 }
             }
             if (ok) {
+                if (isServer && Constants.PER_MESSAGE_DEFLATE_NO_CONTEXT_TAKEOVER) {
+                    // RFC 7692 permits the server to add both parameters to
+                    // the response even if the client did not request them.
+                    serverContextTakeover = false;
+                    clientContextTakeover = false;
+                }
                 return new PerMessageDeflate(serverContextTakeover, serverMaxWindowBits,
                         clientContextTakeover, clientMaxWindowBits, isServer);
             }
@@ -172,6 +183,23 @@ public class PerMessageDeflate implements Transformation {
         this.clientContextTakeover = clientContextTakeover;
         this.clientMaxWindowBits = clientMaxWindowBits;
         this.isServer = isServer;
+
+        PerMessageDeflatePool pool = PerMessageDeflatePool.getInstance();
+        if (isServer) {
+            pooledInflater = !clientContextTakeover;
+            pooledDeflater = !serverContextTakeover;
+        } else {
+            pooledInflater = !serverContextTakeover;
+            pooledDeflater = !clientContextTakeover;
+        }
+        if (!pooledInflater) {
+            inflater = new Inflater(true);
+            pool.dedicatedInflaterCreated();
+        }
+        if (!pooledDeflater) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            pool.dedicatedDeflaterCreated();
+        }
     }
 
 
@@ -197,6 +225,8 @@ public class PerMessageDeflate implements Transformation {
         int written;
         boolean usedEomBytes = false;
 
+        Inflater inflater = getInflater();
+
         while (dest.remaining() > 0) {
             // Space available in destination. Try and fill it.
             try {
@@ -231,10 +261,15 @@ public class PerMessageDeflate implements Transformation {
             } else if (written == 0) {
                 if (fin && (isServer && !clientContextTakeover ||
                         !isServer && !serverContextTakeover)) {
-                    try {
-                        inflater.reset();
-                    } catch (NullPointerException e) {
-                        throw new IOException(sm.getString("perMessageDeflate.alreadyClosed"), e);
+                    if (pooledInflater) {
+                        // The pool resets the inflater
+                        releaseInflater();
+                    } else {
+                        try {
+                            inflater.reset();
+                        } catch (NullPointerException e) {
+                            throw new IOException(sm.getString("perMessageDeflate.alreadyClosed"), e);
+                        }
                     }
                 }
                 return TransformationResult.END_OF_FRAME;
@@ -296,6 +331,21 @@ public class PerMessageDeflate implements Transformation {
     }
 
 
+    /**
+     * Can a frame compressed once, without reference to any earlier message,
+     * be written unchanged in place of the output of this transformation? That
+     * is only the case for the server when it does not use context takeover
+     * and there are no further extensions.
+     *
+     * @return <code>true</code> if a shared, independently compressed frame
+     *         may be used
+     */
+    boolean isPreparedFrameCompatible() {
+        return isServer && !serverContextTakeover &&
+                (next == null || next.getExtensionResponse() == null);
+    }
+
+
     @Override
     public void setNext(Transformation t) {
         if (next == null) {
@@ -341,6 +391,7 @@ public class PerMessageDeflate implements Transformation {
                 SendHandler uncompressedIntermediateHandler =
                         uncompressedPart.getIntermediateHandler();
 
+                Deflater deflater = getDeflater();
                 deflater.setInput(uncompressedPayload.array(),
                         uncompressedPayload.arrayOffset() + uncompressedPayload.position(),
                         uncompressedPayload.remaining());
@@ -466,12 +517,73 @@ public class PerMessageDeflate implements Transformation {
         firstCompressedFrameWritten = false;
         emptyMessage = true;
         if (isServer && !serverContextTakeover || !isServer && !clientContextTakeover) {
-            try {
-                deflater.reset();
-            } catch (NullPointerException e) {
-                throw new IOException(sm.getString("perMessageDeflate.alreadyClosed"), e);
+            if (pooledDeflater) {
+                // The pool resets the deflater
+                releaseDeflater();
+            } else {
+                try {
+                    deflater.reset();
+                } catch (NullPointerException e) {
+                    throw new IOException(sm.getString("perMessageDeflate.alreadyClosed"), e);
+                }
+            }
+        }
+    }
+
+
+    private Inflater getInflater() throws IOException {
+        if (inflater == null) {
+            if (closed) {
+                throw new IOException(sm.getString("perMessageDeflate.alreadyClosed"));
             }
+            inflater = PerMessageDeflatePool.getInstance().borrowInflater();
         }
+        return inflater;
+    }
+
+
+    private void releaseInflater() {
+        Inflater inflater = detachInflater();
+        if (inflater != null) {
+            PerMessageDeflatePool.getInstance().returnInflater(inflater);
+        }
+    }
+
+
+    /*
+     * Ensures that only one of releaseInflater() and close() hands a pooled
+     * inflater back to the pool.
+     */
+    private synchronized Inflater detachInflater() {
+        Inflater result = inflater;
+        inflater = null;
+        return result;
+    }
+
+
+    private Deflater getDeflater() throws IOException {
+        if (deflater == null) {
+            if (closed) {
+                throw new IOException(sm.getString("perMessageDeflate.alreadyClosed"));
+            }
+            deflater = PerMessageDeflatePool.getInstance().borrowDeflater();
+        }
+        return deflater;
+    }
+
+
+    private void releaseDeflater() {
+        Deflater deflater = detachDeflater();
+        if (deflater != null) {
+            PerMessageDeflatePool.getInstance().returnDeflater(deflater);
+        }
+    }
+
+
+    private synchronized Deflater detachDeflater() {
+        Deflater result = deflater;
+        deflater = null;
+        return result;
     }
 
 
@@ -489,7 +601,28 @@ public class PerMessageDeflate implements Transformation {
     public void close() {
         // There will always be a next transformation
         next.close();
-        inflater.end();
-        deflater.end();
+        closed = true;
+        PerMessageDeflatePool pool = PerMessageDeflatePool.getInstance();
+        // A pooled context is only held while a message is in progress. It may
+        // still be in use by another thread so it is ended rather than being
+        // returned to the pool.
+        if (pooledInflater) {
+            Inflater inflater = detachInflater();
+            if (inflater != null) {
+                pool.discardInflater(inflater);
+            }
+        } else {
+            inflater.end();
+            pool.dedicatedInflaterEnded();
+        }
+        if (pooledDeflater) {
+            Deflater deflater = detachDeflater();
+            if (deflater != null) {
+                pool.discardDeflater(deflater);
+            }
+        } else {
+            deflater.end();
+            pool.dedicatedDeflaterEnded();
+        }
     }
 }
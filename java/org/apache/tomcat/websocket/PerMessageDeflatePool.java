@@ -0,0 +1,361 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.modeler.Registry;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Pool of the zlib contexts used by permessage-deflate when no context
+ * takeover has been negotiated for a direction. In that case the compression
+ * context is reset after every message so there is no need for each session to
+ * hold its own (a {@link Deflater} uses roughly 256KB of native memory). A
+ * session borrows a context when it starts to compress or decompress a message
+ * and returns it at the end of the message.
+ * <p>
+ * The pool never blocks. If no idle context is available a new one is created
+ * and when a context is returned to a pool that already holds the maximum
+ * number of idle contexts, the context is ended.
+ * <p>
+ * There is a single pool per class loader that loads this class. While a
+ * server container is using it, the pool is registered with JMX as
+ * <code>&lt;domain&gt;:type=PerMessageDeflatePool</code>, where the domain is
+ * that of the container, so that utilisation and an estimate of the native
+ * memory used by WebSocket compression can be monitored.
+ */
+public class PerMessageDeflatePool implements PerMessageDeflatePoolMBean {
+
+    private static final Log log = LogFactory.getLog(PerMessageDeflatePool.class);
+    private static final StringManager sm = StringManager.getManager(PerMessageDeflatePool.class);
+
+    /*
+     * zlib documents the memory requirements as
+     * deflate: (1 << (windowBits + 2)) + (1 << (memLevel + 9))
+     * inflate: (1 << windowBits)
+     * plus roughly 6KB (deflate) and 7KB (inflate) for the stream state. Java
+     * always uses a window size of 15 and a memory level of 8.
+     */
+    static final long DEFLATER_NATIVE_BYTES = (1 << 17) + (1 << 17) + 6 * 1024;
+    static final long INFLATER_NATIVE_BYTES = (1 << 15) + 7 * 1024;
+
+    private static final PerMessageDeflatePool instance =
+            new PerMessageDeflatePool(Constants.PER_MESSAGE_DEFLATE_POOL_MAX_IDLE);
+
+
+    static PerMessageDeflatePool getInstance() {
+        return instance;
+    }
+
+
+    private final int maxIdle;
+
+    private final SynchronizedStack<Deflater> idleDeflaters;
+    private final SynchronizedStack<Inflater> idleInflaters;
+
+    private final AtomicInteger idleDeflaterCount = new AtomicInteger();
+    private final AtomicInteger idleInflaterCount = new AtomicInteger();
+    private final AtomicInteger activeDeflaterCount = new AtomicInteger();
+    private final AtomicInteger activeInflaterCount = new AtomicInteger();
+    private final AtomicInteger dedicatedDeflaterCount = new AtomicInteger();
+    private final AtomicInteger dedicatedInflaterCount = new AtomicInteger();
+    private volatile int peakActiveDeflaterCount = 0;
+    private volatile int peakActiveInflaterCount = 0;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong destroyCount = new AtomicLong();
+
+    /*
+     * Number of containers using each domain the pool is registered under.
+     */
+    private final Map<String,Integer> registrations = new HashMap<>();
+
+
+    PerMessageDeflatePool(int maxIdle) {
+        this.maxIdle = maxIdle;
+        int initialSize = Math.min(maxIdle, SynchronizedStack.DEFAULT_SIZE);
+        idleDeflaters = new SynchronizedStack<>(initialSize, maxIdle);
+        idleInflaters = new SynchronizedStack<>(initialSize, maxIdle);
+    }
+
+
+    /**
+     * Register the pool with JMX under the given domain unless another
+     * container has already done so.
+     *
+     * @param domain The JMX domain of the container
+     */
+    synchronized void register(String domain) {
+        Integer count = registrations.get(domain);
+        if (count == null) {
+            ObjectName oname = null;
+            try {
+                oname = getObjectName(domain);
+                Registry.getRegistry(null, null).registerComponent(this, oname, null);
+            } catch (Exception e) {
+                log.warn(sm.getString("perMessageDeflatePool.registerFailed", oname), e);
+            }
+            count = Integer.valueOf(0);
+        }
+        registrations.put(domain, Integer.valueOf(count.intValue() + 1));
+    }
+
+
+    /**
+     * Unregister the pool from the given domain once the last container that
+     * registered it there no longer uses it.
+     *
+     * @param domain The JMX domain of the container
+     */
+    synchronized void unregister(String domain) {
+        Integer count = registrations.get(domain);
+        if (count == null) {
+            return;
+        }
+        if (count.intValue() > 1) {
+            registrations.put(domain, Integer.valueOf(count.intValue() - 1));
+            return;
+        }
+        registrations.remove(domain);
+        try {
+            Registry.getRegistry(null, null).unregisterComponent(getObjectName(domain));
+        } catch (MalformedObjectNameException e) {
+            // Registration would have failed as well
+        }
+    }
+
+
+    static ObjectName getObjectName(String domain) throws MalformedObjectNameException {
+        return new ObjectName(domain + ":type=PerMessageDeflatePool");
+    }
+
+
+    Deflater borrowDeflater() {
+        borrowCount.incrementAndGet();
+        int active = activeDeflaterCount.incrementAndGet();
+        if (active > peakActiveDeflaterCount) {
+            peakActiveDeflaterCount = active;
+        }
+        Deflater result = idleDeflaters.pop();
+        if (result == null) {
+            createCount.incrementAndGet();
+            result = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        } else {
+            idleDeflaterCount.decrementAndGet();
+        }
+        return result;
+    }
+
+
+    void returnDeflater(Deflater deflater) {
+        activeDeflaterCount.decrementAndGet();
+        deflater.reset();
+        if (idleDeflaters.push(deflater)) {
+            idleDeflaterCount.incrementAndGet();
+        } else {
+            destroyCount.incrementAndGet();
+            deflater.end();
+        }
+    }
+
+
+    void discardDeflater(Deflater deflater) {
+        activeDeflaterCount.decrementAndGet();
+        destroyCount.incrementAndGet();
+        deflater.end();
+    }
+
+
+    Inflater borrowInflater() {
+        borrowCount.incrementAndGet();
+        int active = activeInflaterCount.incrementAndGet();
+        if (active > peakActiveInflaterCount) {
+            peakActiveInflaterCount = active;
+        }
+        Inflater result = idleInflaters.pop();
+        if (result == null) {
+            createCount.incrementAndGet();
+            result = new Inflater(true);
+        } else {
+            idleInflaterCount.decrementAndGet();
+        }
+        return result;
+    }
+
+
+    void returnInflater(Inflater inflater) {
+        activeInflaterCount.decrementAndGet();
+        inflater.reset();
+        if (idleInflaters.push(inflater)) {
+            idleInflaterCount.incrementAndGet();
+        } else {
+            destroyCount.incrementAndGet();
+            inflater.end();
+        }
+    }
+
+
+    void discardInflater(Inflater inflater) {
+        activeInflaterCount.decrementAndGet();
+        destroyCount.incrementAndGet();
+        inflater.end();
+    }
+
+
+    /*
+     * Sessions that use context takeover keep their own contexts. They are
+     * counted so the native memory estimate covers all WebSocket compression.
+     */
+    void dedicatedDeflaterCreated() {
+        dedicatedDeflaterCount.incrementAndGet();
+    }
+
+
+    void dedicatedDeflaterEnded() {
+        dedicatedDeflaterCount.decrementAndGet();
+    }
+
+
+    void dedicatedInflaterCreated() {
+        dedicatedInflaterCount.incrementAndGet();
+    }
+
+
+    void dedicatedInflaterEnded() {
+        dedicatedInflaterCount.decrementAndGet();
+    }
+
+
+    // ------------------------------------------------------------ MBean methods
+
+    @Override
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+
+    @Override
+    public int getIdleDeflaterCount() {
+        return idleDeflaterCount.get();
+    }
+
+
+    @Override
+    public int getIdleInflaterCount() {
+        return idleInflaterCount.get();
+    }
+
+
+    @Override
+    public int getActiveDeflaterCount() {
+        return activeDeflaterCount.get();
+    }
+
+
+    @Override
+    public int getActiveInflaterCount() {
+        return activeInflaterCount.get();
+    }
+
+
+    @Override
+    public int getPeakActiveDeflaterCount() {
+        return peakActiveDeflaterCount;
+    }
+
+
+    @Override
+    public int getPeakActiveInflaterCount() {
+        return peakActiveInflaterCount;
+    }
+
+
+    @Override
+    public int getDedicatedDeflaterCount() {
+        return dedicatedDeflaterCount.get();
+    }
+
+
+    @Override
+    public int getDedicatedInflaterCount() {
+        return dedicatedInflaterCount.get();
+    }
+
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+
+    @Override
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+
+    @Override
+    public long getDestroyCount() {
+        return destroyCount.get();
+    }
+
+
+    @Override
+    public double getUtilization() {
+        int active = activeDeflaterCount.get() + activeInflaterCount.get();
+        int total = active + idleDeflaterCount.get() + idleInflaterCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) active / total;
+    }
+
+
+    @Override
+    public long getPooledNativeMemoryEstimate() {
+        return (activeDeflaterCount.get() + idleDeflaterCount.get()) * DEFLATER_NATIVE_BYTES +
+                (activeInflaterCount.get() + idleInflaterCount.get()) * INFLATER_NATIVE_BYTES;
+    }
+
+
+    @Override
+    public long getNativeMemoryEstimate() {
+        return getPooledNativeMemoryEstimate() +
+                dedicatedDeflaterCount.get() * DEFLATER_NATIVE_BYTES +
+                dedicatedInflaterCount.get() * INFLATER_NATIVE_BYTES;
+    }
+
+
+    @Override
+    public void resetPeaks() {
+        peakActiveDeflaterCount = activeDeflaterCount.get();
+        peakActiveInflaterCount = activeInflaterCount.get();
+    }
+}
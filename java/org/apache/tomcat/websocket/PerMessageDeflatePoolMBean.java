@@ -0,0 +1,94 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+public interface PerMessageDeflatePoolMBean {
+
+    /**
+     * @return The maximum number of idle contexts of each type (deflate and
+     *         inflate) retained by the pool
+     */
+    public int getMaxIdle();
+
+    public int getIdleDeflaterCount();
+
+    public int getIdleInflaterCount();
+
+    /**
+     * @return The number of deflaters currently borrowed to compress a message
+     */
+    public int getActiveDeflaterCount();
+
+    /**
+     * @return The number of inflaters currently borrowed to decompress a
+     *         message
+     */
+    public int getActiveInflaterCount();
+
+    public int getPeakActiveDeflaterCount();
+
+    public int getPeakActiveInflaterCount();
+
+    /**
+     * @return The number of deflaters held by sessions that use server
+     *         context takeover (or client context takeover for client
+     *         sessions) and therefore cannot use the pool
+     */
+    public int getDedicatedDeflaterCount();
+
+    /**
+     * @return The number of inflaters held by sessions that use context
+     *         takeover for received messages and therefore cannot use the pool
+     */
+    public int getDedicatedInflaterCount();
+
+    public long getBorrowCount();
+
+    /**
+     * @return The number of contexts created because the pool had no idle
+     *         context of the required type
+     */
+    public long getCreateCount();
+
+    /**
+     * @return The number of contexts ended because the pool already held the
+     *         maximum number of idle contexts when they were returned
+     */
+    public long getDestroyCount();
+
+    /**
+     * @return The fraction of the pooled contexts that are currently borrowed
+     */
+    public double getUtilization();
+
+    /**
+     * @return An estimate, in bytes, of the native memory used by the pooled
+     *         contexts
+     */
+    public long getPooledNativeMemoryEstimate();
+
+    /**
+     * @return An estimate, in bytes, of the native memory used by all the
+     *         permessage-deflate contexts, pooled and dedicated
+     */
+    public long getNativeMemoryEstimate();
+
+    /**
+     * Reset the peak active counts to the current active counts.
+     */
+    public void resetPeaks();
+}
@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A complete text or binary WebSocket message that is encoded once and then
+ * sent to many sessions. The server to client frame (header and payload) is
+ * built when the message is created and the permessage-deflate form of the
+ * frame is built the first time a session that can use it sends the message.
+ * Both are held in read-only buffers that are shared by every session that
+ * sends the message.
+ * <p>
+ * A compressed frame is compressed without reference to any earlier message
+ * so it can only be shared with sessions where the server does not use context
+ * takeover. Sessions that negotiated permessage-deflate with server context
+ * takeover, and client sessions (which must mask every frame), compress and
+ * frame the payload themselves as they would for any other message.
+ * <p>
+ * This is a Tomcat specific extension to the WebSocket API. Use
+ * {@link org.apache.tomcat.websocket.server.WsServerContainer#broadcast} to
+ * send a prepared message to a group of sessions.
+ */
+public final class PreparedMessage {
+
+    private static final StringManager sm = StringManager.getManager(PreparedMessage.class);
+
+    // RSV1 is used by permessage-deflate to mark a compressed message
+    private static final int RSV_COMPRESSED = 0b100;
+    private static final int EOM_LENGTH = 4;
+
+    private final byte opCode;
+    private final byte[] payload;
+    private final ByteBuffer frame;
+    private volatile ByteBuffer compressedFrame;
+
+
+    /**
+     * Prepare a text message.
+     *
+     * @param text  The text of the message
+     */
+    public PreparedMessage(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException(sm.getString("preparedMessage.nullData"));
+        }
+        this.opCode = Constants.OPCODE_TEXT;
+        this.payload = text.getBytes(StandardCharsets.UTF_8);
+        this.frame = createFrame(opCode, 0, payload, payload.length);
+    }
+
+
+    /**
+     * Prepare a binary message. The remaining bytes of the buffer are copied
+     * so the buffer may be reused once this constructor returns.
+     *
+     * @param data  The content of the message
+     */
+    public PreparedMessage(ByteBuffer data) {
+        if (data == null) {
+            throw new IllegalArgumentException(sm.getString("preparedMessage.nullData"));
+        }
+        this.opCode = Constants.OPCODE_BINARY;
+        this.payload = new byte[data.remaining()];
+        data.duplicate().get(payload);
+        this.frame = createFrame(opCode, 0, payload, payload.length);
+    }
+
+
+    /**
+     * @return <code>true</code> if this is a text message, otherwise
+     *         <code>false</code>
+     */
+    public boolean isText() {
+        return opCode == Constants.OPCODE_TEXT;
+    }
+
+
+    /**
+     * @return The length of the uncompressed payload in bytes
+     */
+    public int getPayloadLength() {
+        return payload.length;
+    }
+
+
+    byte getOpCode() {
+        return opCode;
+    }
+
+
+    /**
+     * Obtain a new buffer wrapping the uncompressed payload. This is used by
+     * sessions that have to frame the message themselves. The buffer must not
+     * be modified.
+     */
+    ByteBuffer getPayload() {
+        return ByteBuffer.wrap(payload);
+    }
+
+
+    /**
+     * Obtain a view of the complete frame for this message, ready to be
+     * written to a session that does not mask its frames.
+     *
+     * @param compressed Should the permessage-deflate form of the frame be
+     *                   returned?
+     *
+     * @return A new read-only view of the shared frame so each session has an
+     *         independent position and limit
+     */
+    ByteBuffer getFrame(boolean compressed) {
+        if (!compressed || payload.length == 0) {
+            // Zero length messages are never compressed
+            return frame.duplicate();
+        }
+        ByteBuffer result = compressedFrame;
+        if (result == null) {
+            // Concurrent callers may compress the payload more than once. That
+            // is harmless since the result is always the same.
+            result = createCompressedFrame();
+            compressedFrame = result;
+        }
+        return result.duplicate();
+    }
+
+
+    private ByteBuffer createCompressedFrame() {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(payload);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 2 + 16);
+            byte[] buffer = new byte[Constants.DEFAULT_BUFFER_SIZE];
+            int written;
+            do {
+                written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, written);
+            } while (written == buffer.length || !deflater.needsInput());
+            // RFC 7692, section 7.2.1. Remove the 0x00 0x00 0xff 0xff at the
+            // end of the flushed output.
+            byte[] compressedPayload = compressed.toByteArray();
+            return createFrame(opCode, RSV_COMPRESSED, compressedPayload,
+                    compressedPayload.length - EOM_LENGTH);
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    private static ByteBuffer createFrame(byte opCode, int rsv, byte[] payload, int length) {
+        int headerLength;
+        if (length < 126) {
+            headerLength = 2;
+        } else if (length < 65536) {
+            headerLength = 4;
+        } else {
+            headerLength = 10;
+        }
+        ByteBuffer result = ByteBuffer.allocate(headerLength + length);
+        // Single frame message so fin is always set
+        result.put((byte) (0x80 | (rsv << 4) | opCode));
+        // Server frames are never masked
+        if (length < 126) {
+            result.put((byte) length);
+        } else if (length < 65536) {
+            result.put((byte) 126);
+            result.put((byte) (length >>> 8));
+            result.put((byte) (length & 0xFF));
+        } else {
+            result.put((byte) 127);
+            result.putInt(0);
+            result.putInt(length);
+        }
+        result.put(payload, 0, length);
+        result.flip();
+        return result.asReadOnlyBuffer();
+    }
+}
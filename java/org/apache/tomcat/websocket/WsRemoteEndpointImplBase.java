@@ -59,10 +59,18 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
 
     private final StateMachine stateMachine = new StateMachine();
 
+    private final Queue<PreparedMessageSend> preparedMessageQueue = new ArrayDeque<>();
+    private final Object preparedMessageLock = new Object();
+    private volatile int preparedMessageQueueSize = 0;
+    private volatile int maxPendingPreparedMessages =
+            Constants.DEFAULT_MAX_PENDING_PREPARED_MESSAGES;
+
     private final IntermediateMessageHandler intermediateMessageHandler =
             new IntermediateMessageHandler(this);
 
     private Transformation transformation = null;
+    private boolean preparedFrameUsable = false;
+    private boolean preparedFrameCompressed = false;
     private final Semaphore messagePartInProgress = new Semaphore(1);
     private final Queue<MessagePart> messagePartQueue = new ArrayDeque<>();
     private final Object messagePartLock = new Object();
@@ -87,6 +95,31 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
 
     protected void setTransformation(Transformation transformation) {
         this.transformation = transformation;
+        // Prepared frames can only be written as is if the transformation
+        // pipeline would have produced exactly the same bytes. That is the case
+        // with no extensions or with permessage-deflate alone if the server
+        // does not use context takeover.
+        if (transformation.getExtensionResponse() == null) {
+            preparedFrameUsable = true;
+            preparedFrameCompressed = false;
+        } else if (transformation instanceof PerMessageDeflate &&
+                ((PerMessageDeflate) transformation).isPreparedFrameCompatible()) {
+            preparedFrameUsable = true;
+            preparedFrameCompressed = true;
+        } else {
+            preparedFrameUsable = false;
+            preparedFrameCompressed = false;
+        }
+    }
+
+
+    public int getMaxPendingPreparedMessages() {
+        return maxPendingPreparedMessages;
+    }
+
+
+    public void setMaxPendingPreparedMessages(int maxPendingPreparedMessages) {
+        this.maxPendingPreparedMessages = maxPendingPreparedMessages;
     }
 
 
@@ -224,6 +257,85 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
     }
 
 
+    /**
+     * Send a message that has been prepared for sending to many sessions. If
+     * another message is being sent, the prepared message is queued and sent
+     * once the endpoint is free. If there are already
+     * {@link #getMaxPendingPreparedMessages()} prepared messages queued, the
+     * message is not sent and the handler is notified of the failure.
+     *
+     * @param message   The message to send
+     * @param handler   The handler to notify when the message has been sent or
+     *                  has failed
+     */
+    public void sendPreparedMessageByCompletion(PreparedMessage message, SendHandler handler) {
+        if (message == null) {
+            throw new IllegalArgumentException(sm.getString("wsRemoteEndpoint.nullData"));
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException(sm.getString("wsRemoteEndpoint.nullHandler"));
+        }
+        if (closed) {
+            handler.onResult(new SendResult(new IOException(
+                    sm.getString("wsRemoteEndpoint.closed"))));
+            return;
+        }
+        synchronized (preparedMessageLock) {
+            if (preparedMessageQueue.size() >= maxPendingPreparedMessages) {
+                handler.onResult(new SendResult(new IOException(sm.getString(
+                        "wsRemoteEndpoint.preparedQueueFull",
+                        Integer.valueOf(maxPendingPreparedMessages)))));
+                return;
+            }
+            preparedMessageQueue.add(new PreparedMessageSend(message, handler));
+            preparedMessageQueueSize = preparedMessageQueue.size();
+        }
+        sendNextPreparedMessage();
+    }
+
+
+    /*
+     * Called when a message is added to the queue and every time a message
+     * completes. Uses the state machine to determine if the endpoint is free
+     * to start the next prepared message.
+     */
+    private void sendNextPreparedMessage() {
+        if (preparedMessageQueueSize == 0) {
+            return;
+        }
+        PreparedMessageSend next;
+        synchronized (preparedMessageLock) {
+            next = preparedMessageQueue.peek();
+            if (next == null || !stateMachine.preparedStart(next.message.isText())) {
+                return;
+            }
+            preparedMessageQueue.poll();
+            preparedMessageQueueSize = preparedMessageQueue.size();
+        }
+
+        SendHandler handler = new StateUpdateSendHandler(next.handler, stateMachine);
+        if (closed) {
+            handler.onResult(new SendResult(new IOException(
+                    sm.getString("wsRemoteEndpoint.closed"))));
+            return;
+        }
+        try {
+            if (preparedFrameUsable && !isMasked()) {
+                wsSession.updateLastActive();
+                MessagePart mp = new MessagePart(true, 0, next.message.getOpCode(),
+                        next.message.getFrame(preparedFrameCompressed),
+                        intermediateMessageHandler, new EndMessageHandler(this, handler), -1);
+                mp.setPrepared(true);
+                startMessagePart(mp, null);
+            } else {
+                startMessage(next.message.getOpCode(), next.message.getPayload(), true, handler);
+            }
+        } catch (RuntimeException e) {
+            handler.onResult(new SendResult(e));
+        }
+    }
+
+
     public OutputStream getSendStream() {
         stateMachine.streamStart();
         return new WsOutputStream(this);
@@ -354,7 +466,11 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
         }
 
         MessagePart mp = messageParts.remove(0);
+        startMessagePart(mp, messageParts);
+    }
+
 
+    private void startMessagePart(MessagePart mp, List<MessagePart> messageParts) {
         boolean doWrite = false;
         synchronized (messagePartLock) {
             if (Constants.OPCODE_CLOSE == mp.getOpCode() && getBatchingAllowed()) {
@@ -377,7 +493,9 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
                 messagePartQueue.add(mp);
             }
             // Add any remaining messages to the queue
-            messagePartQueue.addAll(messageParts);
+            if (messageParts != null) {
+                messagePartQueue.addAll(messageParts);
+            }
         }
         if (doWrite) {
             // Actual write has to be outside sync block to avoid possible
@@ -474,6 +592,22 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
             }
         }
 
+        if (mp.isPrepared()) {
+            // The payload is a complete, unmasked frame including the header
+            if (getBatchingAllowed()) {
+                headerBuffer.clear();
+                headerBuffer.flip();
+                OutputBufferSendHandler obsh = new OutputBufferSendHandler(
+                        mp.getEndHandler(), mp.getBlockingWriteTimeoutExpiry(),
+                        headerBuffer, mp.getPayload(), null, outputBuffer, false, this);
+                obsh.write();
+            } else {
+                doWrite(mp.getEndHandler(), mp.getBlockingWriteTimeoutExpiry(),
+                        mp.getPayload());
+            }
+            return;
+        }
+
         byte[] mask;
 
         if (isMasked()) {
@@ -713,6 +847,21 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
         // closed once so it is closed here on the output side.
         transformation.close();
         doClose();
+        failPendingPreparedMessages();
+    }
+
+
+    private void failPendingPreparedMessages() {
+        List<PreparedMessageSend> pending;
+        synchronized (preparedMessageLock) {
+            pending = new ArrayList<>(preparedMessageQueue);
+            preparedMessageQueue.clear();
+            preparedMessageQueueSize = 0;
+        }
+        for (PreparedMessageSend pms : pending) {
+            pms.handler.onResult(new SendResult(new IOException(
+                    sm.getString("wsRemoteEndpoint.closed"))));
+        }
     }
 
 
@@ -1164,7 +1313,7 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
     }
 
 
-    private static class StateMachine {
+    private class StateMachine {
         private State state = State.OPEN;
 
         public synchronized void streamStart() {
@@ -1197,7 +1346,29 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
             state = State.TEXT_FULL_WRITING;
         }
 
-        public synchronized void complete(boolean last) {
+        /*
+         * Unlike the other start methods, this does not throw if a message is
+         * in progress since the prepared message will be queued until the
+         * current message completes.
+         */
+        public synchronized boolean preparedStart(boolean text) {
+            if (state != State.OPEN) {
+                return false;
+            }
+            state = text ? State.TEXT_FULL_WRITING : State.BINARY_FULL_WRITING;
+            return true;
+        }
+
+        public void complete(boolean last) {
+            completeInternal(last);
+            if (last) {
+                // Must be outside the sync so the next message is not written
+                // while holding the lock
+                sendNextPreparedMessage();
+            }
+        }
+
+        private synchronized void completeInternal(boolean last) {
             if (last) {
                 checkState(State.TEXT_PARTIAL_WRITING, State.TEXT_FULL_WRITING,
                         State.BINARY_PARTIAL_WRITING, State.BINARY_FULL_WRITING,
@@ -1256,6 +1427,18 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
     }
 
 
+    private static class PreparedMessageSend {
+
+        private final PreparedMessage message;
+        private final SendHandler handler;
+
+        public PreparedMessageSend(PreparedMessage message, SendHandler handler) {
+            this.message = message;
+            this.handler = handler;
+        }
+    }
+
+
     private static class BlockingSendHandler implements SendHandler {
 
         private volatile SendResult sendResult = null;
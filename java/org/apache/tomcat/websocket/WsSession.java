@@ -42,6 +42,7 @@ import javax.websocket.MessageHandler.Partial;
 import javax.websocket.MessageHandler.Whole;
 import javax.websocket.PongMessage;
 import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
 import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
@@ -435,6 +436,22 @@ public class WsSession implements Session {
     }
 
 
+    /**
+     * Send a message that has been encoded once for sending to many sessions.
+     * This is a Tomcat specific extension to the WebSocket API.
+     *
+     * @param message   The message to send
+     * @param handler   The handler to notify when the message has been sent or
+     *                  has failed
+     *
+     * @see org.apache.tomcat.websocket.server.WsServerContainer#broadcast
+     */
+    public void sendPreparedMessage(PreparedMessage message, SendHandler handler) {
+        checkState();
+        wsRemoteEndpoint.sendPreparedMessageByCompletion(message, handler);
+    }
+
+
     @Override
     public void close() throws IOException {
         close(new CloseReason(CloseCodes.NORMAL_CLOSURE, ""));
@@ -88,6 +88,7 @@ public class WsWebSocketContainer implements WebSocketContainer, BackgroundProce
 
     private volatile AsynchronousChannelGroup asynchronousChannelGroup = null;
     private final Object asynchronousChannelGroupLock = new Object();
+    private volatile String perMessageDeflatePoolDomain = null;
 
     private final Log log = LogFactory.getLog(WsWebSocketContainer.class); // must not be static
     // Server side uses the endpoint path as the key
@@ -1047,6 +1048,27 @@ public class WsWebSocketContainer implements WebSocketContainer, BackgroundProce
                 }
             }
         }
+
+        String domain = perMessageDeflatePoolDomain;
+        if (domain != null) {
+            perMessageDeflatePoolDomain = null;
+            PerMessageDeflatePool.getInstance().unregister(domain);
+        }
+    }
+
+
+    /**
+     * Register the permessage-deflate context pool with JMX under the given
+     * domain. The registration is removed when this container is destroyed.
+     *
+     * @param domain The JMX domain to use
+     */
+    protected void registerPerMessageDeflatePool(String domain) {
+        if (domain == null || perMessageDeflatePoolDomain != null) {
+            return;
+        }
+        perMessageDeflatePoolDomain = domain;
+        PerMessageDeflatePool.getInstance().register(domain);
     }
 
 
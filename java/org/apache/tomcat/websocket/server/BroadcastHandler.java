@@ -0,0 +1,46 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.websocket.server;
+
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Receives the outcome of sending a broadcast message to each of the sessions
+ * it was sent to. This is a Tomcat specific extension to the WebSocket API.
+ *
+ * @see WsServerContainer#broadcast(org.apache.tomcat.websocket.PreparedMessage,
+ *      java.util.Collection, BroadcastHandler)
+ */
+public interface BroadcastHandler {
+
+    /**
+     * Called once for each session the message was sent to, when the message
+     * has been written to that session or when sending it failed. Failures
+     * include the session being closed and the session having too many
+     * prepared messages waiting to be sent. A failure for one session does not
+     * affect the other sessions.
+     * <p>
+     * This may be called by the thread that called
+     * {@link WsServerContainer#broadcast} or by a container thread once a
+     * write completes.
+     *
+     * @param session   The session
+     * @param result    The result of sending the message to the session
+     */
+    void onResult(Session session, SendResult result);
+}
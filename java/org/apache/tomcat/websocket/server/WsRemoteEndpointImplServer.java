@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.websocket.SendHandler;
 import javax.websocket.SendResult;
@@ -32,6 +33,7 @@ import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 import org.apache.tomcat.util.net.SocketWrapperBase.BlockingMode;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TimeoutWheel;
 import org.apache.tomcat.websocket.Transformation;
 import org.apache.tomcat.websocket.WsRemoteEndpointImplBase;
 
@@ -51,6 +53,7 @@ public class WsRemoteEndpointImplServer extends WsRemoteEndpointImplBase {
     private volatile ByteBuffer[] buffers = null;
 
     private volatile long timeoutExpiry = -1;
+    private final AtomicReference<TimeoutWheel.Timeout> writeTimeout = new AtomicReference<>();
 
     public WsRemoteEndpointImplServer(SocketWrapperBase<?> socketWrapper,
             WsServerContainer serverContainer) {
@@ -228,6 +231,15 @@ public class WsRemoteEndpointImplServer extends WsRemoteEndpointImplBase {
     }
 
 
+    /*
+     * Used by WsWriteTimeout to track the timeout, if any, scheduled for the
+     * current asynchronous write. Returns the previous timeout.
+     */
+    TimeoutWheel.Timeout setWriteTimeout(TimeoutWheel.Timeout timeout) {
+        return writeTimeout.getAndSet(timeout);
+    }
+
+
     /*
      * Currently this is only called from the background thread so we could just
      * call clearHandler() with useDispatch == false but the method parameter
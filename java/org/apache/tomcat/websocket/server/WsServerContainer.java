@@ -18,6 +18,7 @@ package org.apache.tomcat.websocket.server;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Map;
@@ -35,6 +36,9 @@ import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
 import javax.websocket.DeploymentException;
 import javax.websocket.Encoder;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpoint;
 import javax.websocket.server.ServerEndpointConfig;
@@ -42,6 +46,7 @@ import javax.websocket.server.ServerEndpointConfig.Configurator;
 
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.websocket.PreparedMessage;
 import org.apache.tomcat.websocket.WsSession;
 import org.apache.tomcat.websocket.WsWebSocketContainer;
 import org.apache.tomcat.websocket.pojo.PojoMethodMapping;
@@ -103,6 +108,16 @@ public class WsServerContainer extends WsWebSocketContainer
             setEnforceNoAddAfterHandshake(Boolean.parseBoolean(value));
         }
 
+        // Tomcat names the virtual server <engine name>/<host name> and the
+        // engine name is the JMX domain of the web application
+        String virtualServerName = servletContext.getVirtualServerName();
+        if (virtualServerName != null) {
+            int slash = virtualServerName.indexOf('/');
+            if (slash > 0) {
+                registerPerMessageDeflatePool(virtualServerName.substring(0, slash));
+            }
+        }
+
         FilterRegistration.Dynamic fr = servletContext.addFilter(
                 "Tomcat WebSocket (JSR356) Filter", new WsFilter());
         fr.setAsyncSupported(true);
@@ -463,6 +478,42 @@ public class WsServerContainer extends WsWebSocketContainer
     }
 
 
+    /**
+     * Send the same message to many sessions. The message is encoded once when
+     * the {@link PreparedMessage} is created (and compressed at most once for
+     * all the sessions that can share a compressed frame) and the resulting
+     * frame is written to each session without further copying.
+     * <p>
+     * This method does not block. Each session sends the message as soon as
+     * any message it is currently sending completes. Sessions that fall behind
+     * queue a limited number of prepared messages after which further messages
+     * for that session fail rather than being queued.
+     * <p>
+     * This is a Tomcat specific extension to the WebSocket API.
+     *
+     * @param message   The message to send
+     * @param sessions  The sessions to send the message to
+     * @param handler   Notified of the result for each session
+     */
+    public void broadcast(PreparedMessage message, Collection<? extends Session> sessions,
+            BroadcastHandler handler) {
+        for (Session session : sessions) {
+            SendHandler sendHandler = new BroadcastSendHandler(session, handler);
+            if (session instanceof WsSession) {
+                try {
+                    ((WsSession) session).sendPreparedMessage(message, sendHandler);
+                } catch (IllegalStateException e) {
+                    // Session closed
+                    sendHandler.onResult(new SendResult(e));
+                }
+            } else {
+                sendHandler.onResult(new SendResult(new IllegalArgumentException(
+                        sm.getString("serverContainer.broadcastNotWsSession", session.getId()))));
+            }
+        }
+    }
+
+
     private static void validateEncoders(Class<? extends Encoder>[] encoders)
             throws DeploymentException {
 
@@ -481,6 +532,23 @@ public class WsServerContainer extends WsWebSocketContainer
     }
 
 
+    private static class BroadcastSendHandler implements SendHandler {
+
+        private final Session session;
+        private final BroadcastHandler handler;
+
+        public BroadcastSendHandler(Session session, BroadcastHandler handler) {
+            this.session = session;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onResult(SendResult result) {
+            handler.onResult(session, result);
+        }
+    }
+
+
     private static class TemplatePathMatch {
         private final ServerEndpointConfig config;
         private final UriTemplate uriTemplate;
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.ExpandWar;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * The processing performed by {@link CoyoteAdapter#postParseRequest} once the
+ * request line and headers have been parsed: URI decoding and normalization,
+ * mapping and session ID extraction. An embedded Tomcat instance provides the
+ * connector, mapper and context.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoyoteAdapterBenchmark {
+
+    @Param({"/examples/servlets/servlet/RequestInfoExample",
+            "/examples/./servlets/caf%C3%A9/../index.jsp;jsessionid=0123456789ABCDEF"})
+    public String uri;
+
+    private File baseDir;
+    private Tomcat tomcat;
+    private CoyoteAdapter adapter;
+
+    private org.apache.coyote.Request req;
+    private org.apache.coyote.Response res;
+    private Request request;
+    private Response response;
+
+    private byte[] method;
+    private byte[] uriBytes;
+    private byte[] protocol;
+    private byte[] host;
+    private byte[] cookie;
+
+
+    @Setup
+    public void setup() throws Exception {
+        baseDir = Files.createTempDirectory("tomcat-benchmark").toFile();
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        Connector connector = tomcat.getConnector();
+        connector.setPort(0);
+
+        Context ctx = tomcat.addContext("/examples", null);
+        Tomcat.addServlet(ctx, "servlet", new NoOpServlet());
+        ctx.addServletMappingDecoded("/servlets/*", "servlet");
+        ctx.addServletMappingDecoded("*.jsp", "servlet");
+
+        tomcat.start();
+
+        adapter = (CoyoteAdapter) connector.getProtocolHandler().getAdapter();
+
+        req = new org.apache.coyote.Request();
+        res = new org.apache.coyote.Response();
+        req.setResponse(res);
+        request = connector.createRequest();
+        request.setCoyoteRequest(req);
+        response = connector.createResponse();
+        response.setCoyoteResponse(res);
+        request.setResponse(response);
+        response.setRequest(request);
+
+        method = "GET".getBytes(StandardCharsets.ISO_8859_1);
+        uriBytes = uri.getBytes(StandardCharsets.ISO_8859_1);
+        protocol = "HTTP/1.1".getBytes(StandardCharsets.ISO_8859_1);
+        host = "localhost".getBytes(StandardCharsets.ISO_8859_1);
+        cookie = "JSESSIONID=0123456789ABCDEF0123456789ABCDEF; theme=dark"
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception {
+        tomcat.stop();
+        tomcat.destroy();
+        ExpandWar.delete(baseDir);
+    }
+
+
+    @Benchmark
+    public boolean postParseRequest() throws Exception {
+        request.recycle();
+        response.recycle();
+        req.recycle();
+        res.recycle();
+
+        req.method().setBytes(method, 0, method.length);
+        req.requestURI().setBytes(uriBytes, 0, uriBytes.length);
+        req.protocol().setBytes(protocol, 0, protocol.length);
+        req.serverName().setBytes(host, 0, host.length);
+        MessageBytes cookieValue = req.getMimeHeaders().addValue("Cookie");
+        cookieValue.setBytes(cookie, 0, cookie.length);
+
+        return adapter.postParseRequest(req, request, res, response);
+    }
+
+
+    private static class NoOpServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            // NO-OP
+        }
+    }
+}
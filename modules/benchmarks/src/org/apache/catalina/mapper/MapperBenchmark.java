@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Mapping of a request to a host, context and wrapper. The configuration is
+ * based on the one used by TestMapperPerformance so the results can be
+ * compared with that test. Additional contexts and mappings can be added to
+ * measure the mapping of large applications.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    @Param({"iowejoiejfoiew", "qwerty.net", "abc.com"})
+    public String hostName;
+
+    @Param({"/foo/bar/blah/bobou/foo", "/foo/bar/index.jsp", "/foo/bar/fo/a/b/c"})
+    public String uri;
+
+    @Param({"0", "1000"})
+    public int extraMappings;
+
+    private Mapper mapper;
+    private MessageBytes host;
+    private MessageBytes uriMB;
+    private MappingData mappingData;
+
+
+    @Setup
+    public void setup() throws Exception {
+        mapper = new Mapper();
+
+        String[] hostNames = new String[] { "sjbjdvwsbvhrb", "wekhfewuifweuibf",
+                "ylwrehirkuewh", "iohgeoihro", "fwehoihoihwfeo", "owefojiwefoi",
+                "iowejoiejfoiew", "ohewoihfewoih", "fewohfoweoih", "ttthtiuhwoih",
+                "lkwefjwojweffewoih", "zzzuyopjvewpovewjhfewoih", "xxxxgqwiwoih",
+                "qwigqwiwoih", "qwerty.net", "*.net", "zzz.com" };
+        for (String name : hostNames) {
+            mapper.addHost(name, new String[0], createHost(name));
+        }
+        mapper.setDefaultHostName("ylwrehirkuewh");
+
+        Host host = createHost("iowejoiejfoiew");
+        mapper.addContextVersion("iowejoiejfoiew", host, "", "0",
+                createContext("context0"), new String[0], null, null);
+        mapper.addContextVersion("iowejoiejfoiew", host, "/foo", "0",
+                createContext("context1"), new String[0], null, null);
+        mapper.addContextVersion("iowejoiejfoiew", host, "/foo/bar", "0",
+                createContext("context2"), new String[] { "boo/baba", "bobou" }, null, null);
+        mapper.addWrappers("iowejoiejfoiew", "/foo", "0", Arrays.asList(
+                new WrapperMappingInfo("/", createWrapper("context1-defaultWrapper"), false, false)));
+        mapper.addWrappers("iowejoiejfoiew", "/foo/bar", "0", Arrays.asList(
+                new WrapperMappingInfo("/fo/*", createWrapper("wrapper0"), false, false),
+                new WrapperMappingInfo("/", createWrapper("wrapper1"), false, false),
+                new WrapperMappingInfo("/blh", createWrapper("wrapper2"), false, false),
+                new WrapperMappingInfo("*.jsp", createWrapper("wrapper3"), false, false),
+                new WrapperMappingInfo("/blah/bou/*", createWrapper("wrapper4"), false, false),
+                new WrapperMappingInfo("/blah/bobou/*", createWrapper("wrapper5"), false, false),
+                new WrapperMappingInfo("*.htm", createWrapper("wrapper6"), false, false)));
+        mapper.addContextVersion("iowejoiejfoiew", host, "/foo/bar/bla", "0",
+                createContext("context3"), new String[0], null, Arrays.asList(
+                        new WrapperMappingInfo("/bobou/*", createWrapper("wrapper7"), false, false)));
+        List<WrapperMappingInfo> extraWrappers = new ArrayList<>();
+        for (int i = 0; i < extraMappings; i++) {
+            mapper.addContextVersion("iowejoiejfoiew", host, "/app" + i, "0",
+                    createContext("app" + i), new String[0], null, null);
+            extraWrappers.add(new WrapperMappingInfo("/api/resource" + i + "/*",
+                    createWrapper("api" + i), false, false));
+        }
+        mapper.addWrappers("iowejoiejfoiew", "/foo/bar", "0", extraWrappers);
+
+        host = createHost("*.net");
+        mapper.addContextVersion("*.net", host, "", "0", createContext("context4"),
+                new String[0], null, null);
+        mapper.addWrappers("*.net", "", "0", Arrays.asList(
+                new WrapperMappingInfo("/", createWrapper("context4-defaultWrapper"), false, false)));
+        mapper.addContextVersion("*.net", host, "/foo/bar", "0",
+                createContext("context5"), new String[0], null, null);
+        mapper.addWrappers("*.net", "/foo/bar", "0", Arrays.asList(
+                new WrapperMappingInfo("*.jsp", createWrapper("wrapper8"), false, false)));
+
+        this.host = MessageBytes.newInstance();
+        this.host.setString(hostName);
+        uriMB = MessageBytes.newInstance();
+        uriMB.setString(uri);
+        uriMB.toChars();
+        uriMB.getCharChunk().setLimit(-1);
+        mappingData = new MappingData();
+    }
+
+
+    @Benchmark
+    public MappingData map() throws Exception {
+        mappingData.recycle();
+        mapper.map(host, uriMB, null, mappingData);
+        return mappingData;
+    }
+
+
+    private static Host createHost(String name) {
+        Host host = new StandardHost();
+        host.setName(name);
+        return host;
+    }
+
+
+    private static Context createContext(String name) {
+        Context context = new StandardContext();
+        context.setName(name);
+        return context;
+    }
+
+
+    private static Wrapper createWrapper(String name) {
+        Wrapper wrapper = new StandardWrapper();
+        wrapper.setName(name);
+        return wrapper;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.parser.HttpParser;
+import org.apache.tomcat.util.net.ApplicationBufferHandler;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SSLSupport;
+import org.apache.tomcat.util.net.SendfileDataBase;
+import org.apache.tomcat.util.net.SendfileState;
+import org.apache.tomcat.util.net.SocketBufferHandler;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+
+/**
+ * Parsing of the request line and headers of an HTTP/1.1 request that has
+ * been fully received. Each request is parsed with ordinary bytes tested
+ * eight at a time ({@code vectorizedParsing=true}) and one at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http11InputBufferBenchmark {
+
+    private static final String SMALL =
+            "GET /examples/index.html?a=b HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Accept: */*\r\n" +
+            "\r\n";
+
+    private static final String BROWSER =
+            "GET /examples/servlets/servlet/RequestInfoExample?foo=bar&baz=qux HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Cache-Control: max-age=0\r\n" +
+            "Upgrade-Insecure-Requests: 1\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+                    "(KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9," +
+                    "image/avif,image/webp,*/*;q=0.8\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-GB,en-US;q=0.9,en;q=0.8\r\n" +
+            "Cookie: JSESSIONID=0123456789ABCDEF0123456789ABCDEF; theme=dark; " +
+                    "_ga=GA1.1.123456789.1700000000\r\n" +
+            "If-None-Match: W/\"1234-1700000000000\"\r\n" +
+            "If-Modified-Since: Tue, 14 Nov 2023 22:13:20 GMT\r\n" +
+            "\r\n";
+
+    private static final String PROXIED;
+
+    static {
+        StringBuilder sb = new StringBuilder(BROWSER.substring(0, BROWSER.length() - 2));
+        sb.append("X-Forwarded-For: 203.0.113.195, 2001:db8:85a3:8d3:1319:8a2e:370:7348, 198.51.100.17\r\n");
+        sb.append("X-Forwarded-Proto: https\r\n");
+        sb.append("X-Request-ID: 6f1c2a9e-0c4b-4f57-9d8e-1b2f3c4d5e6f\r\n");
+        sb.append("Forwarded: for=203.0.113.195;proto=https;by=198.51.100.17\r\n");
+        sb.append("Authorization: Bearer ");
+        for (int i = 0; i < 16; i++) {
+            sb.append("eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9");
+        }
+        sb.append("\r\n");
+        for (int i = 0; i < 8; i++) {
+            sb.append("X-Trace-Attribute-").append(i).append(": service=frontend-").append(i);
+            sb.append("; region=eu-west-1; zone=eu-west-1a; version=2024.01.15-build.1234\r\n");
+        }
+        sb.append("\r\n");
+        PROXIED = sb.toString();
+    }
+
+    @Param({"small", "browser", "proxied"})
+    public String request;
+
+    @Param({"true", "false"})
+    public boolean vectorizedParsing;
+
+    private Http11InputBuffer inputBuffer;
+    private FixedInputSocketWrapper socketWrapper;
+
+
+    @Setup
+    public void setup() {
+        String input;
+        if ("small".equals(request)) {
+            input = SMALL;
+        } else if ("browser".equals(request)) {
+            input = BROWSER;
+        } else {
+            input = PROXIED;
+        }
+        socketWrapper = new FixedInputSocketWrapper(input.getBytes(StandardCharsets.ISO_8859_1));
+        inputBuffer = new Http11InputBuffer(new Request(), 8 * 1024, true, new HttpParser(null, null));
+        inputBuffer.setVectorizedParsing(vectorizedParsing);
+        inputBuffer.init(socketWrapper);
+    }
+
+
+    @Benchmark
+    public boolean parse() throws IOException {
+        inputBuffer.recycle();
+        inputBuffer.init(socketWrapper);
+        socketWrapper.rewind();
+        if (!inputBuffer.parseRequestLine(false, 0, 0)) {
+            throw new IllegalStateException();
+        }
+        return inputBuffer.parseHeaders();
+    }
+
+
+    /**
+     * Returns the same bytes each time the input buffer is rewound. Only the
+     * methods used by {@link Http11InputBuffer} while parsing are implemented.
+     */
+    private static class FixedInputSocketWrapper extends SocketWrapperBase<NioChannel> {
+
+        private final byte[] input;
+        private int pos;
+
+        FixedInputSocketWrapper(byte[] input) {
+            super(null, new NioEndpoint());
+            this.input = input;
+            socketBufferHandler = new SocketBufferHandler(8 * 1024, 8 * 1024, false);
+        }
+
+        void rewind() {
+            pos = 0;
+        }
+
+        @Override
+        public int read(boolean block, byte[] b, int off, int len) {
+            int n = Math.min(len, input.length - pos);
+            if (n == 0) {
+                return -1;
+            }
+            System.arraycopy(input, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int read(boolean block, ByteBuffer to) {
+            int n = Math.min(to.remaining(), input.length - pos);
+            if (n == 0) {
+                return -1;
+            }
+            to.put(input, pos, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public boolean isReadyForRead() {
+            return pos < input.length;
+        }
+
+        @Override
+        public void setAppReadBufHandler(ApplicationBufferHandler handler) {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemoteHost() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemoteAddr() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemotePort() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalName() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalAddr() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalPort() {
+            // NO-OP
+        }
+
+        @Override
+        protected void doClose() {
+            // NO-OP
+        }
+
+        @Override
+        protected void doWrite(boolean block, ByteBuffer from) {
+            from.position(from.limit());
+        }
+
+        @Override
+        public void registerReadInterest() {
+            // NO-OP
+        }
+
+        @Override
+        public void registerWriteInterest() {
+            // NO-OP
+        }
+
+        @Override
+        public SendfileDataBase createSendfileData(String filename, long pos, long length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SendfileState processSendfile(SendfileDataBase sendfileData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void doClientAuth(SSLSupport sslSupport) {
+            // NO-OP
+        }
+
+        @Override
+        public SSLSupport getSslSupport(String clientCertProvider) {
+            return null;
+        }
+
+        @Override
+        protected <A> OperationState<A> newOperationState(boolean read,
+                ByteBuffer[] buffers, int offset, int length,
+                BlockingMode block, long timeout, TimeUnit unit, A attachment,
+                CompletionCheck check, CompletionHandler<Long, ? super A> handler,
+                Semaphore semaphore, VectoredIOCompletionHandler<A> completion) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
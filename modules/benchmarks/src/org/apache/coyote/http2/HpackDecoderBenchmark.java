@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Decoding of an HPACK header block.
+ * <ul>
+ * <li><b>literal</b> - the first request on a connection. Every header that
+ *     is not in the static table is sent as a literal and added to the
+ *     dynamic table, so the table is continually filled and evicted.</li>
+ * <li><b>indexed</b> - a subsequent request with the same headers. Every
+ *     header is a reference to the dynamic table.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HpackDecoderBenchmark {
+
+    @Param({"literal", "indexed"})
+    public String block;
+
+    private HpackDecoder decoder;
+    private ByteBuffer encoded;
+    private final CountingHeaderEmitter emitter = new CountingHeaderEmitter();
+
+
+    @Setup
+    public void setup() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.addValue(":method").setString("GET");
+        headers.addValue(":scheme").setString("https");
+        headers.addValue(":authority").setString("www.example.com");
+        headers.addValue(":path").setString("/examples/servlets/servlet/RequestInfoExample?foo=bar");
+        headers.addValue("user-agent").setString("Mozilla/5.0 (X11; Linux x86_64) " +
+                "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
+        headers.addValue("accept").setString("text/html,application/xhtml+xml," +
+                "application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8");
+        headers.addValue("accept-encoding").setString("gzip, deflate, br");
+        headers.addValue("accept-language").setString("en-GB,en-US;q=0.9,en;q=0.8");
+        headers.addValue("cookie").setString("JSESSIONID=0123456789ABCDEF0123456789ABCDEF");
+        headers.addValue("x-request-id").setString("5f0c6f3e-8f7b-4b8e-9d8e-0a1b2c3d4e5f");
+
+        HpackEncoder encoder = new HpackEncoder();
+        ByteBuffer first = ByteBuffer.allocate(4096);
+        encoder.encode(headers, first);
+        first.flip();
+
+        decoder = new HpackDecoder();
+        decoder.setHeaderEmitter(emitter);
+
+        if ("literal".equals(block)) {
+            encoded = first;
+        } else {
+            ByteBuffer second = ByteBuffer.allocate(4096);
+            encoder.encode(headers, second);
+            second.flip();
+            // Populate the dynamic table
+            decoder.decode(first.duplicate());
+            encoded = second;
+        }
+    }
+
+
+    @Benchmark
+    public int decode() throws Exception {
+        emitter.count = 0;
+        decoder.decode(encoded.duplicate());
+        return emitter.count;
+    }
+
+
+    private static class CountingHeaderEmitter implements HpackDecoder.HeaderEmitter {
+
+        private int count;
+
+        @Override
+        public void emitHeader(String name, String value) {
+            count++;
+        }
+
+        @Override
+        public void emitHeader(String name, byte[] value, int offset, int length) {
+            count++;
+        }
+
+        @Override
+        public void setHeaderException(StreamException streamException) {
+            // NO-OP
+        }
+
+        @Override
+        public void validateHeaders() {
+            // NO-OP
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.tomcat.util.json.JSONParser;
+
+/**
+ * Compares two sets of JMH results written in JSON format and exits with a
+ * non-zero status if any benchmark present in both has regressed by more than
+ * the permitted amount. The score is compared taking the benchmark mode into
+ * account. The normalized allocation rate (gc.alloc.rate.norm, bytes per
+ * operation) is compared when both runs used the gc profiler. Allocations of
+ * less than 16 bytes per operation are treated as noise.
+ * <p>
+ * Usage: <code>ResultComparison baseline.json current.json
+ * maxScoreRegressionPercent maxAllocRegressionPercent</code>
+ */
+public class ResultComparison {
+
+    private static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+
+    private static final double ALLOC_NOISE = 16;
+
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: ResultComparison baseline.json current.json " +
+                    "maxScoreRegressionPercent maxAllocRegressionPercent");
+            System.exit(2);
+        }
+
+        Map<String, Map<String, Object>> baseline = load(new File(args[0]));
+        Map<String, Map<String, Object>> current = load(new File(args[1]));
+        double maxScoreRegression = Double.parseDouble(args[2]);
+        double maxAllocRegression = Double.parseDouble(args[3]);
+
+        int failures = 0;
+        for (Map.Entry<String, Map<String, Object>> entry : current.entrySet()) {
+            Map<String, Object> before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println("NEW   " + entry.getKey());
+                continue;
+            }
+            Map<String, Object> after = entry.getValue();
+
+            double scoreBefore = score(metric(before, null));
+            double scoreAfter = score(metric(after, null));
+            // For throughput higher is better, for all other modes lower is
+            // better
+            double scoreChange;
+            if ("thrpt".equals(after.get("mode"))) {
+                scoreChange = percentChange(scoreAfter, scoreBefore);
+            } else {
+                scoreChange = percentChange(scoreBefore, scoreAfter);
+            }
+            boolean failed = scoreChange > maxScoreRegression;
+
+            String alloc = "";
+            Map<String, Object> allocBefore = metric(before, ALLOC_RATE_NORM);
+            Map<String, Object> allocAfter = metric(after, ALLOC_RATE_NORM);
+            if (allocBefore != null && allocAfter != null) {
+                double bytesBefore = score(allocBefore);
+                double bytesAfter = score(allocAfter);
+                alloc = String.format(", alloc %.1f -> %.1f B/op", Double.valueOf(bytesBefore),
+                        Double.valueOf(bytesAfter));
+                if (bytesAfter > ALLOC_NOISE &&
+                        percentChange(bytesBefore, bytesAfter) > maxAllocRegression) {
+                    failed = true;
+                }
+            }
+
+            System.out.println(String.format("%s %s: score regression %+.1f%%%s",
+                    failed ? "FAIL " : "OK   ", entry.getKey(), Double.valueOf(scoreChange), alloc));
+            if (failed) {
+                failures++;
+            }
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " benchmark(s) regressed");
+            System.exit(1);
+        }
+    }
+
+
+    /*
+     * Returns how much worse "after" is than "before" as a percentage, where
+     * larger values are worse.
+     */
+    private static double percentChange(double before, double after) {
+        if (before == 0) {
+            return after == 0 ? 0 : Double.POSITIVE_INFINITY;
+        }
+        return (after - before) * 100 / before;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> metric(Map<String, Object> result, String name) {
+        if (name == null) {
+            return (Map<String, Object>) result.get("primaryMetric");
+        }
+        Map<String, Object> secondary = (Map<String, Object>) result.get("secondaryMetrics");
+        if (secondary == null) {
+            return null;
+        }
+        return (Map<String, Object>) secondary.get(name);
+    }
+
+
+    private static double score(Map<String, Object> metric) {
+        return Double.parseDouble(metric.get("score").toString());
+    }
+
+
+    /*
+     * Key is the benchmark name plus any parameters.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> load(File file) throws Exception {
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        List<Object> results = new JSONParser(json).parseArray();
+        Map<String, Map<String, Object>> byName = new LinkedHashMap<>();
+        for (Object o : results) {
+            Map<String, Object> result = (Map<String, Object>) o;
+            StringBuilder key = new StringBuilder((String) result.get("benchmark"));
+            Map<String, Object> params = (Map<String, Object>) result.get("params");
+            if (params != null) {
+                key.append(new TreeMap<>(params));
+            }
+            byName.put(key.toString(), result);
+        }
+        return byName;
+    }
+}
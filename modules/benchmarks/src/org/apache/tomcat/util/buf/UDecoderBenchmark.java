@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * %nn decoding of the request URI. The decoding is performed in place so the
+ * encoded bytes are copied into the chunk before each operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UDecoderBenchmark {
+
+    @Param({"/examples/servlets/servlet/RequestInfoExample",
+            "/caf%C3%A9/%E3%83%86%E3%82%B9%E3%83%88/file%20name.html"})
+    public String uri;
+
+    private final UDecoder decoder = new UDecoder();
+    private final ByteChunk chunk = new ByteChunk();
+    private byte[] encoded;
+    private byte[] buffer;
+
+
+    @Setup
+    public void setup() {
+        encoded = uri.getBytes(StandardCharsets.ISO_8859_1);
+        buffer = new byte[encoded.length];
+    }
+
+
+    @Benchmark
+    public ByteChunk convert() throws IOException {
+        System.arraycopy(encoded, 0, buffer, 0, encoded.length);
+        chunk.setBytes(buffer, 0, encoded.length);
+        decoder.convert(chunk, EncodedSolidusHandling.REJECT);
+        return chunk;
+    }
+}
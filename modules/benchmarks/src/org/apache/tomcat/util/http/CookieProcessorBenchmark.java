@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the Cookie request header by {@link Rfc6265CookieProcessor}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieProcessorBenchmark {
+
+    @Param({"session", "many"})
+    public String cookies;
+
+    private final Rfc6265CookieProcessor cookieProcessor = new Rfc6265CookieProcessor();
+    private final ServerCookies serverCookies = new ServerCookies(4);
+    private final MimeHeaders headers = new MimeHeaders();
+
+
+    @Setup
+    public void setup() {
+        String value;
+        if ("session".equals(cookies)) {
+            value = "JSESSIONID=0123456789ABCDEF0123456789ABCDEF";
+        } else {
+            value = "JSESSIONID=0123456789ABCDEF0123456789ABCDEF; theme=dark; " +
+                    "_ga=GA1.1.123456789.1700000000; _gid=GA1.1.987654321.1700000000; " +
+                    "consent=\"analytics,marketing\"; lang=en-GB; " +
+                    "prefs=eyJhIjoxLCJiIjoyLCJjIjozfQ==; empty=";
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        headers.addValue("Cookie").setBytes(bytes, 0, bytes.length);
+    }
+
+
+    @Benchmark
+    public ServerCookies parseCookieHeader() {
+        serverCookies.recycle();
+        cookieProcessor.parseCookieHeader(headers, serverCookies);
+        return serverCookies;
+    }
+}
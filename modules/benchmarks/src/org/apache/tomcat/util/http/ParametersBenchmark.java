@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of application/x-www-form-urlencoded parameters, as used for both
+ * query strings and request bodies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParametersBenchmark {
+
+    @Param({"plain", "encoded"})
+    public String parameters;
+
+    private byte[] bytes;
+    private Parameters p;
+
+
+    @Setup
+    public void setup() {
+        String value;
+        if ("plain".equals(parameters)) {
+            value = "username=tomcat&password=secret&remember=on&redirect=/index.jsp" +
+                    "&a=1&b=2&c=3&d=4&e=5&f=6";
+        } else {
+            value = "q=%E3%83%86%E3%82%B9%E3%83%88+search+terms&lang=en-GB" +
+                    "&redirect=%2Fexamples%2Fservlets%3Ffoo%3Dbar%26baz%3Dqux" +
+                    "&empty=&flag&name=J%C3%BCrgen+M%C3%BCller";
+        }
+        bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        p = new Parameters();
+    }
+
+
+    @Benchmark
+    public Parameters processParameters() {
+        p.recycle();
+        p.setCharset(StandardCharsets.UTF_8);
+        p.processParameters(bytes, 0, bytes.length);
+        return p;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.valves.TesterMemoryAccessLogValve;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestAllocationTracking extends TomcatBaseTest {
+
+    @Test
+    public void testAllocationTracking() throws Exception {
+        Assume.assumeTrue(AllocationTracker.isSupported());
+
+        // Every request exceeds a budget of one byte
+        TesterMemoryAccessLogValve accessLog = new TesterMemoryAccessLogValve();
+        StandardWrapper wrapper = doRequest(true, 1, accessLog);
+
+        Assert.assertEquals(1, wrapper.getAllocationCount());
+        Assert.assertEquals(1, wrapper.getAllocationBudgetExceededCount());
+        Assert.assertTrue(wrapper.getAllocatedBytes50thPercentile() > 0);
+
+        List<String> lines = accessLog.getEntries(1);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertTrue(lines.get(0), Long.parseLong(lines.get(0)) > 0);
+
+        wrapper.resetAllocationStatistics();
+        Assert.assertEquals(0, wrapper.getAllocationCount());
+        Assert.assertEquals(0, wrapper.getAllocationBudgetExceededCount());
+    }
+
+
+    @Test
+    public void testServletAllocationExcluded() throws Exception {
+        Assume.assumeTrue(AllocationTracker.isSupported());
+
+        // The servlet allocates far more than the budget
+        TesterMemoryAccessLogValve accessLog = new TesterMemoryAccessLogValve();
+        StandardWrapper wrapper = doRequest(new AllocatingServlet(), true,
+                AllocatingServlet.SIZE / 2, accessLog);
+
+        Assert.assertEquals(1, wrapper.getAllocationCount());
+        Assert.assertEquals(0, wrapper.getAllocationBudgetExceededCount());
+
+        List<String> lines = accessLog.getEntries(1);
+        Assert.assertEquals(1, lines.size());
+        long allocatedBytes = Long.parseLong(lines.get(0));
+        Assert.assertTrue(lines.get(0), allocatedBytes > 0);
+        Assert.assertTrue(lines.get(0), allocatedBytes < AllocatingServlet.SIZE / 2);
+    }
+
+
+    @Test
+    public void testAllocationTrackingDisabled() throws Exception {
+        TesterMemoryAccessLogValve accessLog = new TesterMemoryAccessLogValve();
+        StandardWrapper wrapper = doRequest(false, 1, accessLog);
+
+        Assert.assertEquals(0, wrapper.getAllocationCount());
+        Assert.assertEquals(0, wrapper.getAllocationBudgetExceededCount());
+
+        List<String> lines = accessLog.getEntries(1);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("-", lines.get(0));
+    }
+
+
+    private StandardWrapper doRequest(boolean trackAllocations, long allocationBudget,
+            TesterMemoryAccessLogValve accessLog) throws Exception {
+        return doRequest(new HelloWorldServlet(), trackAllocations, allocationBudget, accessLog);
+    }
+
+
+    private StandardWrapper doRequest(Servlet servlet, boolean trackAllocations,
+            long allocationBudget, TesterMemoryAccessLogValve accessLog) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setTrackAllocations(trackAllocations);
+        tomcat.getConnector().setAllocationBudget(allocationBudget);
+
+        Context ctx = tomcat.addContext("/test", null);
+        StandardWrapper wrapper =
+                (StandardWrapper) Tomcat.addServlet(ctx, "hello", servlet);
+        ctx.addServletMappingDecoded("/hello", "hello");
+
+        accessLog.setPattern("%M");
+        tomcat.getHost().getPipeline().addValve(accessLog);
+
+        tomcat.start();
+
+        ByteChunk out = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/test/hello", out, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        return wrapper;
+    }
+
+
+    private static class AllocatingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int SIZE = 16 * 1024 * 1024;
+
+        // Prevents the allocation being optimised away
+        private static volatile byte[] buffer;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            buffer = new byte[SIZE];
+            resp.setContentType("text/plain");
+            resp.getWriter().print(buffer.length);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.valves.TesterMemoryAccessLogValve;
+import org.apache.coyote.RequestPhase;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestRequestPhaseTiming extends TomcatBaseTest {
+
+    private static final long SERVLET_SLEEP = 100;
+
+    @Test
+    public void testPhaseTiming() throws Exception {
+        TesterMemoryAccessLogValve accessLog = new TesterMemoryAccessLogValve();
+        StandardContext ctx = doRequest(true, accessLog);
+
+        Assert.assertEquals(1, ctx.getPhaseHistogram(RequestPhase.SERVLET).getCount());
+        Assert.assertTrue(ctx.getPhaseTimePercentile("servlet", 50) >= SERVLET_SLEEP * 1000);
+
+        List<String> lines = accessLog.getEntries(1);
+        Assert.assertEquals(1, lines.size());
+        String[] times = lines.get(0).split(" ");
+        Assert.assertEquals(RequestPhase.values().length, times.length);
+        for (String time : times) {
+            Assert.assertTrue(lines.get(0), Long.parseLong(time) >= 0);
+        }
+        long servlet = Long.parseLong(times[RequestPhase.SERVLET.ordinal()]);
+        long filters = Long.parseLong(times[RequestPhase.FILTERS.ordinal()]);
+        Assert.assertTrue(lines.get(0), servlet >= SERVLET_SLEEP * 1000);
+        // The time in the servlet must not be counted as filters too
+        Assert.assertTrue(lines.get(0), filters < servlet);
+
+        ctx.resetPhaseStatistics();
+        Assert.assertEquals(0, ctx.getPhaseHistogram(RequestPhase.SERVLET).getCount());
+    }
+
+
+    @Test
+    public void testPhaseTimingDisabled() throws Exception {
+        TesterMemoryAccessLogValve accessLog = new TesterMemoryAccessLogValve();
+        StandardContext ctx = doRequest(false, accessLog);
+
+        for (RequestPhase phase : RequestPhase.values()) {
+            Assert.assertEquals(0, ctx.getPhaseHistogram(phase).getCount());
+        }
+
+        List<String> lines = accessLog.getEntries(1);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("- - - - - - -", lines.get(0));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPhase() {
+        new StandardContext().getPhaseTimePercentile("unknown", 50);
+    }
+
+
+    private StandardContext doRequest(boolean phaseTiming, TesterMemoryAccessLogValve accessLog)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setPhaseTiming(phaseTiming);
+
+        StandardContext ctx = (StandardContext) tomcat.addContext("/test", null);
+        Tomcat.addServlet(ctx, "sleep", new SleepServlet());
+        ctx.addServletMappingDecoded("/sleep", "sleep");
+
+        StringBuilder pattern = new StringBuilder();
+        for (RequestPhase phase : RequestPhase.values()) {
+            if (pattern.length() > 0) {
+                pattern.append(' ');
+            }
+            pattern.append("%{").append(phase.getName()).append("}L");
+        }
+
+        accessLog.setPattern(pattern.toString());
+        tomcat.getHost().getPipeline().addValve(accessLog);
+
+        tomcat.start();
+
+        ByteChunk out = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/test/sleep", out, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        return ctx;
+    }
+
+
+    private static class SleepServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            try {
+                Thread.sleep(SERVLET_SLEEP);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
+}
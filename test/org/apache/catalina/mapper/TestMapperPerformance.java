@@ -16,9 +16,13 @@
  */
 package org.apache.catalina.mapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.Host;
 import org.apache.tomcat.util.buf.MessageBytes;
 
 public class TestMapperPerformance extends TestMapper {
@@ -75,4 +79,54 @@ public class TestMapperPerformance extends TestMapper {
         return time;
     }
 
+
+    @Test
+    public void testPerformanceLargeMappingSet() throws Exception {
+        // Large enough that a binary search would be noticeably slower than
+        // the trie used for large sets
+        final int count = 5000;
+
+        Mapper mapper = new Mapper();
+        Host host = createHost("large");
+        mapper.addHost("large.com", new String[0], host);
+        for (int i = 0; i < count; i++) {
+            List<WrapperMappingInfo> wrappers = new ArrayList<>();
+            if (i == count / 2) {
+                for (int j = 0; j < count; j++) {
+                    String path = "/api/v1/resource" + j;
+                    if (j % 2 == 0) {
+                        path += "/*";
+                    }
+                    wrappers.add(new WrapperMappingInfo(path,
+                            createWrapper("wrapper" + j), false, false));
+                }
+            }
+            mapper.addContextVersion("large.com", host, "/app" + i, "0",
+                    createContext("context" + i), new String[0], null, wrappers);
+        }
+
+        MappingData mappingData = new MappingData();
+        MessageBytes hostMB = MessageBytes.newInstance();
+        hostMB.setString("large.com");
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString("/app" + count / 2 + "/api/v1/resource" + count / 2 + "/items/42");
+        uri.toChars();
+        uri.getCharChunk().setLimit(-1);
+
+        mapper.map(hostMB, uri, null, mappingData);
+        Assert.assertEquals("context" + count / 2, mappingData.context.getName());
+        Assert.assertEquals("wrapper" + count / 2, mappingData.wrapper.getName());
+        Assert.assertEquals("/items/42", mappingData.pathInfo.toString());
+
+        // Takes well under a second on a typical laptop
+        final long maxTime = 5000;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000000; i++) {
+            mappingData.recycle();
+            mapper.map(hostMB, uri, null, mappingData);
+        }
+        long time = System.currentTimeMillis() - start;
+        log.info("Large mapping set, Time [" + time + "]ms");
+        Assert.assertTrue(String.valueOf(time), time < maxTime);
+    }
 }
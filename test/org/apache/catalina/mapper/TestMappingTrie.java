@@ -0,0 +1,112 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.mapper.Mapper.MappedWrapper;
+
+public class TestMappingTrie {
+
+    private static final MappedWrapper[] NONE = new MappedWrapper[0];
+
+
+    @Test
+    public void testExact() {
+        MappedWrapper a = wrapper("/a");
+        MappedWrapper ab = wrapper("/a/b");
+        MappingTrie<MappedWrapper> trie =
+                new MappingTrie<>(new MappedWrapper[] { a, ab }, NONE);
+
+        Assert.assertSame(a, find(trie, "/a", true));
+        Assert.assertSame(ab, find(trie, "/a/b", true));
+        Assert.assertNull(find(trie, "/a/", true));
+        Assert.assertNull(find(trie, "/a/bc", true));
+        Assert.assertNull(find(trie, "/", true));
+        Assert.assertNull(find(trie, "", true));
+        // Exact mappings are not prefix mappings
+        Assert.assertNull(find(trie, "/a/b/c", false));
+    }
+
+
+    @Test
+    public void testLongestPrefix() {
+        MappedWrapper root = wrapper("");
+        MappedWrapper a = wrapper("/a");
+        MappedWrapper abc = wrapper("/a/b/c");
+        MappingTrie<MappedWrapper> trie =
+                new MappingTrie<>(NONE, new MappedWrapper[] { root, a, abc });
+
+        Assert.assertSame(root, find(trie, "", false));
+        Assert.assertSame(root, find(trie, "/", false));
+        Assert.assertSame(root, find(trie, "/ab", false));
+        Assert.assertSame(a, find(trie, "/a", false));
+        Assert.assertSame(a, find(trie, "/a/", false));
+        Assert.assertSame(a, find(trie, "/a/b", false));
+        Assert.assertSame(a, find(trie, "/a/b/cd", false));
+        Assert.assertSame(abc, find(trie, "/a/b/c", false));
+        Assert.assertSame(abc, find(trie, "/a/b/c/d/e", false));
+    }
+
+
+    @Test
+    public void testManyChildren() {
+        MappedWrapper[] wrappers = new MappedWrapper[1000];
+        for (int i = 0; i < wrappers.length; i++) {
+            wrappers[i] = wrapper("/path" + i);
+        }
+        MappingTrie<MappedWrapper> trie = new MappingTrie<>(NONE, wrappers);
+        for (int i = 0; i < wrappers.length; i++) {
+            Assert.assertSame(wrappers[i], find(trie, "/path" + i + "/more", false));
+        }
+        Assert.assertNull(find(trie, "/path1000", false));
+    }
+
+
+    @Test
+    public void testIncomplete() {
+        MappingTrie<MappedWrapper> trie = new MappingTrie<>(
+                new MappedWrapper[] { wrapper("/a") }, new MappedWrapper[] { wrapper("a") });
+        Assert.assertFalse(trie.isComplete());
+    }
+
+
+    @Test
+    public void testIsFor() {
+        MappedWrapper[] exact = new MappedWrapper[] { wrapper("/a") };
+        MappingTrie<MappedWrapper> trie = new MappingTrie<>(exact, NONE);
+        Assert.assertTrue(trie.isComplete());
+        Assert.assertTrue(trie.isFor(exact, NONE));
+        Assert.assertFalse(trie.isFor(exact.clone(), NONE));
+    }
+
+
+    private static MappedWrapper wrapper(String name) {
+        return new MappedWrapper(name, null, false, false);
+    }
+
+
+    private static MappedWrapper find(MappingTrie<MappedWrapper> trie, String path, boolean exact) {
+        // Surround the path to check that the bounds are respected
+        char[] buf = ("x" + path + "/x").toCharArray();
+        if (exact) {
+            return trie.findExact(buf, 1, 1 + path.length());
+        }
+        return trie.findLongestPrefix(buf, 1, 1 + path.length());
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.util.IOTools;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestDefaultServletCompressionCache extends TomcatBaseTest {
+
+    private static final int CONTENT_LENGTH = 64 * 1024;
+
+    @Test
+    public void testInMemory() throws Exception {
+        DefaultServlet servlet = new DefaultServlet();
+        byte[] content = createContent(1);
+        File appDir = createAppDir(content);
+        startTomcat(appDir, servlet, null);
+
+        Assert.assertArrayEquals(content, getCompressed());
+        Assert.assertArrayEquals(content, getCompressed());
+
+        Assert.assertEquals(2, servlet.compressionCache.getLookupCount());
+        Assert.assertEquals(1, servlet.compressionCache.getHitCount());
+        Assert.assertTrue(servlet.compressionCache.getSize() > 0);
+        Assert.assertEquals(0, servlet.compressionCache.getDiskSize());
+
+        // Clients that don't accept gzip get the original
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/bundle.js", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(getSingleHeader("Content-Encoding", resHeaders));
+        Assert.assertEquals(CONTENT_LENGTH, out.getLength());
+    }
+
+
+    @Test
+    public void testSpillToFile() throws Exception {
+        DefaultServlet servlet = new DefaultServlet();
+        byte[] content = createContent(1);
+        File appDir = createAppDir(content);
+        Map<String,String> initParameters = new HashMap<>();
+        initParameters.put("compressionCacheMaxObjectSize", "1");
+        // Ensure the temporary file is large enough to be sent with sendfile
+        initParameters.put("sendfileSize", "1");
+        startTomcat(appDir, servlet, initParameters);
+
+        Assert.assertArrayEquals(content, getCompressed());
+        Assert.assertArrayEquals(content, getCompressed());
+
+        Assert.assertEquals(1, servlet.compressionCache.getHitCount());
+        Assert.assertEquals(0, servlet.compressionCache.getSize());
+        Assert.assertTrue(servlet.compressionCache.getDiskSize() > 1024);
+    }
+
+
+    @Test
+    public void testInvalidation() throws Exception {
+        DefaultServlet servlet = new DefaultServlet();
+        byte[] content = createContent(1);
+        File appDir = createAppDir(content);
+        Context ctx = startTomcat(appDir, servlet, null);
+        // Check for modified resources on every request
+        ctx.getResources().setCacheTtl(0);
+
+        Assert.assertArrayEquals(content, getCompressed());
+
+        File bundle = new File(appDir, "bundle.js");
+        long lastModified = bundle.lastModified();
+        content = createContent(2);
+        content = Arrays.copyOf(content, content.length - 1);
+        writeFile(bundle, content);
+        Assert.assertTrue(bundle.setLastModified(lastModified + 10000));
+
+        Assert.assertArrayEquals(content, getCompressed());
+        Assert.assertArrayEquals(content, getCompressed());
+
+        Assert.assertEquals(3, servlet.compressionCache.getLookupCount());
+        Assert.assertEquals(1, servlet.compressionCache.getHitCount());
+    }
+
+
+    @Test
+    public void testETag() throws Exception {
+        DefaultServlet servlet = new DefaultServlet();
+        File appDir = createAppDir(createContent(1));
+        startTomcat(appDir, servlet, null);
+
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/bundle.js", new ByteChunk(), resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        String identityETag = getSingleHeader("ETag", resHeaders);
+
+        resHeaders.clear();
+        rc = getUrl("http://localhost:" + getPort() + "/bundle.js", new ByteChunk(),
+                createHeaders("Accept-Encoding", "gzip"), resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        String gzipETag = getSingleHeader("ETag", resHeaders);
+        Assert.assertNotNull(gzipETag);
+        Assert.assertNotEquals(identityETag, gzipETag);
+        Assert.assertTrue(gzipETag, gzipETag.endsWith("-gzip\""));
+
+        // A client that has cached the compressed version may re-use it
+        Map<String,List<String>> reqHeaders = createHeaders("Accept-Encoding", "gzip");
+        reqHeaders.putAll(createHeaders("If-None-Match", gzipETag));
+        resHeaders.clear();
+        rc = getUrl("http://localhost:" + getPort() + "/bundle.js", new ByteChunk(),
+                reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+        Assert.assertEquals(gzipETag, getSingleHeader("ETag", resHeaders));
+
+        // But not for a client that does not accept it
+        rc = getUrl("http://localhost:" + getPort() + "/bundle.js", new ByteChunk(),
+                createHeaders("If-None-Match", gzipETag), null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+    }
+
+
+    @Test
+    public void testConcurrentMisses() throws Exception {
+        DefaultServlet servlet = new DefaultServlet();
+        byte[] content = createContent(1);
+        File appDir = createAppDir(content);
+        Map<String,String> initParameters = new HashMap<>();
+        initParameters.put("compressionCacheEncoders", SlowGzip.class.getName());
+        startTomcat(appDir, servlet, initParameters);
+
+        SlowGzip.count.set(0);
+        final Throwable[] results = new Throwable[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Assert.assertArrayEquals(content, getCompressed());
+                    } catch (Throwable t) {
+                        results[id] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable result : results) {
+            Assert.assertNull(result);
+        }
+
+        // Compressed once and shared
+        Assert.assertEquals(1, SlowGzip.count.get());
+        Assert.assertEquals(threads.length, servlet.compressionCache.getLookupCount());
+        Assert.assertEquals(threads.length - 1, servlet.compressionCache.getHitCount());
+    }
+
+
+    @Test
+    public void testTemporaryFilesDeletedOnStop() throws Exception {
+        DefaultServlet servlet = new DefaultServlet();
+        byte[] content = createContent(1);
+        File appDir = createAppDir(content);
+        Map<String,String> initParameters = new HashMap<>();
+        initParameters.put("compressionCacheMaxObjectSize", "1");
+        Context ctx = startTomcat(appDir, servlet, initParameters);
+        File tempDir = (File) ctx.getServletContext().getAttribute(ServletContext.TEMPDIR);
+
+        Assert.assertArrayEquals(content, getCompressed());
+        Assert.assertEquals(1, countTemporaryFiles(tempDir));
+
+        getTomcatInstance().stop();
+        Assert.assertEquals(0, countTemporaryFiles(tempDir));
+    }
+
+
+    private static int countTemporaryFiles(File dir) {
+        int count = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("compressed-")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+
+    private static Map<String,List<String>> createHeaders(String name, String value) {
+        Map<String,List<String>> headers = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        values.add(value);
+        headers.put(name, values);
+        return headers;
+    }
+
+
+    private Context startTomcat(File appDir, DefaultServlet servlet, Map<String,String> initParameters)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper wrapper = Tomcat.addServlet(ctx, "default", servlet);
+        wrapper.addInitParameter("compressionCache", "true");
+        if (initParameters != null) {
+            for (Map.Entry<String,String> entry : initParameters.entrySet()) {
+                wrapper.addInitParameter(entry.getKey(), entry.getValue());
+            }
+        }
+        ctx.addServletMappingDecoded("/", "default");
+        ctx.addMimeMapping("js", "application/javascript");
+        tomcat.start();
+        return ctx;
+    }
+
+
+    private byte[] getCompressed() throws IOException {
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        values.add("br;q=0.5, gzip");
+        reqHeaders.put("Accept-Encoding", values);
+        Map<String,List<String>> resHeaders = new HashMap<>();
+
+        int rc = getUrl("http://localhost:" + getPort() + "/bundle.js", out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("gzip", getSingleHeader("Content-Encoding", resHeaders));
+        Assert.assertEquals("accept-encoding", getSingleHeader("vary", resHeaders));
+        Assert.assertTrue(out.getLength() < CONTENT_LENGTH);
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(
+                new ByteArrayInputStream(out.getBytes(), out.getStart(), out.getLength()))) {
+            IOTools.flow(is, result);
+        }
+        return result.toByteArray();
+    }
+
+
+    private File createAppDir(byte[] content) throws IOException {
+        File appDir = new File(getTemporaryDirectory(), "compression");
+        Assert.assertTrue(appDir.mkdirs());
+        addDeleteOnTearDown(appDir);
+        writeFile(new File(appDir, "bundle.js"), content);
+        return appDir;
+    }
+
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content);
+        }
+    }
+
+
+    private static byte[] createContent(long seed) {
+        // Random lower case letters compress well but not too well
+        Random random = new Random(seed);
+        byte[] content = new byte[CONTENT_LENGTH];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(26));
+        }
+        return content;
+    }
+
+
+    /*
+     * Slow enough for concurrent requests to overlap.
+     */
+    public static class SlowGzip extends ContentEncoder.Gzip {
+
+        private static final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public OutputStream createOutputStream(OutputStream os) throws IOException {
+            count.incrementAndGet();
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.createOutputStream(os);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.core.StandardContext;
+
+public class TestManagerBaseExpiration {
+
+    private static final int SESSION_COUNT = 100;
+
+    private StandardManager manager;
+
+
+    @Before
+    public void setUp() {
+        manager = new StandardManager();
+        manager.setContext(new StandardContext());
+    }
+
+
+    @Test
+    public void testOnlyDueSessionsChecked() {
+        CountingSession[] sessions = new CountingSession[SESSION_COUNT];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            // Every tenth session was last accessed more than 60s ago
+            sessions[i] = createSession(manager, "s" + i, 60, i % 10 == 0 ? now - 61000 : now);
+        }
+
+        manager.processExpires();
+
+        int checked = 0;
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            checked += sessions[i].checks;
+            Assert.assertEquals(i % 10 != 0, sessions[i].isValidInternal());
+        }
+        Assert.assertEquals(SESSION_COUNT / 10, checked);
+        Assert.assertEquals(SESSION_COUNT - SESSION_COUNT / 10, manager.getActiveSessions());
+        Assert.assertEquals(SESSION_COUNT / 10, manager.getExpiredSessions());
+        Assert.assertTrue(manager.getMaxExpirationLag() >= 1000);
+        Assert.assertTrue(manager.getAverageExpirationLag() >= 1000);
+    }
+
+
+    @Test
+    public void testAccessedSessionRescheduled() {
+        long now = System.currentTimeMillis();
+        CountingSession session = createSession(manager, "s1", 60, now - 61000);
+
+        // Access is not reported to the index
+        session.thisAccessedTime = now;
+        session.lastAccessedTime = now;
+
+        manager.processExpires();
+        Assert.assertEquals(1, session.checks);
+        Assert.assertTrue(session.isValidInternal());
+
+        // Not due again until a minute from now
+        manager.processExpires();
+        Assert.assertEquals(1, session.checks);
+        Assert.assertEquals(1, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testShorterIntervalBringsExpirationForward() {
+        long now = System.currentTimeMillis();
+        CountingSession session = createSession(manager, "s1", 3600, now - 120000);
+
+        manager.processExpires();
+        Assert.assertEquals(0, session.checks);
+
+        session.setMaxInactiveInterval(60);
+        manager.processExpires();
+        Assert.assertEquals(1, session.checks);
+        Assert.assertFalse(session.isValidInternal());
+        Assert.assertEquals(0, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testNeverExpires() {
+        long now = System.currentTimeMillis();
+        CountingSession session = createSession(manager, "s1", -1, now - 120000);
+
+        manager.processExpires();
+        Assert.assertEquals(0, session.checks);
+        Assert.assertEquals(1, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testWithoutIndex() {
+        manager.setUseExpirationIndex(false);
+        CountingSession[] sessions = new CountingSession[SESSION_COUNT];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            sessions[i] = createSession(manager, "s" + i, 60, i % 10 == 0 ? now - 61000 : now);
+        }
+
+        manager.processExpires();
+
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            Assert.assertEquals(1, sessions[i].checks);
+        }
+        Assert.assertEquals(SESSION_COUNT - SESSION_COUNT / 10, manager.getActiveSessions());
+
+        // Enabling the index picks up the existing sessions
+        sessions[1].thisAccessedTime = now - 61000;
+        sessions[1].lastAccessedTime = now - 61000;
+        manager.setUseExpirationIndex(true);
+        manager.processExpires();
+        Assert.assertEquals(2, sessions[1].checks);
+        Assert.assertEquals(1, sessions[2].checks);
+        Assert.assertFalse(sessions[1].isValidInternal());
+    }
+
+
+    private static CountingSession createSession(Manager manager, String id,
+            int maxInactiveInterval, long lastAccessed) {
+        CountingSession session = new CountingSession(manager);
+        session.setValid(true);
+        session.setCreationTime(lastAccessed);
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        session.setId(id, false);
+        return session;
+    }
+
+
+    private static class CountingSession extends StandardSession {
+
+        private static final long serialVersionUID = 1L;
+
+        private int checks = 0;
+
+        CountingSession(Manager manager) {
+            super(manager);
+        }
+
+        @Override
+        public boolean isValid() {
+            checks++;
+            return super.isValid();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestOffHeapManager extends TomcatBaseTest {
+
+    @Test
+    public void testAttributesMovedOffHeap() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "list", new ListServlet());
+        ctx.addServletMappingDecoded("/list", "list");
+        OffHeapManager manager = new OffHeapManager();
+        manager.setPathname(null);
+        ctx.setManager(manager);
+        tomcat.start();
+
+        String sessionId = getUrl("http://localhost:" + getPort() + "/list").toString();
+        OffHeapSession session = (OffHeapSession) manager.findSession(sessionId);
+        Assert.assertNotNull(session);
+        waitForOffHeap(session);
+        Assert.assertTrue(manager.getOffHeapUsed() > 0);
+        Assert.assertEquals(manager.getSlabSize(), manager.getOffHeapAllocated());
+
+        // The list is modified in place without calling setAttribute()
+        String url = "http://localhost:" + getPort() + "/list;jsessionid=" + sessionId;
+        Assert.assertEquals("2", getUrl(url).toString());
+        waitForOffHeap(session);
+        Assert.assertEquals("3", getUrl(url).toString());
+        waitForOffHeap(session);
+
+        // Outside of a request the value is written back straight away
+        Assert.assertEquals(3, ((List<?>) session.getAttribute("list")).size());
+        Assert.assertEquals(1, session.getOffHeapAttributeCount());
+
+        Assert.assertEquals(3, manager.getAttributeLoadCount());
+        Assert.assertEquals(3, manager.getAttributeLookupCount());
+        Assert.assertEquals(0, manager.getAttributeHitRatio(), 0);
+
+        session.expire();
+        Assert.assertEquals(0, manager.getOffHeapUsed());
+        Assert.assertEquals(0, manager.getOffHeapFragmentation(), 0);
+    }
+
+
+    @Test
+    public void testStoreCompaction() {
+        OffHeapAttributeStore store = new OffHeapAttributeStore(200, 100);
+        byte[] bytes = new byte[40];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        List<OffHeapAttributeStore.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            entries.add(store.write(bytes, bytes.length));
+        }
+        Assert.assertEquals(200, store.getAllocated());
+        // Too large and no space left
+        Assert.assertNull(store.write(bytes, 101));
+        Assert.assertNull(store.write(bytes, 30));
+
+        store.free(entries.get(0));
+        Assert.assertEquals(120, store.getLive());
+        Assert.assertEquals(40.0 / 160, store.getFragmentation(), 0.001);
+
+        // Requires the first slab to be compacted
+        OffHeapAttributeStore.Entry entry = store.write(bytes, 30);
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(0, store.getFragmentation(), 0);
+        Assert.assertTrue(store.contentEquals(entries.get(1), bytes, bytes.length));
+        Assert.assertTrue(store.contentEquals(entry, bytes, 30));
+        Assert.assertArrayEquals(bytes, store.read(entries.get(3)));
+
+        store.destroy();
+        Assert.assertEquals(0, store.getAllocated());
+    }
+
+
+    private static void waitForOffHeap(OffHeapSession session) throws InterruptedException {
+        // The request ends, and the attribute moves, after the response is sent
+        int count = 0;
+        while (session.getOffHeapAttributeCount() == 0 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(1, session.getOffHeapAttributeCount());
+    }
+
+
+    private static class ListServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            HttpSession session = req.getSession(false);
+            if (session == null) {
+                session = req.getSession();
+                List<String> list = new ArrayList<>();
+                list.add("a");
+                session.setAttribute("list", list);
+                resp.getWriter().print(session.getId());
+            } else {
+                @SuppressWarnings("unchecked")
+                List<String> list = (List<String>) session.getAttribute("list");
+                list.add("b");
+                resp.getWriter().print(list.size());
+            }
+        }
+    }
+}
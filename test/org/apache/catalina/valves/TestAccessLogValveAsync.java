@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardHost;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+
+public class TestAccessLogValveAsync {
+
+    private File logDir;
+    private AccessLogValve valve;
+
+
+    @Before
+    public void setUp() throws Exception {
+        logDir = Files.createTempDirectory("access-log-async").toFile();
+        StandardHost host = new StandardHost();
+        host.setName("localhost");
+        valve = new AccessLogValve();
+        valve.setContainer(host);
+        valve.setDirectory(logDir.getAbsolutePath());
+        valve.setPrefix("access");
+        valve.setSuffix(".log");
+        valve.setRotatable(false);
+        valve.setAsyncWrite(true);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (valve.getState().isAvailable()) {
+            valve.stop();
+        }
+        FileUtils.deleteDirectory(logDir);
+    }
+
+
+    @Test
+    public void testRotate() throws Exception {
+        valve.start();
+
+        for (int i = 0; i < 500; i++) {
+            valve.log(entry(i));
+        }
+        File rotated = new File(logDir, "rotated.log");
+        Assert.assertTrue(valve.rotate(rotated.getAbsolutePath()));
+        for (int i = 500; i < 1000; i++) {
+            valve.log(entry(i));
+        }
+        valve.stop();
+
+        // Everything logged before the rotation must be in the rotated file
+        assertEntries(rotated, 0, 500);
+        assertEntries(new File(logDir, "access.log"), 500, 1000);
+        Assert.assertEquals(0, valve.getAsyncDroppedCount());
+        Assert.assertEquals(0, valve.getAsyncQueueDepth());
+    }
+
+
+    @Test
+    public void testRotateDuringStop() throws Exception {
+        valve.start();
+
+        Thread rotator = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    File rotated = new File(logDir, "rotated-" + i + ".log");
+                    // Fails once the valve has stopped
+                    valve.rotate(rotated.getAbsolutePath());
+                    valve.log(entry(i));
+                }
+            }
+        };
+        rotator.start();
+        Thread.sleep(10);
+        valve.stop();
+
+        // Every rotation completes whether or not the writer thread ran it
+        rotator.join(10000);
+        Assert.assertFalse("A rotation did not complete", rotator.isAlive());
+    }
+
+
+    @Test
+    public void testOverflowDrop() throws Exception {
+        valve.setAsyncQueueSize(2);
+        valve.setAsyncOverflowPolicy(AccessLogValve.OVERFLOW_POLICY_DROP);
+        valve.start();
+
+        // Holding the lock on the valve stops the writer thread
+        synchronized (valve) {
+            for (int i = 0; i < 10; i++) {
+                valve.log(entry(i));
+            }
+        }
+        valve.stop();
+
+        // The writer thread may take up to two entries before it blocks on the
+        // lock and the queue holds two more
+        long dropped = valve.getAsyncDroppedCount();
+        Assert.assertTrue(dropped >= 6);
+        List<String> lines = readLines(new File(logDir, "access.log"));
+        Assert.assertEquals(10, lines.size() + dropped);
+    }
+
+
+    @Test
+    public void testOverflowInline() throws Exception {
+        valve.setAsyncQueueSize(2);
+        valve.setAsyncOverflowPolicy(AccessLogValve.OVERFLOW_POLICY_INLINE);
+        valve.start();
+
+        synchronized (valve) {
+            for (int i = 0; i < 10; i++) {
+                valve.log(entry(i));
+            }
+        }
+        valve.stop();
+
+        Assert.assertEquals(0, valve.getAsyncDroppedCount());
+        Assert.assertEquals(10, readLines(new File(logDir, "access.log")).size());
+    }
+
+
+    @Test
+    public void testByteOutput() throws Exception {
+        valve.setByteOutput(true);
+        valve.start();
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                valve.log(entry(i));
+            } else {
+                valve.log(ByteBuffer.wrap(entry(i).toString().getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        valve.stop();
+
+        assertEntries(new File(logDir, "access.log"), 0, 1000);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOverflowPolicy() {
+        valve.setAsyncOverflowPolicy("discard");
+    }
+
+
+    private static CharArrayWriter entry(int i) {
+        CharArrayWriter message = new CharArrayWriter();
+        message.append("entry-").append(Integer.toString(i));
+        return message;
+    }
+
+
+    private static void assertEntries(File file, int start, int end) throws IOException {
+        List<String> lines = readLines(file);
+        Assert.assertEquals(end - start, lines.size());
+        for (int i = start; i < end; i++) {
+            Assert.assertEquals("entry-" + i, lines.get(i - start));
+        }
+    }
+
+
+    private static List<String> readLines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.json.JSONParser;
+
+public class TestJsonAccessLogValve extends TomcatBaseTest {
+
+    private static final String PATTERN =
+            "%h %l %u \"%r\" %s %b %{X-Test}i %{Content-Type}o %U %q %m";
+
+    // Elements written directly into bytes that are not in PATTERN
+    private static final String TIME_PATTERN = "%a %H %t %{begin:sec}t %{end:msec}t " +
+            "%{msec_frac}t %{yyyy-MM-dd'T'HH:mm:ss.SSS}t %{begin:yyyy/MM/dd S}t";
+
+    private static final String HEADER_VALUE = "a \"quoted\" \\ value";
+
+
+    @Test
+    public void testByteOutput() throws Exception {
+        doTestJson(true);
+    }
+
+
+    @Test
+    public void testCharOutput() throws Exception {
+        doTestJson(false);
+    }
+
+
+    @Test
+    public void testByteOutputMatchesCharOutput() throws Exception {
+        File logDir = new File(getTemporaryDirectory(), "access-log-bytes");
+        AccessLogValve bytes = new AccessLogValve();
+        bytes.setByteOutput(true);
+        bytes.setPrefix("bytes");
+        bytes.setPattern(PATTERN);
+        AccessLogValve chars = new AccessLogValve();
+        chars.setPrefix("chars");
+        chars.setPattern(PATTERN);
+
+        doRequest(logDir, bytes, chars);
+
+        List<String> byteLines = readLines(new File(logDir, "bytes.log"));
+        List<String> charLines = readLines(new File(logDir, "chars.log"));
+        Assert.assertEquals(1, byteLines.size());
+        Assert.assertEquals(charLines, byteLines);
+        Assert.assertTrue(byteLines.get(0), byteLines.get(0).contains(HEADER_VALUE));
+    }
+
+
+    @Test
+    public void testAsyncByteOutputMatchesCharOutput() throws Exception {
+        File logDir = new File(getTemporaryDirectory(), "access-log-bytes-async");
+        AccessLogValve bytes = new AccessLogValve();
+        bytes.setByteOutput(true);
+        bytes.setAsyncWrite(true);
+        bytes.setPrefix("bytes");
+        bytes.setPattern(PATTERN + " " + TIME_PATTERN);
+        AccessLogValve chars = new AccessLogValve();
+        chars.setPrefix("chars");
+        chars.setPattern(PATTERN + " " + TIME_PATTERN);
+
+        doRequest(logDir, bytes, chars);
+
+        List<String> byteLines = readLines(new File(logDir, "bytes.log"));
+        List<String> charLines = readLines(new File(logDir, "chars.log"));
+        Assert.assertEquals(1, byteLines.size());
+        Assert.assertEquals(charLines, byteLines);
+    }
+
+
+    private void doTestJson(boolean byteOutput) throws Exception {
+        File logDir = new File(getTemporaryDirectory(), "access-log-json-" + byteOutput);
+        JsonAccessLogValve valve = new JsonAccessLogValve();
+        valve.setByteOutput(byteOutput);
+        valve.setPrefix("json");
+        valve.setPattern(PATTERN);
+
+        doRequest(logDir, valve);
+
+        List<String> lines = readLines(new File(logDir, "json.log"));
+        Assert.assertEquals(1, lines.size());
+
+        Map<String, Object> entry = new JSONParser(lines.get(0)).parseObject();
+        Assert.assertEquals("-", entry.get("logicalUserName"));
+        Assert.assertEquals("GET /test/hello?x=1 HTTP/1.1", entry.get("request"));
+        Assert.assertEquals("200", entry.get("statusCode"));
+        Assert.assertEquals("/test/hello", entry.get("requestURI"));
+        Assert.assertEquals("?x=1", entry.get("query"));
+        Assert.assertEquals("GET", entry.get("method"));
+        Assert.assertEquals(Integer.toString(TomcatBaseTest.HelloWorldServlet.RESPONSE_TEXT.length()),
+                entry.get("size"));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> requestHeaders = (Map<String, Object>) entry.get("requestHeaders");
+        // The parser does not remove the escaping
+        Assert.assertEquals("a \\\"quoted\\\" \\\\ value", requestHeaders.get("X-Test"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> responseHeaders = (Map<String, Object>) entry.get("responseHeaders");
+        Assert.assertEquals("-", responseHeaders.get("Content-Type"));
+    }
+
+
+    private void doRequest(File logDir, AccessLogValve... valves) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        Context ctx = tomcat.addContext("/test", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/hello", "hello");
+
+        for (AccessLogValve valve : valves) {
+            valve.setDirectory(logDir.getAbsolutePath());
+            valve.setSuffix(".log");
+            valve.setRotatable(false);
+            valve.setBuffered(false);
+            tomcat.getHost().getPipeline().addValve(valve);
+        }
+
+        tomcat.start();
+
+        Map<String, List<String>> reqHead = new HashMap<>();
+        reqHead.put("X-Test", Collections.singletonList(HEADER_VALUE));
+        ByteChunk out = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/test/hello?x=1", out, reqHead, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        // The entry is logged after the response has been sent
+        for (AccessLogValve valve : valves) {
+            File logFile = new File(logDir, valve.getPrefix() + ".log");
+            int count = 0;
+            while (logFile.length() == 0 && count < 50) {
+                Thread.sleep(100);
+                count++;
+            }
+        }
+
+        tomcat.stop();
+    }
+
+
+    private static List<String> readLines(File file) throws Exception {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
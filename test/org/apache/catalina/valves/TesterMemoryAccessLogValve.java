@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Access log valve that keeps the formatted entries in memory so tests can
+ * check the output of a pattern without reading a log file.
+ */
+public class TesterMemoryAccessLogValve extends AbstractAccessLogValve {
+
+    private final Queue<String> entries = new ConcurrentLinkedQueue<>();
+
+    @Override
+    protected void log(CharArrayWriter message) {
+        entries.add(message.toString());
+    }
+
+    public List<String> getEntries(int count) throws InterruptedException {
+        // Wait (but not too long) until all expected entries appear (access log
+        // entry will be made after response has been returned to user)
+        for (int i = 0; i < 50 && entries.size() < count; i++) {
+            Thread.sleep(100);
+        }
+        return new ArrayList<>(entries);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTinyLfuEvictionPolicy {
+
+    private static final long WEIGHT = 1;
+
+
+    @Test
+    public void testFrequentEntriesSurviveScan() {
+        // Space for 100 entries
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(100 * WEIGHT);
+        Set<String> cached = new HashSet<>();
+
+        CachedResource[] hot = new CachedResource[50];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = resource("/hot/" + i);
+            add(policy, cached, hot[i]);
+        }
+        for (int j = 0; j < 5; j++) {
+            for (CachedResource resource : hot) {
+                policy.recordAccess(resource);
+            }
+        }
+
+        // Scan many resources that are only used once
+        for (int i = 0; i < 1000; i++) {
+            add(policy, cached, resource("/scan/" + i));
+        }
+
+        for (CachedResource resource : hot) {
+            Assert.assertTrue(resource.getWebappPath(), cached.contains(resource.getWebappPath()));
+        }
+        Assert.assertTrue(cached.size() <= 100);
+    }
+
+
+    @Test
+    public void testTrim() {
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(100 * WEIGHT);
+        Set<String> cached = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            add(policy, cached, resource("/" + i));
+        }
+        Assert.assertEquals(100, cached.size());
+
+        policy.setMaximum(10 * WEIGHT);
+        remove(cached, policy.trim());
+        Assert.assertEquals(10, cached.size());
+    }
+
+
+    @Test
+    public void testRemove() {
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(2 * WEIGHT);
+        Set<String> cached = new HashSet<>();
+        CachedResource first = resource("/first");
+        add(policy, cached, first);
+        policy.recordRemove(first);
+        cached.remove(first.getWebappPath());
+
+        add(policy, cached, resource("/second"));
+        add(policy, cached, resource("/third"));
+        Assert.assertEquals(2, cached.size());
+    }
+
+
+    @Test
+    public void testSketch() {
+        TinyLfuEvictionPolicy.FrequencySketch sketch = new TinyLfuEvictionPolicy.FrequencySketch();
+        Assert.assertEquals(0, sketch.frequency(42));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(42);
+        }
+        Assert.assertEquals(5, sketch.frequency(42));
+        // Counters saturate
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(42);
+        }
+        Assert.assertEquals(15, sketch.frequency(42));
+    }
+
+
+    private static CachedResource resource(String path) {
+        return new CachedResource(null, null, path, 5000, 1024, false);
+    }
+
+
+    private static void add(TinyLfuEvictionPolicy policy, Set<String> cached, CachedResource resource) {
+        cached.add(resource.getWebappPath());
+        remove(cached, policy.recordAdd(resource, WEIGHT));
+    }
+
+
+    private static void remove(Set<String> cached, List<CachedResource> victims) {
+        for (CachedResource victim : victims) {
+            cached.remove(victim.getWebappPath());
+        }
+    }
+}
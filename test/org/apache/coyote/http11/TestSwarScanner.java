@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.http.parser.HttpParser;
+
+public class TestSwarScanner {
+
+    private static final int LENGTH = 24;
+
+    private static final HttpParser PARSER = new HttpParser(null, null);
+
+
+    @Test
+    public void testSkipToken() {
+        for (int b = 0; b < 256; b++) {
+            boolean expected = isAlphaNumeric(b) || b == '-';
+            Assert.assertFalse(expected && !HttpParser.isToken(b));
+            for (int i = 0; i < LENGTH; i++) {
+                ByteBuffer buffer = fill('a', i, b);
+                Assert.assertEquals(expectedSkip(expected, i),
+                        SwarScanner.skipToken(buffer, 0, LENGTH));
+            }
+        }
+    }
+
+
+    @Test
+    public void testSkipTokenToLowerCase() {
+        for (int b = 0; b < 256; b++) {
+            boolean expected = isAlphaNumeric(b) || b == '-';
+            for (int i = 0; i < LENGTH; i++) {
+                ByteBuffer buffer = fill('A', i, b);
+                int skipped = SwarScanner.skipTokenToLowerCase(buffer, 0, LENGTH);
+                Assert.assertEquals(expectedSkip(expected, i), skipped);
+                for (int j = 0; j < LENGTH; j++) {
+                    byte original = j == i ? (byte) b : (byte) 'A';
+                    byte actual = buffer.get(j);
+                    if (j < skipped && original >= 'A' && original <= 'Z') {
+                        Assert.assertEquals((byte) (original + 32), actual);
+                    } else {
+                        Assert.assertEquals(original, actual);
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testSkipRequestTarget() {
+        for (int b = 0; b < 256; b++) {
+            boolean expected = b != '?' && !PARSER.isNotRequestTargetRelaxed(b) && PARSER.isQueryRelaxed(b) &&
+                    b != '!' && b != '~';
+            for (int i = 0; i < LENGTH; i++) {
+                ByteBuffer buffer = fill('/', i, b);
+                Assert.assertEquals(expectedSkip(expected, i),
+                        SwarScanner.skipRequestTarget(buffer, 0, LENGTH));
+            }
+        }
+    }
+
+
+    @Test
+    public void testSkipFieldValue() {
+        for (int b = 0; b < 256; b++) {
+            boolean expected = !HttpParser.isControl(b);
+            for (int i = 0; i < LENGTH; i++) {
+                ByteBuffer buffer = fill('v', i, b);
+                Assert.assertEquals(expectedSkip(expected, i),
+                        SwarScanner.skipFieldValue(buffer, 0, LENGTH));
+            }
+        }
+    }
+
+
+    @Test
+    public void testStopsBeforeLimit() {
+        ByteBuffer buffer = fill('a', -1, 0);
+        Assert.assertEquals(16, SwarScanner.skipToken(buffer, 0, LENGTH - 1));
+        Assert.assertEquals(LENGTH - 3, SwarScanner.skipToken(buffer, 5, LENGTH - 3));
+        Assert.assertEquals(2, SwarScanner.skipToken(buffer, 2, 9));
+    }
+
+
+    @Test
+    public void testHttp11RequestLineEnd() {
+        ByteBuffer buffer = ByteBuffer.wrap("HTTP/1.1\r\nHTTP/1.0\r\nHTTP/1.1\rX".getBytes(StandardCharsets.ISO_8859_1));
+        Assert.assertTrue(SwarScanner.isHttp11RequestLineEnd(buffer, 0, buffer.limit()));
+        Assert.assertFalse(SwarScanner.isHttp11RequestLineEnd(buffer, 0, 9));
+        Assert.assertFalse(SwarScanner.isHttp11RequestLineEnd(buffer, 10, buffer.limit()));
+        Assert.assertFalse(SwarScanner.isHttp11RequestLineEnd(buffer, 20, buffer.limit()));
+    }
+
+
+    private static ByteBuffer fill(char c, int index, int b) {
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = i == index ? (byte) b : (byte) c;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+
+    private static int expectedSkip(boolean valid, int index) {
+        if (valid) {
+            return LENGTH;
+        }
+        return index;
+    }
+
+
+    private static boolean isAlphaNumeric(int b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9';
+    }
+}
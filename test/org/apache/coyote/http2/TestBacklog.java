@@ -0,0 +1,258 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * These tests use A=1, B=2, etc to name the streams.
+ */
+public class TestBacklog {
+
+    @Test
+    public void testWeightedSiblings() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+        Stream c = new Stream(Integer.valueOf(3), handler);
+        a.rePrioritise(handler, false, 32);
+        b.rePrioritise(handler, false, 96);
+        c.rePrioritise(handler, false, 128);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(a, 10000);
+        backlog.add(b, 10000);
+        // Needs less than its share
+        backlog.add(c, 200);
+
+        Set<AbstractStream> released = backlog.release(1200);
+
+        // C gets what it needs. A and B share the rest 1:3.
+        Assert.assertEquals(3, released.size());
+        Assert.assertEquals(250, backlog.get(a).getUnusedAllocation());
+        Assert.assertEquals(750, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(200, backlog.get(c).getUnusedAllocation());
+        Assert.assertEquals(0, backlog.get(c).getRemainingReservation());
+        Assert.assertEquals(20000 + 200 - 1200, backlog.getSize());
+    }
+
+
+    @Test
+    public void testWeightedSiblingsSmallUpdates() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(handler, false, 48);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(a, 10000);
+        backlog.add(b, 10000);
+
+        // Each update is too small to share so it goes to the stream that has
+        // received the least relative to its weight
+        for (int i = 0; i < 400; i++) {
+            backlog.release(1);
+        }
+
+        Assert.assertEquals(100, backlog.get(a).getUnusedAllocation());
+        Assert.assertEquals(300, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(20000 - 400, backlog.getSize());
+    }
+
+
+    @Test
+    public void testParentBeforeChildren() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+        Stream c = new Stream(Integer.valueOf(3), handler);
+        b.rePrioritise(a, false, 16);
+        c.rePrioritise(a, false, 16);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(b, 1000);
+        backlog.add(c, 1000);
+        backlog.add(a, 500);
+
+        backlog.release(700);
+
+        Assert.assertEquals(500, backlog.get(a).getUnusedAllocation());
+        Assert.assertEquals(100, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(100, backlog.get(c).getUnusedAllocation());
+    }
+
+
+    @Test
+    public void testExclusiveWindowExhaustedThenRefilled() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+        Stream c = new Stream(Integer.valueOf(3), handler);
+        b.rePrioritise(handler, false, 16);
+        c.rePrioritise(handler, false, 48);
+
+        // The connection window is exhausted so B and C wait for it
+        Backlog backlog = new Backlog(handler);
+        backlog.add(b, 1000);
+        backlog.add(c, 1000);
+        backlog.release(400);
+        Assert.assertEquals(100, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(300, backlog.get(c).getUnusedAllocation());
+        use(backlog, b);
+        use(backlog, c);
+
+        // A becomes the exclusive parent of B and C and then waits for the
+        // window as well
+        a.rePrioritise(handler, true, 16);
+        backlog.prioritiesChanged();
+        backlog.add(a, 600);
+        Assert.assertEquals(600 + 900 + 700, backlog.getSize());
+
+        // The window is refilled. A is allocated what it needs first.
+        Set<AbstractStream> released = backlog.release(400);
+        Assert.assertEquals(1, released.size());
+        Assert.assertTrue(released.contains(a));
+        Assert.assertEquals(400, backlog.get(a).getUnusedAllocation());
+        Assert.assertEquals(0, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(0, backlog.get(c).getUnusedAllocation());
+
+        use(backlog, a);
+        released = backlog.release(600);
+        Assert.assertEquals(3, released.size());
+        Assert.assertEquals(200, backlog.get(a).getUnusedAllocation());
+        Assert.assertEquals(100, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(300, backlog.get(c).getUnusedAllocation());
+
+        // A has everything it needs and leaves the backlog. B and C are then
+        // attached to its parent.
+        use(backlog, a);
+        Assert.assertNull(backlog.get(a));
+        use(backlog, b);
+        use(backlog, c);
+        backlog.release(800);
+        // C needs less than its share and the surplus goes to B
+        Assert.assertEquals(400, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(400, backlog.get(c).getUnusedAllocation());
+        Assert.assertEquals(400, backlog.getSize());
+    }
+
+
+    @Test
+    public void testPlaceholderRemoved() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+        Stream c = new Stream(Integer.valueOf(3), handler);
+        b.rePrioritise(a, false, 16);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(b, 100);
+        backlog.add(c, 1000);
+        // A is only in the backlog because B is
+        Assert.assertNotNull(backlog.get(a));
+        Assert.assertEquals(0, backlog.get(a).getRemainingReservation());
+
+        backlog.release(200);
+        Assert.assertEquals(100, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(100, backlog.get(c).getUnusedAllocation());
+        use(backlog, b);
+        Assert.assertNull(backlog.get(b));
+
+        // Nothing depending on A needs an allocation
+        backlog.release(100);
+        Assert.assertNull(backlog.get(a));
+        Assert.assertEquals(200, backlog.get(c).getUnusedAllocation());
+
+        // A may then be added with a reservation of its own
+        backlog.add(a, 100);
+        backlog.release(100);
+        Assert.assertEquals(50, backlog.get(a).getUnusedAllocation());
+    }
+
+
+    @Test
+    public void testPlaceholderAddedWithReservation() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+        b.rePrioritise(a, false, 16);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(b, 1000);
+        backlog.add(a, 100);
+
+        backlog.release(300);
+        Assert.assertEquals(100, backlog.get(a).getUnusedAllocation());
+        Assert.assertEquals(200, backlog.get(b).getUnusedAllocation());
+        Assert.assertEquals(800, backlog.getSize());
+    }
+
+
+    @Test
+    public void testReleaseAll() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(2), handler);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(a, 100);
+        backlog.add(b, 100);
+
+        Set<AbstractStream> released = backlog.release(201);
+        Assert.assertTrue(released.contains(a));
+        Assert.assertTrue(released.contains(b));
+        Assert.assertNull(backlog.get(a));
+        Assert.assertNull(backlog.get(b));
+        Assert.assertEquals(0, backlog.getSize());
+    }
+
+
+    @Test
+    public void testNotifyInProgress() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+
+        Backlog backlog = new Backlog(handler);
+        backlog.add(a, 1000);
+
+        Assert.assertTrue(backlog.release(100).contains(a));
+        // Already notified and the allocation has not been used
+        Assert.assertFalse(backlog.release(100).contains(a));
+        Assert.assertEquals(200, backlog.get(a).getUnusedAllocation());
+
+        use(backlog, a);
+        Assert.assertTrue(backlog.release(100).contains(a));
+    }
+
+
+    /*
+     * Mirrors what Http2UpgradeHandler.reserveWindowSize() does with an
+     * allocation.
+     */
+    private static void use(Backlog backlog, AbstractStream stream) {
+        Backlog.BacklogTracker tracker = backlog.get(stream);
+        if (tracker.getRemainingReservation() == 0) {
+            backlog.remove(stream);
+        } else {
+            tracker.useAllocation();
+        }
+    }
+}
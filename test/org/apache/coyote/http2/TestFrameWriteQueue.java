@@ -0,0 +1,263 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.http2.FrameWriteQueue.FrameWrite;
+
+public class TestFrameWriteQueue {
+
+    @Test
+    public void testWrite() throws Exception {
+        TesterFrameWriteQueue queue = new TesterFrameWriteQueue();
+        queue.write(frame(1, 0), frame(1, 1));
+
+        Assert.assertEquals(2, queue.written.size());
+        Assert.assertEquals(1, queue.flushCount.get());
+    }
+
+
+    @Test
+    public void testBatching() throws Exception {
+        TesterFrameWriteQueue queue = new TesterFrameWriteQueue();
+
+        int count = FrameWriteQueue.MAX_BATCH + 10;
+        List<FrameWrite> frameWrites = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            frameWrites.add(queue.add(frame(1, i)));
+        }
+
+        // Completing the first write writes as many others as a batch allows
+        queue.complete(frameWrites.get(0));
+        Assert.assertEquals(FrameWriteQueue.MAX_BATCH, queue.written.size());
+        Assert.assertEquals(1, queue.flushCount.get());
+
+        // Already written so no further writes or flushes
+        queue.complete(frameWrites.get(FrameWriteQueue.MAX_BATCH - 1));
+        Assert.assertEquals(1, queue.flushCount.get());
+
+        queue.complete(frameWrites.get(count - 1));
+        Assert.assertEquals(count, queue.written.size());
+        Assert.assertEquals(2, queue.flushCount.get());
+
+        // Written in the order they were queued
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, queue.written.get(i).getInt(4));
+        }
+    }
+
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final TesterFrameWriteQueue queue = new TesterFrameWriteQueue();
+        final int writesPerThread = 10000;
+        final AtomicInteger failures = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < writesPerThread; j++) {
+                            queue.write(frame(id, j));
+                        }
+                    } catch (IOException ioe) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertFalse(queue.writtenWithoutLock);
+        Assert.assertEquals(threads.length * writesPerThread, queue.written.size());
+        Assert.assertTrue(queue.flushCount.get() <= queue.written.size());
+
+        // Every frame written exactly once and in order for each writer
+        int[] next = new int[threads.length];
+        for (ByteBuffer frame : queue.written) {
+            int id = frame.getInt(0);
+            Assert.assertEquals(next[id]++, frame.getInt(4));
+        }
+        for (int count : next) {
+            Assert.assertEquals(writesPerThread, count);
+        }
+    }
+
+
+    @Test
+    public void testIOExceptionReachesEveryWaiter() throws Exception {
+        final TesterFrameWriteQueue queue = new TesterFrameWriteQueue();
+        final IOException failure = new IOException();
+        queue.failure = failure;
+
+        final Throwable[] results = new Throwable[8];
+        final CountDownLatch queued = new CountDownLatch(results.length);
+        queue.queued = queued;
+
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        queue.write(frame(id, 0));
+                    } catch (Throwable t) {
+                        results[id] = t;
+                    }
+                }
+            };
+        }
+
+        // Hold the lock until every thread has queued its frame so they are
+        // all waiting when the writes fail
+        synchronized (queue.getLock()) {
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            Assert.assertTrue(queued.await(10, TimeUnit.SECONDS));
+        }
+
+        for (Thread thread : threads) {
+            thread.join(10000);
+            Assert.assertFalse("A writer did not complete", thread.isAlive());
+        }
+
+        for (Throwable result : results) {
+            Assert.assertSame(failure, result);
+        }
+    }
+
+
+    @Test
+    public void testRuntimeExceptionCompletesOtherWaiters() throws Exception {
+        final TesterFrameWriteQueue queue = new TesterFrameWriteQueue();
+        final RuntimeException failure = new IllegalStateException();
+
+        // Queued by another stream that has not yet waited for it
+        final FrameWrite other = queue.add(frame(0, 0));
+
+        // The next write fails so the batch containing the frame of the
+        // other stream is abandoned by the thread that is writing it
+        queue.failure = failure;
+        queue.failOnce = true;
+        try {
+            queue.write(frame(1, 0));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+
+        final Throwable[] result = new Throwable[1];
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.complete(other);
+                } catch (Throwable t) {
+                    result[0] = t;
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(10000);
+        Assert.assertFalse("The other stream was never completed", waiter.isAlive());
+        Assert.assertTrue(result[0] instanceof IOException);
+        Assert.assertSame(failure, result[0].getCause());
+
+        // The queue is still usable
+        queue.write(frame(2, 0));
+        Assert.assertEquals(2, queue.written.size());
+    }
+
+
+    private static ByteBuffer frame(int writer, int sequence) {
+        ByteBuffer frame = ByteBuffer.allocate(8);
+        frame.putInt(writer);
+        frame.putInt(sequence);
+        frame.flip();
+        return frame;
+    }
+
+
+    private static class TesterFrameWriteQueue extends FrameWriteQueue {
+
+        private final Object lock = new Object();
+        private final List<ByteBuffer> written = new ArrayList<>();
+        private final AtomicInteger flushCount = new AtomicInteger();
+        private volatile boolean writtenWithoutLock = false;
+        private volatile Throwable failure = null;
+        private volatile boolean failOnce = false;
+        private volatile CountDownLatch queued = null;
+
+        @Override
+        FrameWrite add(ByteBuffer... frames) {
+            FrameWrite frameWrite = super.add(frames);
+            CountDownLatch queued = this.queued;
+            if (queued != null) {
+                queued.countDown();
+            }
+            return frameWrite;
+        }
+
+        @Override
+        protected Object getLock() {
+            return lock;
+        }
+
+        @Override
+        protected void writeFrame(ByteBuffer frame) throws IOException {
+            if (!Thread.holdsLock(lock)) {
+                writtenWithoutLock = true;
+            }
+            Throwable failure = this.failure;
+            if (failOnce) {
+                this.failure = null;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            written.add(frame);
+        }
+
+        @Override
+        protected void flush() throws IOException {
+            flushCount.incrementAndGet();
+        }
+    }
+}
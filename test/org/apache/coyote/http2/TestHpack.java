@@ -17,10 +17,12 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.MimeHeaders;
 
 public class TestHpack {
@@ -128,6 +130,85 @@ public class TestHpack {
     }
 
 
+    @Test
+    public void testDynamicTableEviction() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders decoded = new MimeHeaders();
+        decoder.setHeaderEmitter(new HeadersListener(decoded));
+        ByteBuffer output = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 500; i++) {
+            if (i == 250) {
+                // Evicts most of the current entries
+                encoder.setMaxTableSize(256);
+            }
+            MimeHeaders headers = new MimeHeaders();
+            headers.addValue("x-first-" + (i % 7)).setString("value-" + (i % 13));
+            headers.addValue("X-Second-" + (i % 5)).setString("value-" + i);
+            headers.addValue("Cache-Control").setString(i % 2 == 0 ? "no-cache" : "max-age=" + (i % 3));
+            output.clear();
+            Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers, output));
+            output.flip();
+            decoded.recycle();
+            decoder.setHeaderEmitter(new HeadersListener(decoded));
+            decoder.decode(output);
+            Assert.assertFalse(output.hasRemaining());
+            Assert.assertEquals(3, decoded.size());
+            Assert.assertEquals("value-" + (i % 13), decoded.getHeader("x-first-" + (i % 7)));
+            Assert.assertEquals("value-" + i, decoded.getHeader("x-second-" + (i % 5)));
+            Assert.assertEquals(headers.getHeader("cache-control"), decoded.getHeader("cache-control"));
+        }
+        Assert.assertTrue(decoder.getCurrentMemorySize() <= 256);
+    }
+
+
+    @Test
+    public void testLiteralValueEmittedAsBytes() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("content-length").setString("1234");
+        headers.setValue("x-custom").setString("abc");
+        ByteBuffer output = ByteBuffer.allocate(512);
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.encode(headers, output);
+        output.flip();
+
+        MimeHeaders headers2 = new MimeHeaders();
+        HpackDecoder decoder = new HpackDecoder();
+        final StringBuilder emittedAsBytes = new StringBuilder();
+        decoder.setHeaderEmitter(new HeadersListener(headers2) {
+            @Override
+            public void emitHeader(String name, byte[] value, int offset, int length)
+                    throws HpackException {
+                emittedAsBytes.append(name);
+                super.emitHeader(name, value, offset, length);
+            }
+        });
+        decoder.decode(output);
+        // content-length is never indexed. x-custom is added to the table.
+        Assert.assertEquals("content-length", emittedAsBytes.toString());
+        Assert.assertEquals("1234", headers2.getHeader("content-length"));
+        Assert.assertEquals("abc", headers2.getHeader("x-custom"));
+    }
+
+
+    @Test
+    public void testWellKnownHeaderNames() {
+        MessageBytes mb = MessageBytes.newInstance();
+        mb.setString("Content-Type");
+        Assert.assertSame(Hpack.STATIC_TABLE[31].name, HpackHeaderNames.lookup(mb));
+        byte[] bytes = "x-Forwarded-FOR".getBytes(StandardCharsets.ISO_8859_1);
+        mb.setBytes(bytes, 0, bytes.length);
+        Assert.assertEquals("x-forwarded-for", HpackHeaderNames.lookup(mb));
+        mb.setString("x-unknown");
+        Assert.assertNull(HpackHeaderNames.lookup(mb));
+
+        // Received names are case sensitive
+        Assert.assertNull(HpackHeaderNames.lookup(bytes, 0, bytes.length));
+        bytes = "xx-forwarded-for".getBytes(StandardCharsets.ISO_8859_1);
+        Assert.assertEquals("x-forwarded-for", HpackHeaderNames.lookup(bytes, 1, bytes.length - 1));
+    }
+
+
     private void doTestHeaderValueBug60451(String filename) throws HpackException {
         String headerName = "Content-Disposition";
         String headerValue = "attachment;filename=\"" + filename + "\"";
@@ -0,0 +1,105 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMappedFileCache {
+
+    private Path path;
+
+    @Before
+    public void createFile() throws IOException {
+        path = File.createTempFile("test", ".bin").toPath();
+        byte[] data = new byte[1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(path, data);
+    }
+
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+
+    @Test
+    public void testSharedMapping() throws Exception {
+        MappedFileCache cache = new MappedFileCache();
+
+        MappedFileCache.Mapping mapping1 = cache.acquire(path, 0, 1024);
+        MappedFileCache.Mapping mapping2 = cache.acquire(path, 100, 200);
+        Assert.assertEquals(1, cache.getSize());
+
+        ByteBuffer buffer1 = mapping1.getBuffer();
+        ByteBuffer buffer2 = mapping2.getBuffer();
+        Assert.assertEquals(0, buffer1.position());
+        Assert.assertEquals(1024, buffer1.remaining());
+        Assert.assertEquals(100, buffer2.position());
+        Assert.assertEquals(100, buffer2.remaining());
+        Assert.assertEquals(100, buffer2.get());
+
+        // Views are independent
+        buffer1.position(512);
+        Assert.assertEquals(101, buffer2.position());
+
+        mapping1.release();
+        Assert.assertEquals(1, cache.getSize());
+        // Repeated release has no effect
+        mapping1.release();
+        Assert.assertEquals(1, cache.getSize());
+        mapping2.release();
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+
+    @Test
+    public void testModifiedFileNotShared() throws Exception {
+        MappedFileCache cache = new MappedFileCache();
+
+        MappedFileCache.Mapping mapping1 = cache.acquire(path, 0, 1024);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(
+                Files.getLastModifiedTime(path).toMillis() - 10000));
+        MappedFileCache.Mapping mapping2 = cache.acquire(path, 0, 1024);
+        Assert.assertEquals(1, cache.getSize());
+
+        // Releasing the mapping of the old version must not remove the new one
+        mapping1.release();
+        Assert.assertEquals(1, cache.getSize());
+        mapping2.release();
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+
+    @Test(expected=IOException.class)
+    public void testInvalidRange() throws Exception {
+        MappedFileCache cache = new MappedFileCache();
+        cache.acquire(path, 0, 2048);
+    }
+}
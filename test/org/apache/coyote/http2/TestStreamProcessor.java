@@ -24,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.management.ObjectName;
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -37,9 +38,11 @@ import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.AbstractProtocol;
 import org.apache.coyote.UpgradeProtocol;
 import org.apache.tomcat.util.compat.JrePlatform;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.modeler.Registry;
 
 public class TestStreamProcessor extends Http2TestBase {
 
@@ -228,6 +231,68 @@ public class TestStreamProcessor extends Http2TestBase {
     }
 
 
+    @Test
+    public void testNonBlockingCompletion() throws Exception {
+        http2Connect();
+
+        http2Protocol.setNonBlockingStreamCompletion(true);
+
+        // Set the default window size to 1024 bytes
+        sendSettings(0, false, new SettingValue(4, 1024));
+        // Wait for the ack
+        parser.readFrame(true);
+        output.clearTrace();
+
+        // Headers + 8k response
+        sendSimpleGetRequest(3);
+
+        // Headers
+        parser.readFrame(true);
+        // First 1k of body
+        parser.readFrame(true);
+        Assert.assertTrue(output.getTrace(), output.getTrace().endsWith("3-Body-1024\n"));
+        output.clearTrace();
+
+        // The servlet has returned so the stream should be waiting for window
+        // without holding a container thread
+        int count = 0;
+        while (http2Protocol.getParkedStreamCount() == 0 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(1, http2Protocol.getParkedStreamCount());
+        Assert.assertEquals(1, http2Protocol.getParkCount());
+
+        // The statistics are also available via JMX
+        AbstractProtocol<?> protocol =
+                (AbstractProtocol<?>) getTomcatInstance().getConnector().getProtocolHandler();
+        ObjectName oname = new ObjectName(
+                protocol.getObjectName().getCanonicalName() + ",Upgrade=h2c");
+        Assert.assertEquals(Integer.valueOf(1), Registry.getRegistry(null, null).getMBeanServer()
+                .getAttribute(oname, "parkedStreamCount"));
+
+        sendWindowUpdate(3, 8 * 1024);
+
+        int total = 0;
+        while (!output.getTrace().endsWith("3-EndOfStream\n")) {
+            parser.readFrame(true);
+        }
+        for (String line : output.getTrace().split("\n")) {
+            if (line.startsWith("3-Body-")) {
+                total += Integer.parseInt(line.substring(7));
+            }
+        }
+        Assert.assertEquals(7 * 1024, total);
+
+        count = 0;
+        while (http2Protocol.getParkedStreamCount() > 0 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(0, http2Protocol.getParkedStreamCount());
+    }
+
+
     @Test
     public void testCompression() throws Exception {
         enableHttp2();
@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAdaptiveStringCache {
+
+    @Test
+    public void testFrequentStringCached() {
+        // Count every call and rebuild after every ten
+        AdaptiveStringCache cache = new AdaptiveStringCache(2, 128, 1, 10);
+        ByteChunk bc = bytes("content-type", StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("content-type", cache.toString(bc));
+        }
+        Assert.assertEquals(1, cache.getRebuildCount());
+        Assert.assertEquals(1, cache.getSize());
+
+        String value = cache.toString(bc);
+        Assert.assertSame(value, cache.toString(bc));
+        Assert.assertSame(value, cache.toString(bytes("content-type", StandardCharsets.ISO_8859_1)));
+        Assert.assertEquals(13, cache.getAccessCount());
+        Assert.assertEquals(3, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testFollowsTraffic() {
+        AdaptiveStringCache cache = new AdaptiveStringCache(2, 128, 1, 10);
+        ByteChunk alpha = bytes("alpha", StandardCharsets.ISO_8859_1);
+        ByteChunk beta = bytes("beta", StandardCharsets.ISO_8859_1);
+        ByteChunk gamma = bytes("gamma", StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < 100; i++) {
+            cache.toString(alpha);
+        }
+        Assert.assertSame(cache.toString(alpha), cache.toString(alpha));
+
+        for (int i = 0; i < 100; i++) {
+            cache.toString(beta);
+            cache.toString(gamma);
+        }
+        Assert.assertSame(cache.toString(beta), cache.toString(beta));
+        Assert.assertSame(cache.toString(gamma), cache.toString(gamma));
+        // Only room for two strings
+        Assert.assertNotSame(cache.toString(alpha), cache.toString(alpha));
+    }
+
+
+    @Test
+    public void testRareStringNotCached() {
+        AdaptiveStringCache cache = new AdaptiveStringCache(2, 128, 1, 10);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("value-" + i,
+                    cache.toString(bytes("value-" + i, StandardCharsets.ISO_8859_1)));
+        }
+        Assert.assertEquals(10, cache.getRebuildCount());
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testCharset() {
+        AdaptiveStringCache cache = new AdaptiveStringCache(2, 128, 1, 10);
+        byte[] eAcute = new byte[] { (byte) 0xC3, (byte) 0xA9 };
+        ByteChunk iso = new ByteChunk();
+        iso.setBytes(eAcute, 0, eAcute.length);
+        iso.setCharset(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("Ã©", cache.toString(iso));
+        }
+        Assert.assertEquals(1, cache.getSize());
+
+        ByteChunk utf8 = new ByteChunk();
+        utf8.setBytes(eAcute, 0, eAcute.length);
+        utf8.setCharset(StandardCharsets.UTF_8);
+        Assert.assertEquals("é", cache.toString(utf8));
+    }
+
+
+    @Test
+    public void testCharChunk() {
+        AdaptiveStringCache cache = new AdaptiveStringCache(2, 128, 1, 10);
+        CharChunk cc = new CharChunk();
+        char[] chars = "xaccept-encodingx".toCharArray();
+        cc.setChars(chars, 1, chars.length - 2);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("accept-encoding", cache.toString(cc));
+        }
+        Assert.assertSame(cache.toString(cc), cache.toString(cc));
+    }
+
+
+    @Test
+    public void testMaxStringSize() {
+        AdaptiveStringCache cache = new AdaptiveStringCache(2, 8, 1, 10);
+        ByteChunk bc = bytes("longer-than-eight", StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("longer-than-eight", cache.toString(bc));
+        }
+        Assert.assertEquals(0, cache.getAccessCount());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+
+    private static ByteChunk bytes(String s, Charset charset) {
+        byte[] b = s.getBytes(charset);
+        ByteChunk bc = new ByteChunk();
+        bc.setBytes(b, 0, b.length);
+        bc.setCharset(charset);
+        return bc;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStripedStack {
+
+    @Test
+    public void testPopEmpty() {
+        StripedStack<Object> stack = new StripedStack<>();
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testPushPop() {
+        StripedStack<Object> stack = new StripedStack<>();
+
+        Object o1 = new Object();
+        Object o2 = new Object();
+
+        Assert.assertTrue(stack.push(o1));
+        Assert.assertTrue(stack.push(o2));
+
+        Set<Object> popped = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        popped.add(stack.pop());
+        popped.add(stack.pop());
+
+        Assert.assertTrue(popped.contains(o1));
+        Assert.assertTrue(popped.contains(o2));
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testLimit() {
+        StripedStack<Object> stack = new StripedStack<>(2, 10);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(stack.push(new Object()));
+        }
+        Assert.assertFalse(stack.push(new Object()));
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNotNull(stack.pop());
+        }
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testNoLimit() {
+        // Objects beyond the size are held in the overflow
+        StripedStack<Object> stack = new StripedStack<>(4, -1);
+
+        Set<Object> pushed = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        for (int i = 0; i < 1000; i++) {
+            Object obj = new Object();
+            pushed.add(obj);
+            Assert.assertTrue(stack.push(obj));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(pushed.remove(stack.pop()));
+        }
+        Assert.assertNull(stack.pop());
+
+        stack.push(new Object());
+        stack.clear();
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testLifoSingleThread() {
+        // A single thread always uses the same stripe first
+        StripedStack<Object> stack = new StripedStack<>();
+
+        Object o1 = new Object();
+        Object o2 = new Object();
+        Object o3 = new Object();
+        stack.push(o1);
+        stack.push(o2);
+        Assert.assertSame(o2, stack.pop());
+        stack.push(o3);
+        Assert.assertSame(o3, stack.pop());
+        Assert.assertSame(o1, stack.pop());
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testZeroLimit() {
+        StripedStack<Object> stack = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE, 0);
+        Assert.assertFalse(stack.push(new Object()));
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testClear() {
+        StripedStack<Object> stack = new StripedStack<>();
+        stack.push(new Object());
+        stack.push(new Object());
+        stack.clear();
+        Assert.assertNull(stack.pop());
+        Assert.assertTrue(stack.push(new Object()));
+    }
+
+    @Test
+    public void testConcurrentNoDuplicates() throws InterruptedException {
+        doTestConcurrentNoDuplicates(new StripedStack<>(16, 16));
+    }
+
+    @Test
+    public void testConcurrentNoDuplicatesNoLimit() throws InterruptedException {
+        doTestConcurrentNoDuplicates(new StripedStack<>(2, -1));
+    }
+
+    private void doTestConcurrentNoDuplicates(final StripedStack<Object> stack)
+            throws InterruptedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Set<Object> inUse = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>()));
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        Object obj = stack.pop();
+                        if (obj == null) {
+                            obj = new Object();
+                        }
+                        if (!inUse.add(obj)) {
+                            // The same object was handed to two threads
+                            failed.set(true);
+                        }
+                        inUse.remove(obj);
+                        stack.push(obj);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertFalse(failed.get());
+    }
+}
@@ -23,19 +23,23 @@ import org.junit.Test;
 
 public class TesterPerformanceSynchronizedStack {
 
-    private static final int THREAD_COUNT = 4;
+    private static final int THREAD_COUNT =
+            Math.max(4, Runtime.getRuntime().availableProcessors());
     private static final int ITERATIONS = 1000000;
 
     private static final SynchronizedStack<Object> STACK =
             new SynchronizedStack<>();
 
+    private static final SynchronizedStack<Object> STRIPED_STACK =
+            new StripedStack<>();
+
     private static final Queue<Object> QUEUE = new ConcurrentLinkedQueue<>();
 
     @Test
     public void testSynchronizedStack() throws InterruptedException {
         Thread[] threads = new Thread[THREAD_COUNT];
         for (int i = 0; i < THREAD_COUNT; i++) {
-            threads[i] = new StackThread();
+            threads[i] = new StackThread(STACK);
         }
 
         long start = System.currentTimeMillis();
@@ -53,16 +57,44 @@ public class TesterPerformanceSynchronizedStack {
         System.out.println("SynchronizedStack: " + (end - start) + "ms");
     }
 
+    @Test
+    public void testStripedStack() throws InterruptedException {
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new StackThread(STRIPED_STACK);
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].start();
+        }
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].join();
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("StripedStack: " + (end - start) + "ms");
+    }
+
     public static class StackThread extends Thread {
 
+        private final SynchronizedStack<Object> stack;
+
+        public StackThread(SynchronizedStack<Object> stack) {
+            this.stack = stack;
+        }
+
         @Override
         public void run() {
             for(int i = 0; i < ITERATIONS; i++) {
-                Object obj = STACK.pop();
+                Object obj = stack.pop();
                 if (obj == null) {
                     obj = new Object();
                 }
-                STACK.push(obj);
+                stack.push(obj);
             }
             super.run();
         }
@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.SimpleHttpClient;
+import org.apache.catalina.startup.TesterServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+
+/**
+ * Test cases for {@link NioEndpoint} with more than one poller thread.
+ */
+public class TestNioEndpointPollers extends TomcatBaseTest {
+
+    private static final int POLLER_COUNT = 4;
+
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        doTestMultiplePollers(NioEndpoint.POLLER_ASSIGNMENT_ROUND_ROBIN);
+    }
+
+
+    @Test
+    public void testLeastLoaded() throws Exception {
+        doTestMultiplePollers(NioEndpoint.POLLER_ASSIGNMENT_LEAST_LOADED);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAssignment() {
+        new NioEndpoint().setPollerAssignment("random");
+    }
+
+
+    private void doTestMultiplePollers(String assignment) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue(connector.getProtocolHandler() instanceof Http11NioProtocol);
+
+        Assert.assertTrue(connector.setProperty("pollerThreadCount", Integer.toString(POLLER_COUNT)));
+        Assert.assertTrue(connector.setProperty("pollerAssignment", assignment));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "tester", new TesterServlet());
+        root.addServletMappingDecoded("/", "tester");
+
+        tomcat.start();
+
+        Http11NioProtocol protocol = (Http11NioProtocol) connector.getProtocolHandler();
+        Assert.assertEquals(POLLER_COUNT, protocol.getPollerRegisteredKeyCounts().length);
+        Assert.assertEquals(assignment, protocol.getPollerAssignment());
+
+        // Keep the connections open so they stay registered with their pollers
+        List<KeepAliveClient> clients = new ArrayList<>();
+        for (int i = 0; i < POLLER_COUNT * 2; i++) {
+            KeepAliveClient client = new KeepAliveClient();
+            client.setPort(getPort());
+            client.connect();
+            client.processRequest(false);
+            Assert.assertTrue(client.getResponseLine(), client.isResponse200());
+            clients.add(client);
+        }
+
+        // The socket is registered for the next request once the response has
+        // been written so allow a little time for that
+        int[] counts = protocol.getPollerRegisteredKeyCounts();
+        int count = 0;
+        while (sum(counts) < clients.size() && count < 50) {
+            Thread.sleep(100);
+            counts = protocol.getPollerRegisteredKeyCounts();
+            count++;
+        }
+        Assert.assertEquals(clients.size(), sum(counts));
+
+        int used = 0;
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int keys : counts) {
+            if (keys > 0) {
+                used++;
+            }
+            min = Math.min(min, keys);
+            max = Math.max(max, keys);
+        }
+        Assert.assertTrue(used > 1);
+        if (NioEndpoint.POLLER_ASSIGNMENT_LEAST_LOADED.equals(assignment)) {
+            // Each new connection goes to the poller with the fewest
+            Assert.assertTrue(max - min <= 1);
+        }
+
+        for (KeepAliveClient client : clients) {
+            client.disconnect();
+        }
+
+        tomcat.stop();
+        Assert.assertEquals(0, protocol.getPollerRegisteredKeyCounts().length);
+    }
+
+
+    private static int sum(int[] counts) {
+        int result = 0;
+        for (int count : counts) {
+            result += count;
+        }
+        return result;
+    }
+
+
+    private static class KeepAliveClient extends SimpleHttpClient {
+
+        KeepAliveClient() {
+            setRequest(new String[] {
+                    "GET / HTTP/1.1" + CRLF +
+                    "Host: localhost" + CRLF +
+                    CRLF });
+        }
+
+        @Override
+        public boolean isResponseBodyOK() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketBounds() {
+        long previous = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long upper = LatencyHistogram.getUpperBound(i);
+            Assert.assertTrue(upper > previous);
+            // The last value in each bucket maps back to the bucket
+            Assert.assertEquals(i, LatencyHistogram.getBucket(upper - 1));
+            if (i < LatencyHistogram.BUCKET_COUNT - 1) {
+                Assert.assertEquals(i + 1, LatencyHistogram.getBucket(upper));
+            }
+            previous = upper;
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        Assert.assertEquals(0, LatencyHistogram.getBucket(-1));
+    }
+
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+
+        assertWithinPrecision(500000, histogram.getPercentile(50));
+        assertWithinPrecision(990000, histogram.getPercentile(99));
+        assertWithinPrecision(1000000, histogram.getPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+    }
+
+
+    @Test
+    public void testRecordValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(64 * 1024);
+        }
+        histogram.record(1024 * 1024);
+        Assert.assertEquals(101, histogram.getCount());
+        assertWithinPrecision(64 * 1024, histogram.getPercentile(50));
+        assertWithinPrecision(1024 * 1024, histogram.getPercentile(100));
+    }
+
+
+    @Test
+    public void testIntervalPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(1, TimeUnit.SECONDS);
+        }
+        long[] start = histogram.getCounts();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(1, TimeUnit.MILLISECONDS);
+        }
+        long[] end = histogram.getCounts();
+        long[] delta = new long[end.length];
+        for (int i = 0; i < end.length; i++) {
+            delta[i] = end[i] - start[i];
+        }
+        assertWithinPrecision(1000, LatencyHistogram.getPercentile(delta, 99));
+    }
+
+
+    @Test
+    public void testExecutorLatencyTracking() throws Exception {
+        TaskQueue queue = new TaskQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                queue, new TaskThreadFactory("test-", true, Thread.NORM_PRIORITY));
+        queue.setParent(executor);
+        executor.setLatencyTracking(true);
+        try {
+            CountDownLatch latch = new CountDownLatch(5);
+            for (int i = 0; i < 5; i++) {
+                executor.execute(new Sleep(latch));
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            Assert.assertEquals(5, executor.getQueueWaitHistogram().getCount());
+            Assert.assertEquals(5, executor.getServiceTimeHistogram().getCount());
+            // With a single thread the last task waits for the other four
+            Assert.assertTrue(executor.getQueueWaitHistogram().getPercentile(100) >= 80000);
+            Assert.assertTrue(executor.getServiceTimeHistogram().getPercentile(50) >= 20000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testAdaptiveSizingLimit() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 20, 60, TimeUnit.SECONDS,
+                new TaskQueue());
+        try {
+            executor.setAdaptiveSizing(true);
+            Assert.assertTrue(executor.getLatencyTracking());
+            Assert.assertEquals(20, executor.getMaximumPoolSizeLimit());
+            // Adaptive sizing starts from the core pool size
+            Assert.assertEquals(2, executor.getMaximumPoolSize());
+            executor.setMaximumPoolSize(10);
+            Assert.assertEquals(10, executor.getMaximumPoolSizeLimit());
+            Assert.assertEquals(10, executor.getMaximumPoolSize());
+            executor.setAdaptiveSizing(false);
+            Assert.assertEquals(10, executor.getMaximumPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        Assert.assertTrue("Expected [" + expected + "] but was [" + actual + "]",
+                actual >= expected && actual <= expected + expected / 8 + 1);
+    }
+
+
+    private static class Sleep implements Runnable {
+
+        private final CountDownLatch latch;
+
+        public Sleep(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            latch.countDown();
+        }
+    }
+}
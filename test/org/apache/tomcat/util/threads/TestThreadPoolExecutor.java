@@ -0,0 +1,204 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestThreadPoolExecutor {
+
+    private ThreadPoolExecutor executor;
+
+
+    @After
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testAdaptiveStartsAtCore() {
+        createAdaptiveExecutor(2, 20);
+
+        Assert.assertEquals(2, executor.getMaximumPoolSize());
+        Assert.assertEquals(20, executor.getMaximumPoolSizeLimit());
+
+        executor.setAdaptiveSizing(false);
+        Assert.assertEquals(20, executor.getMaximumPoolSize());
+    }
+
+
+    @Test
+    public void testAdaptiveGrowAndShrink() {
+        createAdaptiveExecutor(2, 20);
+
+        // Queue wait above the target grows the pool up to the limit
+        int previous = executor.getMaximumPoolSize();
+        while (previous < 20) {
+            record(50, 1);
+            executor.adjustPoolSize();
+            int current = executor.getMaximumPoolSize();
+            Assert.assertTrue(current > previous);
+            previous = current;
+        }
+        Assert.assertEquals(20, previous);
+        record(50, 1);
+        executor.adjustPoolSize();
+        Assert.assertEquals(20, executor.getMaximumPoolSize());
+
+        // Queue wait below the target shrinks the pool down to the core size
+        while (previous > 2) {
+            record(0, 1);
+            executor.adjustPoolSize();
+            int current = executor.getMaximumPoolSize();
+            Assert.assertTrue(current < previous);
+            previous = current;
+        }
+        Assert.assertEquals(2, previous);
+        record(0, 1);
+        executor.adjustPoolSize();
+        Assert.assertEquals(2, executor.getMaximumPoolSize());
+        Assert.assertEquals(2, executor.getCorePoolSize());
+    }
+
+
+    @Test
+    public void testAdaptiveBacksOffWhenServiceTimeRises() {
+        createAdaptiveExecutor(1, 20);
+
+        while (executor.getMaximumPoolSize() < 10) {
+            record(50, 1);
+            executor.adjustPoolSize();
+        }
+        int size = executor.getMaximumPoolSize();
+
+        // Tasks still wait but now take much longer to execute
+        record(50, 5);
+        executor.adjustPoolSize();
+        Assert.assertTrue(executor.getMaximumPoolSize() < size);
+    }
+
+
+    @Test
+    public void testAdaptiveIgnoresTooFewSamples() {
+        createAdaptiveExecutor(2, 20);
+
+        for (int i = 0; i < 5; i++) {
+            executor.getQueueWaitHistogram().record(50, TimeUnit.MILLISECONDS);
+            executor.getServiceTimeHistogram().record(1, TimeUnit.MILLISECONDS);
+        }
+        executor.adjustPoolSize();
+        Assert.assertEquals(2, executor.getMaximumPoolSize());
+    }
+
+
+    @Test
+    public void testAdaptiveGrowWithQueuedTasks() throws Exception {
+        createAdaptiveExecutor(1, 8);
+        Assert.assertEquals(1, executor.getMaximumPoolSize());
+
+        // Block the only thread so the other tasks queue behind it
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(31);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < 30; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        Thread.sleep(100);
+        blocked.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        executor.adjustPoolSize();
+        Assert.assertTrue(executor.getMaximumPoolSize() > 1);
+        Assert.assertTrue(executor.getQueueWaitHistogram().getPercentile(99) >=
+                TimeUnit.MILLISECONDS.toMicros(executor.getAdaptiveQueueWaitTarget()));
+    }
+
+
+    @Test
+    public void testCorePoolSizeAboveAdaptiveMaximum() {
+        createAdaptiveExecutor(2, 20);
+        Assert.assertEquals(2, executor.getMaximumPoolSize());
+
+        // Would throw IllegalArgumentException on Java 9 onwards if the
+        // current maximum was not raised
+        executor.setCorePoolSize(10);
+        Assert.assertEquals(10, executor.getCorePoolSize());
+        Assert.assertEquals(10, executor.getMaximumPoolSize());
+
+        // Shrinking never goes below the core pool size
+        record(0, 1);
+        executor.adjustPoolSize();
+        Assert.assertEquals(10, executor.getMaximumPoolSize());
+
+        // Reducing the core pool size leaves the current maximum alone
+        executor.setCorePoolSize(5);
+        Assert.assertEquals(5, executor.getCorePoolSize());
+        Assert.assertEquals(10, executor.getMaximumPoolSize());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCorePoolSizeAboveLimit() {
+        createAdaptiveExecutor(2, 20);
+        executor.setCorePoolSize(21);
+    }
+
+
+    private void createAdaptiveExecutor(int core, int limit) {
+        TaskQueue taskQueue = new TaskQueue();
+        executor = new ThreadPoolExecutor(core, limit, 60, TimeUnit.SECONDS, taskQueue,
+                new TaskThreadFactory("test-exec-", true, Thread.NORM_PRIORITY));
+        taskQueue.setParent(executor);
+        // The tests call adjustPoolSize() directly
+        executor.setAdaptiveInterval(TimeUnit.HOURS.toMillis(1));
+        executor.setAdaptiveQueueWaitTarget(10);
+        executor.setAdaptiveSizing(true);
+    }
+
+
+    /*
+     * Record enough tasks for the adaptive sizing to act on.
+     */
+    private void record(long queueWaitMillis, long serviceTimeMillis) {
+        for (int i = 0; i < 100; i++) {
+            executor.getQueueWaitHistogram().record(queueWaitMillis, TimeUnit.MILLISECONDS);
+            executor.getServiceTimeHistogram().record(serviceTimeMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimeoutWheel {
+
+    @Test
+    public void testExpiry() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        TimeoutWheel.Timeout timeout = wheel.schedule(new CountDown(latch), 50, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Expired after " + elapsed + "ms", elapsed >= 50);
+        Assert.assertTrue(timeout.isExpired());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertEquals(0, wheel.getPendingCount());
+    }
+
+
+    @Test
+    public void testCancel() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 8);
+        AtomicInteger count = new AtomicInteger();
+
+        TimeoutWheel.Timeout timeout = wheel.schedule(new Increment(count), 50, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, wheel.getPendingCount());
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertTrue(timeout.isCancelled());
+        Assert.assertEquals(0, wheel.getPendingCount());
+
+        Thread.sleep(200);
+        Assert.assertEquals(0, count.get());
+    }
+
+
+    @Test
+    public void testDelayLongerThanOneTurn() throws Exception {
+        // One turn of the wheel is 80ms
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        wheel.schedule(new CountDown(latch), 250, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Expired after " + elapsed + "ms", elapsed >= 250);
+    }
+
+
+    @Test
+    public void testManyTimeouts() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 8);
+        int total = 10000;
+        CountDownLatch latch = new CountDownLatch(total / 2);
+        AtomicInteger count = new AtomicInteger();
+
+        for (int i = 0; i < total; i++) {
+            if (i % 2 == 0) {
+                wheel.schedule(new CountDown(latch), i % 100, TimeUnit.MILLISECONDS);
+            } else {
+                wheel.schedule(new Increment(count), i % 100, TimeUnit.MILLISECONDS).cancel();
+            }
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, count.get());
+        Assert.assertEquals(0, wheel.getPendingCount());
+    }
+
+
+    @Test
+    public void testRestartAfterIdle() throws Exception {
+        // The worker stops after one idle turn of 20ms
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 2);
+        CountDownLatch latch1 = new CountDownLatch(1);
+        wheel.schedule(new CountDown(latch1), 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch1.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(200);
+
+        CountDownLatch latch2 = new CountDownLatch(1);
+        wheel.schedule(new CountDown(latch2), 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch2.await(5, TimeUnit.SECONDS));
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidTick() {
+        new TimeoutWheel("test", 0, 8);
+    }
+
+
+    private static class CountDown implements Runnable {
+
+        private final CountDownLatch latch;
+
+        public CountDown(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+
+
+    private static class Increment implements Runnable {
+
+        private final AtomicInteger count;
+
+        public Increment(AtomicInteger count) {
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestVirtualThreadExecutor {
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNotSupported() {
+        Assume.assumeFalse(JreCompat.isJre21Available());
+        new VirtualThreadExecutor("test-");
+    }
+
+
+    @Test
+    public void testCounts() throws Exception {
+        Assume.assumeTrue(JreCompat.isJre21Available());
+
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        Runnable task = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        };
+
+        executor.execute(task);
+        executor.execute(task);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, executor.getActiveCount());
+        Assert.assertEquals(0, executor.getCompletedTaskCount());
+
+        executor.shutdown();
+        Assert.assertFalse(executor.isTerminated());
+        release.countDown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.getActiveCount());
+        Assert.assertEquals(2, executor.getCompletedTaskCount());
+    }
+
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        Assume.assumeTrue(JreCompat.isJre21Available());
+
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-");
+        executor.execute(() -> {});
+        List<Runnable> notRun = executor.shutdownNow();
+        Assert.assertNotNull(notRun);
+        Assert.assertTrue(notRun.isEmpty());
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectAfterShutdown() {
+        Assume.assumeTrue(JreCompat.isJre21Available());
+
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-");
+        executor.shutdown();
+        executor.execute(() -> {});
+    }
+}
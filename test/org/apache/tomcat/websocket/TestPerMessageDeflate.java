@@ -26,6 +26,7 @@ import java.util.List;
 import javax.websocket.Extension;
 import javax.websocket.Extension.Parameter;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class TestPerMessageDeflate {
@@ -60,6 +61,42 @@ public class TestPerMessageDeflate {
     }
 
 
+    @Test
+    public void testNoContextTakeoverUsesPool() throws IOException {
+
+        List<Parameter> parameters = new ArrayList<>();
+        parameters.add(new WsExtensionParameter("server_no_context_takeover", null));
+        parameters.add(new WsExtensionParameter("client_no_context_takeover", null));
+        List<List<Parameter>> preferences = new ArrayList<>();
+        preferences.add(parameters);
+
+        PerMessageDeflatePool pool = PerMessageDeflatePool.getInstance();
+        int dedicatedDeflaters = pool.getDedicatedDeflaterCount();
+        long borrowCount = pool.getBorrowCount();
+
+        PerMessageDeflate perMessageDeflate = PerMessageDeflate.negotiate(preferences, true);
+        perMessageDeflate.setNext(new TesterTransformation());
+
+        // No context is held between messages
+        Assert.assertEquals(dedicatedDeflaters, pool.getDedicatedDeflaterCount());
+
+        ByteBuffer bb = ByteBuffer.wrap("Hello Hello Hello".getBytes(StandardCharsets.UTF_8));
+        MessagePart mp = new MessagePart(true, 0, Constants.OPCODE_TEXT, bb, null, null, -1);
+
+        List<MessagePart> uncompressedParts = new ArrayList<>();
+        uncompressedParts.add(mp);
+        List<MessagePart> compressedParts = perMessageDeflate.sendMessagePart(uncompressedParts);
+
+        Assert.assertEquals(1, compressedParts.size());
+        Assert.assertEquals(4, compressedParts.get(0).getRsv());
+        Assert.assertEquals(borrowCount + 1, pool.getBorrowCount());
+        // Returned at the end of the message
+        Assert.assertEquals(0, pool.getActiveDeflaterCount());
+
+        perMessageDeflate.close();
+    }
+
+
     /*
      * Minimal implementation to enable other transformations to be tested.
      */
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Inflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPreparedMessage {
+
+    @Test
+    public void testSmallTextFrame() {
+        PreparedMessage message = new PreparedMessage("Hello");
+        ByteBuffer frame = message.getFrame(false);
+
+        Assert.assertTrue(frame.isReadOnly());
+        Assert.assertEquals(7, frame.remaining());
+        Assert.assertEquals(0x81, frame.get() & 0xFF);
+        Assert.assertEquals(5, frame.get());
+        byte[] payload = new byte[5];
+        frame.get(payload);
+        Assert.assertEquals("Hello", new String(payload, StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void testMediumBinaryFrame() {
+        PreparedMessage message = new PreparedMessage(ByteBuffer.allocate(1000));
+        ByteBuffer frame = message.getFrame(false);
+
+        Assert.assertEquals(1004, frame.remaining());
+        Assert.assertEquals(0x82, frame.get() & 0xFF);
+        Assert.assertEquals(126, frame.get());
+        Assert.assertEquals(1000, frame.getShort());
+    }
+
+
+    @Test
+    public void testLargeBinaryFrame() {
+        PreparedMessage message = new PreparedMessage(ByteBuffer.allocate(70000));
+        ByteBuffer frame = message.getFrame(false);
+
+        Assert.assertEquals(70010, frame.remaining());
+        Assert.assertEquals(0x82, frame.get() & 0xFF);
+        Assert.assertEquals(127, frame.get());
+        Assert.assertEquals(70000, frame.getLong());
+    }
+
+
+    @Test
+    public void testFramesAreIndependentViews() {
+        PreparedMessage message = new PreparedMessage("Hello");
+        ByteBuffer frame1 = message.getFrame(false);
+        ByteBuffer frame2 = message.getFrame(false);
+
+        frame1.position(frame1.limit());
+        Assert.assertEquals(7, frame2.remaining());
+    }
+
+
+    @Test
+    public void testCompressedFrame() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("message ");
+            sb.append(i % 10);
+        }
+        String text = sb.toString();
+        PreparedMessage message = new PreparedMessage(text);
+        ByteBuffer frame = message.getFrame(true);
+
+        // Fin, RSV1 and text
+        Assert.assertEquals(0xC1, frame.get() & 0xFF);
+        int length = frame.get();
+        if (length == 126) {
+            length = frame.getShort() & 0xFFFF;
+        } else if (length == 127) {
+            length = (int) frame.getLong();
+        }
+        Assert.assertEquals(frame.remaining(), length);
+        Assert.assertTrue(length < text.length());
+
+        // Restore the EOM bytes removed before sending
+        byte[] compressed = new byte[length + 4];
+        frame.get(compressed, 0, length);
+        compressed[length + 2] = (byte) 0xFF;
+        compressed[length + 3] = (byte) 0xFF;
+
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed);
+        byte[] uncompressed = new byte[text.length() + 1];
+        int read = inflater.inflate(uncompressed);
+        inflater.end();
+
+        Assert.assertEquals(text, new String(uncompressed, 0, read, StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void testEmptyMessageNotCompressed() {
+        PreparedMessage message = new PreparedMessage("");
+        ByteBuffer frame = message.getFrame(true);
+
+        Assert.assertEquals(2, frame.remaining());
+        Assert.assertEquals(0x81, frame.get() & 0xFF);
+        Assert.assertEquals(0, frame.get());
+    }
+}
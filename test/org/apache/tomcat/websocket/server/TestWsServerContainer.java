@@ -16,11 +16,14 @@
  */
 package org.apache.tomcat.websocket.server;
 
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.websocket.ContainerProvider;
 import javax.websocket.DeploymentException;
 import javax.websocket.Session;
@@ -96,6 +99,31 @@ public class TestWsServerContainer extends WebSocketBaseTest {
     }
 
 
+    @Test
+    public void testPerMessageDeflatePoolRegistration() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx1 = tomcat.addContext("/a", null);
+        ctx1.addApplicationListener(Bug54807Config.class.getName());
+        Context ctx2 = tomcat.addContext("/b", null);
+        ctx2.addApplicationListener(Bug54807Config.class.getName());
+
+        tomcat.start();
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName oname = new ObjectName(
+                tomcat.getEngine().getName() + ":type=PerMessageDeflatePool");
+        Assert.assertTrue(mbeanServer.isRegistered(oname));
+        Assert.assertEquals(Integer.valueOf(0), mbeanServer.getAttribute(oname, "activeDeflaterCount"));
+
+        // Still in use by the other web application
+        ctx1.stop();
+        Assert.assertTrue(mbeanServer.isRegistered(oname));
+
+        ctx2.stop();
+        Assert.assertFalse(mbeanServer.isRegistered(oname));
+    }
+
+
     public static class Bug54807Config extends TesterEndpointConfig {
 
         @Override